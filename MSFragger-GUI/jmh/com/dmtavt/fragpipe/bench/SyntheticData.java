@@ -0,0 +1,247 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates input files for the benchmarks. Everything is derived from a fixed seed, so the
+ * same sizes always produce the same files.
+ */
+public class SyntheticData {
+
+  private static final String AA = "ACDEFGHIKLMNPQRSTVWY";
+  private final Random rnd;
+
+  public SyntheticData(long seed) {
+    this.rnd = new Random(seed);
+  }
+
+  private String peptide(int minLen, int maxLen) {
+    final int len = minLen + rnd.nextInt(maxLen - minLen + 1);
+    final StringBuilder sb = new StringBuilder(len);
+    for (int i = 0; i < len - 1; i++) {
+      sb.append(AA.charAt(rnd.nextInt(AA.length())));
+    }
+    return sb.append(rnd.nextBoolean() ? 'K' : 'R').toString();
+  }
+
+  /**
+   * MSFragger DDA output for one run: {@code <basename>.pepXML}, {@code <basename>.pin} and
+   * the Percolator target and decoy PSM tables.
+   *
+   * @param basename Path without extension, the file name is used as the run name.
+   */
+  public void percolatorInputs(Path basename, int numSpectra, int topN) throws IOException {
+    final String run = basename.getFileName().toString();
+    try (BufferedWriter pepxml = Files.newBufferedWriter(basename.resolveSibling(run + ".pepXML"), StandardCharsets.UTF_8);
+        BufferedWriter pin = Files.newBufferedWriter(basename.resolveSibling(run + ".pin"), StandardCharsets.UTF_8);
+        BufferedWriter targets = Files.newBufferedWriter(basename.resolveSibling(run + "_percolator_target_psms.tsv"), StandardCharsets.UTF_8);
+        BufferedWriter decoys = Files.newBufferedWriter(basename.resolveSibling(run + "_percolator_decoy_psms.tsv"), StandardCharsets.UTF_8)) {
+      pepxml.write(pepxmlHeader(basename.toString(), "mzML", topN));
+      pin.write("SpecId\tLabel\tScanNr\tExpMass\trank\tntt\tnmc\tunweighted_spectral_entropy\tdelta_RT_loess\tPeptide\tProteins\n");
+      final String psmsHeader = "PSMId\tscore\tq-value\tposterior_error_prob\tpeptide\tproteinIds\n";
+      targets.write(psmsHeader);
+      decoys.write(psmsHeader);
+      for (int i = 0; i < numSpectra; i++) {
+        final int scan = 2 * i + 1;
+        final int charge = 2 + rnd.nextInt(3);
+        final String spectrum = String.format(Locale.ROOT, "%s.%d.%d.%d", run, scan, scan, charge);
+        final double precursorMass = 800 + rnd.nextDouble() * 3000;
+        pepxml.write(String.format(Locale.ROOT,
+            "<spectrum_query spectrum=\"%s\" start_scan=\"%d\" end_scan=\"%d\" precursor_neutral_mass=\"%.4f\" assumed_charge=\"%d\" index=\"%d\" retention_time_sec=\"%.3f\">\n<search_result>\n",
+            spectrum, scan, scan, precursorMass, charge, i + 1, i * 0.5));
+        for (int rank = 1; rank <= topN; rank++) {
+          final String pep = peptide(7, 25);
+          final boolean decoy = rnd.nextInt(10) == 0;
+          final String protein = (decoy ? "rev_" : "") + "sp|P" + (10000 + rnd.nextInt(90000)) + "|PROT_HUMAN";
+          final double massdiff = rnd.nextInt(4) == 0 ? 1.0033548378 : (rnd.nextDouble() - 0.5) * 0.01;
+          pepxml.write(String.format(Locale.ROOT,
+              "<search_hit peptide=\"%s\" massdiff=\"%.4f\" calc_neutral_pep_mass=\"%.4f\" peptide_next_aa=\"A\" num_missed_cleavages=\"0\" num_tol_term=\"2\" num_tot_proteins=\"1\" tot_num_ions=\"%d\" hit_rank=\"%d\" num_matched_ions=\"%d\" protein=\"%s\" peptide_prev_aa=\"K\" is_rejected=\"0\">\n"
+                  + "<search_score name=\"hyperscore\" value=\"%.3f\"/>\n"
+                  + "<search_score name=\"expect\" value=\"%.3e\"/>\n"
+                  + "</search_hit>\n",
+              pep, massdiff, precursorMass - massdiff, pep.length() * 2, rank, rnd.nextInt(pep.length() * 2), protein,
+              10 + rnd.nextDouble() * 30, rnd.nextDouble() * 1e-3));
+          final String psmId = spectrum + "_" + rank;
+          pin.write(String.format(Locale.ROOT, "%s\t%d\t%d\t%.4f\t%d\t2\t%d\t%.4f\t%.4f\t-.%s.-\t%s\n",
+              psmId, decoy ? -1 : 1, scan, precursorMass, rank, rnd.nextInt(2), rnd.nextDouble(), rnd.nextGaussian() * 2, pep, protein));
+          final double pepProb = rnd.nextDouble() < 0.7 ? rnd.nextDouble() * 0.05 : rnd.nextDouble();
+          (decoy ? decoys : targets).write(String.format(Locale.ROOT, "%s\t%.5f\t%.5f\t%.5e\t-.%s.-\t%s\n",
+              psmId, rnd.nextGaussian() * 2, rnd.nextDouble() * 0.1, pepProb, pep, protein));
+        }
+        pepxml.write("</search_result>\n</spectrum_query>\n");
+      }
+      pepxml.write("</msms_run_summary>\n</msms_pipeline_analysis>\n");
+    }
+  }
+
+  private static String pepxmlHeader(String baseName, String rawData, int topN) {
+    return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<msms_pipeline_analysis date=\"2022-01-01T00:00:00\" xmlns=\"http://regis-web.systemsbiology.net/pepXML\" summary_xml=\"" + baseName + ".pepXML\">\n"
+        + "<msms_run_summary base_name=\"" + baseName + "\" raw_data_type=\"" + rawData + "\" raw_data=\"" + rawData + "\">\n"
+        + "<sample_enzyme name=\"stricttrypsin\">\n<specificity cut=\"KR\" sense=\"C\"/>\n</sample_enzyme>\n"
+        + "<search_summary base_name=\"" + baseName + "\" precursor_mass_type=\"monoisotopic\" search_engine=\"X! Tandem\" search_engine_version=\"MSFragger-3.5\" fragment_mass_type=\"monoisotopic\" search_id=\"1\">\n"
+        + "<search_database local_path=\"/db/protein.fas\" type=\"AA\"/>\n"
+        + "<parameter name=\"output_report_topN\" value=\"" + topN + "\"/>\n"
+        + "<parameter name=\"write_calibrated_mzml\" value=\"0\"/>\n"
+        + "</search_summary>\n";
+  }
+
+  /**
+   * MSFragger pepXML with several msms_run_summary elements, as written for a batch of LCMS
+   * files, the run names are {@code run_<i>}.
+   */
+  public void pepxml(Path path, String dir, int numRuns, int spectraPerRun) throws IOException {
+    try (BufferedWriter w = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+      w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+          + "<msms_pipeline_analysis date=\"2022-01-01T00:00:00\" summary_xml=\"" + path + "\">\n");
+      for (int r = 0; r < numRuns; r++) {
+        final String run = "run_" + r;
+        w.write("<msms_run_summary base_name=\"" + dir + "/" + run + "\" raw_data_type=\"mzML\" raw_data=\"mzML\">\n");
+        w.write("<search_summary base_name=\"" + dir + "/" + run + "\" search_engine=\"X! Tandem\">\n"
+            + "<parameter name=\"write_calibrated_mzml\" value=\"0\"/>\n</search_summary>\n");
+        for (int i = 0; i < spectraPerRun; i++) {
+          final String pep = peptide(7, 25);
+          w.write(String.format(Locale.ROOT,
+              "<spectrum_query spectrum=\"%s.%d.%d.2\" start_scan=\"%d\" end_scan=\"%d\" index=\"%d\">\n<search_result>\n"
+                  + "<search_hit peptide=\"%s\" massdiff=\"0.0012\" hit_rank=\"1\" protein=\"sp|P12345|PROT_HUMAN\">\n"
+                  + "<search_score name=\"expect\" value=\"1.0e-5\"/>\n</search_hit>\n</search_result>\n</spectrum_query>\n",
+              run, i, i, i, i, i + 1, pep));
+        }
+        w.write("</msms_run_summary>\n");
+      }
+      w.write("</msms_pipeline_analysis>\n");
+    }
+  }
+
+  /** Fasta with UniProt style headers and the given share of decoys. */
+  public void fasta(Path path, int numProteins, String decoyTag, double decoyFraction) throws IOException {
+    try (BufferedWriter w = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+      for (int i = 0; i < numProteins; i++) {
+        final String acc = String.format(Locale.ROOT, "%s%05d", rnd.nextBoolean() ? "P" : "Q", rnd.nextInt(100000));
+        final String prefix = rnd.nextDouble() < decoyFraction ? decoyTag : "";
+        w.write(String.format(Locale.ROOT, ">%s%s|%s|PROT%d_HUMAN Protein %d OS=Homo sapiens OX=9606 GN=GENE%d PE=1 SV=1\n",
+            prefix, rnd.nextBoolean() ? "sp" : "tr", acc, i, i, i));
+        final String seq = peptide(100, 600);
+        for (int j = 0; j < seq.length(); j += 60) {
+          w.write(seq, j, Math.min(60, seq.length() - j));
+          w.write('\n');
+        }
+      }
+    }
+  }
+
+  /**
+   * mzML with MS1 scans each followed by HCD/ETD pairs of MS2 scans on the same precursor, the
+   * layout {@code PairScans} looks for.
+   */
+  public void pairedScansMzml(Path path, int numCycles, int pairsPerCycle, int peaksPerScan) throws IOException {
+    try (BufferedWriter w = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+      final int numScans = numCycles * (1 + 2 * pairsPerCycle);
+      w.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+          + "<mzML xmlns=\"http://psi.hupo.org/ms/mzml\" version=\"1.1.0\">\n"
+          + "<cvList count=\"1\"><cv id=\"MS\" fullName=\"PSI-MS\" URI=\"https://raw.githubusercontent.com/HUPO-PSI/psi-ms-CV/master/psi-ms.obo\"/></cvList>\n"
+          + "<run id=\"synthetic\">\n"
+          + "<spectrumList count=\"" + numScans + "\" defaultDataProcessingRef=\"pwiz\">\n");
+      int scan = 0;
+      for (int c = 0; c < numCycles; c++) {
+        spectrum(w, ++scan, 1, null, null, peaksPerScan);
+        final List<Double> precursors = new ArrayList<>();
+        for (int p = 0; p < pairsPerCycle; p++) {
+          precursors.add(400 + rnd.nextInt(120000) / 100.0);
+        }
+        for (double mz : precursors) {
+          spectrum(w, ++scan, 2, mz, "hcd", peaksPerScan);
+          spectrum(w, ++scan, 2, mz, "etd", peaksPerScan);
+        }
+      }
+      w.write("</spectrumList>\n</run>\n</mzML>\n");
+    }
+  }
+
+  private void spectrum(BufferedWriter w, int scan, int msLevel, Double precursorMz, String activation, int numPeaks) throws IOException {
+    final double[] mzs = new double[numPeaks];
+    final double[] intensities = new double[numPeaks];
+    double mz = 100;
+    for (int i = 0; i < numPeaks; i++) {
+      mz += 0.5 + rnd.nextDouble() * 10;
+      mzs[i] = mz;
+      intensities[i] = 1000 + rnd.nextDouble() * 1e6;
+    }
+    final String filter = msLevel == 1
+        ? "FTMS + p NSI Full ms [350.0000-1800.0000]"
+        : String.format(Locale.ROOT, "ITMS + c NSI d Full ms2 %.4f@%s30.00 [120.0000-2000.0000]", precursorMz, activation);
+    w.write(String.format(Locale.ROOT, "<spectrum index=\"%d\" id=\"controllerType=0 controllerNumber=1 scan=%d\" defaultArrayLength=\"%d\">\n", scan - 1, scan, numPeaks));
+    w.write(String.format(Locale.ROOT, "<cvParam cvRef=\"MS\" accession=\"MS:1000511\" name=\"ms level\" value=\"%d\"/>\n", msLevel));
+    w.write("<cvParam cvRef=\"MS\" accession=\"MS:1000127\" name=\"centroid spectrum\" value=\"\"/>\n");
+    w.write("<scanList count=\"1\">\n<scan>\n");
+    w.write(String.format(Locale.ROOT, "<cvParam cvRef=\"MS\" accession=\"MS:1000016\" name=\"scan start time\" value=\"%.5f\" unitCvRef=\"UO\" unitAccession=\"UO:0000031\" unitName=\"minute\"/>\n", scan * 0.001));
+    w.write("<cvParam cvRef=\"MS\" accession=\"MS:1000512\" name=\"filter string\" value=\"" + filter + "\"/>\n");
+    w.write("</scan>\n</scanList>\n");
+    if (precursorMz != null) {
+      w.write("<precursorList count=\"1\">\n<precursor>\n<isolationWindow>\n");
+      w.write(String.format(Locale.ROOT, "<cvParam cvRef=\"MS\" accession=\"MS:1000827\" name=\"isolation window target m/z\" value=\"%.4f\" unitCvRef=\"MS\" unitAccession=\"MS:1000040\" unitName=\"m/z\"/>\n", precursorMz));
+      w.write("</isolationWindow>\n<selectedIonList count=\"1\">\n<selectedIon>\n");
+      w.write(String.format(Locale.ROOT, "<cvParam cvRef=\"MS\" accession=\"MS:1000744\" name=\"selected ion m/z\" value=\"%.4f\" unitCvRef=\"MS\" unitAccession=\"MS:1000040\" unitName=\"m/z\"/>\n", precursorMz));
+      w.write("<cvParam cvRef=\"MS\" accession=\"MS:1000041\" name=\"charge state\" value=\"2\"/>\n");
+      w.write("</selectedIon>\n</selectedIonList>\n<activation>\n");
+      w.write(activation.equals("hcd")
+          ? "<cvParam cvRef=\"MS\" accession=\"MS:1000422\" name=\"beam-type collision-induced dissociation\" value=\"\"/>\n"
+          : "<cvParam cvRef=\"MS\" accession=\"MS:1000598\" name=\"electron transfer dissociation\" value=\"\"/>\n");
+      w.write("</activation>\n</precursor>\n</precursorList>\n");
+    }
+    w.write("<binaryDataArrayList count=\"2\">\n");
+    binaryArray(w, mzs, "MS:1000514", "m/z array");
+    binaryArray(w, intensities, "MS:1000515", "intensity array");
+    w.write("</binaryDataArrayList>\n</spectrum>\n");
+  }
+
+  private static void binaryArray(BufferedWriter w, double[] values, String accession, String name) throws IOException {
+    final ByteBuffer bb = ByteBuffer.allocate(values.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+    for (double v : values) {
+      bb.putDouble(v);
+    }
+    final String encoded = Base64.getEncoder().encodeToString(bb.array());
+    w.write("<binaryDataArray encodedLength=\"" + encoded.length() + "\">\n");
+    w.write("<cvParam cvRef=\"MS\" accession=\"MS:1000523\" name=\"64-bit float\" value=\"\"/>\n");
+    w.write("<cvParam cvRef=\"MS\" accession=\"MS:1000576\" name=\"no compression\" value=\"\"/>\n");
+    w.write("<cvParam cvRef=\"MS\" accession=\"" + accession + "\" name=\"" + name + "\" value=\"\"/>\n");
+    w.write("<binary>" + encoded + "</binary>\n</binaryDataArray>\n");
+  }
+
+  /** Glycan masses in the range of common N-glycan residues. */
+  public List<Double> glycanMasses(int n) {
+    final List<Double> masses = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      masses.add(140 + rnd.nextInt(300000) / 1000.0);
+    }
+    return masses;
+  }
+}
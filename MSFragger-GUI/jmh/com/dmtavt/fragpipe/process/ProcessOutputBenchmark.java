@@ -0,0 +1,73 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.dmtavt.fragpipe.process;
+
+import com.dmtavt.fragpipe.cmd.PbiBuilder;
+import com.dmtavt.fragpipe.cmd.ProcessBuilderInfo;
+import com.github.chhh.utils.OsUtils;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * End-to-end overhead of running a short process with the old 200 ms polling loop versus
+ * output pumps and {@link Process#onExit()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ProcessOutputBenchmark {
+
+  private final List<String> cmd = OsUtils.isWindows() ? Arrays.asList("cmd", "/c", "echo hello") : Arrays.asList("echo", "hello");
+
+  @Benchmark
+  public String polling() throws Exception {
+    ProcessResult pr = start();
+    while (true) {
+      Thread.sleep(200L);
+      pr.appendErr(pr.pollStdErr());
+      pr.appendOut(pr.pollStdOut());
+      if (!pr.getProcess().isAlive()) {
+        break;
+      }
+    }
+    return pr.getOutput();
+  }
+
+  @Benchmark
+  public String pumps() throws Exception {
+    ProcessResult pr = start();
+    pr.startPumps(pr::appendOut, pr::appendErr);
+    pr.getProcess().onExit().get();
+    pr.joinPumps(5, TimeUnit.SECONDS);
+    return pr.getOutput();
+  }
+
+  private ProcessResult start() throws Exception {
+    ProcessBuilderInfo pbi = new PbiBuilder().setPb(new ProcessBuilder(cmd)).setName(String.join(" ", cmd))
+        .setFnStdOut(null).setFnStdErr(null).setParallelGroup(null).create();
+    ProcessResult pr = new ProcessResult(pbi);
+    pr.start();
+    return pr;
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.dmtavt.fragpipe.tools.percolator;
+
+import com.dmtavt.fragpipe.bench.SyntheticData;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Converting Percolator results of one DDA run back to pepXML.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PercolatorOutputToPepXMLBenchmark {
+
+  @Param({"20000", "200000"})
+  public int numSpectra;
+
+  @Param({"5"})
+  public int topN;
+
+  private Path dir;
+  private Path basename;
+
+  @Setup
+  public void setup() throws IOException {
+    dir = Files.createTempDirectory("fragpipe-jmh-percolator");
+    basename = dir.resolve("run");
+    new SyntheticData(42).percolatorInputs(basename, numSpectra, topN);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(dir.toFile());
+  }
+
+  @Benchmark
+  public void percolatorToPepXML() {
+    PercolatorOutputToPepXML.percolatorToPepXML(
+        dir.resolve("run.pin"),
+        basename.toString(),
+        dir.resolve("run_percolator_target_psms.tsv"),
+        dir.resolve("run_percolator_decoy_psms.tsv"),
+        dir.resolve("interact-run"),
+        "DDA",
+        0.5,
+        1);
+  }
+}
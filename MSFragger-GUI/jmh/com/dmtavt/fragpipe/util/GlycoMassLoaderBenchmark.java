@@ -0,0 +1,61 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.dmtavt.fragpipe.util;
+
+import com.dmtavt.fragpipe.bench.SyntheticData;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Mass offsets for all combinations of glycans.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GlycoMassLoaderBenchmark {
+
+  @Param({"50", "150"})
+  public int numMasses;
+
+  @Param({"2", "3"})
+  public int maxCombos;
+
+  private List<Double> masses;
+
+  @Setup
+  public void setup() {
+    masses = new SyntheticData(42).glycanMasses(numMasses);
+  }
+
+  @Benchmark
+  public List<Double> generateMassCombos() {
+    return GlycoMassLoader.generateMassCombos(masses, maxCombos, false, 0, 0);
+  }
+
+  @Benchmark
+  public List<Double> generateMassCombosFiltered() {
+    return GlycoMassLoader.generateMassCombos(masses, maxCombos, true, 4000, 200);
+  }
+}
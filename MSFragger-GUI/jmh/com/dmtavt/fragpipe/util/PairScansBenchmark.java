@@ -0,0 +1,78 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.dmtavt.fragpipe.util;
+
+import com.dmtavt.fragpipe.bench.SyntheticData;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Pairing HCD and ETD scans of the same precursor in an mzML file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PairScansBenchmark {
+
+  @Param({"2000"})
+  public int numCycles;
+
+  @Param({"10"})
+  public int pairsPerCycle;
+
+  @Param({"1"})
+  public int nThreads;
+
+  private Path dir;
+  private Path mzml;
+
+  @Setup
+  public void setup() throws IOException {
+    dir = Files.createTempDirectory("fragpipe-jmh-pairscans");
+    mzml = dir.resolve("run.mzML");
+    new SyntheticData(42).pairedScansMzml(mzml, numCycles, pairsPerCycle, 200);
+  }
+
+  /** PairScans skips files that were already paired. */
+  @Setup(Level.Invocation)
+  public void deletePairs() throws IOException {
+    Files.deleteIfExists(dir.resolve("run.pairs"));
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(dir.toFile());
+  }
+
+  @Benchmark
+  public void findScanPairs() throws Exception {
+    new PairScans().findScanPairs(mzml.toString(), nThreads, "HCD", "ETD", false, false);
+  }
+}
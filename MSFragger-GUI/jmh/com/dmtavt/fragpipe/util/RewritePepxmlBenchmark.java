@@ -0,0 +1,80 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.dmtavt.fragpipe.util;
+
+import com.dmtavt.fragpipe.bench.SyntheticData;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Pointing msms_run_summary elements to the LCMS files, in place and as a copy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RewritePepxmlBenchmark {
+
+  @Param({"1", "8"})
+  public int numRuns;
+
+  @Param({"50000"})
+  public int spectraPerRun;
+
+  @Param({"true", "false"})
+  public boolean replaceOriginal;
+
+  private Path dir;
+  private Path pepxml;
+  private String[] lcmsFiles;
+
+  @Setup
+  public void setup() throws IOException {
+    dir = Files.createTempDirectory("fragpipe-jmh-rewrite").toAbsolutePath();
+    pepxml = dir.resolve("batch.pepXML");
+    new SyntheticData(42).pepxml(pepxml, dir.toString(), numRuns, spectraPerRun);
+    lcmsFiles = new String[numRuns];
+    for (int i = 0; i < numRuns; i++) {
+      lcmsFiles[i] = dir.resolve("run_" + i + ".mzML").toString();
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(dir.toFile());
+  }
+
+  @Benchmark
+  public Path rewriteRawPath() throws IOException {
+    final Path result = RewritePepxml.rewriteRawPath(pepxml, replaceOriginal, lcmsFiles);
+    if (!replaceOriginal) {
+      Files.delete(result);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.chhh.utils;
+
+import com.dmtavt.fragpipe.bench.SyntheticData;
+import com.github.chhh.utils.FastaUtils.FastaContent;
+import com.github.chhh.utils.FastaUtils.InferFastaPrefixesAndSuffixes;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Reading fasta headers and guessing the decoy tag from them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FastaUtilsBenchmark {
+
+  @Param({"20000", "200000"})
+  public int numProteins;
+
+  private Path fasta;
+  private FastaContent content;
+
+  @Setup
+  public void setup() throws IOException {
+    fasta = Files.createTempFile("fragpipe-jmh", ".fas");
+    new SyntheticData(42).fasta(fasta, numProteins, "rev_", 0.5);
+    content = FastaUtils.readFasta(fasta);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(fasta);
+  }
+
+  @Benchmark
+  public FastaContent readFasta() throws IOException {
+    return FastaUtils.readFasta(fasta);
+  }
+
+  @Benchmark
+  public InferFastaPrefixesAndSuffixes inferPrefixesAndSuffixes() {
+    return new InferFastaPrefixesAndSuffixes(content.ordered).invoke();
+  }
+
+  @Benchmark
+  public PrefixCounter prefixCounter() {
+    final PrefixCounter counter = new PrefixCounter(PrefixCounter.Mode.FWD, 16);
+    final List<String> descriptors = content.ordered.get(0);
+    for (int i = 0; i < descriptors.size(); i++) {
+      counter.add(descriptors.get(i));
+    }
+    return counter;
+  }
+}
@@ -49,6 +49,7 @@ import com.dmtavt.fragpipe.messages.NoteFragpipeProperties;
 import com.dmtavt.fragpipe.messages.NoteFragpipeUpdate;
 import com.dmtavt.fragpipe.params.ThisAppProps;
 import com.dmtavt.fragpipe.process.ProcessManager;
+import com.dmtavt.fragpipe.process.TempFileCleaner;
 import com.dmtavt.fragpipe.tabs.*;
 import com.dmtavt.fragpipe.tools.dbsplit.DbSplit2;
 import com.dmtavt.fragpipe.tools.speclibgen.SpecLibGen2;
@@ -92,6 +93,7 @@ import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -131,6 +133,7 @@ public class Fragpipe extends JFrameHeadless {
   public static java.util.concurrent.CountDownLatch loadWorkflowDone = new java.util.concurrent.CountDownLatch(1);
   public static java.util.concurrent.CountDownLatch runDone = new java.util.concurrent.CountDownLatch(1);
   public static boolean dryRun = false;
+  public static boolean resume = false;
   public static int ram = 0;
   static int nThreadsHeadlessOnly = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, maxProcessors)); // Note: this variable is only for headless mode. For the GUI mode, please get the number of threads using TabWorkflow:getThreads().
   public static String workdir = null;
@@ -141,6 +144,8 @@ public class Fragpipe extends JFrameHeadless {
 
   public static final String UI_STATE_CACHE_FN = "fragpipe-ui.cache";
   private static final Logger log = LoggerFactory.getLogger(Fragpipe.class);
+  /** Longer than all {@link TempFileCleaner} retry delays together. */
+  private static final long HEADLESS_CLEANUP_WAIT_SECONDS = 70;
   public static final Color COLOR_GREEN = new Color(105, 193, 38);
   public static final Color COLOR_GREEN_DARKER = new Color(104, 184, 55);
   public static final Color COLOR_GREEN_DARKEST = new Color(82, 140, 26);
@@ -436,11 +441,15 @@ public class Fragpipe extends JFrameHeadless {
       throw new RuntimeException(ex);
     }
 
-    Bus.post(new MessageRun(dryRun));
+    Bus.post(new MessageRun(dryRun, resume));
 
     try {
       runDone.await();
       Thread.sleep(1000);
+      // files locked by processes that were just stopped are deleted in the background
+      if (!TempFileCleaner.get().awaitRetries(HEADLESS_CLEANUP_WAIT_SECONDS, TimeUnit.SECONDS)) {
+        log.warn("{} temporary files could not be deleted within {} seconds", TempFileCleaner.get().pendingRetries(), HEADLESS_CLEANUP_WAIT_SECONDS);
+      }
     } catch (InterruptedException e) {
       throw new RuntimeException(e);
     }
@@ -940,6 +949,7 @@ public class Fragpipe extends JFrameHeadless {
     sb.append("\t--manifest <string>             # Specify path to manifest file.\n");
     sb.append("\t--workdir <string>              # Specify the result directory.\n");
     sb.append("\t--dry-run                       # (optional) Dry run, not really run FragPipe.\n");
+    sb.append("\t--resume                        # (optional) Resume an interrupted run in the same result directory, skipping the steps that completed.\n");
     sb.append("\t--ram <integer>                 # (optional) Specify the maximum allowed memory size. The unit is GB. Set it to 0 to let FragPipe decide. Default = 0\n");
     sb.append("\t--threads <integer>             # (optional) Specify the number of threads. Default = core number - 1\n");
     sb.append("\t--config-msfragger <string>     # (optional) specify the location of the MSFragger jar file. If not specified, using the one in the cache.\n");
@@ -18,9 +18,9 @@
 package com.dmtavt.fragpipe;
 
 import static com.dmtavt.fragpipe.messages.MessagePrintToConsole.toConsole;
-import static com.github.chhh.utils.FileDelete.deleteFileOrFolder;
 
 import com.dmtavt.fragpipe.api.Bus;
+import com.dmtavt.fragpipe.api.FastaIndex;
 import com.dmtavt.fragpipe.api.IConfig;
 import com.dmtavt.fragpipe.api.InputLcmsFile;
 import com.dmtavt.fragpipe.api.LcmsFileGroup;
@@ -70,10 +70,15 @@ import com.dmtavt.fragpipe.messages.NoteConfigMsfragger;
 import com.dmtavt.fragpipe.messages.NoteConfigPhilosopher;
 import com.dmtavt.fragpipe.messages.NoteConfigSpeclibgen;
 import com.dmtavt.fragpipe.params.ThisAppProps;
+import com.dmtavt.fragpipe.process.Checkpoints;
 import com.dmtavt.fragpipe.process.ProcessDescription;
 import com.dmtavt.fragpipe.process.ProcessDescription.Builder;
 import com.dmtavt.fragpipe.process.ProcessManager;
+import com.dmtavt.fragpipe.process.ProcessTelemetry;
+import com.dmtavt.fragpipe.process.RamBudget;
 import com.dmtavt.fragpipe.process.RunnableDescription;
+import com.dmtavt.fragpipe.process.TempFileCleaner;
+import com.dmtavt.fragpipe.process.ThreadBudget;
 import com.dmtavt.fragpipe.tabs.TabDatabase;
 import com.dmtavt.fragpipe.tabs.TabMsfragger;
 import com.dmtavt.fragpipe.tabs.TabRun;
@@ -99,6 +104,7 @@ import com.dmtavt.fragpipe.tools.speclibgen.SpeclibPanel;
 import com.dmtavt.fragpipe.tools.tmtintegrator.QuantLabel;
 import com.dmtavt.fragpipe.tools.tmtintegrator.TmtiPanel;
 import com.dmtavt.fragpipe.tools.umpire.UmpirePanel;
+import com.github.chhh.utils.FileDelete;
 import com.github.chhh.utils.MapUtils;
 import com.github.chhh.utils.OsUtils;
 import com.github.chhh.utils.PathUtils;
@@ -109,14 +115,23 @@ import com.github.chhh.utils.swing.TextConsole;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.text.DecimalFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
@@ -127,6 +142,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -137,6 +153,7 @@ import javax.swing.JOptionPane;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.jgrapht.Graph;
+import org.jgrapht.Graphs;
 import org.jgrapht.graph.DirectedAcyclicGraph;
 import org.jgrapht.traverse.ClosestFirstIterator;
 import org.jgrapht.traverse.TopologicalOrderIterator;
@@ -157,10 +174,16 @@ public class FragpipeRun {
       Pattern.compile(".+\\.pair"),
   };
   private static final Pattern fppdvDbPattern = Pattern.compile(".+\\.db");
+  /** Set while a resumed run is being configured, so that commands keep their old outputs. */
+  private static volatile boolean resuming = false;
 
   private FragpipeRun() {
   }
 
+  public static boolean isResuming() {
+    return resuming;
+  }
+
   public static int run(MessageRun m) {
     final TabWorkflow tabWorkflow = Bus.getStickyEvent(TabWorkflow.class);
     if (tabWorkflow == null) {
@@ -174,6 +197,8 @@ public class FragpipeRun {
 
     }
     processManager.setThreads(tabWorkflow.getThreads());
+    RamBudget.get().setTotalGb(tabWorkflow.getRamGb());
+    ThreadBudget.get().setTotal(tabWorkflow.getThreads());
 
     log.debug("Started main FragpipeRun.run() method");
     Thread.setDefaultUncaughtExceptionHandler(Fragpipe::uncaughtExceptionHandler);
@@ -186,6 +211,8 @@ public class FragpipeRun {
 
     try {
       final boolean isDryRun = m.isDryRun;
+      final boolean isResume = m.isResume && !isDryRun;
+      resuming = isResume;
 
       final TabRun tabRun = Bus.getStickyEvent(TabRun.class);
       if (tabRun == null) {
@@ -222,7 +249,7 @@ public class FragpipeRun {
       }
 
       if (!isDryRun) {
-        Path preparedWd = prepareWd(tabRun, wd, tabWorkflow);
+        Path preparedWd = prepareWd(tabRun, wd, tabWorkflow, isResume);
         if (preparedWd == null) {
           log.debug("prepareWd() failed");
           return 1;
@@ -265,6 +292,7 @@ public class FragpipeRun {
       }
 
       // check fasta file
+      Fragpipe.getStickyStrict(TabDatabase.class).awaitFastaValidation();
       NoteConfigDatabase configDb = Bus.getStickyEvent(NoteConfigDatabase.class);
       final String fastaPath = checkFasta(tabRun, configDb);
       if (fastaPath == null) {
@@ -297,10 +325,11 @@ public class FragpipeRun {
         log.debug("Ordered tasks:\n{}", s);
       }
 
-      final List<ProcessBuildersDescriptor> pbDescsBuilderDescs = Seq
+      final List<CmdBase> cmdsToRun = Seq
           .seq(new TopologicalOrderIterator<>(dag))
           .filter(CmdBase::isRun)
-          .map(CmdBase::getBuilderDescriptor).toList();
+          .toList();
+      final Map<CmdBase, Set<CmdBase>> cmdDeps = runDependencies(dag, cmdsToRun);
 
       // =========================================================================================================
       toConsole(OsUtils.OsInfo() + "\n" + OsUtils.JavaInfo() + "\n" + OsUtils.NetCoreInfo() + "\n", tabRun.console);
@@ -309,21 +338,33 @@ public class FragpipeRun {
       toConsole("", tabRun.console);
       toConsole("LCMS files:\n" + createLcmsFilesString(lcmsFileGroups), tabRun.console);
       toConsole("", tabRun.console);
+      for (CmdBase cmd : cmdsToRun) {
+        if (cmd instanceof CmdMsfragger && !((CmdMsfragger) cmd).getBatchPlans().isEmpty()) {
+          toConsole(String.join("\n", ((CmdMsfragger) cmd).getBatchPlans()), tabRun.console);
+          toConsole("", tabRun.console);
+        }
+      }
 
       // Converting process builders descriptors to process builder infos
-      final List<ProcessBuilderInfo> pbis = pbDescsBuilderDescs.stream()
-          .flatMap(pbd -> pbd.pbis.stream().map(pbi ->
-          {
-            PbiBuilder b = new PbiBuilder();
-            b.setPb(pbi.pb);
-            b.setName(pbi.name != null ? pbi.name : pbd.name);
-            b.setFnStdOut(pbi.fnStdout != null ? pbi.fnStdout : pbd.fnStdout);
-            b.setFnStdErr(pbi.fnStderr != null ? pbi.fnStderr : pbd.fnStderr);
-            b.setParallelGroup(
-                pbi.parallelGroup != null ? pbi.parallelGroup : pbd.getParallelGroup());
-            return b.create();
-          }))
-          .collect(Collectors.toList());
+      final List<ProcessBuilderInfo> pbis = new ArrayList<>();
+      final Map<CmdBase, List<ProcessBuilderInfo>> cmdPbis = new IdentityHashMap<>();
+      for (CmdBase cmd : cmdsToRun) {
+        final ProcessBuildersDescriptor pbd = cmd.getBuilderDescriptor();
+        for (ProcessBuilderInfo pbi : pbd.pbis) {
+          PbiBuilder b = new PbiBuilder();
+          b.setPb(pbi.pb);
+          b.setName(pbi.name != null ? pbi.name : pbd.name);
+          b.setFnStdOut(pbi.fnStdout != null ? pbi.fnStdout : pbd.fnStdout);
+          b.setFnStdErr(pbi.fnStderr != null ? pbi.fnStderr : pbd.fnStderr);
+          b.setParallelGroup(
+              pbi.parallelGroup != null ? pbi.parallelGroup : pbd.getParallelGroup());
+          b.setRamGb(pbi.ramGb);
+          b.setThreads(pbi.threads);
+          ProcessBuilderInfo created = b.create();
+          pbis.add(created);
+          cmdPbis.computeIfAbsent(cmd, k -> new ArrayList<>()).add(created);
+        }
+      }
 
       toConsole(String.format(Locale.ROOT, "%d commands to execute:", pbis.size()), tabRun.console);
       for (final ProcessBuilderInfo pbi : pbis) {
@@ -353,12 +394,9 @@ public class FragpipeRun {
       toConsole("", tabRun.console);
       toConsole("~~~~~~Sample of " + tabDatabase.getFastaPath() + "~~~~~~~", tabRun.console);
       try {
-        List<String> proteinHeaders = Files.lines(Paths.get(tabDatabase.getFastaPath())).filter(e -> e.startsWith(">")).sorted().collect(Collectors.toList());
-        int gap = proteinHeaders.size() < 21 ? 1 : (proteinHeaders.size() - 1) / 20;    // make sure gap is always at least 1 to prevent an infinite loop
-        int idx = 0;
-        while (idx < proteinHeaders.size()) {
-          toConsole(proteinHeaders.get(idx).trim(), tabRun.console);
-          idx += gap;
+        FastaIndex fastaIndex = FastaIndex.get(Paths.get(tabDatabase.getFastaPath()), Collections.singletonList(tabDatabase.getDecoyTag()));
+        for (String header : fastaIndex.getSample()) {
+          toConsole(header, tabRun.console);
         }
       } catch (Exception e) {
         toConsole("Cannot get the sample of " + tabDatabase.getFastaPath(), tabRun.console);
@@ -404,19 +442,48 @@ public class FragpipeRun {
         log.error("Could not collect form text representation for printing to console");
       }
 
+      // skip what completed in a previous run
+      final Checkpoints checkpoints = new Checkpoints(wd, Version.version());
+      int firstToRun = 0;
+      if (isResume) {
+        for (; firstToRun < cmdsToRun.size(); firstToRun++) {
+          final CmdBase cmd = cmdsToRun.get(firstToRun);
+          final String invalid = checkpoints.validate(Checkpoints.key(firstToRun, cmd), cmdPbis.getOrDefault(cmd, Collections.emptyList()));
+          if (invalid != null) {
+            toConsole(Fragpipe.COLOR_TOOL, String.format("Resuming from [%s]: %s", cmd.getCmdName(), invalid), true, tabRun.console);
+            break;
+          }
+          toConsole(Fragpipe.COLOR_TOOL, String.format("Skipping [%s], completed in a previous run", cmd.getCmdName()), true, tabRun.console);
+        }
+        for (int i = firstToRun; i < cmdsToRun.size(); i++) {
+          checkpoints.remove(Checkpoints.key(i, cmdsToRun.get(i)));
+        }
+        toConsole("", tabRun.console);
+      } else {
+        checkpoints.clear();
+      }
+
       // run everything
       long startTime = System.nanoTime();
+      ProcessTelemetry.get().reset();
       final List<RunnableDescription> toRun = new ArrayList<>();
-      for (final ProcessBuilderInfo pbi : pbis) {
-        Runnable runnable = ProcessBuilderInfo.toRunnable(pbi, wd, FragpipeRun::printProcessDescription, tabRun.console, false);
-        ProcessDescription.Builder b = new ProcessDescription.Builder().setName(pbi.name);
-        if (pbi.pb.directory() != null) {
-          b.setWorkDir(pbi.pb.directory().toString());
-        }
-        if (pbi.pb.command() != null && !pbi.pb.command().isEmpty()) {
-          b.setCommand(String.join(" ", pbi.pb.command()));
+      for (int i = firstToRun; i < cmdsToRun.size(); i++) {
+        final CmdBase cmd = cmdsToRun.get(i);
+        final List<ProcessBuilderInfo> nodePbis = cmdPbis.getOrDefault(cmd, Collections.emptyList());
+        final String key = Checkpoints.key(i, cmd);
+        toRun.add(new RunnableDescription(new Builder().setName("Checkpoint start: " + key).create(), checkpoints.starter(key, nodePbis), null, null, cmd, cmdDeps.get(cmd)));
+        for (final ProcessBuilderInfo pbi : nodePbis) {
+          Runnable runnable = ProcessBuilderInfo.toRunnable(pbi, wd, FragpipeRun::printProcessDescription, tabRun.console, false);
+          ProcessDescription.Builder b = new ProcessDescription.Builder().setName(pbi.name);
+          if (pbi.pb.directory() != null) {
+            b.setWorkDir(pbi.pb.directory().toString());
+          }
+          if (pbi.pb.command() != null && !pbi.pb.command().isEmpty()) {
+            b.setCommand(String.join(" ", pbi.pb.command()));
+          }
+          toRun.add(new RunnableDescription(b.create(), runnable, pbi.parallelGroup, pbi, cmd, cmdDeps.get(cmd)));
         }
-        toRun.add(new RunnableDescription(b.create(), runnable, pbi.parallelGroup, pbi));
+        toRun.add(new RunnableDescription(new Builder().setName("Checkpoint: " + key).create(), checkpoints.recorder(key, nodePbis), null, null, cmd, cmdDeps.get(cmd)));
       }
 
       // add finalizer process
@@ -425,51 +492,53 @@ public class FragpipeRun {
           toConsole(Fragpipe.COLOR_TOOL, "\nDelete calibrated or temp files", true, tabRun.console);
         }
 
+        final List<Path> toDelete = new ArrayList<>();
         if (tabRun.isDeleteCalibratedFiles()) {
           for (LcmsFileGroup lcmsFileGroup : lcmsFileGroups.values()) {
             for (InputLcmsFile inputLcmsFile : lcmsFileGroup.lcmsFiles) {
               String baseName = FilenameUtils.getBaseName(inputLcmsFile.getPath().getFileName().toString());
               Path path = inputLcmsFile.getPath().getParent().resolve(baseName + "_calibrated.mzML");
               if (Files.exists(path)) {
-                try {
-                  toConsole(Fragpipe.COLOR_TOOL, "Delete ", false, tabRun.console);
-                  toConsole(Fragpipe.COLOR_BLACK, path.toAbsolutePath().toString(), true, tabRun.console);
-                  deleteFileOrFolder(path);
-                } catch (Exception ex) {
-                  toConsole(Fragpipe.COLOR_RED, "Could not delete " + path.toAbsolutePath() + ". It won't affect the result.", true, tabRun.console);
-                }
+                toDelete.add(path);
               }
             }
           }
         }
 
         if (tabRun.isDeleteTempFiles()) {
+          final Set<String> lcmsTsvs = new HashSet<>();
+          for (LcmsFileGroup lcmsFileGroup : lcmsFileGroups.values()) {
+            for (InputLcmsFile inputLcmsFile : lcmsFileGroup.lcmsFiles) {
+              lcmsTsvs.add(FilenameUtils.getBaseName(inputLcmsFile.getPath().getFileName().toString()) + ".tsv");
+            }
+          }
+          final Predicate<Path> isTemp = p -> {
+            final String fn = p.getFileName().toString();
+            for (Pattern pattern : filesToDelete) {
+              if (pattern.matcher(fn).matches()) {
+                return true;
+              }
+            }
+            return fn.endsWith(".tsv") && lcmsTsvs.stream().anyMatch(fn::endsWith);
+          };
           try {
-            Files.walk(wd).filter(p -> {
-              for (Pattern pattern : filesToDelete) {
-                if (pattern.matcher(p.getFileName().toString()).matches()) {
-                  return true;
-                } else {
-                  if (p.getFileName().toString().endsWith(".tsv")) {
-                    for (LcmsFileGroup lcmsFileGroup : lcmsFileGroups.values()) {
-                      for (InputLcmsFile inputLcmsFile : lcmsFileGroup.lcmsFiles) {
-                        String baseName = FilenameUtils.getBaseName(inputLcmsFile.getPath().getFileName().toString());
-                        if (p.getFileName().toString().endsWith(baseName + ".tsv")) {
-                          return true;
-                        }
-                      }
-                    }
-                  }
+            // matched directories are deleted as a whole, no need to look inside
+            Files.walkFileTree(wd, new SimpleFileVisitor<Path>() {
+              @Override
+              public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(wd) && isTemp.test(dir)) {
+                  toDelete.add(dir);
+                  return FileVisitResult.SKIP_SUBTREE;
                 }
+                return FileVisitResult.CONTINUE;
               }
-              return false;
-            }).forEach(path -> {
-              try {
-                toConsole(Fragpipe.COLOR_TOOL, "Delete ", false, tabRun.console);
-                toConsole(Fragpipe.COLOR_BLACK, path.toAbsolutePath().toString(), true, tabRun.console);
-                deleteFileOrFolder(path);
-              } catch (Exception ex) {
-                toConsole(Fragpipe.COLOR_RED, "Could not delete " + path.toAbsolutePath() + ". It won't affect the result.", true, tabRun.console);
+
+              @Override
+              public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (isTemp.test(file)) {
+                  toDelete.add(file);
+                }
+                return FileVisitResult.CONTINUE;
               }
             });
           } catch (Exception ex) {
@@ -477,10 +546,23 @@ public class FragpipeRun {
           }
         }
 
+        if (!toDelete.isEmpty()) {
+          for (Path path : toDelete) {
+            toConsole(Fragpipe.COLOR_TOOL, "Delete ", false, tabRun.console);
+            toConsole(Fragpipe.COLOR_BLACK, path.toAbsolutePath().toString(), true, tabRun.console);
+          }
+          final FileDelete.Stats stats = TempFileCleaner.get().delete(toDelete);
+          toConsole(Fragpipe.COLOR_BLACK, stats.toString(), true, tabRun.console);
+          if (!stats.failed.isEmpty()) {
+            toConsole(Fragpipe.COLOR_RED, "Could not delete " + stats.failed.size() + " paths yet, will retry in the background. It won't affect the result.", true, tabRun.console);
+          }
+        }
+
         printReference(tabRun.console);
         String totalTime = String.format("%.1f", (System.nanoTime() - startTime) * 1e-9 / 60);
         toConsole(Fragpipe.COLOR_RED_DARKEST, "\n=============================================================ALL JOBS DONE IN " + totalTime + " MINUTES=============================================================", true, tabRun.console);
         Bus.post(MessageSaveLog.saveInDir(wd));
+        ProcessTelemetry.get().writeReport(wd);
         saveRuntimeConfig(wd);
 
         // save manifest file in both GUI and headless mode
@@ -497,6 +579,7 @@ public class FragpipeRun {
 
       runConfigurationDone = true;
     } finally {
+      resuming = false;
       if (!runConfigurationDone) {
         Bus.post(new MessageRunButtonEnabled(true));
       }
@@ -654,7 +737,7 @@ public class FragpipeRun {
     return testWdPath;
   }
 
-  private static Path prepareWd(JComponent parent, Path wd, TabWorkflow tabWorkflow) {
+  private static Path prepareWd(JComponent parent, Path wd, TabWorkflow tabWorkflow, boolean isResume) {
     if (!Files.exists(wd)) {
       if (Fragpipe.headless){
         log.warn("Output directory doesn't exist. Creating it.");
@@ -678,7 +761,7 @@ public class FragpipeRun {
       }
     } else {
       try (Stream<Path> inWd = Files.list(wd)) {
-        if (inWd.findAny().isPresent()) {
+        if (!isResume && inWd.findAny().isPresent()) {
           if (Fragpipe.headless) {
             log.warn("The output directory is not empty. Some files might be overwritten in: " + wd);
           } else {
@@ -857,6 +940,33 @@ public class FragpipeRun {
     toConsole(Fragpipe.COLOR_CMDLINE, cmd, true, console);
   }
 
+  /**
+   * For every command that is going to run finds the closest commands it depends on that are
+   * also going to run. Commands that are switched off are traversed through, so that ordering
+   * imposed through them is kept.
+   */
+  private static Map<CmdBase, Set<CmdBase>> runDependencies(Graph<CmdBase, DefEdge> dag, List<CmdBase> cmdsToRun) {
+    final Map<CmdBase, Set<CmdBase>> deps = new IdentityHashMap<>();
+    for (CmdBase cmd : cmdsToRun) {
+      final Set<CmdBase> found = new LinkedHashSet<>();
+      final Set<CmdBase> visited = new HashSet<>();
+      final Deque<CmdBase> queue = new ArrayDeque<>(Graphs.predecessorListOf(dag, cmd));
+      while (!queue.isEmpty()) {
+        CmdBase pred = queue.poll();
+        if (!visited.add(pred)) {
+          continue;
+        }
+        if (pred.isRun()) {
+          found.add(pred);
+        } else {
+          queue.addAll(Graphs.predecessorListOf(dag, pred));
+        }
+      }
+      deps.put(cmd, found);
+    }
+    return deps;
+  }
+
   private static enum DIRECTION {IN, OUT, BOTH}
 
   private static void addToGraph(Graph<? super CmdBase, DefEdge> graph, CmdBase node, DIRECTION direction,
@@ -1008,7 +1118,7 @@ public class FragpipeRun {
     final CmdUmpireSe cmdUmpire = new CmdUmpireSe(umpirePanel.isRun(), wd);
     addConfig.accept(cmdUmpire, () -> {
       if (cmdUmpire.isRun()) {
-        if (!cmdUmpire.configure(parent, isDryRun, jarPath, ramGb, Paths.get(binMsfragger.getBin()), umpirePanel, sharedLcmsFiles)) {
+        if (!cmdUmpire.configure(parent, isDryRun, jarPath, ramGb, threads, Paths.get(binMsfragger.getBin()), umpirePanel, sharedLcmsFiles)) {
           return false;
         }
         List<InputLcmsFile> outputs = cmdUmpire.outputs(sharedLcmsFiles, umpirePanel.generateQ1(), umpirePanel.generateQ2(), umpirePanel.generateQ3());
@@ -1087,7 +1197,7 @@ public class FragpipeRun {
     final CmdMSBooster cmdMSBooster = new CmdMSBooster(MSBoosterPanel.isRun(), wd);
     addConfig.accept(cmdMSBooster, () -> {
       if (cmdMSBooster.isRun()) {
-        return cmdMSBooster.configure(parent, ramGb, threads, sharedPepxmlFilesFromMsfragger, MSBoosterPanel.predictRt(), MSBoosterPanel.predictSpectra(), MSBoosterPanel.useCorrelatedFeatures(), tabWorkflow.hasDda(), tabWorkflow.hasDia(), tabWorkflow.hasGpfDia(), tabWorkflow.hasDiaLib(), cmdUmpire.isRun(), tabMsf.isOpenSearch() || tabMsf.isMassOffsetSearch());
+        return cmdMSBooster.configure(parent, jarPath, ramGb, threads, sharedPepxmlFilesFromMsfragger, MSBoosterPanel.predictRt(), MSBoosterPanel.predictSpectra(), MSBoosterPanel.useCorrelatedFeatures(), MSBoosterPanel.reusePredictions(), tabWorkflow.hasDda(), tabWorkflow.hasDia(), tabWorkflow.hasGpfDia(), tabWorkflow.hasDiaLib(), cmdUmpire.isRun(), tabMsf.isOpenSearch() || tabMsf.isMassOffsetSearch());
       }
       return true;
     });
@@ -1161,7 +1271,7 @@ public class FragpipeRun {
           .toList();
 
       if (panelPtmProphet.isRun()) {
-        return cmdPtmProphet.configure(parent, panelPtmProphet.getCmdLineOpts(), lcmsToPepxml);
+        return cmdPtmProphet.configure(parent, panelPtmProphet.getCmdLineOpts(), threads, lcmsToPepxml);
       }
       return true;
     });
@@ -1182,7 +1292,7 @@ public class FragpipeRun {
       final boolean isMuiltiExperimentReport = sharedLcmsFileGroups.size() > 1;
       if (cmdProteinProphet.isRun()) {
         final String protProphCmdStr = protProphPanel.getCmdOpts();
-        if (!cmdProteinProphet.configure(parent, usePhi, protProphCmdStr, isMuiltiExperimentReport, sharedPepxmlFiles)) {
+        if (!cmdProteinProphet.configure(parent, usePhi, jarPath, protProphCmdStr, isMuiltiExperimentReport, sharedPepxmlFiles)) {
           return false;
         }
       }
@@ -1559,7 +1669,7 @@ public class FragpipeRun {
     addToGraph(graphOrder, cmdMsfragger, DIRECTION.IN, cmdCheckCentroid, cmdUmpire);
 
     addToGraph(graphOrder, cmdCrystalc, DIRECTION.IN, cmdMsfragger);
-    addToGraph(graphOrder, cmdMSBooster, DIRECTION.IN, cmdMsfragger);
+    addToGraph(graphOrder, cmdMSBooster, DIRECTION.IN, cmdMsfragger, cmdCrystalc); // both rewrite the search results
     addToGraph(graphOrder, cmdPeptideProphet, DIRECTION.IN, cmdMsfragger, cmdCrystalc);
     addToGraph(graphOrder, cmdPercolator, DIRECTION.IN, cmdMsfragger, cmdCrystalc, cmdMSBooster);
     for (final CmdBase cmdPeptideValidation : new CmdBase[]{cmdPeptideProphet, cmdPercolator}) {
@@ -1572,15 +1682,15 @@ public class FragpipeRun {
     for (final CmdBase cmdPeptideValidation : new CmdBase[]{cmdPeptideProphet, cmdPercolator})
       addToGraph(graphOrder, cmdIprophet, DIRECTION.IN, cmdPhilosopherReport, cmdPeptideValidation);
     addToGraph(graphOrder, cmdPhilosopherAbacus, DIRECTION.IN, cmdPhilosopherReport, cmdIprophet, cmdProteinProphet);
-    addToGraph(graphOrder, cmdTmtFreequant, DIRECTION.IN, cmdPhilosopherFilter);
+    addToGraph(graphOrder, cmdTmtFreequant, DIRECTION.IN, cmdPhilosopherFilter, cmdFreequant); // same Philosopher workspace
     addToGraph(graphOrder, cmdTmtLabelQuant, DIRECTION.IN, cmdPhilosopherFilter, cmdTmtFreequant);
     addToGraph(graphOrder, cmdPhilosopherReport, DIRECTION.IN, cmdPhilosopherFilter, cmdFreequant, cmdTmtFreequant, cmdTmtLabelQuant);
     addToGraph(graphOrder, cmdPairScans, DIRECTION.IN, cmdPhilosopherReport, cmdPhilosopherAbacus);
     addToGraph(graphOrder, cmdOPair, DIRECTION.IN, cmdPairScans);
-    addToGraph(graphOrder, cmdPtmshepherd, DIRECTION.IN, cmdPhilosopherReport, cmdPhilosopherAbacus);
-    addToGraph(graphOrder, cmdIonquant, DIRECTION.IN, cmdPhilosopherReport, cmdPhilosopherAbacus, cmdPtmshepherd);
-    addToGraph(graphOrder, cmdTmt, DIRECTION.IN, cmdPhilosopherReport, cmdTmtFreequant, cmdTmtLabelQuant, cmdPhilosopherAbacus, cmdPtmshepherd);
-    addToGraph(graphOrder, cmdSpecLibGen, DIRECTION.IN, cmdPhilosopherReport);
+    addToGraph(graphOrder, cmdPtmshepherd, DIRECTION.IN, cmdPhilosopherReport, cmdPhilosopherAbacus, cmdOPair);
+    addToGraph(graphOrder, cmdIonquant, DIRECTION.IN, cmdPhilosopherReport, cmdPhilosopherAbacus, cmdPtmshepherd, cmdOPair);
+    addToGraph(graphOrder, cmdTmt, DIRECTION.IN, cmdPhilosopherReport, cmdTmtFreequant, cmdTmtLabelQuant, cmdPhilosopherAbacus, cmdPtmshepherd, cmdOPair, cmdIonquant);
+    addToGraph(graphOrder, cmdSpecLibGen, DIRECTION.IN, cmdPhilosopherReport, cmdPhilosopherAbacus, cmdPtmshepherd, cmdIonquant, cmdTmt);
     addToGraph(graphOrder, cmdDiann, DIRECTION.IN, cmdSpecLibGen);
 
     // compose graph of required dependencies
@@ -1637,6 +1747,7 @@ public class FragpipeRun {
 
     CmdBase firstPhiDependentCmd = null;
     CmdBase lastPhiDependentCmd = null;
+    final List<CmdBase> phiDependentCmds = new ArrayList<>();
     for (TopologicalOrderIterator<CmdBase, DefEdge> it = new TopologicalOrderIterator<>(
         graphOrder); it.hasNext(); ) {
       CmdBase cmd = it.next();
@@ -1645,6 +1756,7 @@ public class FragpipeRun {
           firstPhiDependentCmd = cmd;
         }
         lastPhiDependentCmd = cmd;
+        phiDependentCmds.add(cmd);
       }
     }
 
@@ -1658,6 +1770,10 @@ public class FragpipeRun {
         if (firstPhiDependentCmd != null) {
           addToGraph(graphOrder, firstPhiDependentCmd, DIRECTION.IN, cmdPhiCleanInit); // and before first command that uses phi
         }
+        // independent branches of the graph may run concurrently, so every command using phi is ordered explicitly
+        for (CmdBase cmd : phiDependentCmds) {
+          addToGraph(graphOrder, cmd, DIRECTION.IN, cmdPhiCleanInit);
+        }
 //      for (CmdBase cmd : commands) {
 //        if (cmd.usesPhi()) {
 //          graphOrder.addEdge(cmdPhiCleanInit, cmd);
@@ -1673,6 +1789,7 @@ public class FragpipeRun {
           log.debug("Determined that the last command in graph to use Phi is: [{}]",
               lastPhiDependentCmd.getCmdName());
           addToGraph(graphOrder, cmdPhiClean, DIRECTION.IN, lastPhiDependentCmd);
+          addToGraph(graphOrder, cmdPhiClean, DIRECTION.IN, phiDependentCmds.toArray(new CmdBase[0]));
         } else {
           log.warn("No command was found to use Philosopher.");
         }
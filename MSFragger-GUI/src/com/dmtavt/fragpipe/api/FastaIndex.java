@@ -0,0 +1,507 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.api;
+
+import com.dmtavt.fragpipe.FragpipeLocations;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Summary of a FASTA file: number of proteins, decoy counts for tags that have been asked about,
+ * a sample of sorted headers and byte offsets of all header lines.
+ * <p>
+ * The index is stored in the cache directory and is keyed by the absolute path, size and
+ * modification time of the FASTA file, so it is reused across sessions until the file changes.
+ * Building an index reads the whole file once, don't do it on the EDT. Protein and decoy counts
+ * are the same as {@link com.github.chhh.utils.FastaUtils#readFasta(Path)} gives: the first
+ * '|'-separated column of a header is what's matched against the decoy tag.
+ */
+public class FastaIndex {
+  private static final Logger log = LoggerFactory.getLogger(FastaIndex.class);
+
+  public static final String DIR_NAME = "fasta-index";
+  public static final List<String> COMMON_DECOY_TAGS = Collections.unmodifiableList(Arrays.asList(
+      "rev_", "REV_", "DECOY_", "decoy_", "XXX_", "xxx_", "REVERSED_", "reversed_", "random_",
+      "shuffled_", "##"));
+  private static final int VERSION = 1;
+  /** Headers kept for the sample. Up to this many headers the sample is exact. */
+  private static final int SAMPLE_RESERVOIR = 100_000;
+  private static final int BUF_SIZE = 1 << 20;
+  private static final String EXT_SUMMARY = ".idx";
+  private static final String EXT_OFFSETS = ".offsets";
+  private static final String KEY_DECOYS = "decoys.";
+  private static final String KEY_SAMPLE = "sample.";
+
+  private static final Object lock = new Object();
+  private static final Map<Path, FastaIndex> loaded = new HashMap<>();
+
+  public final Path path;
+  public final long size;
+  public final long mtime;
+  private final int numProteins;
+  private final int numHeaders;
+  private final List<String> sample;
+  private final Map<String, Integer> decoyCounts;
+  private final Path dir;
+
+  private FastaIndex(Path path, long size, long mtime, int numProteins, int numHeaders,
+      List<String> sample, Map<String, Integer> decoyCounts, Path dir) {
+    this.path = path;
+    this.size = size;
+    this.mtime = mtime;
+    this.numProteins = numProteins;
+    this.numHeaders = numHeaders;
+    this.sample = Collections.unmodifiableList(sample);
+    this.decoyCounts = decoyCounts;
+    this.dir = dir;
+  }
+
+  /**
+   * Index for the file, loaded from the FragPipe cache or built if there is no up-to-date one.
+   *
+   * @param decoyTags Tags to count while building, in addition to {@link #COMMON_DECOY_TAGS}.
+   */
+  public static FastaIndex get(Path fasta, Collection<String> decoyTags) throws IOException {
+    Path dir = null;
+    try {
+      dir = FragpipeLocations.get().getDirCache().resolve(DIR_NAME);
+    } catch (Exception e) {
+      log.debug("No cache directory, FASTA index will not be persisted", e);
+    }
+    return get(fasta, dir, decoyTags);
+  }
+
+  /**
+   * @param dir Where index files are stored. If null, the index is only kept in memory.
+   */
+  public static FastaIndex get(Path fasta, Path dir, Collection<String> decoyTags) throws IOException {
+    final Path p = fasta.toAbsolutePath().normalize();
+    synchronized (lock) {
+      final long size = Files.size(p);
+      final long mtime = Files.getLastModifiedTime(p).toMillis();
+      FastaIndex index = loaded.get(p);
+      if (index != null && index.size == size && index.mtime == mtime
+          && (dir == null ? index.dir == null : dir.equals(index.dir))) {
+        return index;
+      }
+      index = dir == null ? null : load(p, size, mtime, dir);
+      if (index == null) {
+        final long timeLo = System.nanoTime();
+        index = build(p, size, mtime, dir, decoyTags);
+        log.debug("Indexed FASTA file {} in {} ms, {} proteins", p,
+            (System.nanoTime() - timeLo) / 1_000_000, index.numProteins);
+      }
+      loaded.put(p, index);
+      return index;
+    }
+  }
+
+  public int getNumProteins() {
+    return numProteins;
+  }
+
+  /** Every n-th header of the file in sorted order, trimmed. */
+  public List<String> getSample() {
+    return sample;
+  }
+
+  /**
+   * Number of proteins whose first header column starts with the tag. Counts for tags not seen
+   * before are computed by reading only the header lines at the stored offsets and are then saved.
+   */
+  public int getDecoysCnt(String tag) throws IOException {
+    synchronized (decoyCounts) {
+      final Integer cnt = decoyCounts.get(tag);
+      if (cnt != null) {
+        return cnt;
+      }
+    }
+    final int cnt = tag.isEmpty() ? numProteins : countByOffsets(tag);
+    synchronized (decoyCounts) {
+      decoyCounts.put(tag, cnt);
+    }
+    if (dir != null) {
+      try {
+        writeSummary();
+      } catch (IOException e) {
+        log.warn("Could not update FASTA index of: " + path, e);
+      }
+    }
+    return cnt;
+  }
+
+  /** Byte offsets of all lines starting with '>'. */
+  public long[] getHeaderOffsets() throws IOException {
+    if (dir == null) {
+      return scanOffsets(path);
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        Files.newInputStream(file(dir, path, EXT_OFFSETS))))) {
+      if (in.readInt() != VERSION) {
+        throw new IOException("Unexpected version of FASTA offsets file");
+      }
+      final long[] offsets = new long[numHeaders];
+      long prev = 0;
+      for (int i = 0; i < numHeaders; i++) {
+        prev += readVarLong(in);
+        offsets[i] = prev;
+      }
+      if (in.readInt() != numHeaders) {
+        throw new IOException("FASTA offsets file does not match the index");
+      }
+      return offsets;
+    }
+  }
+
+  /**
+   * First '|'-separated column of a header line, trimmed. Null if
+   * {@link com.github.chhh.utils.FastaUtils#readFasta(Path)} would not count the line as a protein.
+   */
+  static String firstColumn(String line) {
+    final int next = line.indexOf('|', 1);
+    if (next >= 0) {
+      return line.substring(1, next).trim();
+    }
+    return 1 < line.length() - 1 ? line.substring(1).trim() : null;
+  }
+
+  private interface HeaderConsumer {
+    void accept(long offset, byte[] line, int len) throws IOException;
+  }
+
+  /** Calls the consumer for every line starting with '>', line terminators excluded. */
+  private static void scanHeaders(Path p, HeaderConsumer consumer) throws IOException {
+    try (InputStream in = Files.newInputStream(p)) {
+      final byte[] buf = new byte[BUF_SIZE];
+      byte[] line = new byte[256];
+      int lineLen = 0;
+      boolean isLineStart = true;
+      boolean isHeader = false;
+      long headerOffset = 0;
+      long pos = 0;
+      int read;
+      while ((read = in.read(buf)) >= 0) {
+        for (int i = 0; i < read; i++) {
+          final byte b = buf[i];
+          if (isLineStart) {
+            isLineStart = false;
+            if (b == '>') {
+              isHeader = true;
+              headerOffset = pos + i;
+              lineLen = 0;
+            }
+          }
+          if (b == '\n') {
+            isLineStart = true;
+            if (isHeader) {
+              isHeader = false;
+              consumer.accept(headerOffset, line, withoutCr(line, lineLen));
+            }
+          } else if (isHeader) {
+            if (lineLen == line.length) {
+              line = Arrays.copyOf(line, line.length * 2);
+            }
+            line[lineLen++] = b;
+          } else {
+            // sequence line, skip to its end
+            while (i + 1 < read && buf[i + 1] != '\n') {
+              i++;
+            }
+          }
+        }
+        pos += read;
+      }
+      if (isHeader) {
+        consumer.accept(headerOffset, line, withoutCr(line, lineLen));
+      }
+    }
+  }
+
+  private static int withoutCr(byte[] line, int len) {
+    return len > 0 && line[len - 1] == '\r' ? len - 1 : len;
+  }
+
+  private static FastaIndex build(Path p, long size, long mtime, Path dir,
+      Collection<String> decoyTags) throws IOException {
+    final Set<String> tags = new LinkedHashSet<>(COMMON_DECOY_TAGS);
+    tags.addAll(decoyTags);
+    tags.remove("");
+    final String[] tagArr = tags.toArray(new String[0]);
+    final int[] tagCnts = new int[tagArr.length];
+    final int[] cnts = new int[2]; // proteins, headers
+    final List<String> reservoir = new ArrayList<>();
+    final Random rnd = new Random(42);
+
+    Path offsetsTmp = null;
+    if (dir != null) {
+      Files.createDirectories(dir);
+      offsetsTmp = Files.createTempFile(dir, "fasta-", EXT_OFFSETS);
+    }
+    try {
+      if (offsetsTmp == null) {
+        scanHeaders(p, (offset, line, len) -> {
+          indexHeader(new String(line, 0, len, StandardCharsets.UTF_8), tagArr, tagCnts, cnts, reservoir, rnd);
+        });
+      } else {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            Files.newOutputStream(offsetsTmp), 1 << 16))) {
+          out.writeInt(VERSION);
+          final long[] prev = {0};
+          scanHeaders(p, (offset, line, len) -> {
+            writeVarLong(out, offset - prev[0]);
+            prev[0] = offset;
+            indexHeader(new String(line, 0, len, StandardCharsets.UTF_8), tagArr, tagCnts, cnts, reservoir, rnd);
+          });
+          out.writeInt(cnts[1]);
+        }
+      }
+
+      Collections.sort(reservoir);
+      final List<String> sample = new ArrayList<>();
+      // same spacing as was used when printing a sample of the whole sorted file
+      final int gap = reservoir.size() < 21 ? 1 : (reservoir.size() - 1) / 20;
+      for (int i = 0; i < reservoir.size(); i += gap) {
+        sample.add(reservoir.get(i).trim());
+      }
+      final Map<String, Integer> decoyCounts = new LinkedHashMap<>();
+      for (int i = 0; i < tagArr.length; i++) {
+        decoyCounts.put(tagArr[i], tagCnts[i]);
+      }
+
+      final FastaIndex index = new FastaIndex(p, size, mtime, cnts[0], cnts[1], sample, decoyCounts, dir);
+      if (offsetsTmp != null) {
+        try {
+          move(offsetsTmp, file(dir, p, EXT_OFFSETS));
+          offsetsTmp = null;
+          index.writeSummary();
+        } catch (IOException e) {
+          log.warn("Could not save FASTA index of: " + p, e);
+        }
+      }
+      return index;
+    } finally {
+      if (offsetsTmp != null) {
+        Files.deleteIfExists(offsetsTmp);
+      }
+    }
+  }
+
+  private static void indexHeader(String line, String[] tags, int[] tagCnts, int[] cnts,
+      List<String> reservoir, Random rnd) {
+    final int seen = ++cnts[1];
+    if (reservoir.size() < SAMPLE_RESERVOIR) {
+      reservoir.add(line);
+    } else {
+      final int j = rnd.nextInt(seen);
+      if (j < SAMPLE_RESERVOIR) {
+        reservoir.set(j, line);
+      }
+    }
+    final String col = firstColumn(line);
+    if (col == null) {
+      return;
+    }
+    cnts[0]++;
+    for (int i = 0; i < tags.length; i++) {
+      if (col.startsWith(tags[i])) {
+        tagCnts[i]++;
+      }
+    }
+  }
+
+  private static long[] scanOffsets(Path p) throws IOException {
+    final long[][] offsets = {new long[1024]};
+    final int[] n = {0};
+    scanHeaders(p, (offset, line, len) -> {
+      if (n[0] == offsets[0].length) {
+        offsets[0] = Arrays.copyOf(offsets[0], offsets[0].length * 2);
+      }
+      offsets[0][n[0]++] = offset;
+    });
+    return Arrays.copyOf(offsets[0], n[0]);
+  }
+
+  private int countByOffsets(String tag) throws IOException {
+    final long[] offsets = getHeaderOffsets();
+    final ByteBuffer buf = ByteBuffer.allocate(BUF_SIZE);
+    final byte[] a = buf.array();
+    long bufPos = 0;
+    int cnt = 0;
+    try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+      buf.limit(0);
+      for (long offset : offsets) {
+        int lo = (int) Math.min(Integer.MAX_VALUE, offset - bufPos);
+        int hi = offset < bufPos || lo >= buf.limit() ? -1 : indexOfEol(a, lo, buf.limit());
+        if (hi < 0) {
+          // the line is not all in the buffer, read starting from it
+          buf.clear();
+          fc.position(offset);
+          while (buf.hasRemaining() && fc.read(buf) >= 0) {
+            // keep reading until the buffer is full or the file ends
+          }
+          buf.flip();
+          bufPos = offset;
+          lo = 0;
+          hi = indexOfEol(a, 0, buf.limit());
+          if (hi < 0) {
+            hi = buf.limit(); // last line of the file or a header longer than the buffer
+          }
+        }
+        final String col = firstColumn(new String(a, lo, withoutCr(a, hi) - lo, StandardCharsets.UTF_8));
+        if (col != null && col.startsWith(tag)) {
+          cnt++;
+        }
+      }
+    }
+    return cnt;
+  }
+
+  private static int indexOfEol(byte[] a, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (a[i] == '\n') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static Path file(Path dir, Path fasta, String ext) {
+    String name = fasta.getFileName().toString().replaceAll("[^A-Za-z0-9._-]", "_");
+    if (name.length() > 64) {
+      name = name.substring(0, 64);
+    }
+    return dir.resolve(name + "-" + Integer.toHexString(fasta.toString().hashCode()) + ext);
+  }
+
+  private static FastaIndex load(Path p, long size, long mtime, Path dir) {
+    final Path fileSummary = file(dir, p, EXT_SUMMARY);
+    if (!Files.exists(fileSummary) || !Files.exists(file(dir, p, EXT_OFFSETS))) {
+      return null;
+    }
+    final Properties props = new Properties();
+    try (Reader r = Files.newBufferedReader(fileSummary, StandardCharsets.UTF_8)) {
+      props.load(r);
+      if (!String.valueOf(VERSION).equals(props.getProperty("version"))
+          || !p.toString().equals(props.getProperty("path"))
+          || size != Long.parseLong(props.getProperty("size"))
+          || mtime != Long.parseLong(props.getProperty("mtime"))) {
+        log.debug("FASTA index is out of date: {}", fileSummary);
+        return null;
+      }
+      final int numProteins = Integer.parseInt(props.getProperty("proteins"));
+      final int numHeaders = Integer.parseInt(props.getProperty("headers"));
+      final List<String> sample = new ArrayList<>();
+      for (String s; (s = props.getProperty(KEY_SAMPLE + sample.size())) != null; ) {
+        sample.add(s);
+      }
+      final Map<String, Integer> decoyCounts = new LinkedHashMap<>();
+      for (String key : props.stringPropertyNames()) {
+        if (key.startsWith(KEY_DECOYS)) {
+          decoyCounts.put(key.substring(KEY_DECOYS.length()), Integer.parseInt(props.getProperty(key)));
+        }
+      }
+      return new FastaIndex(p, size, mtime, numProteins, numHeaders, sample, decoyCounts, dir);
+    } catch (Exception e) {
+      log.debug("Could not load FASTA index: " + fileSummary, e);
+      return null;
+    }
+  }
+
+  private void writeSummary() throws IOException {
+    final Properties props = new Properties();
+    props.setProperty("version", String.valueOf(VERSION));
+    props.setProperty("path", path.toString());
+    props.setProperty("size", String.valueOf(size));
+    props.setProperty("mtime", String.valueOf(mtime));
+    props.setProperty("proteins", String.valueOf(numProteins));
+    props.setProperty("headers", String.valueOf(numHeaders));
+    for (int i = 0; i < sample.size(); i++) {
+      props.setProperty(KEY_SAMPLE + i, sample.get(i));
+    }
+    synchronized (decoyCounts) {
+      for (Map.Entry<String, Integer> kv : decoyCounts.entrySet()) {
+        props.setProperty(KEY_DECOYS + kv.getKey(), String.valueOf(kv.getValue()));
+      }
+    }
+    final Path tmp = Files.createTempFile(dir, "fasta-", EXT_SUMMARY);
+    try {
+      try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+        props.store(w, "FragPipe FASTA index");
+      }
+      move(tmp, file(dir, path, EXT_SUMMARY));
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  private static void move(Path from, Path to) throws IOException {
+    try {
+      Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private static void writeVarLong(DataOutputStream out, long v) throws IOException {
+    while ((v & ~0x7FL) != 0) {
+      out.writeByte((int) ((v & 0x7F) | 0x80));
+      v >>>= 7;
+    }
+    out.writeByte((int) v);
+  }
+
+  private static long readVarLong(DataInputStream in) throws IOException {
+    long v = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      final byte b = in.readByte();
+      v |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return v;
+      }
+    }
+    throw new IOException("Malformed FASTA offsets file");
+  }
+}
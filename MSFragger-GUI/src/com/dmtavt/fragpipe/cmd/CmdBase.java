@@ -142,6 +142,22 @@ public abstract class CmdBase {
     return exts;
   }
 
+  /**
+   * Splits a thread budget between the processes of one parallel group. The process manager
+   * starts at most as many processes at once as there are threads, so with fewer processes than
+   * threads each of them gets a share, the first ones one more if it doesn't divide evenly, and
+   * with more processes every one gets a single thread.
+   */
+  public static int[] threadShares(int threads, int processes) {
+    threads = Math.max(1, threads);
+    final int[] shares = new int[processes];
+    final int concurrent = Math.max(1, Math.min(processes, threads));
+    for (int i = 0; i < processes; i++) {
+      shares[i] = threads / concurrent + (i < threads % concurrent ? 1 : 0);
+    }
+    return shares;
+  }
+
   public static List<String> asParts(String cmdString) {
     return StringUtils.splitCommandLine(cmdString);
   }
@@ -50,18 +50,31 @@ public class CmdCheckCentroid extends CmdBase {
       return false;
     }
 
+    // all files are checked in one go, unless the command line gets too long
+    final int commandLenLimit = 32000;
+    List<String> cmd = null;
+    int cmdLen = 0;
     for (InputLcmsFile lcms : lcmsFiles) {
-      List<String> cmd = new ArrayList<>();
-      cmd.add(Fragpipe.getBinJava());
-      cmd.add("-Xmx" + ramGb + "G");
-      cmd.add("-cp");
-      cmd.add(constructClasspathString(classpathJars));
-      cmd.add(CheckCentroid.class.getCanonicalName());
-      cmd.add(lcms.getPath().toAbsolutePath().toString());
-      cmd.add(nThreads + "");
-      ProcessBuilder pb = new ProcessBuilder(cmd);
-      pbis.add(PbiBuilder.from(pb));
-      break; // Only check one file to save some time.
+      final String path = lcms.getPath().toAbsolutePath().toString();
+      if (cmd != null && cmdLen + path.length() + 1 > commandLenLimit) {
+        pbis.add(new PbiBuilder().setPb(new ProcessBuilder(cmd)).setThreads(nThreads).create());
+        cmd = null;
+      }
+      if (cmd == null) {
+        cmd = new ArrayList<>();
+        cmd.add(Fragpipe.getBinJava());
+        cmd.add("-Xmx" + ramGb + "G");
+        cmd.add("-cp");
+        cmd.add(constructClasspathString(classpathJars));
+        cmd.add(CheckCentroid.class.getCanonicalName());
+        cmd.add(nThreads + "");
+        cmdLen = String.join(" ", cmd).length();
+      }
+      cmd.add(path);
+      cmdLen += path.length() + 1;
+    }
+    if (cmd != null) {
+      pbis.add(new PbiBuilder().setPb(new ProcessBuilder(cmd)).setThreads(nThreads).create());
     }
 
     isConfigured = true;
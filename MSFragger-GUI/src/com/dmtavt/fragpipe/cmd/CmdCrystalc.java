@@ -214,7 +214,7 @@ public class CmdCrystalc extends CmdBase {
         cmd.add(pepxml.toString());
         ProcessBuilder pb = new ProcessBuilder(cmd);
         pb.directory(outDir.toFile());
-        pbis.add(PbiBuilder.from(pb));
+        pbis.add(new PbiBuilder().setPb(pb).setRamGb(ramGb).setThreads(ccParams.getThread() > 0 ? ccParams.getThread() : Integer.MAX_VALUE).create());
       }
     }
 
@@ -108,6 +108,9 @@ public class CmdDiann extends CmdBase {
 
     String LD_PRELOAD_str = getLDPRELOAD(diannPath);
 
+    final List<ProcessBuilder> pbsDiann = new ArrayList<>();
+    final List<ProcessBuilder> pbsPlot = new ArrayList<>();
+    final List<Long> groupBytes = new ArrayList<>();
     for (LcmsFileGroup group : lcmsFileGroups) {
       final Path groupWd = group.outputDir(wd);
 
@@ -148,23 +151,13 @@ public class CmdDiann extends CmdBase {
       }
 
       TreeMap<Long, List<Path>> sizeInputLcms = new TreeMap<>(Comparator.reverseOrder());
+      long bytes = 0;
       for (Path inputLcmsPath : inputLcmsPaths) {
         long size = 0;
-        try {
-          if (Files.exists(inputLcmsPath) && Files.isReadable(inputLcmsPath)) {
-            if (Files.isDirectory(inputLcmsPath)) {
-              for (Path p : Files.walk(inputLcmsPath).collect(Collectors.toList())) {
-                if (Files.isReadable(p) && Files.isRegularFile(p)) {
-                  size += Files.size(p);
-                }
-              }
-            } else if (Files.isRegularFile(inputLcmsPath)) {
-              size = Files.size(inputLcmsPath);
-            }
-          }
-        } catch (Exception e) {
-          e.printStackTrace();
+        if (Files.exists(inputLcmsPath) && Files.isReadable(inputLcmsPath)) {
+          size = PerFileJvmPlan.sizeOnDisk(inputLcmsPath);
         }
+        bytes += size;
         List<Path> t = sizeInputLcms.get(size);
         if (t == null) {
           t = new ArrayList<>(1);
@@ -189,7 +182,7 @@ public class CmdDiann extends CmdBase {
       cmd.add("--lib");
       cmd.add((libraryPath != null && !libraryPath.isEmpty()) ? libraryPath : "library.tsv");
       cmd.add("--threads");
-      cmd.add(String.valueOf(nThreads));
+      cmd.add(String.valueOf(nThreads)); // set when all groups are known
       cmd.add("--verbose");
       cmd.add("1");
       cmd.add("--out");
@@ -241,7 +234,8 @@ public class CmdDiann extends CmdBase {
       if (LD_PRELOAD_str != null) {
         pb.environment().put("LD_PRELOAD", LD_PRELOAD_str);
       }
-      pbis.add(PbiBuilder.from(pb));
+      pbsDiann.add(pb);
+      groupBytes.add(bytes);
 
       if (isWindows()) {
         // Plotting
@@ -252,9 +246,28 @@ public class CmdDiann extends CmdBase {
         cmd2.add("diann-output" + File.separator + "diann-output.pdf");
         ProcessBuilder pb2 = new ProcessBuilder(cmd2);
         pb2.directory(groupWd.toFile());
-        pbis.add(PbiBuilder.from(pb2));
+        pbsPlot.add(pb2);
+      }
+    }
+
+    // groups are independent, quantify several of them at once if there are enough threads
+    final DiannGroupPlan plan = DiannGroupPlan.create(groupBytes, nThreads);
+    final List<Integer> order = new ArrayList<>();
+    for (int i = 0; i < pbsDiann.size(); i++) {
+      order.add(i);
+    }
+    order.sort(Comparator.comparingInt(i -> plan.wave[i]));
+    for (int i : order) {
+      final ProcessBuilder pb = pbsDiann.get(i);
+      final List<String> cmd = pb.command();
+      cmd.set(cmd.indexOf("--threads") + 1, String.valueOf(plan.threads[i]));
+      final PbiBuilder b = new PbiBuilder().setPb(pb).setThreads(plan.threads[i]).setRamGb(plan.ramGb[i]);
+      if (plan.parallel > 1) {
+        b.setParallelGroup(getCmdName() + " wave " + (plan.wave[i] + 1));
       }
+      pbis.add(b.create());
     }
+    pbis.addAll(PbiBuilder.from(pbsPlot));
 
     isConfigured = true;
     return true;
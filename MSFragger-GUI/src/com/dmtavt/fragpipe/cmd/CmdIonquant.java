@@ -276,7 +276,7 @@ public class CmdIonquant extends CmdBase {
 
     ProcessBuilder pb = new ProcessBuilder(cmd);
     pb.directory(wd.toFile());
-    pbis.add(PbiBuilder.from(pb));
+    pbis.add(new PbiBuilder().setPb(pb).setRamGb(ramGb).setThreads(nThreads).create());
 
     isConfigured = true;
     return true;
@@ -58,7 +58,7 @@ public class CmdIprophet extends CmdBase {
 
     ProcessBuilder pb = new ProcessBuilder(cmd);
     pb.directory(wd.toFile());
-    pbis.add(PbiBuilder.from(pb));
+    pbis.add(new PbiBuilder().setPb(pb).setThreads(nThreads).create());
 
     isConfigured = true;
     return true;
@@ -27,6 +27,7 @@ import static com.github.chhh.utils.OsUtils.isWindows;
 import com.dmtavt.fragpipe.Fragpipe;
 import com.dmtavt.fragpipe.FragpipeLocations;
 import com.dmtavt.fragpipe.api.InputLcmsFile;
+import com.dmtavt.fragpipe.tools.msbooster.PredictionCache;
 import com.github.chhh.utils.SwingUtils;
 import java.awt.Component;
 import java.io.BufferedWriter;
@@ -63,7 +64,7 @@ public class CmdMSBooster extends CmdBase {
     return NAME;
   }
 
-  public boolean configure(Component comp, int ramGb, int threads, Map<InputLcmsFile, List<Path>> lcmsToFraggerPepxml, boolean predictRT, boolean predictSpectra, boolean useCorrelatedFeatures, boolean hasDda, boolean hasDia, boolean hasGpfDia, boolean hasDiaLib, boolean isRunDiaU, boolean isOpenMassOffsetSearch) {
+  public boolean configure(Component comp, Path jarFragpipe, int ramGb, int threads, Map<InputLcmsFile, List<Path>> lcmsToFraggerPepxml, boolean predictRT, boolean predictSpectra, boolean useCorrelatedFeatures, boolean reusePredictions, boolean hasDda, boolean hasDia, boolean hasGpfDia, boolean hasDiaLib, boolean isRunDiaU, boolean isOpenMassOffsetSearch) {
     initPreConfig();
 
     // MSBooster does not compatible with open search and mass-offset search.
@@ -163,6 +164,13 @@ public class CmdMSBooster extends CmdBase {
       }
     }
 
+    // predictions of earlier runs over the same peptides are reused, see PredictionCache
+    final Path predictionCacheDir = FragpipeLocations.get().getPathLongTermStorage().resolve(PredictionCache.DIR_CACHE);
+    final String model = JAR_MSBOOSTER_NAME + " DIA-NN " + binaryId(diannPath.get(0));
+    if (reusePredictions) {
+      pbis.add(PbiBuilder.from(pbPredictionCache(jarFragpipe, "lookup", predictionCacheDir, paramPath, model)));
+    }
+
     List<String> cmd = new ArrayList<>();
     cmd.add(Fragpipe.getBinJava());
     if (Fragpipe.headless) {
@@ -179,9 +187,42 @@ public class CmdMSBooster extends CmdBase {
     pb.directory(wd.toFile());
     if (LD_PRELOAD_str != null)
       pb.environment().put("LD_PRELOAD", LD_PRELOAD_str);
-    pbis.add(PbiBuilder.from(pb));
+    pbis.add(new PbiBuilder().setPb(pb).setRamGb(ramGb).setThreads(threads).create());
+
+    if (reusePredictions) {
+      pbis.add(PbiBuilder.from(pbPredictionCache(jarFragpipe, "store", predictionCacheDir, paramPath, model)));
+    }
 
     isConfigured = true;
     return true;
   }
+
+  /**
+   * Identifies the DIA-NN build MSBooster runs by its location, size and modification time, so
+   * that switching DIA-NN builds doesn't reuse predictions of the previous one.
+   */
+  static String binaryId(Path bin) {
+    final Path abs = bin.toAbsolutePath().normalize();
+    try {
+      return abs + " " + Files.size(abs) + " " + Files.getLastModifiedTime(abs).toMillis();
+    } catch (IOException e) {
+      log.warn("Could not read size and modification time of " + abs, e);
+      return abs.toString();
+    }
+  }
+
+  private ProcessBuilder pbPredictionCache(Path jarFragpipe, String command, Path cacheDir, Path paramPath, String model) {
+    List<String> cmd = new ArrayList<>();
+    cmd.add(Fragpipe.getBinJava());
+    cmd.add("-cp");
+    cmd.add(jarFragpipe.toAbsolutePath().toString());
+    cmd.add(PredictionCache.class.getCanonicalName());
+    cmd.add(command);
+    cmd.add(cacheDir.toAbsolutePath().toString());
+    cmd.add(paramPath.toAbsolutePath().toString());
+    cmd.add(model);
+    ProcessBuilder pb = new ProcessBuilder(cmd);
+    pb.directory(wd.toFile());
+    return pb;
+  }
 }
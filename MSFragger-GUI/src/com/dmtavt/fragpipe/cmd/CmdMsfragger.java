@@ -21,16 +21,13 @@ import static com.github.chhh.utils.PathUtils.testFilePath;
 
 import com.dmtavt.fragpipe.Fragpipe;
 import com.dmtavt.fragpipe.api.InputLcmsFile;
-import com.dmtavt.fragpipe.api.PyInfo;
-import com.dmtavt.fragpipe.exceptions.NoStickyException;
-import com.dmtavt.fragpipe.messages.NoteConfigPython;
 import com.dmtavt.fragpipe.tools.dbsplit.DbSplit2;
+import com.dmtavt.fragpipe.tools.dbsplit.SplitSearch;
 import com.dmtavt.fragpipe.tools.enums.CleavageType;
 import com.dmtavt.fragpipe.tools.enums.FraggerOutputType;
 import com.dmtavt.fragpipe.tools.enums.MassTolUnits;
 import com.dmtavt.fragpipe.tools.enums.PrecursorMassTolUnits;
 import com.dmtavt.fragpipe.tools.fragger.MsfraggerParams;
-import com.github.chhh.utils.OsUtils;
 import com.github.chhh.utils.StringUtils;
 import com.github.chhh.utils.UsageTrigger;
 import java.awt.Component;
@@ -63,6 +60,8 @@ public class CmdMsfragger extends CmdBase {
   private static volatile FileFilter ff = null;
   private static volatile Predicate<File> supportedFilePredicate = null;
   private static final Path PATH_NONE = Paths.get("");
+  /** Heap of the split database driver, it only writes the FASTA slices and merges their outputs. */
+  private static final int SPLIT_DRIVER_RAM_GB = 2;
   private static volatile Path pathThermo = PATH_NONE;
   private static volatile Path pathBruker = PATH_NONE;
   private static final List<String> timsdataPattern = Arrays.asList("^timsdata.*\\.dll", "^libtimsdata.*\\.so");
@@ -70,6 +69,7 @@ public class CmdMsfragger extends CmdBase {
   private MsfraggerParams paramsDda;
   private MsfraggerParams paramsDia;
   private MsfraggerParams paramsGpfDia;
+  private final List<String> batchPlans = new ArrayList<>();
 
   public CmdMsfragger(boolean isRun, Path workDir, FraggerOutputType fraggerOutputType) {
     super(isRun, workDir);
@@ -297,13 +297,14 @@ public class CmdMsfragger extends CmdBase {
   public boolean configure(Component comp, boolean isDryRun, Path jarFragpipe, UsageTrigger binFragger, String pathFasta, MsfraggerParams params, int numSlices, int ramGb, List<InputLcmsFile> lcmsFiles, final String decoyTag, boolean hasDda, boolean hasDia, boolean hasGpfDia, boolean hasDiaLib, boolean isRunDiaU) {
 
     initPreConfig();
+    batchPlans.clear();
 
     final boolean isSlicing = numSlices > 1;
     if (isSlicing) {
       // slicing requested
       if (!DbSplit2.get().isInitialized()) {
         if (Fragpipe.headless) {
-          log.error("MSFragger: database splitting in more than 1 chunk. However not all preconditions for enabling slicing were met, check that Python is installed and meets minimum version requirements.");
+          log.error("MSFragger: database splitting in more than 1 chunk. However not all preconditions for enabling slicing were met, check that MSFragger is configured and meets minimum version requirements.");
         } else {
           JOptionPane.showMessageDialog(comp,
               "MSFragger: database splitting in more than 1 chunk.\n"
@@ -407,9 +408,7 @@ public class CmdMsfragger extends CmdBase {
       }
     }
 
-    // 32k symbols splitting for regular command.
-    // But for slicing it's all up to the python script.
-    // final int commandLenLimit = isSlicing ? Integer.MAX_VALUE : 32000;
+    // 32k symbols splitting for regular command, the split search passes the same files on to MSFragger.
     final int commandLenLimit = 32000; // Make is a little bit smaller than 1 << 15 to make sure that it won't crash.
 
     /* disable deletion of temp dir when error occurs
@@ -442,22 +441,14 @@ public class CmdMsfragger extends CmdBase {
     if (!isSlicing) {
       slicingCmd = null;
     } else {
-      try {
-        NoteConfigPython configPython = Fragpipe.getSticky(NoteConfigPython.class);
-        slicingCmd = Arrays.asList(
-            configPython.pi.getCommand(),
-            DbSplit2.get().getScriptDbslicingPath().toAbsolutePath().normalize().toString(),
-            Integer.toString(numSlices),
-            OsUtils.asSingleArgument(String.join(" ", javaCmd))
-        );
-      } catch (NoStickyException e) {
-        if (Fragpipe.headless) {
-          log.error("DbSplit was enabled, but Python was not configured.");
-        } else {
-          JOptionPane.showMessageDialog(comp, "DbSplit was enabled, but Python was not configured.", "Error", JOptionPane.ERROR_MESSAGE);
-        }
-        return false;
-      }
+      slicingCmd = new ArrayList<>(Arrays.asList(
+          Fragpipe.getBinJava(),
+          "-Xmx" + SPLIT_DRIVER_RAM_GB + "G",
+          "-cp",
+          jarFragpipe.toAbsolutePath().normalize().toString(),
+          SplitSearch.class.getCanonicalName(),
+          Integer.toString(numSlices)));
+      slicingCmd.addAll(javaCmd);
     }
 
     Map<String, List<InputLcmsFile>> t = new TreeMap<>();
@@ -494,8 +485,8 @@ public class CmdMsfragger extends CmdBase {
     }
 
     for (Map.Entry<String, List<InputLcmsFile>> e : t.entrySet()) {
-      int fileIndex = 0;
-      while (fileIndex < e.getValue().size()) {
+      MsfraggerBatchPlan plan = null;
+      for (int batchIndex = 0; plan == null || batchIndex < plan.batches.size(); batchIndex++) {
         List<String> cmd = new ArrayList<>();
         if (isSlicing) {
           cmd.addAll(slicingCmd);
@@ -524,31 +515,24 @@ public class CmdMsfragger extends CmdBase {
           return false;
         }
 
-        List<InputLcmsFile> addedLcmsFiles = new ArrayList<>();
-        while (fileIndex < e.getValue().size()) {
-          InputLcmsFile f = e.getValue().get(fileIndex);
-          // if adding this file to the command line will make the command length
-          // longer than the allowed maximum, stop adding files
-          if (sb.length() + f.getPath().toString().length() > commandLenLimit) {
-            break;
-          }
-          sb.append(f.getPath().toString()).append(" ");
+        final MsfraggerParams p = e.getKey().contentEquals("DDA") ? paramsDda : (e.getKey().contentEquals("DIA") ? paramsDia : paramsGpfDia);
+        if (plan == null) {
+          plan = MsfraggerBatchPlan.create(e.getValue(), ramGb, numSlices, p.getCalibrateMass(), sb.length(), commandLenLimit);
+          batchPlans.add(plan.describe(e.getKey()));
+          log.info(plan.describe(e.getKey()));
+        }
+
+        List<InputLcmsFile> addedLcmsFiles = plan.batches.get(batchIndex);
+        for (InputLcmsFile f : addedLcmsFiles) {
           cmd.add(f.getPath().toString());
-          addedLcmsFiles.add(f);
-          fileIndex++;
         }
 
         ProcessBuilder pb = new ProcessBuilder(cmd);
 
-        if (isSlicing) {
-          PyInfo.modifyEnvironmentVariablesForPythonSubprocesses(pb);
-          pb.environment().put("PYTHONIOENCODING", "utf-8");
-          pb.environment().put("PYTHONUNBUFFERED", "true");
-        }
-
         pb.directory(wd.toFile());
 
-        pbis.add(PbiBuilder.from(pb));
+        // zero threads in the params means all of them
+        pbis.add(new PbiBuilder().setPb(pb).setRamGb(isSlicing ? ramGb + SPLIT_DRIVER_RAM_GB : ramGb).setThreads(p.getNumThreads() > 0 ? p.getNumThreads() : Integer.MAX_VALUE).create());
         sb.setLength(0);
 
         // move the pepxml files if the output directory is not the same as where
@@ -605,6 +589,11 @@ public class CmdMsfragger extends CmdBase {
     return true;
   }
 
+  /** How the LCMS files were split into MSFragger commands, for the run log. */
+  public List<String> getBatchPlans() {
+    return Collections.unmodifiableList(batchPlans);
+  }
+
   private void adjustDiaParams(MsfraggerParams params, MsfraggerParams paramsNew, String dataType) {
     paramsNew.setReportAlternativeProteins(true);
     paramsNew.setShiftedIons(false);
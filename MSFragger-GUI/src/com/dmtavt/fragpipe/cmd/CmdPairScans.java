@@ -90,23 +90,25 @@ public class CmdPairScans extends CmdBase {
             }
         }
 
+        // one JVM per file, as many side by side as the RAM and thread budget allows
+        final PerFileJvmPlan plan = PerFileJvmPlan.create(PerFileJvmPlan.HeapModel.PAIR_SCANS, lcmsFiles, ramGb, nThreads);
         for (InputLcmsFile lcms : lcmsFiles) {
             List<String> cmd = new ArrayList<>();
             cmd.add(Fragpipe.getBinJava());
-            cmd.add("-Xmx" + ramGb + "G");
+            cmd.add("-Xmx" + plan.heapGb + "G");
             cmd.add(brukerLib);
             cmd.add(thermoLib);
             cmd.add("-cp");
             cmd.add(constructClasspathString(classpathJars));
             cmd.add(PairScans.class.getCanonicalName());
             cmd.add(lcms.getPath().toAbsolutePath().toString());
-            cmd.add(nThreads + "");
+            cmd.add(plan.threadsPerJob + "");
             cmd.add(params.getActivation1());
             cmd.add(params.getActivation2());
             cmd.add(String.valueOf(params.isReverseScanOrder()));
             cmd.add(String.valueOf(params.isSingleScanType()));
             ProcessBuilder pb = new ProcessBuilder(cmd);
-            pbis.add(PbiBuilder.from(pb));
+            pbis.add(new PbiBuilder().setPb(pb).setParallelGroup(getCmdName()).setRamGb(plan.heapGb).setThreads(plan.threadsPerJob).create());
         }
 
         isConfigured = true;
@@ -19,10 +19,12 @@ package com.dmtavt.fragpipe.cmd;
 
 import com.dmtavt.fragpipe.Fragpipe;
 import com.dmtavt.fragpipe.FragpipeLocations;
+import com.dmtavt.fragpipe.FragpipeRun;
 import com.dmtavt.fragpipe.api.InputLcmsFile;
 import com.dmtavt.fragpipe.exceptions.NoStickyException;
 import com.dmtavt.fragpipe.process.ProcessManager;
 import com.dmtavt.fragpipe.tabs.TabMsfragger;
+import com.dmtavt.fragpipe.tools.pepproph.FixPepProphLcmsPath;
 import com.dmtavt.fragpipe.tools.pepproph.PeptideProphetParams;
 import com.dmtavt.fragpipe.tools.philosopher.PhilosopherProps;
 import com.dmtavt.fragpipe.util.RewritePepxml;
@@ -48,7 +50,6 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.UUID;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import javax.swing.Box;
@@ -164,7 +165,7 @@ public class CmdPeptideProphet extends CmdBase {
     panel.add(new JScrollPane(table), BorderLayout.CENTER);
 
     String[] options = {"Yes - Delete now", "No - Continue as is", "Cancel"};
-    if (Fragpipe.headless)
+    if (Fragpipe.headless || FragpipeRun.isResuming())
       return true;
     final int confirmation = JOptionPane
             .showOptionDialog(comp, panel, "Delete the files?",
@@ -226,6 +227,9 @@ public class CmdPeptideProphet extends CmdBase {
       LinkedList<ProcessBuilderInfo> pbisPreParallel = new LinkedList<>();
       LinkedList<ProcessBuilderInfo> pbisParallel = new LinkedList<>();
       LinkedList<ProcessBuilderInfo> pbisPostParallel = new LinkedList<>();
+      // every file has its own workspace and temp dir, so these can all run side by side too
+      final String groupInit = getCmdName() + ": Workspace init";
+      final String groupDelete = getCmdName() + ": Delete temp";
 
       for (Map.Entry<InputLcmsFile, List<Path>> e : pepxmlFiles.entrySet()) {
         for (Path pepxmlPath : e.getValue()) {
@@ -259,7 +263,7 @@ public class CmdPeptideProphet extends CmdBase {
           List<String> cmdPhiInit = new ArrayList<>();
           cmdPhiInit.add(phi.useBin());
           cmdPhiInit.addAll(asParts("workspace --init --nocheck --temp"));
-          final Path phiTempDir = Paths.get(System.getProperty("java.io.tmpdir"), UUID.randomUUID().toString());
+          final Path phiTempDir = CmdPhilosopherWorkspaceCleanInit.phiTempDir(temp);
           try {
             Files.createDirectories(phiTempDir);
           } catch (IOException ex) {
@@ -270,8 +274,8 @@ public class CmdPeptideProphet extends CmdBase {
           pbPhiInit.directory(temp.toFile());
           pbisPreParallel.add(new PbiBuilder()
               .setPb(pbPhiInit)
-              .setName(getCmdName() + ": Workspace init")
-              .setParallelGroup(ProcessBuilderInfo.GROUP_SEQUENTIAL).create());
+              .setName(groupInit)
+              .setParallelGroup(groupInit).create());
 
           // PeptideProphet itself
           List<String> cmdPp = new ArrayList<>();
@@ -297,8 +301,8 @@ public class CmdPeptideProphet extends CmdBase {
           pbisPostParallel.addAll(pbsDeleteTemp.stream()
               .map(pb -> new PbiBuilder()
                   .setPb(pb)
-                  .setParallelGroup(ProcessBuilderInfo.GROUP_SEQUENTIAL)
-                  .setName(getCmdName() + ": Delete temp").create())
+                  .setParallelGroup(groupDelete)
+                  .setName(groupDelete).create())
               .collect(Collectors.toList()));
         }
       }
@@ -356,7 +360,9 @@ public class CmdPeptideProphet extends CmdBase {
 
     for (Entry<Path, List<InputLcmsFile>> kv : pepxmlToLcms.entrySet()) {
       List<Path> lcmsPaths = Seq.seq(kv.getValue()).map(InputLcmsFile::getPath).distinct().toList();
-      ProcessBuilder pbRewrite = pbRewritePepxml(jarFragpipe, kv.getKey(), lcmsPaths);
+      // a pepxml from a single LCMS file gets its tags fixed in place, combined ones are rewritten by base name
+      Class<?> rewriter = lcmsPaths.size() == 1 ? FixPepProphLcmsPath.class : RewritePepxml.class;
+      ProcessBuilder pbRewrite = pbRewritePepxml(jarFragpipe, rewriter, kv.getKey(), lcmsPaths);
       pbRewrite.directory(kv.getValue().get(0).outputDir(wd).toFile());
       pbis.add(new PbiBuilder().setName("Rewrite pepxml")
           .setPb(pbRewrite).setParallelGroup(ProcessBuilderInfo.GROUP_SEQUENTIAL).create());
@@ -431,7 +437,7 @@ public class CmdPeptideProphet extends CmdBase {
     return true;
   }
 
-  private static ProcessBuilder pbRewritePepxml(Path jarFragpipe, Path pepxml, List<Path> lcmsPaths) {
+  private static ProcessBuilder pbRewritePepxml(Path jarFragpipe, Class<?> rewriter, Path pepxml, List<Path> lcmsPaths) {
     if (jarFragpipe == null) {
       throw new IllegalArgumentException("jar can't be null");
     }
@@ -445,10 +451,10 @@ public class CmdPeptideProphet extends CmdBase {
       log.debug("Dev message: Looks like FragPipe was run from IDE, changing libs directory to: {}", libsDir);
     }
     cmd.add(libsDir);
-    cmd.add(RewritePepxml.class.getCanonicalName());
+    cmd.add(rewriter.getCanonicalName());
     cmd.add(pepxml.toAbsolutePath().normalize().toString());
     for (Path lcms : lcmsPaths) {
-      cmd.add(lcms.toString());
+      cmd.add(lcms.toAbsolutePath().normalize().toString());
     }
     return new ProcessBuilder(cmd);
   }
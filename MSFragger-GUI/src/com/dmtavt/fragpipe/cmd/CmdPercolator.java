@@ -172,7 +172,7 @@ public class CmdPercolator extends CmdBase {
             .setParallelGroup(basename).create());
 
         // convert the percolator output tsv to PeptideProphet's pep.xml format
-        ProcessBuilder pbRewrite = pbConvertToPepxml(jarFragpipe, "interact-" + basename, strippedBaseName, basename, e.getKey().getDataType().contentEquals("DDA"), minProb);
+        ProcessBuilder pbRewrite = pbConvertToPepxml(jarFragpipe, pepxmlDir, "interact-" + basename, strippedBaseName, basename, e.getKey().getDataType().contentEquals("DDA"), minProb, tabWorkflow.getThreads());
         pbRewrite.directory(pepxmlPath.getParent().toFile());
         pbisPostParallel.add(new PbiBuilder().setName("Percolator: Convert to pepxml").setPb(pbRewrite).setParallelGroup(ProcessBuilderInfo.GROUP_SEQUENTIAL).create());
 
@@ -221,7 +221,7 @@ public class CmdPercolator extends CmdBase {
     return b;
   }
 
-  private static ProcessBuilder pbConvertToPepxml(Path jarFragpipe, String outBaseName, String stripedBasename, String basename, boolean isDDA, double minProb) {
+  private static ProcessBuilder pbConvertToPepxml(Path jarFragpipe, Path dir, String outBaseName, String stripedBasename, String basename, boolean isDDA, double minProb, int nThreads) {
     if (jarFragpipe == null) {
       throw new IllegalArgumentException("jar can't be null");
     }
@@ -236,13 +236,15 @@ public class CmdPercolator extends CmdBase {
     }
     cmd.add(libsDir);
     cmd.add(PercolatorOutputToPepXML.class.getCanonicalName());
-    cmd.add(stripedBasename + ".pin");
-    cmd.add(basename);
-    cmd.add(stripedBasename + "_percolator_target_psms.tsv");
-    cmd.add(stripedBasename + "_percolator_decoy_psms.tsv");
-    cmd.add(outBaseName);
+    // absolute paths, so that the conversion can also run inside FragPipe's JVM
+    cmd.add(dir.resolve(stripedBasename + ".pin").toAbsolutePath().toString());
+    cmd.add(dir.resolve(basename).toAbsolutePath().toString());
+    cmd.add(dir.resolve(stripedBasename + "_percolator_target_psms.tsv").toAbsolutePath().toString());
+    cmd.add(dir.resolve(stripedBasename + "_percolator_decoy_psms.tsv").toAbsolutePath().toString());
+    cmd.add(dir.resolve(outBaseName).toAbsolutePath().toString());
     cmd.add(isDDA ? "DDA" : "DIA");
     cmd.add(minProb + "");
+    cmd.add(nThreads + "");
     return new ProcessBuilder(cmd);
   }
 
@@ -17,6 +17,7 @@
 
 package com.dmtavt.fragpipe.cmd;
 
+import com.dmtavt.fragpipe.FragpipeRun;
 import com.dmtavt.fragpipe.api.InputLcmsFile;
 import com.dmtavt.fragpipe.api.LcmsFileGroup;
 import com.dmtavt.fragpipe.tools.philosopher.PhilosopherProps;
@@ -27,6 +28,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -36,6 +38,7 @@ import java.util.stream.Collectors;
 public class CmdPhilosopherFilter extends CmdBase {
 
   private static final Pattern pattern = Pattern.compile("interact-.+\\.pep\\.xml\\.tmp\\..+");
+  private static final double BYTES_PER_GB = 1024.0 * 1024 * 1024;
 
   public static final String NAME = "PhilosopherFilter";
   public static final String FN_CAPTURE_STDOUT = "filter.log";
@@ -56,7 +59,12 @@ public class CmdPhilosopherFilter extends CmdBase {
 
     initPreConfig();
 
-    for (Entry<LcmsFileGroup, Path> e : mapGroupsToProtxml.entrySet()) {
+    // the group that computes razor peptides goes first, the others read its razor.bin and
+    // then run side by side, each in its own workspace
+    final List<Entry<LcmsFileGroup, Path>> groups = new ArrayList<>(mapGroupsToProtxml.entrySet());
+    groups.sort(Comparator.comparing(e -> !e.getKey().name.contentEquals(firstInputLcmsFile.getGroup())));
+
+    for (Entry<LcmsFileGroup, Path> e : groups) {
       final LcmsFileGroup group = e.getKey();
       final Path protxml = e.getValue();
       if (group.lcmsFiles.isEmpty())
@@ -64,7 +72,7 @@ public class CmdPhilosopherFilter extends CmdBase {
             + "This is a bug, report to developers.");
       Path groupWd = group.outputDir(wd);
 
-      if (Files.exists(groupWd) && Files.isDirectory(groupWd)) {
+      if (!FragpipeRun.isResuming() && Files.exists(groupWd) && Files.isDirectory(groupWd)) {
         try {
           for (Path p : Files.list(groupWd).filter(Files::isRegularFile).filter(p -> pattern.matcher(p.getFileName().toString()).matches()).collect(Collectors.toList())) {
             Files.deleteIfExists(p);
@@ -93,10 +101,12 @@ public class CmdPhilosopherFilter extends CmdBase {
       cmd.add(decoyTag);
       cmd.add("--pepxml");
       cmd.add(groupWd.toString());
+      boolean isRazorGroup = false;
       if (!dontUseFilterProtxml) {
         cmd.add("--protxml");
         cmd.add(protxml.toString());
         if (group.name.contentEquals(firstInputLcmsFile.getGroup())) {
+          isRazorGroup = true;
           cmd.add("--razor");
         } else {
           cmd.add("--razorbin");
@@ -106,13 +116,29 @@ public class CmdPhilosopherFilter extends CmdBase {
 
       ProcessBuilder pb = new ProcessBuilder(cmd);
       pb.directory(groupWd.toFile());
-      pbis.add(PbiBuilder.from(pb));
+      if (isRazorGroup) {
+        pbis.add(PbiBuilder.from(pb));
+      } else {
+        pbis.add(new PbiBuilder().setPb(pb).setParallelGroup(NAME).setRamGb(estimateRamGb(group)).create());
+      }
     }
 
     isConfigured = true;
     return true;
   }
 
+  /**
+   * Philosopher keeps all PSMs of a group in memory, the number of which grows with the size of
+   * the group's LCMS files.
+   */
+  static int estimateRamGb(LcmsFileGroup group) {
+    long bytes = 0;
+    for (InputLcmsFile f : group.lcmsFiles) {
+      bytes += PerFileJvmPlan.sizeOnDisk(f.getPath());
+    }
+    return 1 + (int) Math.ceil(bytes / BYTES_PER_GB * 0.5);
+  }
+
   @Override
   public boolean usesPhi() {
     return true;
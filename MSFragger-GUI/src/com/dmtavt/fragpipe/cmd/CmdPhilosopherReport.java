@@ -22,7 +22,7 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Map.Entry;
 import java.util.stream.Collectors;
 import com.dmtavt.fragpipe.api.LcmsFileGroup;
 import com.dmtavt.fragpipe.tools.philosopher.PhilosopherProps;
@@ -46,9 +46,11 @@ public class CmdPhilosopherReport extends CmdBase {
 
     initPreConfig();
 
-    Set<Path> groupWds = mapGroupsToProtxml.keySet().stream().map(g -> g.outputDir(wd))
-        .collect(Collectors.toSet());
-    for (Path groupWd : groupWds) {
+    // groups have separate workspaces, reports are generated side by side
+    Map<Path, LcmsFileGroup> groupWds = mapGroupsToProtxml.keySet().stream()
+        .collect(Collectors.toMap(g -> g.outputDir(wd), g -> g, (g1, g2) -> g1));
+    for (Entry<Path, LcmsFileGroup> kv : groupWds.entrySet()) {
+      final Path groupWd = kv.getKey();
       List<String> cmd = new ArrayList<>();
       cmd.add(usePhilosopher.useBin(groupWd));
       cmd.add(PhilosopherProps.CMD_REPORT);
@@ -63,7 +65,8 @@ public class CmdPhilosopherReport extends CmdBase {
       }
       ProcessBuilder pb = new ProcessBuilder(cmd);
       pb.directory(groupWd.toFile());
-      pbis.add(PbiBuilder.from(pb));
+      pbis.add(new PbiBuilder().setPb(pb).setParallelGroup(NAME)
+          .setRamGb(CmdPhilosopherFilter.estimateRamGb(kv.getValue())).create());
     }
 
     isConfigured = true;
@@ -19,6 +19,7 @@ package com.dmtavt.fragpipe.cmd;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -45,6 +46,16 @@ public class CmdPhilosopherWorkspaceCleanInit extends CmdBase {
     return NAME;
   }
 
+  /**
+   * Temp dir for the Philosopher workspace in the given directory. Named after the workspace,
+   * so that the command line is the same every time the workflow is configured and checkpoints
+   * of a previous run stay valid.
+   */
+  public static Path phiTempDir(Path workspace) {
+    final String name = workspace.toAbsolutePath().normalize().toString();
+    return Paths.get(System.getProperty("java.io.tmpdir"), "fragpipe-" + UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)));
+  }
+
   public boolean configure(UsageTrigger usePhilosopher) {
     return configure(usePhilosopher, true);
   }
@@ -65,7 +76,7 @@ public class CmdPhilosopherWorkspaceCleanInit extends CmdBase {
       List<String> cmd = new ArrayList<>();
       cmd.add(usePhilosopher.useBin(wd));
       cmd.addAll(asParts("workspace --init --nocheck --temp"));
-      final Path phiTempDir = Paths.get(System.getProperty("java.io.tmpdir"), UUID.randomUUID().toString());
+      final Path phiTempDir = phiTempDir(wd);
       try {
         Files.createDirectories(phiTempDir);
       } catch (IOException ex) {
@@ -24,6 +24,7 @@ import com.dmtavt.fragpipe.api.InputLcmsFile;
 import com.dmtavt.fragpipe.api.LcmsFileGroup;
 import com.dmtavt.fragpipe.tools.philosopher.PhilosopherProps;
 import com.dmtavt.fragpipe.tools.protproph.ProteinProphetParams;
+import com.dmtavt.fragpipe.util.CheckFileList;
 import com.github.chhh.utils.FileListing;
 import com.github.chhh.utils.StringUtils;
 import com.github.chhh.utils.UsageTrigger;
@@ -37,6 +38,7 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -45,7 +47,6 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import javax.swing.JOptionPane;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -112,14 +113,14 @@ public class CmdProteinProphet extends CmdBase {
     return toDelete;
   }
 
-  public boolean configure(Component comp, UsageTrigger usePhilosopher,
+  public boolean configure(Component comp, UsageTrigger usePhilosopher, Path jarFragpipe,
       String txtProteinProphetCmdLineOpts, boolean isMultiExperiment, Map<InputLcmsFile, List<Path>> pepxmlFiles) {
 
     initPreConfig();
 
     // check for existence of old files
-    final Map<LcmsFileGroup, Path> outputs = outputs(pepxmlFiles, isMultiExperiment);
-    final Set<Path> oldFilesForDeletion = findOldFilesForDeletion(new ArrayList<>(outputs.values()));
+    final Map<LcmsFileGroup, Path> groupToProtxml = outputs(pepxmlFiles, isMultiExperiment);
+    final Set<Path> oldFilesForDeletion = findOldFilesForDeletion(new ArrayList<>(groupToProtxml.values()));
     if (!deleteFiles(comp, oldFilesForDeletion, "prot.xml")) {
       return false;
     }
@@ -127,103 +128,98 @@ public class CmdProteinProphet extends CmdBase {
     ProteinProphetParams proteinProphetParams = new ProteinProphetParams();
     proteinProphetParams.setCmdLineParams(txtProteinProphetCmdLineOpts);
 
-    Map<LcmsFileGroup, Path> groupToProtxml = outputs(pepxmlFiles, isMultiExperiment);
-
-    {
-      Set<Path> interactProtXmls = new HashSet<>(groupToProtxml.values());
-      if (interactProtXmls.size() > 1) {
-        if (Fragpipe.headless) {
-          log.error("[ProteinProphet] Report to developers, more than one interact protxml file when processing experimental groups together.");
-        } else {
-          JOptionPane.showMessageDialog(comp, "[ProteinProphet]\n"
-              + "Report to developers, more than one interact protxml file when\n"
-              + "processing experimental groups together.");
-        }
-        return false;
-      }
-      Path protxml = interactProtXmls.iterator().next();
-      if (!protxml.getParent().equals(wd)) {
-        throw new IllegalStateException("Protxml not in global output directory when groups processed together.");
+    // all experiments go into one combined.prot.xml in the global output directory
+    final Path protxml = groupToProtxml.values().iterator().next();
+    if (!protxml.getParent().equals(wd)) {
+      throw new IllegalStateException("Protxml not in global output directory when groups processed together.");
+    }
+    final Set<String> pepxmlsPaths = new LinkedHashSet<>();
+    for (List<Path> paths : pepxmlFiles.values()) {
+      for (Path path : paths) {
+        pepxmlsPaths.add(path.toString());
       }
-      List<String> pepxmlsPaths = pepxmlFiles.entrySet().stream()
-          .flatMap(pepxml -> pepxml.getValue().stream()).map(Path::toString)
-          .distinct()
-          .collect(Collectors.toList());
-      List<String> cmd = createCmdStub(usePhilosopher, protxml.getParent(), proteinProphetParams);
-
-      final Path filelist = wd.resolve("filelist_proteinprophet.txt");
-
-      if (Files.exists(filelist.getParent())) { // Dry run does not make directories, so does not write the file.
-        try (BufferedWriter bw = Files.newBufferedWriter(filelist)) {
-          for (String f : pepxmlsPaths) {
-            bw.write(f);
-            bw.newLine();
-          }
-        } catch (IOException e) {
-          throw new UncheckedIOException(e);
+    }
+    final Path filelist = wd.resolve("filelist_proteinprophet.txt");
+    if (Files.exists(filelist.getParent())) { // Dry run does not make directories, so does not write the file.
+      try (BufferedWriter bw = Files.newBufferedWriter(filelist)) {
+        for (String f : pepxmlsPaths) {
+          bw.write(f);
+          bw.newLine();
         }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
       }
-
-      cmd.add(filelist.toString());
-
-      ProcessBuilder pb = new ProcessBuilder(cmd);
-      pb.directory(protxml.getParent().toFile());
-      pbis.add(PbiBuilder.from(pb));
     }
 
+    // the pepXML files are written earlier in the same run, check them all before ProteinProphet starts
+    List<String> cmdCheck = new ArrayList<>();
+    cmdCheck.add(Fragpipe.getBinJava());
+    cmdCheck.add("-cp");
+    cmdCheck.add(jarFragpipe.toAbsolutePath().toString());
+    cmdCheck.add(CheckFileList.class.getCanonicalName());
+    cmdCheck.add(filelist.toAbsolutePath().toString());
+    ProcessBuilder pbCheck = new ProcessBuilder(cmdCheck);
+    pbCheck.directory(wd.toFile());
+    pbis.add(new PbiBuilder().setPb(pbCheck).setName(getCmdName() + ": Check pepXML files").create());
+
+    List<String> cmd = createCmdStub(usePhilosopher, protxml.getParent(), proteinProphetParams);
+    cmd.add(filelist.toString());
+    ProcessBuilder pb = new ProcessBuilder(cmd);
+    pb.directory(protxml.getParent().toFile());
+    setEnvironment(pb.environment(), usePhilosopher);
+    // ProteinProphet holds the peptides of all experiments, reserve memory so it doesn't run
+    // next to other memory hungry tools of the task graph
+    final LcmsFileGroup all = new LcmsFileGroup("all", new ArrayList<>(pepxmlFiles.keySet()));
+    pbis.add(new PbiBuilder().setPb(pb).setRamGb(CmdPhilosopherFilter.estimateRamGb(all)).create());
+
+    isConfigured = true;
+    return true;
+  }
 
-    // by this point each process builder should have its working dir set
-    for (ProcessBuilderInfo pbi : pbis) {
-      ProcessBuilder pb = pbi.pb;
-      Map<String, String> env = pb.environment();
-
-      // add this variable so that TPP didn't try to use webserver stuff
-      String ENV_XML_ONLY = "XML_ONLY";
-      env.put(ENV_XML_ONLY, "1");
-
-      // collect variables from system
-      StringBuilder pathEnv = new StringBuilder();
-      Set<String> mergedKeys = new HashSet<>();
-      Set<String> envKeys = env.keySet();
-      for (String key : envKeys) {
-        if (key.toLowerCase().equals("path")) {
-          String pathVal = env.get(key);
-          pathVal = pathVal.trim();
-          pathEnv.append(pathVal);
-          if (!pathVal.endsWith(";")) {
-            pathEnv.append(";");
-          }
-          mergedKeys.add(key);
+  private void setEnvironment(Map<String, String> env, UsageTrigger usePhilosopher) {
+    // add this variable so that TPP didn't try to use webserver stuff
+    String ENV_XML_ONLY = "XML_ONLY";
+    env.put(ENV_XML_ONLY, "1");
+
+    // collect variables from system
+    StringBuilder pathEnv = new StringBuilder();
+    Set<String> mergedKeys = new HashSet<>();
+    Set<String> envKeys = env.keySet();
+    for (String key : envKeys) {
+      if (key.toLowerCase().equals("path")) {
+        String pathVal = env.get(key);
+        pathVal = pathVal.trim();
+        pathEnv.append(pathVal);
+        if (!pathVal.endsWith(";")) {
+          pathEnv.append(";");
         }
+        mergedKeys.add(key);
       }
-      for (String key : mergedKeys) {
-        env.remove(key);
-      }
+    }
+    for (String key : mergedKeys) {
+      env.remove(key);
+    }
 
-      String ENV_PATH = "PATH";
-      final String bin = usePhilosopher.getBin();
-      Path binPath = Paths.get(bin);
-      String binDir = null;
-      if (binPath.isAbsolute()) {
-        // the path to the executable was specified as absolute, other needed files must be there as well
+    String ENV_PATH = "PATH";
+    final String bin = usePhilosopher.getBin();
+    Path binPath = Paths.get(bin);
+    String binDir = null;
+    if (binPath.isAbsolute()) {
+      // the path to the executable was specified as absolute, other needed files must be there as well
+      binDir = binPath.toAbsolutePath().getParent().toString();
+    } else if (Files.exists(binPath)) {
+      binDir = binPath.toAbsolutePath().getParent().toString();
+    } else {
+      binPath = wd.resolve(bin);
+      if (Files.exists(binPath)) {
         binDir = binPath.toAbsolutePath().getParent().toString();
-      } else if (Files.exists(binPath)) {
-        binDir = binPath.toAbsolutePath().getParent().toString();
-      } else {
-        binPath = wd.resolve(bin);
-        if (Files.exists(binPath)) {
-          binDir = binPath.toAbsolutePath().getParent().toString();
-        }
       }
-      if (binDir != null) {
-        pathEnv.append(";").append(binDir);
-      }
-      String pathEnvValue = pathEnv.toString();
-      env.put(ENV_PATH, pathEnvValue);
     }
-
-    isConfigured = true;
-    return true;
+    if (binDir != null) {
+      pathEnv.append(";").append(binDir);
+    }
+    String pathEnvValue = pathEnv.toString();
+    env.put(ENV_PATH, pathEnvValue);
   }
 
   private List<String> createCmdStub(UsageTrigger usePhilosopher, Path protxmlDir,
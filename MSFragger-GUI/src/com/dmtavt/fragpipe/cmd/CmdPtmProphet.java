@@ -26,6 +26,7 @@ import com.dmtavt.fragpipe.FragpipeLocations;
 import com.dmtavt.fragpipe.api.InputLcmsFile;
 import java.awt.Component;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -36,7 +37,6 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 import org.jooq.lambda.Seq;
 import org.jooq.lambda.tuple.Tuple2;
 import org.slf4j.Logger;
@@ -62,7 +62,7 @@ public class CmdPtmProphet extends CmdBase {
     return NAME;
   }
 
-  public boolean configure(Component comp, String cmdLineOpts, List<Tuple2<InputLcmsFile, Path>> lcmsToPepxml) {
+  public boolean configure(Component comp, String cmdLineOpts, int nThreads, List<Tuple2<InputLcmsFile, Path>> lcmsToPepxml) {
     initPreConfig();
 
     final List<Path> ptmprophetPath;
@@ -86,13 +86,19 @@ public class CmdPtmProphet extends CmdBase {
     Map<Path, List<Tuple2<InputLcmsFile, Path>>> groupByPepxml = Seq.seq(lcmsToPepxml)
         .groupBy(Tuple2::v2);
 
-    // check for existing pepxml files and delete them
+    // check for existing pepxml files and delete them, all pepxml files of a group share a directory
     try {
       final Set<Path> forDeletion = new TreeSet<>();
-      for (Entry<Path, List<Tuple2<InputLcmsFile, Path>>> kv : groupByPepxml.entrySet()) {
-        Path workDir = kv.getValue().get(0).v1.outputDir(wd);
+      final Set<Path> workDirs = Seq.seq(groupByPepxml.values()).map(l -> l.get(0).v1.outputDir(wd)).toSet();
+      for (Path workDir : workDirs) {
         if (Files.exists(workDir)) { // Dry-run does not create the folders.
-          forDeletion.addAll(Files.list(workDir).filter(p -> pattern2.matcher(p.getFileName().toString()).matches()).collect(Collectors.toList()));
+          try (DirectoryStream<Path> ds = Files.newDirectoryStream(workDir, "interact-*.mod.pep.xml*")) {
+            for (Path p : ds) {
+              if (pattern2.matcher(p.getFileName().toString()).matches()) {
+                forDeletion.add(p);
+              }
+            }
+          }
         }
       }
       if (!deleteFiles(comp, forDeletion, "mod.pep.xml")) {
@@ -103,6 +109,9 @@ public class CmdPtmProphet extends CmdBase {
       return false;
     }
 
+    // processes of the parallel group share the threads instead of using one each
+    final int[] threads = threadShares(nThreads, groupByPepxml.size());
+    int index = 0;
     for (Entry<Path, List<Tuple2<InputLcmsFile, Path>>> kv : groupByPepxml.entrySet()) {
       Path pepxml = kv.getKey();
       Path workDir = kv.getValue().get(0).v1.outputDir(wd);
@@ -114,14 +123,15 @@ public class CmdPtmProphet extends CmdBase {
         cmdLineOpts = translateCmds(cmdLineOpts);
       }
       List<String> cmdOpts = Seq.of(cmdLineOpts.split("\\s+")).filter(e -> !e.startsWith("MAXTHREADS=")).toList();
-      cmdOpts.add("MAXTHREADS=1");
+      final int processThreads = threads[index++];
+      cmdOpts.add("MAXTHREADS=" + processThreads);
       cmd.addAll(cmdOpts);
       cmd.add(pepxml.getFileName().toString());
       cmd.add(pattern1.matcher(pepxml.getFileName().toString()).replaceFirst(".mod.pep.xml"));
 
       final ProcessBuilder pb = new ProcessBuilder(cmd);
       pb.directory(workDir.toFile());
-      pbis.add(new PbiBuilder().setPb(pb).setParallelGroup(getCmdName()).create());
+      pbis.add(new PbiBuilder().setPb(pb).setParallelGroup(getCmdName()).setThreads(processThreads).create());
     }
 
     isConfigured = true;
@@ -151,7 +151,8 @@ public class CmdPtmshepherd extends CmdBase {
     cmd.add(PathUtils.quotePath(pathConfig.toString(), false));
     ProcessBuilder pb = new ProcessBuilder(cmd);
     pb.directory(wd.toFile());
-    pbis.add(PbiBuilder.from(pb));
+    final String threads = additionalProps.get("threads");
+    pbis.add(new PbiBuilder().setPb(pb).setRamGb(ramGb).setThreads(threads != null ? Integer.parseInt(threads) : Integer.MAX_VALUE).create());
 
     isConfigured = true;
     return true;
@@ -25,7 +25,9 @@ import java.awt.Component;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -95,11 +97,22 @@ public class CmdSaintExpress extends CmdBase {
     return true;
   }
 
+  /**
+   * Converts a REPRINT matrix (preys in rows, IPs in columns) to SAINTexpress inter.dat,
+   * bait.dat and prey.dat in one pass. All three files are written while the matrix is read,
+   * only the current row is kept in memory, and only non-zero cells end up in inter.dat.
+   */
   public static void reprintTsvToSaintInput(final Path inputPath, final Path outPath) {
-    final ArrayList<String> inter_dat = new ArrayList<>();
-    final ArrayList<String> bait_dat = new ArrayList<>();
-    final ArrayList<String> prey_dat = new ArrayList<>();
-    try (final BufferedReader br = Files.newBufferedReader(inputPath)) {
+    try {
+      Files.createDirectories(outPath);
+    } catch (FileAlreadyExistsException ignore) {
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    try (final BufferedReader br = Files.newBufferedReader(inputPath);
+        final BufferedWriter inter = newWriter(outPath.resolve("inter.dat"));
+        final BufferedWriter bait = newWriter(outPath.resolve("bait.dat"));
+        final BufferedWriter prey = newWriter(outPath.resolve("prey.dat"))) {
       final String[] first_row = br.readLine().split("\t");
       final boolean has_protlen = first_row[2].equalsIgnoreCase("PROTLEN");
       final boolean has_geneid = first_row[1].equalsIgnoreCase("GENEID");
@@ -114,56 +127,99 @@ public class CmdSaintExpress extends CmdBase {
       }
       final String[] bait_names = new String[IP.length];
       final String[] second_row = br.readLine().split("\t");
+      // the "IP \t bait \t" prefix of every inter.dat line for a column
+      final String[] inter_prefix = new String[IP.length];
       for (int i = 0; i < IP.length; i++) {
         final String s = second_row[i + column_offset];
         bait_names[i] = s.equals("CONTROL") ? IP[i] : s;
+        inter_prefix[i] = IP[i] + "\t" + bait_names[i] + "\t";
+        bait.write(inter_prefix[i]);
+        bait.write(bait_names[i].startsWith("CONTROL") ? "C" : "T");
+        bait.write('\n');
       }
-      for (int i = 0; i < IP.length; ++i) {
-        bait_dat.add(IP[i] + "\t" + bait_names[i] + "\t" + (bait_names[i].startsWith("CONTROL") ? "C" : "T"));
-      }
+
+      final int columns = column_offset + IP.length;
+      // cell k of a row is [starts[k], starts[k + 1] - 1)
+      final int[] starts = new int[columns + 1];
       String line;
       while ((line = br.readLine()) != null) {
-        final String[] ls = line.split("\t");
-        final String prey = ls[0];
-        prey_dat.add(ls[0] + "\t" + (has_protlen ? ls[2] : -1) + "\t" + (has_geneid ? ls[1] : ls[0]));
-        for (int i = 0; i < IP.length; ++i) {
-          final String e = ls[i + column_offset];
-          if (Double.parseDouble(e) != 0) {
-            inter_dat.add(IP[i] + "\t" + bait_names[i] + "\t" + prey + "\t" + e);
+        int pos = 0;
+        for (int k = 1; k <= columns; k++) {
+          pos = line.indexOf('\t', pos);
+          if (pos < 0) {
+            if (k < columns) {
+              throw new IllegalStateException("Expected " + columns + " columns, found " + k + " in line: " + line);
+            }
+            pos = line.length();
           }
+          starts[k] = ++pos;
         }
-      }
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
 
-    try {
-      Files.createDirectories(outPath);
-    } catch (FileAlreadyExistsException ignore) {
-    } catch (IOException e) {
-      throw new UncheckedIOException(e);
-    }
-    try (final BufferedWriter bw = Files.newBufferedWriter(outPath.resolve("inter.dat"))) {
-      for (String e : inter_dat) {
-        bw.write(e + "\n");
+        final String preyName = line.substring(0, starts[1] - 1);
+        prey.write(preyName);
+        prey.write('\t');
+        if (has_protlen) {
+          prey.write(line, starts[2], starts[3] - 1 - starts[2]);
+        } else {
+          prey.write("-1");
+        }
+        prey.write('\t');
+        if (has_geneid) {
+          prey.write(line, starts[1], starts[2] - 1 - starts[1]);
+        } else {
+          prey.write(preyName);
+        }
+        prey.write('\n');
+
+        for (int i = 0; i < IP.length; ++i) {
+          final int from = starts[i + column_offset];
+          final int to = starts[i + column_offset + 1] - 1;
+          if (isZero(line, from, to)) {
+            continue;
+          }
+          inter.write(inter_prefix[i]);
+          inter.write(preyName);
+          inter.write('\t');
+          inter.write(line, from, to - from);
+          inter.write('\n');
+        }
       }
-      bw.write('\n');
+      inter.write('\n');
     } catch (IOException e) {
       throw new UncheckedIOException(e);
     }
-    try (final BufferedWriter bw = Files.newBufferedWriter(outPath.resolve("bait.dat"))) {
-      for (String e : bait_dat) {
-        bw.write(e + "\n");
+  }
+
+  private static BufferedWriter newWriter(Path path) throws IOException {
+    return new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path), StandardCharsets.UTF_8), 1 << 16);
+  }
+
+  /**
+   * Whether the cell in [from, to) is a zero. Most cells are plain numbers (an optional sign,
+   * digits and at most one dot) and are told apart by their characters, the rest is parsed.
+   */
+  static boolean isZero(String line, int from, int to) {
+    boolean isPlain = true;
+    boolean hasDigit = false;
+    boolean hasNonZeroDigit = false;
+    boolean hasDot = false;
+    for (int i = from; i < to && isPlain; i++) {
+      final char c = line.charAt(i);
+      if (c >= '0' && c <= '9') {
+        hasDigit = true;
+        hasNonZeroDigit |= c != '0';
+      } else if (c == '.' && !hasDot) {
+        hasDot = true;
+      } else if ((c == '-' || c == '+') && i == from) {
+        continue;
+      } else {
+        isPlain = false;
       }
-    } catch (IOException e) {
-      throw new UncheckedIOException(e);
     }
-    try (final BufferedWriter bw = Files.newBufferedWriter(outPath.resolve("prey.dat"))) {
-      for (String e : prey_dat) {
-        bw.write(e + "\n");
-      }
-    } catch (IOException e) {
-      throw new UncheckedIOException(e);
+    if (!isPlain || !hasDigit) {
+      // exponent, NaN, whitespace, no digits at all etc.
+      return Double.parseDouble(line.substring(from, to)) == 0;
     }
+    return !hasNonZeroDigit;
   }
 }
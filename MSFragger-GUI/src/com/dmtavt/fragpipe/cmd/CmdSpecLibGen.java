@@ -197,7 +197,7 @@ public class CmdSpecLibGen extends CmdBase {
       pb.directory(groupWd.toFile());
       pb.environment().put("PYTHONIOENCODING", "utf-8");
 
-      pbis.add(PbiBuilder.from(pb));
+      pbis.add(new PbiBuilder().setPb(pb).setThreads(tabWorkflow.getThreads()).create());
       pbis.addAll(PbiBuilder.from(pbsDeleteLcmsFiles));
     }
 
@@ -19,6 +19,7 @@ package com.dmtavt.fragpipe.cmd;
 
 import com.dmtavt.fragpipe.Fragpipe;
 import com.dmtavt.fragpipe.FragpipeLocations;
+import com.dmtavt.fragpipe.FragpipeRun;
 import com.dmtavt.fragpipe.tools.tmtintegrator.TmtiConfProps;
 import com.github.chhh.utils.StringUtils;
 import java.awt.Component;
@@ -101,7 +102,7 @@ public class CmdTmtIntegrator extends CmdBase {
     try {
       pathConf = wd.resolve(CONFIG_FN);
       Files.deleteIfExists(pathConf);
-      if (!isDryRun) {
+      if (!isDryRun && !FragpipeRun.isResuming()) {
         FileDelete.deleteFileOrFolder(outDir);
         Files.createDirectories(outDir);
       }
@@ -191,7 +192,7 @@ public class CmdTmtIntegrator extends CmdBase {
 
     ProcessBuilder pb = new ProcessBuilder(cmd);
     pb.directory(wd.toFile());
-    pbis.add(PbiBuilder.from(pb));
+    pbis.add(new PbiBuilder().setPb(pb).setRamGb(ramGb).create());
 
     isConfigured = true;
     return true;
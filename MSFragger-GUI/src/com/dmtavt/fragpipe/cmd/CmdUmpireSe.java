@@ -79,7 +79,7 @@ public class CmdUmpireSe extends CmdBase {
   }
 
   public boolean configure(Component errMsgParent, boolean isDryRun,
-      Path jarFragpipe, int ramGb, final Path binFragger, UmpirePanel umpirePanel,
+      Path jarFragpipe, int ramGb, int nThreads, final Path binFragger, UmpirePanel umpirePanel,
       List<InputLcmsFile> lcmsFiles) {
 
     initPreConfig();
@@ -90,8 +90,15 @@ public class CmdUmpireSe extends CmdBase {
       return false;
     }
 
+    // DIA files are processed side by side, as many as the RAM and thread budget allows
+    final List<InputLcmsFile> diaFiles = lcmsFiles.stream()
+        .filter(f -> !f.getDataType().contentEquals("DDA") && !f.getDataType().contentEquals("DIA-Quant"))
+        .collect(Collectors.toList());
+    final PerFileJvmPlan plan = PerFileJvmPlan.create(PerFileJvmPlan.HeapModel.UMPIRE_SE, diaFiles, ramGb, nThreads);
+
     // write umpire params file
     final UmpireParams collectedUmpireParams = umpirePanel.collect();
+    collectedUmpireParams.getProps().setProperty(UmpireParams.PROP_Thread, String.valueOf(plan.threadsPerJob));
     final String umpireParamsFileName =
         UmpireParams.FILE_BASE_NAME + "." + UmpireParams.FILE_BASE_EXT;
     final Path umpireParamsFilePath = wd.resolve(umpireParamsFileName);
@@ -115,11 +122,8 @@ public class CmdUmpireSe extends CmdBase {
             createJavaDParamString("libs.thermo.dir", extLibsThermo.toString());
     final List<Path> classpathJars = FragpipeLocations.checkToolsMissing(Seq.of(UmpireParams.JAR_UMPIRESE_NAME).concat(JAR_DEPS));
 
-    for (InputLcmsFile f : lcmsFiles) {
-      if (f.getDataType().contentEquals("DDA") || f.getDataType().contentEquals("DIA-Quant")) {
-        continue;
-      }
-
+    final List<ProcessBuilderInfo> pbisPostParallel = new ArrayList<>();
+    for (InputLcmsFile f : diaFiles) {
       Path inputDir = f.getPath().getParent();
       Path destDir = f.outputDir(wd);
 
@@ -127,7 +131,7 @@ public class CmdUmpireSe extends CmdBase {
       //java -Dbatmass.io.libs.thermo.dir=ext/thermo/ -cp batmass-io-1.23.0.jar:DIA_Umpire_SE.jar dia_umpire_se.DIA_Umpire_SE  (.raw|.mzML|.mzXML) DIA-U_params
       List<String> cmd = new ArrayList<>();
       cmd.add(Fragpipe.getBinJava());
-      cmd.add("-Xmx" + ramGb + "G");
+      cmd.add("-Xmx" + plan.heapGb + "G");
       if (javaDParmsStringLibsThermoDir != null)
         cmd.add(javaDParmsStringLibsThermoDir);
 
@@ -139,7 +143,7 @@ public class CmdUmpireSe extends CmdBase {
       cmd.add(umpireParamsFilePath.toString());
 
       ProcessBuilder pbUmpireSe = new ProcessBuilder(cmd);
-      pbis.add(PbiBuilder.from(pbUmpireSe));
+      pbis.add(new PbiBuilder().setPb(pbUmpireSe).setParallelGroup(getCmdName()).setRamGb(plan.heapGb).setThreads(plan.threadsPerJob).create());
 
       // check if the working dir is the dir where the mzXML file was
       // if it is, then don't do anything, if it is not, then copy
@@ -152,14 +156,15 @@ public class CmdUmpireSe extends CmdBase {
         // need to move output and cleanup
         List<Path> garbage = UmpireSeGarbageFiles.getGarbageFiles(f.getPath(), true, true);
         List<ProcessBuilder> pbsMove = ToolingUtils.pbsMoveFiles(jarFragpipe, destDir, true, garbage);
-        pbis.addAll(PbiBuilder.from(pbsMove));
+        pbisPostParallel.addAll(PbiBuilder.from(pbsMove));
       }
 
       // delete garbage files
       final List<Path> garbage = UmpireSeGarbageFiles.getGarbageFiles(destDir.resolve(f.getPath().getFileName()), false, false);
       final List<ProcessBuilder> pbsDeleteFiles = ToolingUtils.pbsDeleteFiles(jarFragpipe, garbage);
-      pbis.addAll(PbiBuilder.from(pbsDeleteFiles));
+      pbisPostParallel.addAll(PbiBuilder.from(pbsDeleteFiles));
     }
+    pbis.addAll(pbisPostParallel);
 
     isConfigured = true;
     return true;
@@ -0,0 +1,122 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.cmd;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides which experiment groups DIA-NN quantifies at the same time and with how many threads.
+ * Every group is a separate DIA-NN process in its own directory, so groups don't depend on each
+ * other.
+ * <p>
+ * Groups are sorted by the size of their LCMS files, largest first, and cut into waves of
+ * {@link #parallel} groups, so the groups running together are of similar size. The threads
+ * are split within a wave in proportion to the size of the groups. No more groups run at once
+ * than give every process {@link #MIN_THREADS} threads on average, as fewer but larger processes
+ * scale better than many single threaded ones. The memory of every group is estimated from its
+ * size, processes reserve it in {@link com.dmtavt.fragpipe.process.RamBudget} when started.
+ */
+public class DiannGroupPlan {
+  private static final Logger log = LoggerFactory.getLogger(DiannGroupPlan.class);
+  static final int MIN_THREADS = 4;
+  private static final double BYTES_PER_GB = 1024.0 * 1024 * 1024;
+  /** DIA-NN memory without any LCMS data, mostly the spectral library. */
+  static final int BASE_RAM_GB = 4;
+  /** Memory per GB of LCMS files of a group, the results of all runs are kept for the matrices. */
+  static final double RAM_PER_GB = 0.5;
+
+  /** Number of groups running at the same time. */
+  public final int parallel;
+  /** Wave of every group, in the order given to {@link #create(List, int)}. */
+  public final int[] wave;
+  /** Threads of every group. */
+  public final int[] threads;
+  /** Estimated memory of every group. */
+  public final int[] ramGb;
+
+  private DiannGroupPlan(int parallel, int[] wave, int[] threads, int[] ramGb) {
+    this.parallel = parallel;
+    this.wave = wave;
+    this.threads = threads;
+    this.ramGb = ramGb;
+  }
+
+  /**
+   * @param groupBytes Size of the LCMS files of every group.
+   * @param totalThreads Threads for all of DIA-NN.
+   */
+  public static DiannGroupPlan create(List<Long> groupBytes, int totalThreads) {
+    final int n = groupBytes.size();
+    totalThreads = Math.max(1, totalThreads);
+    final int parallel = Math.max(1, Math.min(n, totalThreads / MIN_THREADS));
+    final int[] wave = new int[n];
+    final int[] threads = new int[n];
+    final int[] ramGb = new int[n];
+    for (int i = 0; i < n; i++) {
+      ramGb[i] = BASE_RAM_GB + (int) Math.ceil(groupBytes.get(i) / BYTES_PER_GB * RAM_PER_GB);
+    }
+
+    final List<Integer> order = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      order.add(i);
+    }
+    order.sort(Comparator.comparing((Integer i) -> groupBytes.get(i)).reversed());
+
+    for (int from = 0; from < n; from += parallel) {
+      final List<Integer> members = order.subList(from, Math.min(n, from + parallel));
+      long waveBytes = 0;
+      for (int i : members) {
+        waveBytes += groupBytes.get(i);
+      }
+      int assigned = 0;
+      for (int i : members) {
+        wave[i] = from / parallel;
+        final double share = waveBytes > 0 ? (double) groupBytes.get(i) / waveBytes : 1.0 / members.size();
+        threads[i] = Math.max(1, (int) (totalThreads * share));
+        assigned += threads[i];
+      }
+      // rounding leftovers go to the largest groups, members are sorted largest first
+      for (int k = 0; assigned < totalThreads; k = (k + 1) % members.size()) {
+        threads[members.get(k)]++;
+        assigned++;
+      }
+      // tiny groups rounded up to one thread are paid for by the group with the most
+      while (assigned > totalThreads) {
+        int most = members.get(0);
+        for (int i : members) {
+          if (threads[i] > threads[most]) {
+            most = i;
+          }
+        }
+        if (threads[most] <= 1) {
+          break;
+        }
+        threads[most]--;
+        assigned--;
+      }
+    }
+
+    final DiannGroupPlan plan = new DiannGroupPlan(parallel, wave, threads, ramGb);
+    log.debug("DIA-NN for {} groups with {} threads: {} in parallel", n, totalThreads, parallel);
+    return plan;
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.cmd;
+
+import com.dmtavt.fragpipe.api.InputLcmsFile;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splits the LCMS files of one MSFragger search (DDA, DIA or GPF-DIA) into batches that each
+ * run as one MSFragger command. MSFragger reads and searches the files of a batch one at a time,
+ * so the peak heap of a batch is the fragment index plus its largest file, no matter how many
+ * files the batch has. Every extra batch rebuilds the index and calibrates on fewer files, so all
+ * files stay in a single batch unless the command line gets too long.
+ * <p>
+ * The memory a file needs is estimated from its size on disk, format and data type, the same way
+ * as in {@link PerFileJvmPlan}, times a factor for mass calibration, which keeps a calibrated
+ * copy of the spectra and re-searches them when optimizing parameters. A file that does not fit
+ * next to the index is only reported, splitting the batch would not make it fit.
+ */
+public class MsfraggerBatchPlan {
+  private static final Logger log = LoggerFactory.getLogger(MsfraggerBatchPlan.class);
+  private static final double BYTES_PER_GB = 1024.0 * 1024 * 1024;
+  /** Smallest part of the heap left for the fragment index and search buffers. */
+  private static final int MIN_RESERVED_GB = 2;
+  /** Part of the heap left for the fragment index when the database is not split. */
+  private static final double INDEX_FRACTION = 0.4;
+
+  /** Batches in the order they should run, files keep their input order within a batch. */
+  public final List<List<InputLcmsFile>> batches;
+  /** Heap available for the spectra of the file being searched. */
+  public final double budgetGb;
+  /** Heap left for the fragment index. */
+  public final int reservedGb;
+  private final Map<InputLcmsFile, Double> estimates;
+
+  private MsfraggerBatchPlan(List<List<InputLcmsFile>> batches, double budgetGb, int reservedGb, Map<InputLcmsFile, Double> estimates) {
+    this.batches = batches;
+    this.budgetGb = budgetGb;
+    this.reservedGb = reservedGb;
+    this.estimates = estimates;
+  }
+
+  /**
+   * @param numSlices Number of database splits, the index of each is that much smaller.
+   * @param calibrateMass Value of 'calibrate_mass' in the params file.
+   * @param baseCmdLen Length of the command without any LCMS files.
+   */
+  public static MsfraggerBatchPlan create(List<InputLcmsFile> files, int ramGb, int numSlices, int calibrateMass, int baseCmdLen, int cmdLenLimit) {
+    ramGb = Math.max(1, ramGb);
+    final int reservedGb = Math.min(ramGb, Math.max(MIN_RESERVED_GB, (int) Math.ceil(ramGb * INDEX_FRACTION / Math.max(1, numSlices))));
+    final double budgetGb = Math.max(1, ramGb - reservedGb);
+
+    final Map<InputLcmsFile, Double> estimates = new IdentityHashMap<>();
+    final List<List<InputLcmsFile>> batches = new ArrayList<>();
+    int cmdLen = 0;
+    for (InputLcmsFile f : files) {
+      final double gb = estimateGb(f, calibrateMass);
+      estimates.put(f, gb);
+      if (gb > budgetGb) {
+        log.warn("Estimated memory for {} ({} GB) is more than the {} GB available for spectra",
+            f.getPath(), String.format(Locale.ROOT, "%.1f", gb), String.format(Locale.ROOT, "%.1f", budgetGb));
+      }
+      final int len = f.getPath().toString().length() + 1;
+      if (batches.isEmpty() || cmdLen + len > cmdLenLimit) {
+        batches.add(new ArrayList<>());
+        cmdLen = baseCmdLen;
+      }
+      batches.get(batches.size() - 1).add(f);
+      cmdLen += len;
+    }
+    return new MsfraggerBatchPlan(batches, budgetGb, reservedGb, estimates);
+  }
+
+  static double estimateGb(InputLcmsFile f, int calibrateMass) {
+    final double sizeGb = PerFileJvmPlan.sizeOnDisk(f.getPath()) / BYTES_PER_GB;
+    final double dataTypeFactor = f.getDataType().equals("DDA") ? 1.0 : 1.5;
+    final double calibrationFactor = calibrateMass == 0 ? 1.0 : (calibrateMass == 1 ? 1.5 : 2.0);
+    return sizeGb * PerFileJvmPlan.formatFactor(f.getPath()) * dataTypeFactor * calibrationFactor;
+  }
+
+  /** Human readable plan for the run log. */
+  public String describe(String dataType) {
+    final StringBuilder sb = new StringBuilder();
+    sb.append(String.format(Locale.ROOT, "%s %s: %d files in %d batches, %.1f GB of heap for the spectra of one file, %d GB reserved for the index",
+        CmdMsfragger.NAME, dataType, estimates.size(), batches.size(), budgetGb, reservedGb));
+    for (int i = 0; i < batches.size(); i++) {
+      final List<InputLcmsFile> batch = batches.get(i);
+      final double gb = batch.stream().mapToDouble(estimates::get).max().orElse(0);
+      sb.append(String.format(Locale.ROOT, "\n    Batch %d: %d files, largest estimated at %.1f GB", i + 1, batch.size(), gb));
+    }
+    return sb.toString();
+  }
+}
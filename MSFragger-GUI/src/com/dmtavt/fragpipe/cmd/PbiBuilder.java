@@ -27,6 +27,8 @@ public class PbiBuilder {
   private String fnStdOut;
   private String fnStdErr;
   private String parallelGroup;
+  private int ramGb;
+  private int threads = 1;
 
   public PbiBuilder setPb(ProcessBuilder pb) {
     this.pb = pb;
@@ -53,8 +55,18 @@ public class PbiBuilder {
     return this;
   }
 
+  public PbiBuilder setRamGb(int ramGb) {
+    this.ramGb = ramGb;
+    return this;
+  }
+
+  public PbiBuilder setThreads(int threads) {
+    this.threads = threads;
+    return this;
+  }
+
   public ProcessBuilderInfo create() {
-    return new ProcessBuilderInfo(pb, name, fnStdOut, fnStdErr, parallelGroup);
+    return new ProcessBuilderInfo(pb, name, fnStdOut, fnStdErr, parallelGroup, ramGb, threads);
   }
 
   public static List<ProcessBuilderInfo> from(List<ProcessBuilder> pbs) {
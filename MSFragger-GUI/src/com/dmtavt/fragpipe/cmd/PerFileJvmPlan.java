@@ -0,0 +1,136 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.cmd;
+
+import com.dmtavt.fragpipe.api.InputLcmsFile;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splits the RAM and thread budget between tools that start a separate JVM for every LCMS file,
+ * so that as many files are processed side by side as fit. The heap a file needs is estimated
+ * from its size on disk and data type.
+ * <p>
+ * Every job gets the same share of the budget. Jobs reserve their heap in
+ * {@link com.dmtavt.fragpipe.process.RamBudget} when started, which keeps the number of running
+ * jobs at {@link #parallel}.
+ */
+public class PerFileJvmPlan {
+  private static final Logger log = LoggerFactory.getLogger(PerFileJvmPlan.class);
+  private static final double BYTES_PER_GB = 1024.0 * 1024 * 1024;
+  /** Directory to {modification time, size}. */
+  private static final Map<Path, long[]> dirSizes = new ConcurrentHashMap<>();
+
+  public enum HeapModel {
+    /** DIA-Umpire SE keeps the whole run in memory. */
+    UMPIRE_SE(2, 1.0),
+    /** PairScans only loads the scan structure, no peaks. */
+    PAIR_SCANS(1, 0.25);
+
+    final int baseGb;
+    final double loadFactor;
+
+    HeapModel(int baseGb, double loadFactor) {
+      this.baseGb = baseGb;
+      this.loadFactor = loadFactor;
+    }
+  }
+
+  /** Number of jobs running at the same time. */
+  public final int parallel;
+  /** Heap (-Xmx) of every job. */
+  public final int heapGb;
+  /** Threads every job should use. */
+  public final int threadsPerJob;
+
+  private PerFileJvmPlan(int parallel, int heapGb, int threadsPerJob) {
+    this.parallel = parallel;
+    this.heapGb = heapGb;
+    this.threadsPerJob = threadsPerJob;
+  }
+
+  public static PerFileJvmPlan create(HeapModel model, List<InputLcmsFile> files, int ramGb, int threads) {
+    ramGb = Math.max(1, ramGb);
+    threads = Math.max(1, threads);
+    int maxEstimate = 1;
+    for (InputLcmsFile f : files) {
+      maxEstimate = Math.max(maxEstimate, estimateHeapGb(model, f));
+    }
+    maxEstimate = Math.min(maxEstimate, ramGb);
+    final int parallel = Math.max(1, Math.min(Math.min(files.size(), threads), ramGb / maxEstimate));
+    final PerFileJvmPlan plan = new PerFileJvmPlan(parallel, ramGb / parallel, Math.max(1, threads / parallel));
+    log.debug("{} for {} files, largest estimated heap {} GB: {} in parallel, {} GB and {} threads each",
+        model, files.size(), maxEstimate, plan.parallel, plan.heapGb, plan.threadsPerJob);
+    return plan;
+  }
+
+  static int estimateHeapGb(HeapModel model, InputLcmsFile f) {
+    final double sizeGb = sizeOnDisk(f.getPath()) / BYTES_PER_GB;
+    final double dataTypeFactor = f.getDataType().startsWith("DIA") || f.getDataType().equals("GPF-DIA") ? 1.5 : 1.0;
+    return model.baseGb + (int) Math.ceil(sizeGb * formatFactor(f.getPath()) * model.loadFactor * dataTypeFactor);
+  }
+
+  /** How much bigger the spectra are in memory than in the file. Vendor formats compress better. */
+  static double formatFactor(Path p) {
+    final String fn = p.getFileName().toString().toLowerCase();
+    if (fn.endsWith(".raw")) {
+      return 6;
+    } else if (fn.endsWith(".d")) {
+      return 4;
+    } else if (fn.endsWith(".mgf")) {
+      return 2;
+    }
+    return 3;
+  }
+
+  /**
+   * Size of a file, or of all files in a directory (e.g. timsTOF .d). Directory sizes are cached,
+   * several tools ask for the same directories when a run is configured, and walking a .d
+   * directory on a network share is slow. A cached size is used while the directory's
+   * modification time stays the same.
+   */
+  static long sizeOnDisk(Path p) {
+    try {
+      if (!Files.isDirectory(p)) {
+        return Files.size(p);
+      }
+      final Path key = p.toAbsolutePath().normalize();
+      final long modified = Files.getLastModifiedTime(key).toMillis();
+      final long[] cached = dirSizes.get(key);
+      if (cached != null && cached[0] == modified) {
+        return cached[1];
+      }
+      final long size;
+      try (Stream<Path> s = Files.walk(key)) {
+        size = s.filter(Files::isRegularFile).mapToLong(f -> f.toFile().length()).sum();
+      }
+      dirSizes.put(key, new long[]{modified, size});
+      return size;
+    } catch (IOException e) {
+      log.debug("Could not get size of {}", p, e);
+      return 0;
+    }
+  }
+}
@@ -26,13 +26,21 @@ import com.dmtavt.fragpipe.messages.MessageKillAll;
 import com.dmtavt.fragpipe.messages.MessageKillAll.REASON;
 import com.dmtavt.fragpipe.messages.MessageManifestSave;
 import com.dmtavt.fragpipe.messages.MessageSaveLog;
+import com.dmtavt.fragpipe.process.InProcessJava;
 import com.dmtavt.fragpipe.process.ProcessResult;
+import com.dmtavt.fragpipe.process.ProcessTelemetry;
+import com.dmtavt.fragpipe.process.RamBudget;
+import com.dmtavt.fragpipe.process.ThreadBudget;
 import com.github.chhh.utils.swing.TextConsole;
 import java.awt.Color;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,27 +53,81 @@ public class ProcessBuilderInfo {
   public final String fnStdout;
   public final String fnStderr;
   public final String parallelGroup;
+  /** Heap reserved in {@link RamBudget} while the process runs, 0 to start it right away. */
+  public final int ramGb;
+  /** Threads reserved in {@link ThreadBudget} while the process runs, at least one. */
+  public final int threads;
+  /** Exit code of the process, null until it finished. */
+  private volatile Integer exitValue;
   public static final String GROUP_SEQUENTIAL = "SEQUENTIAL EXECUTION";
+  /** How long to wait for remaining output after a process exited. */
+  private static final long PUMP_DRAIN_TIMEOUT_SECONDS = 5;
 
   public ProcessBuilderInfo(ProcessBuilder pb, String name, String fnStdout,
       String fnStderr, String parallelGroup) {
+    this(pb, name, fnStdout, fnStderr, parallelGroup, 0, 1);
+  }
+
+  public ProcessBuilderInfo(ProcessBuilder pb, String name, String fnStdout,
+      String fnStderr, String parallelGroup, int ramGb, int threads) {
     this.pb = pb;
     this.name = name;
     this.fnStdout = fnStdout;
     this.fnStderr = fnStderr;
     this.parallelGroup = parallelGroup;
+    this.ramGb = ramGb;
+    this.threads = Math.max(1, threads);
+  }
+
+  public Integer getExitValue() {
+    return exitValue;
   }
 
   public static Runnable toRunnable(final ProcessBuilderInfo pbi, final Path wdPath, BiConsumer<ProcessBuilderInfo, TextConsole> pbiPrinter, TextConsole console, boolean isDownstream) {
+    final Runnable run = toRunnable0(pbi, wdPath, pbiPrinter, console, isDownstream);
+    return () -> {
+      // threads are always reserved before memory, so that two processes never wait for each other
+      int threads = 0;
+      int ramGb = 0;
+      try {
+        threads = ThreadBudget.get().acquire(pbi.threads);
+        if (pbi.ramGb > 0) {
+          ramGb = RamBudget.get().acquire(pbi.ramGb);
+        }
+      } catch (InterruptedException e) {
+        ThreadBudget.get().release(threads);
+        String msg = "Processing interrupted, stopping " + pbi.name;
+        log.debug(msg, e);
+        toConsole(Fragpipe.COLOR_RED_DARKEST, msg, true, console);
+        return;
+      }
+      try {
+        run.run();
+      } finally {
+        RamBudget.get().release(ramGb);
+        ThreadBudget.get().release(threads);
+      }
+    };
+  }
+
+  private static Runnable toRunnable0(final ProcessBuilderInfo pbi, final Path wdPath, BiConsumer<ProcessBuilderInfo, TextConsole> pbiPrinter, TextConsole console, boolean isDownstream) {
     return () -> {
+      final InProcessJava.Invocation inv = InProcessJava.parse(pbi.pb);
+      if (inv != null) {
+        runInProcess(pbi, inv, wdPath, pbiPrinter, console, isDownstream);
+        return;
+      }
+
       final ProcessResult pr = new ProcessResult(pbi);
       Process started = null;
+      ProcessTelemetry.Sampler sampler = null;
       try {
         log.debug("Starting: {}", pbi.name);
         if (pbiPrinter != null) {
           pbiPrinter.accept(pbi, console);
         }
         started = pr.start();
+        sampler = ProcessTelemetry.get().start(pbi, started);
         log.debug("Started: {}", pbi.name);
       } catch (IOException e) {
         log.error("Error while starting process: " + pbi.name + ", stopping", e);
@@ -78,78 +140,46 @@ public class ProcessBuilderInfo {
         }
       }
 
-      // main loop reading process' output
+      // output is pushed to the console by the pumps as soon as it arrives
       try {
-        if ((pbi.name.equalsIgnoreCase("peptideprophet") || pbi.name.equalsIgnoreCase("ptmprophet"))) {
+        final boolean isProphet = pbi.name.equalsIgnoreCase("peptideprophet") || pbi.name.equalsIgnoreCase("ptmprophet");
+        if (isProphet) {
           toConsole(Fragpipe.COLOR_BLACK, "Please wait. " + pbi.name + " is running. It can take a long time.", true, console);
         }
 
-        StringBuilder sbBuffer = new StringBuilder();
-        while (true) {
-          Thread.sleep(200L);
-          final byte[] pollErr = pr.pollStdErr();
-          if (pollErr != null && pollErr.length > 0) {
-            if (pbi.name.equalsIgnoreCase("peptideprophet")) {
-              String errStr = (new String(pollErr, StandardCharsets.UTF_8)).replaceAll("WARNING: CANNOT correct data file[^\r\n]+[\r\n]+", "").replaceAll("WARNING: cannot open data file[^\r\n]+[\r\n]+", "");
-              sbBuffer.append(errStr);
-            } else if (pbi.name.equalsIgnoreCase("ptmprophet")) {
-              String errStr = (new String(pollErr, StandardCharsets.UTF_8)).replaceAll("\"chmod [0-9]{3} [^\\r\\n]+\" failed: Operation not permitted[\\r\\n]*", "");
-              sbBuffer.append(errStr);
-            } else {
-              String errStr = pr.appendErr(pollErr);
-              toConsole(null, errStr, false, console);
-            }
-          }
-
-          final byte[] pollOut = pr.pollStdOut();
-          if (pollOut != null && pollOut.length > 0) {
-            if (pbi.name.equalsIgnoreCase("peptideprophet") || pbi.name.equalsIgnoreCase("ptmprophet")) {
-              String outStr = new String(pollOut, StandardCharsets.UTF_8);
-              sbBuffer.append(outStr);
-            } else {
-              String outStr = pr.appendOut(pollOut);
-              toConsole(null, outStr, false, console);
-            }
+        final StringBuffer sbBuffer = new StringBuffer();
+        final LineBuffer errLines = new LineBuffer();
+        pr.startPumps(bytes -> {
+          if (isProphet) {
+            sbBuffer.append(new String(bytes, StandardCharsets.UTF_8));
+          } else {
+            toConsole(null, pr.appendOut(bytes), false, console);
           }
-
-          if (started.isAlive()) {
-            continue;
+        }, bytes -> {
+          if (isProphet) {
+            // warnings are filtered by line, so only complete lines are passed on
+            sbBuffer.append(filterProphetErr(pbi.name, errLines.completeLines(bytes)));
+          } else {
+            toConsole(null, pr.appendErr(bytes), false, console);
           }
+        });
 
-          if (pbi.name.equalsIgnoreCase("peptideprophet") || pbi.name.equalsIgnoreCase("ptmprophet")) {
-            pr.appendOut(sbBuffer.toString().getBytes(StandardCharsets.UTF_8));
-            toConsole(null, sbBuffer.toString(), false, console);
-          }
+        final int exitValue = started.onExit().get().exitValue();
+        if (!pr.joinPumps(PUMP_DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+          log.warn("Output streams of '{}' still open {} seconds after it exited", pbi.name, PUMP_DRAIN_TIMEOUT_SECONDS);
+        }
 
-          try {
-            log.debug("Checking exit value: {}", pbi.name);
-            final int exitValue = started.exitValue();
-            log.debug("Exit value '{}': {}", exitValue, pbi.name);
-            Color c = exitValue == 0 ? Fragpipe.COLOR_GREEN_DARKER : Fragpipe.COLOR_RED;
-            String msg = String.format(Locale.ROOT, "Process '%s' finished, exit code: %d\n", pbi.name, exitValue);
-            toConsole(c, msg, false, console);
-            if (exitValue != 0) {
-              log.debug("Exit value not zero, killing all processes");
-              toConsole(Fragpipe.COLOR_RED, "Process returned non-zero exit code, stopping", true, console);
-              Bus.post(new MessageKillAll(REASON.NON_ZERO_RETURN_FROM_PROCESS, console));
-              Bus.post(MessageSaveLog.saveInDir(wdPath));
-              FragpipeRun.saveRuntimeConfig(wdPath);
-
-              if (!isDownstream) {
-                // save manifest file in both GUI and headless mode
-                Path path = wdPath.resolve("fragpipe-files.fp-manifest");
-                Bus.post(new MessageManifestSave(path, true));
-              }
-
-              break;
-            }
-          } catch (IllegalThreadStateException ex) {
-            log.warn("Checking for exit value when subprocess was not alive threw exception.");
-          }
-          break;
+        if (isProphet) {
+          sbBuffer.append(filterProphetErr(pbi.name, errLines.rest()));
+          pr.appendOut(sbBuffer.toString().getBytes(StandardCharsets.UTF_8));
+          toConsole(null, sbBuffer.toString(), false, console);
         }
-      } catch (IOException e) {
-        log.error("Error while starting process " + pbi.name, e);
+
+        log.debug("Exit value '{}': {}", exitValue, pbi.name);
+        sampler.finish(exitValue);
+        onExit(pbi, exitValue, wdPath, console, isDownstream);
+      } catch (IOException | ExecutionException e) {
+        log.error("Error while running process " + pbi.name, e);
       } catch (InterruptedException e) {
         // graceful stop request
         String msg = "Processing interrupted, stopping " + pbi.name;
@@ -157,6 +187,7 @@ public class ProcessBuilderInfo {
         toConsole(Fragpipe.COLOR_RED_DARKEST, msg, true, console);
         // all the cleanup is done in the final block
       } finally {
+        sampler.finish(null);
         // in the end whatever happens always try to kill the process
         if (started != null && started.isAlive()) {
           log.debug("Killing underlying external process");
@@ -170,4 +201,123 @@ public class ProcessBuilderInfo {
       }
     };
   }
+
+  /**
+   * Runs one of FragPipe's own Java helpers inside the current JVM, output is handled the same
+   * way as for external processes.
+   */
+  private static void runInProcess(final ProcessBuilderInfo pbi, final InProcessJava.Invocation inv, final Path wdPath, BiConsumer<ProcessBuilderInfo, TextConsole> pbiPrinter, TextConsole console, boolean isDownstream) {
+    final ProcessResult pr = new ProcessResult(pbi);
+    final ProcessTelemetry.Sampler sampler = ProcessTelemetry.get().startInProcess(pbi);
+    try {
+      log.debug("Starting in-process: {}", pbi.name);
+      if (pbiPrinter != null) {
+        pbiPrinter.accept(pbi, console);
+      }
+      pr.startInProcess();
+      final int exitValue = InProcessJava.run(inv, new ConsoleOutputStream(pr, false, console), new ConsoleOutputStream(pr, true, console));
+      if (Thread.currentThread().isInterrupted()) {
+        throw new InterruptedException();
+      }
+      log.debug("Exit value '{}': {}", exitValue, pbi.name);
+      sampler.finish(exitValue);
+      onExit(pbi, exitValue, wdPath, console, isDownstream);
+    } catch (InterruptedException e) {
+      String msg = "Processing interrupted, stopping " + pbi.name;
+      log.debug(msg, e);
+      toConsole(Fragpipe.COLOR_RED_DARKEST, msg, true, console);
+    } catch (Exception e) {
+      log.error("Error while running " + pbi.name + ", stopping", e);
+      toConsole(Fragpipe.COLOR_RED, "Error while running " + pbi.name + ": " + e.getMessage(), true, console);
+      sampler.finish(1);
+      onExit(pbi, 1, wdPath, console, isDownstream);
+    } finally {
+      sampler.finish(null);
+      try {
+        pr.close();
+      } catch (Exception e) {
+        log.error("Error closing redirected std/err streams from in-process task", e);
+      }
+    }
+  }
+
+  private static String filterProphetErr(String name, String errStr) {
+    if (name.equalsIgnoreCase("peptideprophet")) {
+      return errStr.replaceAll("WARNING: CANNOT correct data file[^\r\n]+[\r\n]+", "").replaceAll("WARNING: cannot open data file[^\r\n]+[\r\n]+", "");
+    } else {
+      return errStr.replaceAll("\"chmod [0-9]{3} [^\\r\\n]+\" failed: Operation not permitted[\\r\\n]*", "");
+    }
+  }
+
+  private static void onExit(ProcessBuilderInfo pbi, int exitValue, Path wdPath, TextConsole console, boolean isDownstream) {
+    pbi.exitValue = exitValue;
+    Color c = exitValue == 0 ? Fragpipe.COLOR_GREEN_DARKER : Fragpipe.COLOR_RED;
+    String msg = String.format(Locale.ROOT, "Process '%s' finished, exit code: %d\n", pbi.name, exitValue);
+    toConsole(c, msg, false, console);
+    if (exitValue != 0) {
+      log.debug("Exit value not zero, killing all processes");
+      toConsole(Fragpipe.COLOR_RED, "Process returned non-zero exit code, stopping", true, console);
+      Bus.post(new MessageKillAll(REASON.NON_ZERO_RETURN_FROM_PROCESS, console));
+      Bus.post(MessageSaveLog.saveInDir(wdPath));
+      ProcessTelemetry.get().writeReport(wdPath);
+      FragpipeRun.saveRuntimeConfig(wdPath);
+
+      if (!isDownstream) {
+        // save manifest file in both GUI and headless mode
+        Path path = wdPath.resolve("fragpipe-files.fp-manifest");
+        Bus.post(new MessageManifestSave(path, true));
+      }
+    }
+  }
+
+  /**
+   * Collects output and gives it back in whole lines.
+   */
+  private static class LineBuffer {
+    private final StringBuilder sb = new StringBuilder();
+
+    synchronized String completeLines(byte[] bytes) {
+      sb.append(new String(bytes, StandardCharsets.UTF_8));
+      final int end = sb.lastIndexOf("\n") + 1;
+      final String lines = sb.substring(0, end);
+      sb.delete(0, end);
+      return lines;
+    }
+
+    synchronized String rest() {
+      final String rest = sb.toString();
+      sb.setLength(0);
+      return rest;
+    }
+  }
+
+  /**
+   * Output of in-process tasks, goes to the process result (and redirect files) and the console.
+   */
+  private static class ConsoleOutputStream extends OutputStream {
+    private final ProcessResult pr;
+    private final boolean isErr;
+    private final TextConsole console;
+
+    ConsoleOutputStream(ProcessResult pr, boolean isErr, TextConsole console) {
+      this.pr = pr;
+      this.isErr = isErr;
+      this.console = console;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (len <= 0) {
+        return;
+      }
+      final byte[] bytes = Arrays.copyOfRange(b, off, off + len);
+      final String s = isErr ? pr.appendErr(bytes) : pr.appendOut(bytes);
+      toConsole(null, s, false, console);
+    }
+  }
 }
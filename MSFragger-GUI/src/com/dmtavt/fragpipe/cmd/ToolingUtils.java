@@ -88,7 +88,37 @@ public class ToolingUtils {
    * @param jarFragpipe Use {@link JarUtils#getCurrentJarUri()} to get that from the current Jar.
    */
   public static List<ProcessBuilder> pbsDeleteFiles(Path jarFragpipe, List<Path> files) {
-    return pbsCopyMoveDeleteFiles(jarFragpipe, Op.DELETE, null, false, files);
+    if (jarFragpipe == null) {
+      throw new IllegalArgumentException("jar can't be null");
+    }
+
+    // FileDelete takes many paths and deletes them in parallel, so one command per
+    // command line length limit is enough
+    final int commandLenLimit = 32000;
+    List<ProcessBuilder> pbs = new LinkedList<>();
+    List<String> cmd = null;
+    int cmdLen = 0;
+    for (Path file : files) {
+      final String path = file.toAbsolutePath().normalize().toString();
+      if (cmd != null && cmdLen + path.length() + 1 > commandLenLimit) {
+        pbs.add(new ProcessBuilder(cmd));
+        cmd = null;
+      }
+      if (cmd == null) {
+        cmd = new ArrayList<>();
+        cmd.add(Fragpipe.getBinJava());
+        cmd.add("-cp");
+        cmd.add(jarFragpipe.toAbsolutePath().toString());
+        cmd.add(FileDelete.class.getCanonicalName());
+        cmdLen = String.join(" ", cmd).length();
+      }
+      cmd.add(path);
+      cmdLen += path.length() + 1;
+    }
+    if (cmd != null) {
+      pbs.add(new ProcessBuilder(cmd));
+    }
+    return pbs;
   }
 
   /**
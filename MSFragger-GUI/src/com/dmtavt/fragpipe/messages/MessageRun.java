@@ -22,8 +22,15 @@ package com.dmtavt.fragpipe.messages;
  */
 public class MessageRun {
   public final boolean isDryRun;
+  /** Skip the commands that completed in a previous run in the same work dir. */
+  public final boolean isResume;
 
   public MessageRun(boolean isDryRun) {
+    this(isDryRun, false);
+  }
+
+  public MessageRun(boolean isDryRun, boolean isResume) {
     this.isDryRun = isDryRun;
+    this.isResume = isResume;
   }
 }
@@ -0,0 +1,482 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.process;
+
+import com.dmtavt.fragpipe.cmd.CmdBase;
+import com.dmtavt.fragpipe.cmd.ProcessBuilderInfo;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records which commands of a run finished, so that an interrupted run can be resumed.
+ * <p>
+ * Every task graph node that completed gets a record in {@link #DIR} inside the work dir with
+ * the FragPipe version, a hash of its command lines, fingerprints of the files given on the
+ * command lines (inputs, parameter files and tool binaries) and of the files it created or
+ * changed in its output directories. A record is valid as long as all of these are unchanged.
+ * <p>
+ * Output directories of a command are the working directories of its processes and the
+ * directories of the files on its command lines. Subdirectories are included, except for the
+ * work dir itself, which is shared by most commands. Commands of independent branches of the
+ * task graph run at the same time, so a file changed while a command ran was not necessarily
+ * written by it: files that a command finishing in the meantime already recorded, and that
+ * didn't change since, are left to that command. A file changed by both is recorded for both.
+ * <p>
+ * Small files are fingerprinted by content, so that parameter files rewritten with the same
+ * content on every run don't invalidate anything. Large files are compared by size and
+ * modification time. When a command changes or deletes files of an earlier command, the
+ * fingerprints in the earlier record are updated accordingly.
+ */
+public class Checkpoints {
+  private static final Logger log = LoggerFactory.getLogger(Checkpoints.class);
+  public static final String DIR = ".fragpipe-checkpoints";
+  private static final String EXT = ".checkpoint";
+  /** Files up to this size are fingerprinted by content. */
+  private static final long HASH_MAX_SIZE = 1 << 20;
+  private static final String KEY_VERSION = "version";
+  private static final String KEY_COMMANDS = "commands";
+  private static final String KEY_IN = "in";
+  private static final String KEY_OUT = "out";
+
+  private final Path wd;
+  private final Path dir;
+  private final String version;
+  private final Map<String, Running> running = new HashMap<>();
+
+  private static class Record {
+    String version;
+    String commands;
+    final Map<Path, String> in = new LinkedHashMap<>();
+    final Map<Path, String> out = new LinkedHashMap<>();
+  }
+
+  /** A command that started, but didn't finish yet. */
+  private static class Running {
+    final List<Path> scope;
+    final Map<Path, String> before;
+    /** Commands that ran at the same time as this one. */
+    final Set<String> concurrent = new HashSet<>();
+    /** Files recorded by commands that finished while this one was running. */
+    final Map<Path, String> recordedMeanwhile = new HashMap<>();
+
+    Running(List<Path> scope, Map<Path, String> before) {
+      this.scope = scope;
+      this.before = before;
+    }
+  }
+
+  public Checkpoints(Path wd, String version) {
+    this.wd = wd.toAbsolutePath().normalize();
+    this.dir = this.wd.resolve(DIR);
+    this.version = version;
+  }
+
+  /**
+   * @param index Position of the command in the topological order of the task graph.
+   */
+  public static String key(int index, CmdBase cmd) {
+    return String.format(Locale.ROOT, "%02d-%s", index, cmd.getCmdName());
+  }
+
+  /** Deletes all records, for runs that start from scratch. */
+  public synchronized void clear() {
+    try (Stream<Path> s = Files.list(dir)) {
+      for (Path p : (Iterable<Path>) s::iterator) {
+        Files.deleteIfExists(p);
+      }
+    } catch (IOException e) {
+      log.debug("Could not clear checkpoints in {}", dir, e);
+    }
+  }
+
+  public synchronized void remove(String key) {
+    try {
+      Files.deleteIfExists(recordPath(key));
+    } catch (IOException e) {
+      log.warn("Could not delete checkpoint {}", recordPath(key), e);
+    }
+  }
+
+  /**
+   * Checks the record of a command against the command lines it was configured with in this
+   * run and the current state of the files.
+   *
+   * @return Null if the checkpoint is valid, otherwise the reason why it isn't.
+   */
+  public synchronized String validate(String key, List<ProcessBuilderInfo> pbis) {
+    final Record r = read(key);
+    if (r == null) {
+      return "not completed";
+    }
+    if (!version.equals(r.version)) {
+      return "FragPipe version changed from " + r.version;
+    }
+    if (!commandsHash(pbis).equals(r.commands)) {
+      return "command line changed";
+    }
+    for (Map<Path, String> files : Arrays.asList(r.in, r.out)) {
+      for (Entry<Path, String> e : files.entrySet()) {
+        if (!e.getValue().equals(fingerprint(e.getKey()))) {
+          return "file changed: " + e.getKey();
+        }
+      }
+    }
+    return null;
+  }
+
+  /** Remembers the state of the output directories of the command before it starts. */
+  public Runnable starter(String key, List<ProcessBuilderInfo> pbis) {
+    return () -> {
+      final List<Path> scope = outputDirs(pbis);
+      final Running r = new Running(scope, snapshot(scope));
+      synchronized (this) {
+        for (Entry<String, Running> e : running.entrySet()) {
+          e.getValue().concurrent.add(key);
+          r.concurrent.add(e.getKey());
+        }
+        running.put(key, r);
+      }
+    };
+  }
+
+  /**
+   * Writes the record once all processes of the command exited with zero. The files in the
+   * output directories that differ from the snapshot taken by {@link #starter(String, List)}
+   * are the outputs.
+   */
+  public Runnable recorder(String key, List<ProcessBuilderInfo> pbis) {
+    return () -> {
+      boolean succeeded = true;
+      for (ProcessBuilderInfo pbi : pbis) {
+        if (pbi.getExitValue() == null || pbi.getExitValue() != 0) {
+          log.debug("Not writing checkpoint {}, process {} did not succeed", key, pbi.name);
+          succeeded = false;
+          break;
+        }
+      }
+      try {
+        finish(key, pbis, succeeded);
+      } catch (IOException e) {
+        log.warn("Could not write checkpoint " + key, e);
+      }
+    };
+  }
+
+  void finish(String key, List<ProcessBuilderInfo> pbis, boolean succeeded) throws IOException {
+    final Running r;
+    synchronized (this) {
+      r = running.get(key);
+    }
+    if (r == null) {
+      return;
+    }
+    final Map<Path, String> after = succeeded ? snapshot(r.scope) : null;
+    synchronized (this) {
+      running.remove(key);
+      if (succeeded) {
+        record(key, pbis, r, after);
+      }
+    }
+  }
+
+  private synchronized void record(String key, List<ProcessBuilderInfo> pbis, Running node, Map<Path, String> after) throws IOException {
+    final Map<Path, String> before = node.before;
+    final Record r = new Record();
+    r.version = version;
+    r.commands = commandsHash(pbis);
+    for (ProcessBuilderInfo pbi : pbis) {
+      final Path cwd = pbi.pb.directory() == null ? wd : pbi.pb.directory().toPath();
+      for (String arg : pbi.pb.command()) {
+        for (Path p : argumentPaths(cwd, arg)) {
+          r.in.computeIfAbsent(p, Checkpoints::fingerprint);
+        }
+      }
+    }
+    final Map<Path, String> changed = new LinkedHashMap<>();
+    for (Entry<Path, String> e : after.entrySet()) {
+      if (!e.getValue().equals(before.get(e.getKey()))
+          && !e.getValue().equals(node.recordedMeanwhile.get(e.getKey()))) {
+        changed.put(e.getKey(), fingerprint(e.getKey()));
+      }
+    }
+    r.out.putAll(changed);
+    for (Running other : running.values()) {
+      for (Path p : changed.keySet()) {
+        other.recordedMeanwhile.put(p, after.get(p));
+      }
+    }
+    for (Path p : before.keySet()) {
+      if (!after.containsKey(p)) {
+        changed.put(p, null);
+      }
+    }
+
+    // this command is now the owner of what it wrote, commands that ran at the same time
+    // may have written it as well and keep it
+    try (Stream<Path> s = Files.exists(dir) ? Files.list(dir) : Stream.empty()) {
+      for (Path p : (Iterable<Path>) s::iterator) {
+        final String other = p.getFileName().toString();
+        if (!other.endsWith(EXT) || other.equals(key + EXT)) {
+          continue;
+        }
+        final String otherKey = other.substring(0, other.length() - EXT.length());
+        final Record o = read(otherKey);
+        if (o != null && update(o, changed, node.concurrent.contains(otherKey))) {
+          write(otherKey, o);
+        }
+      }
+    }
+    write(key, r);
+    log.debug("Checkpoint {}: {} input and {} output files", key, r.in.size(), r.out.size());
+  }
+
+  private static boolean update(Record r, Map<Path, String> changed, boolean isConcurrent) {
+    boolean modified = false;
+    for (Entry<Path, String> e : changed.entrySet()) {
+      if (isConcurrent && r.out.containsKey(e.getKey())) {
+        r.out.put(e.getKey(), e.getValue());
+        modified = true;
+      } else {
+        modified |= r.out.remove(e.getKey()) != null;
+      }
+      if (r.in.containsKey(e.getKey())) {
+        if (e.getValue() == null) {
+          r.in.remove(e.getKey());
+        } else {
+          r.in.put(e.getKey(), e.getValue());
+        }
+        modified = true;
+      }
+    }
+    return modified;
+  }
+
+  /**
+   * Paths of existing files mentioned in a command line argument, either the whole argument,
+   * the value of a {@code name=value} pair, or entries of a path list (e.g. classpath).
+   * Directories in the work dir change with every file written to them and are left out.
+   */
+  List<Path> argumentPaths(Path cwd, String arg) {
+    final List<Path> paths = new ArrayList<>();
+    final int eq = arg.indexOf('=');
+    final String value = eq >= 0 ? arg.substring(eq + 1) : arg;
+    for (String s : new String[]{arg, value}) {
+      for (String part : s.split(File.pathSeparator)) {
+        if (part.trim().isEmpty()) {
+          continue;
+        }
+        final Path p;
+        try {
+          p = cwd.resolve(part.trim()).toAbsolutePath().normalize();
+        } catch (Exception e) {
+          continue;
+        }
+        if (!Files.exists(p) || paths.contains(p) || p.startsWith(dir)) {
+          continue;
+        }
+        if (Files.isDirectory(p) && p.startsWith(wd)) {
+          continue;
+        }
+        paths.add(p);
+      }
+    }
+    return paths;
+  }
+
+  /**
+   * Directories in the work dir the processes run in or name files in. They don't need to
+   * exist yet.
+   */
+  List<Path> outputDirs(List<ProcessBuilderInfo> pbis) {
+    final Set<Path> dirs = new LinkedHashSet<>();
+    for (ProcessBuilderInfo pbi : pbis) {
+      final Path cwd = pbi.pb.directory() == null ? wd : pbi.pb.directory().toPath().toAbsolutePath().normalize();
+      if (cwd.startsWith(wd)) {
+        dirs.add(cwd);
+      }
+      for (String arg : pbi.pb.command()) {
+        final int eq = arg.indexOf('=');
+        for (String part : (eq >= 0 ? arg.substring(eq + 1) : arg).split(File.pathSeparator)) {
+          final Path p;
+          try {
+            p = cwd.resolve(part.trim()).toAbsolutePath().normalize();
+          } catch (Exception e) {
+            continue;
+          }
+          if (part.trim().isEmpty() || !p.startsWith(wd) || p.startsWith(dir) || p.equals(wd)) {
+            continue;
+          }
+          dirs.add(Files.isDirectory(p) ? p : p.getParent());
+        }
+      }
+    }
+    return new ArrayList<>(dirs);
+  }
+
+  /**
+   * Size and modification time of the files in the given directories and their subdirectories.
+   * Only the files directly in the work dir are listed, when it's one of the directories.
+   */
+  Map<Path, String> snapshot(List<Path> dirs) {
+    final Map<Path, String> m = new HashMap<>();
+    for (Path d : dirs) {
+      if (!Files.isDirectory(d)) {
+        continue;
+      }
+      try (Stream<Path> s = d.equals(wd) ? Files.list(d) : Files.walk(d)) {
+        s.filter(p -> !p.startsWith(dir)).forEach(p -> {
+          try {
+            final BasicFileAttributes a = Files.readAttributes(p, BasicFileAttributes.class);
+            if (a.isRegularFile()) {
+              m.put(p.toAbsolutePath().normalize(), a.size() + ":" + a.lastModifiedTime().toMillis());
+            }
+          } catch (IOException e) {
+            log.debug("Could not read attributes of {}", p, e);
+          }
+        });
+      } catch (Exception e) {
+        log.warn("Could not list files in " + d, e);
+      }
+    }
+    return m;
+  }
+
+  static String fingerprint(Path p) {
+    try {
+      final BasicFileAttributes a = Files.readAttributes(p, BasicFileAttributes.class);
+      if (a.isRegularFile() && a.size() <= HASH_MAX_SIZE) {
+        final MessageDigest md = sha256();
+        try (InputStream is = Files.newInputStream(p)) {
+          final byte[] buf = new byte[8192];
+          int read;
+          while ((read = is.read(buf)) >= 0) {
+            md.update(buf, 0, read);
+          }
+        }
+        return "sha256:" + hex(md.digest());
+      }
+      return (a.isDirectory() ? "dir:" : "stat:") + a.size() + ":" + a.lastModifiedTime().toMillis();
+    } catch (IOException e) {
+      return "missing";
+    }
+  }
+
+  /** Heap size is left out, so a run that ran out of memory can be resumed with more RAM. */
+  static String commandsHash(List<ProcessBuilderInfo> pbis) {
+    final MessageDigest md = sha256();
+    for (ProcessBuilderInfo pbi : pbis) {
+      md.update(String.valueOf(pbi.pb.directory()).getBytes(StandardCharsets.UTF_8));
+      for (String arg : pbi.pb.command()) {
+        if (!arg.startsWith("-Xmx")) {
+          md.update((byte) 0);
+          md.update(arg.getBytes(StandardCharsets.UTF_8));
+        }
+      }
+      md.update((byte) '\n');
+    }
+    return hex(md.digest());
+  }
+
+  private Path recordPath(String key) {
+    return dir.resolve(key + EXT);
+  }
+
+  private Record read(String key) {
+    final Path p = recordPath(key);
+    if (!Files.exists(p)) {
+      return null;
+    }
+    final Record r = new Record();
+    try (BufferedReader br = Files.newBufferedReader(p, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = br.readLine()) != null) {
+        final String[] split = line.split("\t", 3);
+        if (split.length == 2 && split[0].equals(KEY_VERSION)) {
+          r.version = split[1];
+        } else if (split.length == 2 && split[0].equals(KEY_COMMANDS)) {
+          r.commands = split[1];
+        } else if (split.length == 3 && split[0].equals(KEY_IN)) {
+          r.in.put(wd.getFileSystem().getPath(split[2]), split[1]);
+        } else if (split.length == 3 && split[0].equals(KEY_OUT)) {
+          r.out.put(wd.getFileSystem().getPath(split[2]), split[1]);
+        }
+      }
+    } catch (Exception e) {
+      log.warn("Could not read checkpoint " + p, e);
+      return null;
+    }
+    return r.version == null || r.commands == null ? null : r;
+  }
+
+  private void write(String key, Record r) throws IOException {
+    Files.createDirectories(dir);
+    final Path p = recordPath(key);
+    final Path tmp = dir.resolve(key + EXT + ".tmp");
+    try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+      w.write(KEY_VERSION + "\t" + r.version + "\n");
+      w.write(KEY_COMMANDS + "\t" + r.commands + "\n");
+      for (Entry<Path, String> e : r.in.entrySet()) {
+        w.write(KEY_IN + "\t" + e.getValue() + "\t" + e.getKey() + "\n");
+      }
+      for (Entry<Path, String> e : r.out.entrySet()) {
+        w.write(KEY_OUT + "\t" + e.getValue() + "\t" + e.getKey() + "\n");
+      }
+    }
+    Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    final StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(String.format("%02x", b));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.process;
+
+/**
+ * Text buffer of bounded size. Keeps the first {@code headLimit} and the last {@code tailLimit}
+ * characters appended to it, the middle is dropped.
+ */
+public class HeadTailBuffer {
+  private final int headLimit;
+  private final StringBuilder head;
+  private final char[] tail;
+  private int tailStart = 0;
+  private int tailLen = 0;
+  private long total = 0;
+
+  public HeadTailBuffer(int headLimit, int tailLimit) {
+    if (headLimit < 0 || tailLimit < 0) {
+      throw new IllegalArgumentException("Limits must be non-negative");
+    }
+    this.headLimit = headLimit;
+    this.head = new StringBuilder(Math.min(headLimit, 4096));
+    this.tail = new char[tailLimit];
+  }
+
+  public synchronized void append(String s) {
+    if (s == null || s.isEmpty()) {
+      return;
+    }
+    total += s.length();
+    int from = 0;
+    if (head.length() < headLimit) {
+      from = Math.min(headLimit - head.length(), s.length());
+      head.append(s, 0, from);
+    }
+    if (tail.length == 0) {
+      return;
+    }
+    // only the last tail.length chars of the string can survive
+    from = Math.max(from, s.length() - tail.length);
+    for (int i = from; i < s.length(); ) {
+      final int pos = (tailStart + tailLen) % tail.length;
+      final int n = Math.min(s.length() - i, tail.length - pos);
+      s.getChars(i, i + n, tail, pos);
+      i += n;
+      tailLen += n;
+      if (tailLen > tail.length) {
+        tailStart = (tailStart + tailLen - tail.length) % tail.length;
+        tailLen = tail.length;
+      }
+    }
+  }
+
+  /**
+   * @return Total number of characters appended, including the dropped ones.
+   */
+  public synchronized long length() {
+    return total;
+  }
+
+  /**
+   * @return Number of characters that are not kept in memory.
+   */
+  public synchronized long dropped() {
+    return total - head.length() - tailLen;
+  }
+
+  @Override
+  public synchronized String toString() {
+    final StringBuilder sb = new StringBuilder(head.length() + tailLen + 128);
+    sb.append(head);
+    final long dropped = dropped();
+    if (dropped > 0) {
+      sb.append("\n[... ").append(dropped).append(" characters not kept in memory ...]\n");
+    }
+    final int firstPart = Math.min(tailLen, tail.length - tailStart);
+    sb.append(tail, tailStart, firstPart);
+    sb.append(tail, 0, tailLen - firstPart);
+    return sb.toString();
+  }
+}
@@ -0,0 +1,309 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.process;
+
+import com.dmtavt.fragpipe.Fragpipe;
+import com.dmtavt.fragpipe.tools.msbooster.PredictionCache;
+import com.dmtavt.fragpipe.tools.pepproph.FixPepProphLcmsPath;
+import com.dmtavt.fragpipe.tools.percolator.PercolatorOutputToPepXML;
+import com.dmtavt.fragpipe.util.CheckCentroid;
+import com.dmtavt.fragpipe.util.CheckFileList;
+import com.dmtavt.fragpipe.util.RewritePepxml;
+import com.github.chhh.utils.FileCopy;
+import com.github.chhh.utils.FileDelete;
+import com.github.chhh.utils.FileMove;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs FragPipe's own Java helpers (file copy/move/delete, pepXML rewriting, Percolator output
+ * conversion, centroid and input file checks, MSBooster prediction cache) inside the FragPipe JVM
+ * instead of starting a new {@code java -cp fragpipe.jar ...} process for each invocation.
+ * Helpers that read whole LCMS files (e.g. scan pairing) need a heap of their own and keep
+ * running as separate processes.
+ * <p>
+ * Commands for the helpers are still created as regular process builders, so what gets printed
+ * to the console does not change. A command is recognized by its main class, which must expose
+ * {@code public static int run(String[] args)} returning the exit code. All file arguments must be
+ * absolute, as the working directory of the process builder can't be applied in-process.
+ */
+public class InProcessJava {
+  private static final Logger log = LoggerFactory.getLogger(InProcessJava.class);
+
+  private static final Set<String> HELPERS = new HashSet<>(Arrays.asList(
+      FileCopy.class.getCanonicalName(),
+      FileMove.class.getCanonicalName(),
+      FileDelete.class.getCanonicalName(),
+      RewritePepxml.class.getCanonicalName(),
+      FixPepProphLcmsPath.class.getCanonicalName(),
+      PercolatorOutputToPepXML.class.getCanonicalName(),
+      CheckCentroid.class.getCanonicalName(),
+      CheckFileList.class.getCanonicalName(),
+      PredictionCache.class.getCanonicalName()));
+
+  private static final Map<String, ClassLoader> loaders = new ConcurrentHashMap<>();
+  /**
+   * Not inherited: threads created while a helper runs (e.g. pool workers of the event bus) may
+   * outlive it, their output must not end up in the helper's streams.
+   */
+  private static final ThreadLocal<Capture> captures = new ThreadLocal<>();
+  private static boolean isRedirectInstalled = false;
+
+  private InProcessJava() {}
+
+  public static class Invocation {
+    public final String mainClass;
+    public final String classpath;
+    public final Map<String, String> sysProps;
+    public final String[] args;
+
+    Invocation(String mainClass, String classpath, Map<String, String> sysProps, String[] args) {
+      this.mainClass = mainClass;
+      this.classpath = classpath;
+      this.sysProps = sysProps;
+      this.args = args;
+    }
+  }
+
+  /**
+   * @return Null if the command is not a call to one of the known helpers or uses JVM options
+   * that can not be honored inside the running JVM.
+   */
+  public static Invocation parse(ProcessBuilder pb) {
+    final List<String> cmd = pb.command();
+    if (cmd.size() < 4 || !cmd.get(0).equals(Fragpipe.getBinJava())) {
+      return null;
+    }
+    final Map<String, String> props = new LinkedHashMap<>();
+    String classpath = null;
+    int i = 1;
+    for (; i < cmd.size(); i++) {
+      final String arg = cmd.get(i);
+      if (arg.isEmpty()) {
+        continue;
+      }
+      if (arg.equals("-cp") || arg.equals("-classpath")) {
+        if (++i >= cmd.size()) {
+          return null;
+        }
+        classpath = unquote(cmd.get(i));
+      } else if (arg.startsWith("-Xmx") || arg.startsWith("-Xms")) {
+        // the helper shares the heap of the FragPipe JVM
+      } else if (arg.startsWith("-D")) {
+        final int eq = arg.indexOf('=');
+        if (eq < 0) {
+          props.put(arg.substring(2), "");
+        } else {
+          props.put(arg.substring(2, eq), unquote(arg.substring(eq + 1)));
+        }
+      } else if (arg.startsWith("-")) {
+        return null;
+      } else {
+        break;
+      }
+    }
+    if (classpath == null || i >= cmd.size() || !HELPERS.contains(cmd.get(i))) {
+      return null;
+    }
+    for (Map.Entry<String, String> kv : props.entrySet()) {
+      final String cur = System.getProperty(kv.getKey());
+      if (cur != null && !cur.equals(kv.getValue())) {
+        log.debug("System property {} already set to a different value, {} will run in a separate JVM", kv.getKey(), cmd.get(i));
+        return null;
+      }
+    }
+    final String[] args = cmd.subList(i + 1, cmd.size()).toArray(new String[0]);
+    return new Invocation(cmd.get(i), classpath, props, args);
+  }
+
+  /**
+   * Runs the helper in the calling thread. Everything the helper prints to System.out and
+   * System.err from that thread goes to the given streams, helpers print only from the thread
+   * calling their {@code run} method. Output of other threads is not captured.
+   *
+   * @return Exit code of the helper. Exceptions thrown by the helper are printed to {@code err}
+   * and result in exit code 1.
+   */
+  public static int run(Invocation inv, OutputStream out, OutputStream err) throws Exception {
+    for (Map.Entry<String, String> kv : inv.sysProps.entrySet()) {
+      if (System.getProperty(kv.getKey()) == null) {
+        System.setProperty(kv.getKey(), kv.getValue());
+      }
+    }
+    final ClassLoader cl = loaders.computeIfAbsent(inv.mainClass + File.pathSeparator + inv.classpath,
+        k -> new HelperClassLoader(inv.mainClass, toUrls(inv.classpath), InProcessJava.class.getClassLoader()));
+    final Method m = Class.forName(inv.mainClass, true, cl).getMethod("run", String[].class);
+
+    installRedirect();
+    final Capture capture = new Capture(new PrintStream(out, true, "UTF-8"), new PrintStream(err, true, "UTF-8"));
+    captures.set(capture);
+    try {
+      return (Integer) m.invoke(null, (Object) inv.args);
+    } catch (InvocationTargetException e) {
+      e.getCause().printStackTrace(capture.err);
+      return 1;
+    } finally {
+      capture.isActive = false;
+      captures.remove();
+      capture.out.flush();
+      capture.err.flush();
+    }
+  }
+
+  private static String unquote(String s) {
+    return s.length() > 1 && s.startsWith("\"") && s.endsWith("\"") ? s.substring(1, s.length() - 1) : s;
+  }
+
+  private static URL[] toUrls(String classpath) {
+    final List<URL> urls = new ArrayList<>();
+    for (String entry : classpath.split(File.pathSeparator)) {
+      if (entry.isEmpty()) {
+        continue;
+      }
+      try {
+        if (entry.endsWith("*")) {
+          // wildcard classpath entry, all jars in the directory
+          final Path dir = Paths.get(entry.substring(0, entry.length() - 1));
+          final List<Path> jars = new ArrayList<>();
+          try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*.{jar,JAR}")) {
+            ds.forEach(jars::add);
+          }
+          Collections.sort(jars);
+          for (Path jar : jars) {
+            urls.add(jar.toUri().toURL());
+          }
+        } else {
+          urls.add(Paths.get(entry).toUri().toURL());
+        }
+      } catch (IOException e) {
+        log.warn("Skipping classpath entry of in-process helper: {}", entry, e);
+      }
+    }
+    return urls.toArray(new URL[0]);
+  }
+
+  private static synchronized void installRedirect() {
+    if (isRedirectInstalled) {
+      return;
+    }
+    System.setOut(new PrintStream(new Redirect(System.out, false), true));
+    System.setErr(new PrintStream(new Redirect(System.err, true), true));
+    isRedirectInstalled = true;
+  }
+
+  private static class Capture {
+    final PrintStream out;
+    final PrintStream err;
+    volatile boolean isActive = true;
+
+    Capture(PrintStream out, PrintStream err) {
+      this.out = out;
+      this.err = err;
+    }
+  }
+
+  /** Sends System.out/err of the thread running a helper to that helper's streams. */
+  private static class Redirect extends OutputStream {
+    private final PrintStream fallback;
+    private final boolean isErr;
+
+    Redirect(PrintStream fallback, boolean isErr) {
+      this.fallback = fallback;
+      this.isErr = isErr;
+    }
+
+    private OutputStream target() {
+      final Capture c = captures.get();
+      if (c == null || !c.isActive) {
+        return fallback;
+      }
+      return isErr ? c.err : c.out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      target().write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      target().write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      target().flush();
+    }
+  }
+
+  /**
+   * The helper class itself is always defined by this loader, so that libraries it needs which
+   * are not on FragPipe's own classpath (e.g. batmass-io) are resolved from the helper's classpath.
+   * Everything else is looked up in the parent first.
+   */
+  private static class HelperClassLoader extends URLClassLoader {
+    private final String mainClass;
+
+    HelperClassLoader(String mainClass, URL[] urls, ClassLoader parent) {
+      super(urls, parent);
+      this.mainClass = mainClass;
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+      synchronized (getClassLoadingLock(name)) {
+        Class<?> c = findLoadedClass(name);
+        if (c == null && (name.equals(mainClass) || name.startsWith(mainClass + "$"))) {
+          try {
+            c = findClass(name);
+          } catch (ClassNotFoundException ignored) {
+            // not on the helper's classpath, e.g. running from an IDE
+          }
+        }
+        if (c == null) {
+          return super.loadClass(name, resolve);
+        }
+        if (resolve) {
+          resolveClass(c);
+        }
+        return c;
+      }
+    }
+  }
+}
@@ -23,22 +23,19 @@ import static org.apache.commons.text.StringEscapeUtils.escapeJava;
 
 import com.dmtavt.fragpipe.Fragpipe;
 import com.dmtavt.fragpipe.api.Bus;
+import com.dmtavt.fragpipe.cmd.CmdBase;
 import com.dmtavt.fragpipe.cmd.ProcessBuilderInfo;
 import com.dmtavt.fragpipe.messages.MessageDeletePaths;
 import com.dmtavt.fragpipe.messages.MessageKillAll;
 import com.dmtavt.fragpipe.messages.MessageRunButtonEnabled;
 import com.dmtavt.fragpipe.messages.MessageStartProcesses;
-import com.github.chhh.utils.FileDelete;
-import java.io.IOException;
-import java.nio.file.FileSystemException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
@@ -47,8 +44,6 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import org.greenrobot.eventbus.Subscribe;
 import org.greenrobot.eventbus.ThreadMode;
@@ -139,33 +134,9 @@ public class ProcessManager {
   private void deleteTempFiles() {
     MessageDeletePaths m = Bus.getStickyEvent(MessageDeletePaths.class);
     if (m != null && !m.toDelete.isEmpty()) {
-      for (Path path : m.toDelete) {
-        try {
-          if (Files.exists(path)) {
-            log.debug("Deleting temp file/dir: {}", path);
-
-            // try deleting every file a few times (up to 5 seconds)
-            AtomicInteger retries = new AtomicInteger(0);
-            AtomicBoolean isDeleted = new AtomicBoolean(false);
-            while (!isDeleted.get() && retries.get() < 10) {
-              retries.getAndIncrement();
-              try {
-                FileDelete.deleteFileOrFolder(path);
-                isDeleted.set(true);
-              } catch (FileSystemException e) {
-                if (e.getMessage() != null && e.getMessage().toLowerCase()
-                    .contains("being used by another process")) {
-                  log.warn("Attempt #{} to delete file we need to delete is being used by another process: {}", retries.get(), path);
-                  Thread.sleep(1000);
-                }
-              }
-            }
-
-          }
-        } catch (IOException | InterruptedException e) {
-          log.warn("Error while deleting temporary files", e); // log, but otherwise ignore
-        }
-      }
+      log.debug("Deleting temp files/dirs: {}", m.toDelete);
+      // files still held by the processes just stopped are retried in the background
+      TempFileCleaner.get().delete(m.toDelete);
       Bus.postSticky(new MessageDeletePaths(Collections.emptySet()));
     }
   }
@@ -191,33 +162,19 @@ public class ProcessManager {
       }
       stop();
 
-      Iterator<RunnableDescription> it = m.runDescs.iterator();
-      final List<RunnableDescription> group = new ArrayList<>();
-      while (it.hasNext()) {
-        RunnableDescription next = it.next();
-
-        // are we starting a new group?
-        if (!group.isEmpty()) {
-          RunnableDescription last = group.get(group.size() - 1);
-          if (last.parallelGroup.equals(next.parallelGroup)) {
-            group.add(next);
-            continue;
-          } else {
-            processGroup(group);
-          }
-        }
-        // next is either a null/sequential group element or a new group element
-        group.add(next);
-        if (next.parallelGroup == null || next.parallelGroup.equals(ProcessBuilderInfo.GROUP_SEQUENTIAL)) {
+      final boolean isGraph = m.runDescs.stream().anyMatch(rd -> rd.node != null);
+      if (isGraph) {
+        submitGraph(m.runDescs);
+      } else {
+        for (List<RunnableDescription> group : splitIntoGroups(m.runDescs)) {
           processGroup(group);
         }
+        if (taskGroups.isEmpty()) {
+          log.error("No runnable groups found");
+          return;
+        }
+        submit();
       }
-
-      if (taskGroups.isEmpty()) {
-        log.error("No runnable groups found");
-        return;
-      }
-      submit();
       if (Fragpipe.printCommandsInDetail)
         printCommands(taskGroups);
 
@@ -225,6 +182,144 @@ public class ProcessManager {
 
   }
 
+  /**
+   * Splits runnables into consecutive groups. Runnables sharing a parallel group name that
+   * follow each other end up in the same group, everything else becomes a group of one.
+   */
+  private static List<List<RunnableDescription>> splitIntoGroups(List<RunnableDescription> rds) {
+    final List<List<RunnableDescription>> groups = new ArrayList<>();
+    final List<RunnableDescription> group = new ArrayList<>();
+    for (RunnableDescription next : rds) {
+      // are we starting a new group?
+      if (!group.isEmpty()) {
+        RunnableDescription last = group.get(group.size() - 1);
+        if (last.parallelGroup.equals(next.parallelGroup)) {
+          group.add(next);
+          continue;
+        } else {
+          groups.add(new ArrayList<>(group));
+          group.clear();
+        }
+      }
+      // next is either a null/sequential group element or a new group element
+      group.add(next);
+      if (next.parallelGroup == null || next.parallelGroup.equals(ProcessBuilderInfo.GROUP_SEQUENTIAL)) {
+        groups.add(new ArrayList<>(group));
+        group.clear();
+      }
+    }
+    if (!group.isEmpty()) {
+      groups.add(new ArrayList<>(group));
+    }
+    return groups;
+  }
+
+  /**
+   * A node of the task graph as seen by the scheduler: all runnables of one command, split
+   * into groups that are executed one after another.
+   */
+  private static class TaskNode {
+    final String name;
+    final List<List<RunnableDescription>> groups = new ArrayList<>();
+    final List<TaskNode> deps = new ArrayList<>();
+
+    TaskNode(String name) {
+      this.name = name;
+    }
+  }
+
+  /**
+   * Schedules runnables according to the task graph they were tagged with. Independent
+   * branches of the graph run concurrently. Every process reserves the threads it uses in
+   * {@link ThreadBudget} before it starts, so together they never use more than configured.
+   * Runnables without a node act as barriers: they wait for everything submitted before them.
+   */
+  private void submitGraph(List<RunnableDescription> rds) {
+    final List<TaskNode> nodes = new ArrayList<>();
+    final Map<CmdBase, TaskNode> byCmd = new IdentityHashMap<>();
+    final Map<TaskNode, List<RunnableDescription>> members = new IdentityHashMap<>();
+    TaskNode barrier = null;
+    List<TaskNode> sinceBarrier = new ArrayList<>();
+
+    for (RunnableDescription rd : rds) {
+      TaskNode node;
+      if (rd.node == null) {
+        node = new TaskNode(rd.description.name);
+        node.deps.addAll(sinceBarrier);
+        if (barrier != null) {
+          node.deps.add(barrier);
+        }
+        barrier = node;
+        sinceBarrier = new ArrayList<>();
+        nodes.add(node);
+      } else {
+        node = byCmd.get(rd.node);
+        if (node == null) {
+          node = new TaskNode(rd.node.getCmdName());
+          for (CmdBase dep : rd.dependsOn) {
+            TaskNode depNode = byCmd.get(dep);
+            if (depNode != null) {
+              node.deps.add(depNode);
+            }
+          }
+          if (barrier != null) {
+            node.deps.add(barrier);
+          }
+          byCmd.put(rd.node, node);
+          sinceBarrier.add(node);
+          nodes.add(node);
+        }
+      }
+      members.computeIfAbsent(node, k -> new ArrayList<>()).add(rd);
+    }
+
+    for (TaskNode node : nodes) {
+      node.groups.addAll(splitIntoGroups(members.get(node)));
+      for (List<RunnableDescription> group : node.groups) {
+        processGroup(group);
+      }
+    }
+    if (taskGroups.isEmpty()) {
+      log.error("No runnable groups found");
+      return;
+    }
+
+    // executors are replaced on stop, tasks must not leak into the new ones
+    final ExecutorService exec = execMulti;
+    final Map<TaskNode, CompletableFuture<Void>> done = new IdentityHashMap<>();
+    for (TaskNode node : nodes) {
+      CompletableFuture<Void> f = CompletableFuture.allOf(node.deps.stream()
+          .map(done::get).toArray(CompletableFuture<?>[]::new));
+      for (List<RunnableDescription> group : node.groups) {
+        f = f.thenCompose(v -> runGroup(group, exec));
+      }
+      log.debug("Scheduled graph node [{}] with {} groups, depends on: {}", node.name,
+          node.groups.size(), node.deps.stream().map(d -> d.name).collect(Collectors.joining(", ")));
+      done.put(node, f);
+    }
+
+    cf = CompletableFuture.allOf(done.values().toArray(new CompletableFuture<?>[0]))
+        .thenRunAsync(this::submit, execSingle);
+  }
+
+  private CompletableFuture<Void> runGroup(List<RunnableDescription> rds, ExecutorService exec) {
+    taskGroups.remove(rds);
+    if (rds.size() == 1) {
+      RunnableDescription rd = rds.get(0);
+      log.debug("Submitting for execution: [{}] {}", rd.description.name, rd.description.command);
+    } else {
+      String cmds = rds.stream().map(rd -> rd.description.command)
+          .collect(Collectors.joining("\n\t"));
+      log.debug("Submitting for parallel execution: [{}] {} commands:\n\t{}",
+          rds.get(0).parallelGroup, rds.size(), cmds);
+    }
+    List<CompletableFuture<Void>> cfs = new ArrayList<>();
+    for (RunnableDescription rd : rds) {
+      cfs.add(CompletableFuture.runAsync(rd.runnable, exec));
+    }
+    return CompletableFuture.allOf(cfs.toArray(new CompletableFuture<?>[0]));
+  }
+
   /**
    * this is for output of detailed information on commands
    * @param taskGroups
@@ -300,9 +395,8 @@ public class ProcessManager {
   }
 
   private void processGroup(List<RunnableDescription> group) {
-    final List<RunnableDescription> copy = new ArrayList<>(group);
     if (group.size() == 1) {
-      RunnableDescription rd = copy.get(0);
+      RunnableDescription rd = group.get(0);
       log.debug("Scheduling for serial execution: [{}] {}", rd.description.name, rd.description.command);
     } else {
       // group of several processes to be run in parallel
@@ -314,8 +408,7 @@ public class ProcessManager {
           group.size(), cmds);
     }
 
-    taskGroups.add(copy);
-    group.clear();
+    taskGroups.add(group);
   }
 
   @Subscribe(threadMode = ThreadMode.MAIN_ORDERED)
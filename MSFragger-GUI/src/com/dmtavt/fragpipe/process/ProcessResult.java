@@ -25,23 +25,39 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 import com.dmtavt.fragpipe.cmd.ProcessBuilderInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class ProcessResult implements AutoCloseable {
+  private static final Logger log = LoggerFactory.getLogger(ProcessResult.class);
+
+  /** Characters of output kept in memory from the start of the process output. */
+  public static final int OUTPUT_HEAD_CHARS = Integer.getInteger("fragpipe.output.head-kb", 64) * 1024;
+  /** Characters of output kept in memory from the end of the process output. */
+  public static final int OUTPUT_TAIL_CHARS = Integer.getInteger("fragpipe.output.tail-kb", 256) * 1024;
+  /** Output redirected to files is flushed at most this often, and on close. */
+  private static final long FLUSH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
 
   private final ProcessBuilderInfo pbi;
 
   private boolean started;
-  private StringBuilder output = new StringBuilder();
+  private final HeadTailBuffer output;
+  private long lastFlush = System.nanoTime();
   private Integer exitCode;
   private Process proc;
   private InputStream stdOut;
   private InputStream stdErr;
   private BufferedOutputStream stdErrRedirect;
   private BufferedOutputStream stdOutRedirect;
+  private Thread pumpOut;
+  private Thread pumpErr;
 
   public ProcessResult(ProcessBuilderInfo pbi) {
     this.pbi = pbi;
+    this.output = new HeadTailBuffer(OUTPUT_HEAD_CHARS, OUTPUT_TAIL_CHARS);
   }
 
   public Process start() throws IOException {
@@ -59,8 +75,22 @@ public class ProcessResult implements AutoCloseable {
     return proc;
   }
 
+  /**
+   * For helpers running inside FragPipe's JVM, only sets up redirection of output to files,
+   * no external process is started.
+   */
+  public void startInProcess() throws IOException {
+    stdOutRedirect = redirectToFile(pbi.pb, pbi.fnStdout);
+    if (pbi.fnStderr != null && pbi.fnStderr.equals(pbi.fnStdout)) {
+      stdErrRedirect = stdOutRedirect;
+    } else {
+      stdErrRedirect = redirectToFile(pbi.pb, pbi.fnStderr);
+    }
+    started = true;
+  }
+
   @Override
-  public void close() throws Exception {
+  public synchronized void close() throws Exception {
     if (stdOutRedirect != null) {
       stdOutRedirect.close();
     }
@@ -81,6 +111,92 @@ public class ProcessResult implements AutoCloseable {
     return poll(stdErr);
   }
 
+  /**
+   * Consumer of a chunk of process output.
+   */
+  @FunctionalInterface
+  public interface OutputConsumer {
+    void accept(byte[] bytes) throws IOException;
+  }
+
+  /**
+   * Alternative to polling. Starts a thread per output stream of the started process, which hands
+   * chunks of output to the consumer as soon as they are read. Chunks never end in the middle of
+   * a UTF-8 encoded character. The threads stop when the process closes its streams.
+   */
+  public void startPumps(OutputConsumer onStdOut, OutputConsumer onStdErr) {
+    if (proc == null) {
+      throw new IllegalStateException("Process not started");
+    }
+    pumpOut = startPump(stdOut, onStdOut, "stdout");
+    pumpErr = startPump(stdErr, onStdErr, "stderr");
+  }
+
+  /**
+   * Waits for the pumps to deliver everything the process has written.
+   *
+   * @return False if the streams were still open after the timeout, e.g. because the process left
+   * behind children that inherited them.
+   */
+  public boolean joinPumps(long timeout, TimeUnit unit) throws InterruptedException {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (Thread t : new Thread[]{pumpOut, pumpErr}) {
+      if (t != null) {
+        TimeUnit.NANOSECONDS.timedJoin(t, Math.max(1, deadline - System.nanoTime()));
+        if (t.isAlive()) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private Thread startPump(InputStream is, OutputConsumer consumer, String streamName) {
+    Thread t = new Thread(() -> {
+      final byte[] buf = new byte[8192];
+      int len = 0;
+      try {
+        int read;
+        while ((read = is.read(buf, len, buf.length - len)) != -1) {
+          len += read;
+          final int complete = completeUtf8Length(buf, len);
+          if (complete > 0) {
+            consumer.accept(Arrays.copyOf(buf, complete));
+            System.arraycopy(buf, complete, buf, 0, len - complete);
+            len -= complete;
+          }
+        }
+        if (len > 0) {
+          consumer.accept(Arrays.copyOf(buf, len));
+        }
+      } catch (IOException e) {
+        // the stream gets closed when the process is destroyed
+        log.debug("Stopped reading {} of {}: {}", streamName, pbi.name, e.getMessage());
+      }
+    }, "Pump " + streamName + ": " + pbi.name);
+    t.setDaemon(true);
+    t.start();
+    return t;
+  }
+
+  /**
+   * @return Length of the prefix of the buffer that does not end with an incomplete UTF-8
+   * sequence. Malformed input is passed through as is.
+   */
+  static int completeUtf8Length(byte[] buf, int len) {
+    for (int i = len - 1, k = 1; i >= 0 && k <= 4; i--, k++) {
+      final int b = buf[i] & 0xff;
+      if (b < 0x80) {
+        return len;
+      }
+      if (b >= 0xc0) {
+        final int expected = b >= 0xf0 ? 4 : b >= 0xe0 ? 3 : 2;
+        return k < expected ? i : len;
+      }
+    }
+    return len;
+  }
+
   private static byte[] poll(InputStream is) throws IOException {
     if (is == null) {
       return null;
@@ -122,8 +238,12 @@ public class ProcessResult implements AutoCloseable {
     return started;
   }
 
-  public StringBuilder getOutput() {
-    return output;
+  /**
+   * @return Start and end of the output, see {@link #OUTPUT_HEAD_CHARS} and
+   * {@link #OUTPUT_TAIL_CHARS}. A note in the middle tells how much was left out.
+   */
+  public String getOutput() {
+    return output.toString();
   }
 
   /**
@@ -146,7 +266,7 @@ public class ProcessResult implements AutoCloseable {
    * @return String representation of whatever has been appended, not the whole string after
    * appending!
    */
-  private String append(byte[] bytes, BufferedOutputStream bos) throws IOException {
+  private synchronized String append(byte[] bytes, BufferedOutputStream bos) throws IOException {
     if (bytes == null || bytes.length == 0) {
       return null;
     }
@@ -154,11 +274,24 @@ public class ProcessResult implements AutoCloseable {
     output.append(s);
     if (bos != null) {
       bos.write(bytes);
-      bos.flush();
+      final long now = System.nanoTime();
+      if (now - lastFlush > FLUSH_INTERVAL_NANOS) {
+        lastFlush = now;
+        flushRedirects();
+      }
     }
     return s;
   }
 
+  private void flushRedirects() throws IOException {
+    if (stdOutRedirect != null) {
+      stdOutRedirect.flush();
+    }
+    if (stdErrRedirect != null && stdErrRedirect != stdOutRedirect) {
+      stdErrRedirect.flush();
+    }
+  }
+
   public Integer getExitCode() {
     return exitCode;
   }
@@ -0,0 +1,307 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.process;
+
+import com.dmtavt.fragpipe.Version;
+import com.dmtavt.fragpipe.cmd.ProcessBuilderInfo;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resources used by the processes of a run: wall time, CPU time, peak resident memory and I/O.
+ * On Linux these are sampled from /proc for the process and its children while it runs, the
+ * CPU time includes children that already exited and were waited for. A process that exits
+ * between samples is accounted for by the children CPU time of FragPipe's JVM, if no other
+ * process ran at the same time. Elsewhere only wall and CPU time are known. For FragPipe's own
+ * helpers running in this JVM only the CPU time of the calling thread is known, it's reported
+ * as thread CPU time. The numbers are written to a JSON report in the working directory at the
+ * end of the run.
+ */
+public class ProcessTelemetry {
+  private static final Logger log = LoggerFactory.getLogger(ProcessTelemetry.class);
+  private static final ProcessTelemetry instance = new ProcessTelemetry();
+  public static final String REPORT_FN = "fragpipe-run-report.json";
+  private static final long SAMPLE_INTERVAL_MS = 1000;
+  /** USER_HZ, the unit of CPU times in /proc/[pid]/stat, is 100 on all common platforms. */
+  private static final double CLOCK_TICKS_PER_SEC = 100;
+  private static final Path PROC = Paths.get("/proc");
+  private static final boolean HAS_PROC = Files.isDirectory(PROC);
+
+  private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "process-telemetry");
+    t.setDaemon(true);
+    return t;
+  });
+  private final List<Record> records = new ArrayList<>();
+  /** External processes being sampled. */
+  private final Set<Sampler> running = new HashSet<>();
+  private Instant runStart = Instant.now();
+
+  private ProcessTelemetry() {
+  }
+
+  public static ProcessTelemetry get() {
+    return instance;
+  }
+
+  /** Forgets processes of previous runs. */
+  public synchronized void reset() {
+    records.clear();
+    runStart = Instant.now();
+  }
+
+  /** One finished or running process, serialized as is. */
+  static class Record {
+    String name;
+    String parallelGroup;
+    boolean inProcess;
+    String started;
+    Integer exitValue;
+    long wallMs;
+    /** CPU time of the process and its children. */
+    Long cpuMs;
+    /** CPU time of the thread running an in-process helper, other threads are not counted. */
+    Long threadCpuMs;
+    Long peakRssKb;
+    Long readBytes;
+    Long writeBytes;
+  }
+
+  /** Values for one pid, taken at the last sample. */
+  private static class PidSample {
+    long hwmKb;
+    long readBytes;
+    long writeBytes;
+  }
+
+  /** Tracks one process until {@link #finish(Integer)}. */
+  public class Sampler {
+    private final Record record = new Record();
+    private final long startNanos = System.nanoTime();
+    private final Process process;
+    private final Map<Long, PidSample> pids = new HashMap<>();
+    private final ScheduledFuture<?> task;
+    private final long threadCpuStart;
+    private final Thread thread;
+    private final long jvmChildTicksStart;
+    /** Highest CPU time of the process tree seen in a sample. */
+    private long cpuTicks = 0;
+    /** Another process ran at the same time, guarded by the enclosing instance. */
+    private boolean overlapped = false;
+    private boolean finished = false;
+
+    private Sampler(ProcessBuilderInfo pbi, Process process) {
+      this.process = process;
+      record.name = pbi.name;
+      record.parallelGroup = pbi.parallelGroup;
+      record.inProcess = process == null;
+      record.started = Instant.now().toString();
+      thread = Thread.currentThread();
+      final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+      threadCpuStart = process == null && threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : -1;
+      if (process != null && HAS_PROC) {
+        jvmChildTicksStart = jvmChildTicks();
+        synchronized (ProcessTelemetry.this) {
+          overlapped = !running.isEmpty();
+          running.forEach(other -> other.overlapped = true);
+          running.add(this);
+        }
+        task = sampler.scheduleAtFixedRate(this::sample, 0, SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+      } else {
+        jvmChildTicksStart = -1;
+        task = null;
+      }
+    }
+
+    private synchronized void sample() {
+      if (!finished) {
+        sampleTree();
+      }
+    }
+
+    private void sampleTree() {
+      try {
+        // a reaped pid might already belong to another process
+        long ticks = process.isAlive() ? sample(process.pid()) : 0;
+        ticks += process.descendants().mapToLong(ph -> sample(ph.pid())).sum();
+        cpuTicks = Math.max(cpuTicks, ticks);
+      } catch (Exception e) {
+        log.debug("Could not sample process {}", record.name, e);
+      }
+    }
+
+    /**
+     * @return CPU ticks of the pid and of its children that were waited for, 0 if it's gone.
+     */
+    private long sample(long pid) {
+      final Path dir = PROC.resolve(Long.toString(pid));
+      final PidSample s = pids.computeIfAbsent(pid, k -> new PidSample());
+      long ticks = 0;
+      try {
+        ticks = statTicks(dir);
+        for (String line : Files.readAllLines(dir.resolve("status"), StandardCharsets.US_ASCII)) {
+          if (line.startsWith("VmHWM:")) {
+            s.hwmKb = Math.max(s.hwmKb, Long.parseLong(line.replaceAll("[^0-9]", "")));
+          }
+        }
+        // only readable for processes of the same user
+        for (String line : Files.readAllLines(dir.resolve("io"), StandardCharsets.US_ASCII)) {
+          if (line.startsWith("read_bytes:")) {
+            s.readBytes = Long.parseLong(line.substring(11).trim());
+          } else if (line.startsWith("write_bytes:")) {
+            s.writeBytes = Long.parseLong(line.substring(12).trim());
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        // the process exited between listing and reading
+        log.trace("Could not read /proc for pid {}", pid, e);
+      }
+      return ticks;
+    }
+
+    /**
+     * Stops sampling and adds the process to the report. Only the first call counts.
+     *
+     * @param exitValue Null if the process didn't finish normally.
+     */
+    public void finish(Integer exitValue) {
+      if (task != null) {
+        task.cancel(false);
+      }
+      synchronized (this) {
+        if (finished) {
+          return;
+        }
+        finished = true;
+        record.wallMs = Math.round((System.nanoTime() - startNanos) * 1e-6);
+        record.exitValue = exitValue;
+        if (task != null) {
+          // last look at whatever is still running
+          sampleTree();
+          final boolean isAlone;
+          synchronized (ProcessTelemetry.this) {
+            running.remove(this);
+            isAlone = !overlapped;
+          }
+          long ticks = cpuTicks;
+          if (isAlone && jvmChildTicksStart >= 0 && !process.isAlive()) {
+            // once reaped, the process and the children it waited for are counted in this JVM
+            final long jvmTicks = jvmChildTicks();
+            if (jvmTicks >= 0) {
+              ticks = Math.max(ticks, jvmTicks - jvmChildTicksStart);
+            }
+          }
+          record.cpuMs = Math.round(ticks * 1000 / CLOCK_TICKS_PER_SEC);
+          if (!pids.isEmpty()) {
+            long hwm = 0, read = 0, write = 0;
+            for (PidSample s : pids.values()) {
+              hwm = Math.max(hwm, s.hwmKb);
+              read += s.readBytes;
+              write += s.writeBytes;
+            }
+            record.peakRssKb = hwm;
+            record.readBytes = read;
+            record.writeBytes = write;
+          }
+        } else if (process != null) {
+          record.cpuMs = process.info().totalCpuDuration().map(Duration::toMillis).orElse(null);
+        } else if (threadCpuStart >= 0 && thread == Thread.currentThread()) {
+          record.threadCpuMs = (ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime() - threadCpuStart) / 1000000;
+        }
+      }
+      synchronized (ProcessTelemetry.this) {
+        records.add(record);
+      }
+    }
+  }
+
+  /**
+   * utime, stime, cutime and cstime are fields 14 to 17 of /proc/[pid]/stat, counting after the
+   * ')' ending the command name.
+   */
+  private static long statTicks(Path procDir) throws IOException {
+    final String stat = new String(Files.readAllBytes(procDir.resolve("stat")), StandardCharsets.US_ASCII);
+    final String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+    return Long.parseLong(fields[11]) + Long.parseLong(fields[12]) + Long.parseLong(fields[13]) + Long.parseLong(fields[14]);
+  }
+
+  /**
+   * @return CPU ticks of the children of this JVM that were waited for, -1 if unknown.
+   */
+  private static long jvmChildTicks() {
+    try {
+      final String stat = new String(Files.readAllBytes(PROC.resolve("self").resolve("stat")), StandardCharsets.US_ASCII);
+      final String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+      return Long.parseLong(fields[13]) + Long.parseLong(fields[14]);
+    } catch (IOException | RuntimeException e) {
+      log.trace("Could not read /proc/self/stat", e);
+      return -1;
+    }
+  }
+
+  /** Starts sampling an external process. */
+  public Sampler start(ProcessBuilderInfo pbi, Process process) {
+    return new Sampler(pbi, process);
+  }
+
+  /** Starts timing one of FragPipe's own helpers running in this JVM. */
+  public Sampler startInProcess(ProcessBuilderInfo pbi) {
+    return new Sampler(pbi, null);
+  }
+
+  /** Writes the report for the processes finished so far. */
+  public void writeReport(Path dir) {
+    final Map<String, Object> report = new LinkedHashMap<>();
+    synchronized (this) {
+      report.put("fragpipeVersion", Version.version());
+      report.put("started", runStart.toString());
+      report.put("wallMs", Duration.between(runStart, Instant.now()).toMillis());
+      report.put("processes", new ArrayList<>(records));
+    }
+    final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    final Path path = dir.resolve(REPORT_FN);
+    try (Writer w = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+      gson.toJson(report, w);
+    } catch (IOException e) {
+      log.error("Could not write run report to " + path, e);
+    }
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.process;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Memory shared by processes running in parallel. Processes that reserve their heap here only
+ * start when it fits into what is left of the configured RAM.
+ */
+public class RamBudget {
+  private static final Logger log = LoggerFactory.getLogger(RamBudget.class);
+  private static final RamBudget instance = new RamBudget();
+
+  private int totalGb = Integer.MAX_VALUE;
+  private int usedGb = 0;
+
+  private RamBudget() {
+  }
+
+  public static RamBudget get() {
+    return instance;
+  }
+
+  public synchronized void setTotalGb(int totalGb) {
+    this.totalGb = Math.max(1, totalGb);
+    log.debug("RAM budget set to {} GB, {} GB in use", this.totalGb, usedGb);
+    notifyAll();
+  }
+
+  public synchronized int getTotalGb() {
+    return totalGb;
+  }
+
+  /**
+   * Blocks until the memory is available. A request larger than the whole budget is reduced
+   * to the budget, so it waits for everything else to finish, but never forever.
+   *
+   * @return Amount actually reserved, to be passed to {@link #release(int)}.
+   */
+  public synchronized int acquire(int gb) throws InterruptedException {
+    while (true) {
+      final int reserved = Math.min(gb, totalGb);
+      if (usedGb == 0 || usedGb + reserved <= totalGb) {
+        usedGb += reserved;
+        return reserved;
+      }
+      wait();
+    }
+  }
+
+  public synchronized void release(int gb) {
+    usedGb = Math.max(0, usedGb - gb);
+    notifyAll();
+  }
+}
@@ -17,7 +17,10 @@
 
 package com.dmtavt.fragpipe.process;
 
+import com.dmtavt.fragpipe.cmd.CmdBase;
 import com.dmtavt.fragpipe.cmd.ProcessBuilderInfo;
+import java.util.Collections;
+import java.util.Set;
 
 public class RunnableDescription {
 
@@ -25,6 +28,10 @@ public class RunnableDescription {
   public final Runnable runnable;
   public final String parallelGroup;
   public final ProcessBuilderInfo pbi;
+  /** Task graph node this runnable belongs to. Null means it has to wait for everything before it. */
+  public final CmdBase node;
+  /** Task graph nodes that have to finish before {@link #node} can start. */
+  public final Set<CmdBase> dependsOn;
 
   public RunnableDescription(ProcessDescription description,
       Runnable runnable) {
@@ -34,9 +41,18 @@ public class RunnableDescription {
   public RunnableDescription(
           ProcessDescription description,
           Runnable runnable, String parallelGroup, ProcessBuilderInfo pbi) {
+    this(description, runnable, parallelGroup, pbi, null, Collections.emptySet());
+  }
+
+  public RunnableDescription(
+          ProcessDescription description,
+          Runnable runnable, String parallelGroup, ProcessBuilderInfo pbi,
+          CmdBase node, Set<CmdBase> dependsOn) {
     this.description = description;
     this.runnable = runnable;
     this.parallelGroup = parallelGroup;
     this.pbi = pbi;
+    this.node = node;
+    this.dependsOn = dependsOn == null ? Collections.emptySet() : dependsOn;
   }
 }
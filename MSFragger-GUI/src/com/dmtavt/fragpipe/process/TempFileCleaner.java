@@ -0,0 +1,118 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.process;
+
+import com.github.chhh.utils.FileDelete;
+import com.github.chhh.utils.FileDelete.Stats;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deletes temporary files at the end of a run, or when it's stopped, with
+ * {@link FileDelete#deleteAll(Collection, int)}. Files that can't be deleted right away, usually
+ * because a process that was just killed still holds them open, are retried in the background
+ * with increasing delays, so the run doesn't wait for them. The retries run on a daemon thread,
+ * so before exiting, {@link #awaitRetries(long, TimeUnit)} must be called so that they are not
+ * dropped.
+ */
+public class TempFileCleaner {
+  private static final Logger log = LoggerFactory.getLogger(TempFileCleaner.class);
+  private static final TempFileCleaner instance = new TempFileCleaner();
+  private static final long[] RETRY_DELAYS_MS = {1000, 2000, 4000, 8000, 16000, 32000};
+
+  private final ScheduledExecutorService retries = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "temp-file-cleaner");
+    t.setDaemon(true);
+    return t;
+  });
+  private final AtomicInteger pending = new AtomicInteger(0);
+
+  private TempFileCleaner() {
+  }
+
+  public static TempFileCleaner get() {
+    return instance;
+  }
+
+  /**
+   * Deletes the paths, blocking until the first attempt is done.
+   *
+   * @return What was deleted. Paths in {@link Stats#failed} are being retried.
+   */
+  public Stats delete(Collection<Path> paths) {
+    final Stats stats = FileDelete.deleteAll(paths, FileDelete.defaultThreads());
+    log.debug("{} from {} paths", stats, paths.size());
+    if (!stats.failed.isEmpty()) {
+      scheduleRetry(new ArrayList<>(stats.failed), 0);
+    }
+    return stats;
+  }
+
+  /** Number of paths waiting for another attempt, or being retried. */
+  public int pendingRetries() {
+    return pending.get();
+  }
+
+  /**
+   * Waits until all retries are done, successful or not.
+   *
+   * @return False if some paths were still being retried after the timeout.
+   */
+  public synchronized boolean awaitRetries(long timeout, TimeUnit unit) throws InterruptedException {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (pending.get() > 0) {
+      final long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      if (left <= 0) {
+        return false;
+      }
+      wait(left);
+    }
+    return true;
+  }
+
+  private void scheduleRetry(List<Path> paths, int attempt) {
+    if (attempt >= RETRY_DELAYS_MS.length) {
+      log.warn("Could not delete {} temporary files after {} attempts, e.g. {}", paths.size(), attempt + 1, paths.get(0));
+      return;
+    }
+    pending.addAndGet(paths.size());
+    retries.schedule(() -> {
+      try {
+        final Stats stats = FileDelete.deleteAll(paths, FileDelete.defaultThreads());
+        log.debug("Retry #{} of deleting {} paths: {}", attempt + 1, paths.size(), stats);
+        if (!stats.failed.isEmpty()) {
+          scheduleRetry(new ArrayList<>(stats.failed), attempt + 1);
+        }
+      } finally {
+        // only counted as done after the next attempt is scheduled
+        pending.addAndGet(-paths.size());
+        synchronized (this) {
+          notifyAll();
+        }
+      }
+    }, RETRY_DELAYS_MS[attempt], TimeUnit.MILLISECONDS);
+  }
+}
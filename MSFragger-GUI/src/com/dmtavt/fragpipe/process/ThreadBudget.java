@@ -0,0 +1,73 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.process;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Threads shared by processes running at the same time. Independent branches of the task graph
+ * run concurrently, every process reserves the threads it's configured to use here and only
+ * starts when they fit into what is left of the configured thread count.
+ */
+public class ThreadBudget {
+  private static final Logger log = LoggerFactory.getLogger(ThreadBudget.class);
+  private static final ThreadBudget instance = new ThreadBudget();
+
+  private int total = Integer.MAX_VALUE;
+  private int used = 0;
+
+  private ThreadBudget() {
+  }
+
+  public static ThreadBudget get() {
+    return instance;
+  }
+
+  public synchronized void setTotal(int total) {
+    this.total = Math.max(1, total);
+    log.debug("Thread budget set to {}, {} in use", this.total, used);
+    notifyAll();
+  }
+
+  public synchronized int getTotal() {
+    return total;
+  }
+
+  /**
+   * Blocks until the threads are available. A request larger than the whole budget is reduced
+   * to the budget, so it waits for everything else to finish, but never forever.
+   *
+   * @return Number of threads actually reserved, to be passed to {@link #release(int)}.
+   */
+  public synchronized int acquire(int threads) throws InterruptedException {
+    while (true) {
+      final int reserved = Math.min(Math.max(1, threads), total);
+      if (used == 0 || used + reserved <= total) {
+        used += reserved;
+        return reserved;
+      }
+      wait();
+    }
+  }
+
+  public synchronized void release(int threads) {
+    used = Math.max(0, used - threads);
+    notifyAll();
+  }
+}
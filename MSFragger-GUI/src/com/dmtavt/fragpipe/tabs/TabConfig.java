@@ -49,6 +49,7 @@ import com.dmtavt.fragpipe.messages.NoteConfigPython;
 import com.dmtavt.fragpipe.messages.NoteConfigSpeclibgen;
 import com.dmtavt.fragpipe.messages.NoteFragpipeUpdate;
 import com.dmtavt.fragpipe.params.ThisAppProps;
+import com.dmtavt.fragpipe.tools.dbsplit.DbSplit2;
 import com.dmtavt.fragpipe.tools.fragger.Msfragger;
 import com.dmtavt.fragpipe.tools.fragger.Msfragger.Version;
 import com.dmtavt.fragpipe.tools.fragger.MsfraggerVersionFetcherServer;
@@ -1007,7 +1008,7 @@ public class TabConfig extends JPanelWithEnablement {
   private JPanel createPanelPython() {
     JPanel p = newMigPanel();
     p.setBorder(new TitledBorder("Python"));
-    final String tip = "Python 3 is required for Spectral Library generation and Database Splitting";
+    final String tip = "Python 3 is required for Spectral Library generation";
     final String ghost = "Select Python 3 binary (Anaconda Python recommended)";
     uiTextBinPython = UiUtils.uiTextBuilder().ghost(ghost).create();
     SwingUtils.addOnFocusLostAndContentChanged(uiTextBinPython, (s, s2) -> {
@@ -1088,15 +1089,10 @@ public class TabConfig extends JPanelWithEnablement {
   private JPanel createPanelDbsplit() {
     JPanel p = mu.newPanel("Database Splitting", true);
 
+    final String minFraggerVer = DbSplit2.minFraggerVersion();
     StringBuilder tip = new StringBuilder()
         .append("Used for searching very large databases by splitting into smaller chunks.<br/>")
-        .append("Requires <b>Python 3</b> with packages <b>Numpy, Pandas</b>.\n")
-        .append("Ways to get everything set up:").append("<ul>")
-        .append("<li>Install Python 3 if you don't yet have it.</li>")
-        .append(
-            "<li>Install required python modules using <i>pip</i>, the python package manager, with command:</li>")
-        .append("<ul>").append("<li>pip install numpy pandas</li>").append("</ul>")
-        .append("</ul>");
+        .append("Requires <b>MSFragger ").append(minFraggerVer).append("</b> or newer.");
     String tipHtml = SwingUtils.makeHtml(tip.toString());
     p.setToolTipText(tipHtml);
 
@@ -1104,7 +1100,7 @@ public class TabConfig extends JPanelWithEnablement {
     epDbsplitText = new HtmlStyledJEditorPane(textDbsplitEnabled(false));
     epDbsplitText.setToolTipText(tipHtml);
     epDbsplitText.setPreferredSize(dim);
-    epDbsplitErr = new HtmlStyledJEditorPane("Requires Python 3 with modules Numpy and Pandas.");
+    epDbsplitErr = new HtmlStyledJEditorPane("Requires MSFragger " + minFraggerVer + " or newer.");
     epDbsplitErr.setPreferredSize(dim);
 
     mu.add(p, epDbsplitText).growX().pushX().wrap();
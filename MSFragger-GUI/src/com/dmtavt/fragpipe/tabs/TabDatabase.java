@@ -20,6 +20,7 @@ package com.dmtavt.fragpipe.tabs;
 import com.dmtavt.fragpipe.Fragpipe;
 import com.dmtavt.fragpipe.api.Bus;
 import com.dmtavt.fragpipe.api.DownloadDbHelper;
+import com.dmtavt.fragpipe.api.FastaIndex;
 import com.dmtavt.fragpipe.api.Notifications;
 import com.dmtavt.fragpipe.exceptions.ValidationException;
 import com.dmtavt.fragpipe.messages.MessageDbNewPath;
@@ -28,8 +29,6 @@ import com.dmtavt.fragpipe.messages.MessageUiRevalidate;
 import com.dmtavt.fragpipe.messages.NoteConfigDatabase;
 import com.dmtavt.fragpipe.messages.NoteConfigPhilosopher;
 import com.dmtavt.fragpipe.params.ThisAppProps;
-import com.github.chhh.utils.FastaUtils;
-import com.github.chhh.utils.FastaUtils.FastaContent;
 import com.github.chhh.utils.FastaUtils.FastaDecoyPrefixSearchResult;
 import com.github.chhh.utils.PathUtils;
 import com.github.chhh.utils.StringUtils;
@@ -44,9 +43,14 @@ import com.github.chhh.utils.swing.UiText;
 import com.github.chhh.utils.swing.UiUtils;
 import java.awt.Dimension;
 import java.awt.event.ActionEvent;
-import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
 import javax.swing.JButton;
 import javax.swing.JComponent;
@@ -74,6 +78,13 @@ public class TabDatabase extends JPanelWithEnablement {
   private JEditorPane epDbInfo;
   private JButton btnDownload;
   private JButton btnUpdate;
+  private final ExecutorService validationExec = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "fasta-validation");
+    t.setDaemon(true);
+    return t;
+  });
+  private final AtomicLong validationGeneration = new AtomicLong();
+  private volatile Future<?> validation;
 
   public TabDatabase() {
     init();
@@ -189,16 +200,6 @@ public class TabDatabase extends JPanelWithEnablement {
     return p;
   }
 
-  private FastaContent readFasta(Path p) throws ValidationException {
-    FastaContent fasta;
-    try {
-      fasta = FastaUtils.readFasta(p);
-    } catch (IOException e) {
-      throw new ValidationException(e);
-    }
-    return fasta;
-  }
-
   public static JFileChooser createFilechooserFasta(UiText uiTextDbPath) {
     FileNameExtensionFilter exts = new FileNameExtensionFilter("FASTA", "fa", "fas", "fasta");
     JFileChooser fc = FileChooserUtils
@@ -232,17 +233,46 @@ public class TabDatabase extends JPanelWithEnablement {
     return uiTextDbPath.getNonGhostText();
   }
 
+  /**
+   * Reading a FASTA file can take a while for large databases, so it's done on a background
+   * thread using {@link FastaIndex}. The result is posted as {@link NoteConfigDatabase}.
+   */
   private void validateFasta(String path) {
+    final String tag = getDecoyTag();
+    final long generation = validationGeneration.incrementAndGet();
+    validation = validationExec.submit(() -> {
+      if (generation != validationGeneration.get()) {
+        return; // superseded by a newer request
+      }
+      try {
+        Path p = PathUtils.existing(path, true);
+        FastaIndex index = FastaIndex.get(p, Collections.singletonList(tag));
+        if (index.getNumProteins() == 0) {
+          throw new ValidationException("No proteins in FASTA file: " + path);
+        }
+        int decoysCnt = index.getDecoysCnt(tag);
+        Bus.postSticky(new NoteConfigDatabase(Paths.get(path), index.getNumProteins(), decoysCnt, true));
+      } catch (Exception e) {
+        log.debug("Got bad FASTA path: {}", path);
+        Bus.postSticky(new NoteConfigDatabase());
+      }
+    });
+  }
+
+  /**
+   * Blocks until the last requested FASTA validation is finished. Don't call on the EDT.
+   */
+  public void awaitFastaValidation() {
+    final Future<?> f = validation;
+    if (f == null) {
+      return;
+    }
     try {
-      Path p = PathUtils.existing(path, true);
-      FastaContent fasta = FastaUtils.readFasta(p);
-      final String tag = getDecoyTag();
-      int decoysCnt = (int)FastaUtils.getDecoysCnt(fasta.ordered.get(0), tag);
-      int protsTotal = FastaUtils.getProtsTotal(fasta.ordered.get(0));
-      Bus.postSticky(new NoteConfigDatabase(Paths.get(path), protsTotal, decoysCnt, true));
-    } catch (Exception e) {
-      log.debug("Got bad FASTA path: {}", path);
-      Bus.postSticky(new NoteConfigDatabase());
+      f.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      log.error("FASTA validation failed", e);
     }
   }
 
@@ -150,6 +150,8 @@ public class TabDownstream extends JPanelWithEnablement {
         b.setFnStdOut(pbi.fnStdout != null ? pbi.fnStdout : pbd.fnStdout);
         b.setFnStdErr(pbi.fnStderr != null ? pbi.fnStderr : pbd.fnStderr);
         b.setParallelGroup(pbi.parallelGroup != null ? pbi.parallelGroup : pbd.getParallelGroup());
+        b.setRamGb(pbi.ramGb);
+        b.setThreads(pbi.threads);
         return b.create();
       })).collect(Collectors.toList());
 
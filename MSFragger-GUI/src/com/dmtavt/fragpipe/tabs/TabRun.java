@@ -104,6 +104,7 @@ public class TabRun extends JPanelWithEnablement {
   Color defTextColor;
   private UiText uiTextWorkdir;
   private UiCheck uiCheckDryRun;
+  private UiCheck uiCheckResume;
   private UiCheck uiCheckDeleteCalibratedFiles;
   private UiCheck uiCheckDeleteTempFiles;
   private JButton btnRun;
@@ -162,11 +163,11 @@ public class TabRun extends JPanelWithEnablement {
       }
     }
 
+    // queued, the console inserts text in batches
     m.console.append(m.color, m.text);
     if (m.addNewline) {
       m.console.append("\n");
     }
-    m.console.getParent().getParent().revalidate();
   }
 
   @Subscribe(threadMode = ThreadMode.ASYNC)
@@ -210,13 +211,18 @@ public class TabRun extends JPanelWithEnablement {
 
     uiCheckDryRun = UiUtils.createUiCheck("Dry Run", false);
 
+    uiCheckResume = UiUtils.createUiCheck("Resume", false);
+    uiCheckResume.setToolTipText("<html>Skip the steps that completed in a previous run with the same<br/>"
+        + "settings and inputs in this output directory, start from the first one that didn't.<br/>"
+        + "Old output files are not deleted before running.");
+
     uiCheckDeleteCalibratedFiles = UiUtils.createUiCheck("Delete calibrated mzML", false);
     uiCheckDeleteCalibratedFiles.setName(TAB_PREFIX + "delete_calibrated_mzml");
 
     uiCheckDeleteTempFiles = UiUtils.createUiCheck("Delete temp files", false);
     uiCheckDeleteTempFiles.setName(TAB_PREFIX + "delete_temp_files");
 
-    btnRun = UiUtils.createButton("<html><b>RUN", e -> Bus.post(new MessageRun(isDryRun())));
+    btnRun = UiUtils.createButton("<html><b>RUN", e -> Bus.post(new MessageRun(isDryRun(), isResume())));
 
     btnStop = UiUtils.createButton("Stop", e -> {
       Bus.post(new MessageKillAll(REASON.USER_ACTION, console));
@@ -328,9 +334,10 @@ public class TabRun extends JPanelWithEnablement {
     mu.add(p, btnBrowse);
     mu.add(p, btnOpenInFileManager).wrap();
 
-    mu.add(p, btnRun).split(5);
+    mu.add(p, btnRun).split(6);
     mu.add(p, btnStop);
     mu.add(p, uiCheckDryRun);
+    mu.add(p, uiCheckResume);
     mu.add(p, uiCheckDeleteCalibratedFiles);
     mu.add(p, uiCheckDeleteTempFiles);
 
@@ -352,6 +359,10 @@ public class TabRun extends JPanelWithEnablement {
     return SwingUtils.isEnabledAndChecked(uiCheckDryRun);
   }
 
+  public boolean isResume() {
+    return SwingUtils.isEnabledAndChecked(uiCheckResume);
+  }
+
   public boolean isDeleteCalibratedFiles() {
     return SwingUtils.isEnabledAndChecked(uiCheckDeleteCalibratedFiles);
   }
@@ -469,7 +480,7 @@ public class TabRun extends JPanelWithEnablement {
   }
 
   public static void saveLogToFile(final TextConsole console, final Path path) {
-    final String text = console.getText().replaceAll("[^\n]+\u200B" + System.lineSeparator(), "");
+    final String text = console.getFullText().replaceAll("[^\n]+\u200B" + System.lineSeparator(), "");
     Path pathNew = path;
     for (int i = 1; ; ++i) {
       try {
@@ -0,0 +1,425 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.tools.dbsplit;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Merges the pepXML files of all database split parts for one input file. Parts are read
+ * side by side one spectrum query at a time, so memory use does not grow with the number of
+ * spectra, only with the number of distinct peptides for the protein lists.
+ * <p>
+ * Files are read as ISO-8859-1, so that any bytes are written back unchanged.
+ */
+class SplitPepxmlMerge {
+
+  private static final Pattern RE_QUERY_INDEX = Pattern.compile(" index=\"(\\d+)\"");
+  private static final Pattern RE_HIT_FIRST_LINE = Pattern.compile("(?<=hit_rank=\")(\\d+)(?=\" )|(?<=protein=\")(.+?)(?=\" )");
+  private static final Pattern RE_MASSDIFF = Pattern.compile(" massdiff=\"(.+?)\"");
+  private static final Pattern RE_SCORES = Pattern.compile("^<search_score name=\"hyperscore\" value=\"(.+?)\"/>\n<search_score name=\"nextscore\" value=\"(.+?)\"/>\n", Pattern.MULTILINE);
+  private static final Pattern RE_UPDATE_HIT = Pattern.compile("\\A(.+hit_rank=\")(?:.+?)(\"(?s:.+?))\n"
+      + "<search_score name=\"hyperscore\" value=\"(?:.+?)\"/>\n"
+      + "<search_score name=\"nextscore\" value=\"(?:.+?)\"/>\n"
+      + "<search_score name=\"expect\" value=\"(?:.+?)\"/>\n"
+      + "((?s:.+))\\Z");
+  private static final Pattern RE_DATE = Pattern.compile("date=\"(.+?)\"");
+  private static final Pattern RE_SUMMARY_XML = Pattern.compile("summary_xml=\"(.+?)\"");
+  private static final Pattern RE_PEPTIDE = Pattern.compile(" peptide=\"(.+?)\"");
+  private static final Pattern RE_PROTEIN_DESCR = Pattern.compile("protein_descr=\"(.*?)\"");
+  private static final Pattern RE_PROTEIN = Pattern.compile("protein=\"(.+?)\"");
+  private static final Pattern RE_PREV_AA = Pattern.compile("peptide_prev_aa=\"(.+?)\"");
+  private static final Pattern RE_NEXT_AA = Pattern.compile("peptide_next_aa=\"(.+?)\"");
+  private static final Pattern RE_NTT = Pattern.compile("num_tol_term=\"(.+?)\"");
+  private static final Pattern RE_NUM_TOT_PROTEINS = Pattern.compile("num_tot_proteins=\"(.+?)\"");
+  private static final Pattern[] RE_PROT_FIELDS = {RE_PROTEIN_DESCR, RE_PROTEIN, RE_PREV_AA, RE_NEXT_AA, RE_NTT};
+  private static final String[] PROT_FIELD_NAMES = {"protein_descr", "protein", "peptide_prev_aa", "peptide_next_aa", "num_tol_term"};
+  /** Separates the fields of a protein, sorts before any other character, same as comparing field by field. */
+  private static final char SEP = '\0';
+  private static final int LOG_EVERY = 1 << 14;
+
+  private final SplitSearch ss;
+  private final Path infile;
+
+  SplitPepxmlMerge(SplitSearch ss, Path infile) {
+    this.ss = ss;
+    this.infile = infile;
+  }
+
+  void write() throws IOException {
+    final List<List<Path>> ranks = ss.pepxmlParts(infile);
+    final boolean ranked = ss.isRanked(infile);
+    final Map<String, String[]> pepToProt = pepToProt(ranks);
+    final double[][] expectFunctions = ss.expectFunctions(infile);
+    for (int i = 0; i < ranks.size(); i++) {
+      final Path outfile = ranked
+          ? infile.resolveSibling(SplitSearch.stem(infile) + "_rank" + (i + 1) + "." + ss.outputExt)
+          : SplitSearch.withSuffix(infile, "." + ss.outputExt);
+      write(outfile, ranks.get(i), expectFunctions, pepToProt);
+    }
+  }
+
+  /** Sorted unique proteins of every peptide over all parts. */
+  private static Map<String, String[]> pepToProt(List<List<Path>> ranks) throws IOException {
+    final Map<String, TreeSet<String>> m = new HashMap<>();
+    for (List<Path> parts : ranks) {
+      for (Path part : parts) {
+        try (BufferedReader br = Files.newBufferedReader(part, StandardCharsets.ISO_8859_1)) {
+          String hit;
+          while ((hit = nextSearchHit(br)) != null) {
+            m.computeIfAbsent(peptide(hit), k -> new TreeSet<>()).addAll(prots(hit));
+          }
+        }
+      }
+    }
+    final Map<String, String[]> ret = new HashMap<>(m.size() * 2);
+    for (Map.Entry<String, TreeSet<String>> e : m.entrySet()) {
+      ret.put(e.getKey(), e.getValue().toArray(new String[0]));
+    }
+    return ret;
+  }
+
+  private static String nextSearchHit(BufferedReader br) throws IOException {
+    String line;
+    while ((line = br.readLine()) != null) {
+      if (line.startsWith("<search_hit")) {
+        return readUntil(br, line, "</search_hit>");
+      }
+    }
+    return null;
+  }
+
+  /** Lines from the given one up to and including the end line, without the last newline. */
+  private static String readUntil(BufferedReader br, String first, String end) throws IOException {
+    final StringBuilder sb = new StringBuilder(first);
+    String line = first;
+    while (!line.equals(end)) {
+      line = br.readLine();
+      if (line == null) {
+        throw new IllegalStateException("Unexpected end of pepXML file, no " + end);
+      }
+      sb.append('\n').append(line);
+    }
+    return sb.toString();
+  }
+
+  private static String peptide(String hit) {
+    final Matcher m = RE_PEPTIDE.matcher(hit);
+    if (!m.find()) {
+      throw new IllegalStateException("No peptide in search hit: " + hit);
+    }
+    return m.group(1);
+  }
+
+  /** Proteins of a search hit, the main one and the alternatives, fields joined with {@link #SEP}. */
+  static List<String> prots(String hit) {
+    final List<List<String>> fields = new ArrayList<>();
+    for (Pattern re : RE_PROT_FIELDS) {
+      final List<String> values = new ArrayList<>();
+      final Matcher m = re.matcher(hit);
+      while (m.find()) {
+        values.add(m.group(1));
+      }
+      if (!fields.isEmpty() && fields.get(0).size() != values.size()) {
+        throw new IllegalStateException("Mismatched protein attributes in search hit: " + hit);
+      }
+      fields.add(values);
+    }
+    final List<String> ret = new ArrayList<>();
+    for (int i = 0; i < fields.get(0).size(); i++) {
+      final StringBuilder sb = new StringBuilder();
+      for (int j = 0; j < fields.size(); j++) {
+        if (j > 0) {
+          sb.append(SEP);
+        }
+        sb.append(fields.get(j).get(i));
+      }
+      ret.add(sb.toString());
+    }
+    return ret;
+  }
+
+  private void write(Path outfile, List<Path> parts, double[][] expectFunctions,
+      Map<String, String[]> pepToProt) throws IOException {
+    final List<PartReader> readers = new ArrayList<>();
+    try (BufferedWriter w = Files.newBufferedWriter(outfile, StandardCharsets.ISO_8859_1)) {
+      for (Path part : parts) {
+        readers.add(new PartReader(part));
+      }
+      w.write(header(readers.get(0).header, outfile));
+      w.write('\n');
+      final String[] queries = new String[readers.size()];
+      for (int i = 0; i < expectFunctions.length; i++) {
+        boolean any = false;
+        for (int j = 0; j < readers.size(); j++) {
+          queries[j] = readers.get(j).query(i + 1);
+          any |= queries[j] != null;
+        }
+        if (any) {
+          w.write(mergeQuery(queries, expectFunctions[i], pepToProt));
+        }
+        if (i % LOG_EVERY == 0) {
+          System.out.println("Writing: " + SplitSearch.stem(outfile) + "\tspectrum: " + i);
+        }
+      }
+      w.write("</msms_run_summary>\n</msms_pipeline_analysis>\n");
+    } finally {
+      for (PartReader r : readers) {
+        r.br.close();
+      }
+    }
+  }
+
+  private String header(String header, Path outfile) {
+    final String date = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss").format(LocalDateTime.now());
+    String h = RE_DATE.matcher(header).replaceAll(Matcher.quoteReplacement("date=\"" + date + "\""));
+    h = RE_SUMMARY_XML.matcher(h).replaceAll(Matcher.quoteReplacement("summary_xml=\"" + outfile + "\""));
+    return h.replace("\"" + ss.fastaPath.getFileName() + "\"", "\"" + ss.fastaPath + "\"");
+  }
+
+  private static class Hit {
+    final int part;
+    final String xml;
+    final double massdiff;
+    final double hyperscore;
+    final double nextscore;
+    final double expect;
+
+    Hit(int part, String xml, double[] expectFunction) {
+      this.part = part;
+      this.xml = xml;
+      final Matcher md = RE_MASSDIFF.matcher(xml);
+      final Matcher ms = RE_SCORES.matcher(xml);
+      if (!md.find() || !ms.find()) {
+        throw new IllegalStateException("No massdiff or scores in search hit: " + xml);
+      }
+      massdiff = Double.parseDouble(md.group(1));
+      hyperscore = Double.parseDouble(ms.group(1));
+      nextscore = Double.parseDouble(ms.group(2));
+      expect = SplitSearch.expect(expectFunction, hyperscore);
+    }
+  }
+
+  /**
+   * Top hits of all parts for one spectrum, re-ranked and with scores recomputed from the
+   * combined expect function. Empty if no hit passes the expect cutoff.
+   */
+  String mergeQuery(String[] queries, double[] expectFunction, Map<String, String[]> pepToProt) {
+    final String[] heads = new String[queries.length];
+    final Map<String, Hit> unique = new LinkedHashMap<>();
+    for (int part = 0; part < queries.length; part++) {
+      final String q = queries[part];
+      if (q == null) {
+        continue;
+      }
+      final int eol = q.indexOf('\n');
+      heads[part] = eol < 0 ? q : q.substring(0, eol);
+      int from = 0;
+      int start;
+      while ((start = q.indexOf("\n<search_hit", from)) >= 0) {
+        final int end = q.indexOf("\n</search_hit>", start);
+        if (end < 0) {
+          throw new IllegalStateException("Unterminated search hit in: " + heads[part]);
+        }
+        final String xml = q.substring(start + 1, end + "\n</search_hit>".length());
+        final int eolHit = xml.indexOf('\n');
+        final String key = RE_HIT_FIRST_LINE.matcher(xml.substring(0, eolHit)).replaceAll("{}");
+        if (!unique.containsKey(key)) {
+          unique.put(key, new Hit(part, xml, expectFunction));
+        }
+        from = end + 1;
+      }
+    }
+
+    final List<Hit> sorted = new ArrayList<>(unique.values());
+    sorted.sort(Comparator.<Hit>comparingDouble(h -> 1 / h.hyperscore)
+        .thenComparingDouble(h -> Math.abs(h.massdiff)));
+    final List<Hit> hits = new ArrayList<>();
+    for (Hit h : sorted.subList(0, Math.min(ss.topN, sorted.size()))) {
+      if (h.expect > ss.maxExpect) {
+        break;
+      }
+      hits.add(h);
+    }
+    if (hits.isEmpty()) {
+      return "";
+    }
+
+    double minNextscore = Double.POSITIVE_INFINITY;
+    for (Hit h : hits) {
+      minNextscore = Math.min(minNextscore, h.nextscore);
+    }
+    final StringBuilder sb = new StringBuilder();
+    sb.append(heads[hits.get(0).part]).append("\n<search_result>\n");
+    for (int i = 0; i < hits.size(); i++) {
+      final Hit h = hits.get(i);
+      final double nextscore = i + 1 < hits.size() ? hits.get(i + 1).hyperscore : minNextscore;
+      final String xml = updateScores(h.xml, i + 1, h.hyperscore, nextscore, h.expect);
+      sb.append(replaceProts(xml, pepToProt.get(peptide(xml))));
+    }
+    sb.append("</search_result>\n</spectrum_query>\n");
+    return sb.toString();
+  }
+
+  /** @return Search hit with a trailing newline. */
+  private static String updateScores(String xml, int rank, double hyperscore, double nextscore, double expect) {
+    final Matcher m = RE_UPDATE_HIT.matcher(xml);
+    if (!m.matches()) {
+      return xml + "\n";
+    }
+    return m.group(1) + rank + m.group(2) + "\n"
+        + "<search_score name=\"hyperscore\" value=\"" + format3f(hyperscore) + "\"/>\n"
+        + "<search_score name=\"nextscore\" value=\"" + format3f(nextscore) + "\"/>\n"
+        + "<search_score name=\"expect\" value=\"" + format3e(expect) + "\"/>\n"
+        + m.group(3) + "\n";
+  }
+
+  /** Lists all proteins of the peptide seen in any of the parts. */
+  private static String replaceProts(String xml, String[] prots) {
+    if (prots == null) {
+      return xml;
+    }
+    final int cnt = prots(xml).size();
+    if (prots.length == cnt) {
+      return xml;
+    }
+    if (prots.length < cnt) {
+      throw new IllegalStateException("Search hit has more proteins than were found for the peptide: " + xml);
+    }
+    final String[] first = prots[0].split(String.valueOf(SEP), -1);
+    String sh = xml;
+    for (int i = 0; i < RE_PROT_FIELDS.length; i++) {
+      sh = RE_PROT_FIELDS[i].matcher(sh).replaceFirst(
+          Matcher.quoteReplacement(PROT_FIELD_NAMES[i] + "=\"" + first[i] + "\""));
+    }
+    sh = RE_NUM_TOT_PROTEINS.matcher(sh).replaceAll("num_tot_proteins=\"" + prots.length + "\"");
+
+    final StringBuilder sb = new StringBuilder();
+    final String[] lines = sh.split("\n", -1);
+    sb.append(lines[0]).append('\n');
+    for (int i = 1; i < prots.length; i++) {
+      final String[] f = prots[i].split(String.valueOf(SEP), -1);
+      sb.append("<alternative_protein");
+      for (int j = 0; j < f.length; j++) {
+        sb.append(' ').append(PROT_FIELD_NAMES[j]).append("=\"").append(f[j]).append('"');
+      }
+      sb.append("/>\n");
+    }
+    for (int i = 1; i < lines.length; i++) {
+      if (lines[i].startsWith("<alternative_protein")) {
+        continue;
+      }
+      sb.append(lines[i]);
+      if (i + 1 < lines.length) {
+        sb.append('\n');
+      }
+    }
+    return sb.toString();
+  }
+
+  /** Same as Python's {@code '%.3f'}. */
+  static String format3f(double v) {
+    return new BigDecimal(v).setScale(3, RoundingMode.HALF_EVEN).toPlainString();
+  }
+
+  /** Same as Python's {@code '%.3e'}. */
+  static String format3e(double v) {
+    if (Double.isNaN(v) || Double.isInfinite(v)) {
+      return SplitSearch.pyFloat(v);
+    }
+    if (v == 0) {
+      return "0.000e+00";
+    }
+    final BigDecimal bd = new BigDecimal(v).round(new MathContext(4, RoundingMode.HALF_EVEN));
+    final int exp = bd.precision() - bd.scale() - 1;
+    final BigDecimal mantissa = bd.movePointLeft(exp).setScale(3, RoundingMode.UNNECESSARY);
+    return String.format("%se%s%02d", mantissa.toPlainString(), exp < 0 ? "-" : "+", Math.abs(exp));
+  }
+
+  /** Reads a part's pepXML sequentially, one spectrum query at a time. */
+  private static class PartReader {
+    final BufferedReader br;
+    /** Everything up to and including the end of the search summary. */
+    final String header;
+    private String next;
+    private int nextIndex;
+
+    PartReader(Path p) throws IOException {
+      br = Files.newBufferedReader(p, StandardCharsets.ISO_8859_1);
+      final StringBuilder sb = new StringBuilder();
+      String line;
+      while ((line = br.readLine()) != null) {
+        sb.append(line);
+        if (line.equals("</search_summary>")) {
+          break;
+        }
+        sb.append('\n');
+      }
+      if (line == null) {
+        throw new IllegalStateException("No search summary in " + p);
+      }
+      header = sb.toString();
+      advance();
+    }
+
+    private void advance() throws IOException {
+      String line;
+      while ((line = br.readLine()) != null) {
+        if (line.startsWith("<spectrum_query ")) {
+          final Matcher m = RE_QUERY_INDEX.matcher(line);
+          if (!m.find()) {
+            throw new IllegalStateException("No index in spectrum query: " + line);
+          }
+          nextIndex = Integer.parseInt(m.group(1));
+          next = readUntil(br, line, "</spectrum_query>");
+          return;
+        }
+      }
+      next = null;
+      nextIndex = Integer.MAX_VALUE;
+    }
+
+    /** @return The spectrum query with the index, null if this part has no hits for it. */
+    String query(int index) throws IOException {
+      if (nextIndex != index) {
+        return null;
+      }
+      final String ret = next;
+      advance();
+      return ret;
+    }
+  }
+}
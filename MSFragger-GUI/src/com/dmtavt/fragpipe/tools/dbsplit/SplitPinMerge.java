@@ -0,0 +1,225 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.tools.dbsplit;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Merges the pin files of all database split parts for one input file. Hits of a spectrum are
+ * re-ranked by hyperscore and the rank dependent columns are recomputed.
+ */
+class SplitPinMerge {
+
+  private static final Pattern RE_QUERY_SPECTRUM = Pattern.compile(" spectrum=\"(.+?)\"");
+  private static final Pattern RE_QUERY_INDEX = Pattern.compile(" index=\"(\\d+)\"");
+
+  private final SplitSearch ss;
+  private final Path infile;
+
+  SplitPinMerge(SplitSearch ss, Path infile) {
+    this.ss = ss;
+    this.infile = infile;
+  }
+
+  private static class Hit {
+    final String[] row;
+    final double hyperscore;
+    final double negAbsPpm;
+
+    Hit(String[] row, double hyperscore, double negAbsPpm) {
+      this.row = row;
+      this.hyperscore = hyperscore;
+      this.negAbsPpm = negAbsPpm;
+    }
+  }
+
+  private static class Spectrum {
+    final int index;
+    final List<Hit> hits = new ArrayList<>();
+
+    Spectrum(int index) {
+      this.index = index;
+    }
+  }
+
+  void write() throws IOException {
+    final String fn = SplitSearch.stem(infile) + ".pin";
+    final List<Path> parts = new ArrayList<>();
+    for (Path dir : ss.partDirs) {
+      parts.add(dir.resolve(fn));
+    }
+    for (Path part : parts) {
+      if (!Files.exists(part)) {
+        return;
+      }
+    }
+
+    final String[] header;
+    try (BufferedReader br = Files.newBufferedReader(parts.get(0), StandardCharsets.UTF_8)) {
+      header = br.readLine().split("\t", -1);
+    }
+    final List<String> cols = Arrays.asList(header);
+    final int specIdIdx = indexOf(cols, "SpecId");
+    final int proteinsIdx = indexOf(cols, "Proteins");
+    final int peptideIdx = indexOf(cols, "Peptide");
+    final int rankIdx = indexOf(cols, "rank");
+    final int hyperscoreIdx = indexOf(cols, "hyperscore");
+    final int log10EvalueIdx = cols.indexOf("log10_evalue");
+    final int deltaHyperscoreIdx = cols.indexOf("delta_hyperscore");
+    final int absPpmIdx = cols.indexOf("abs_ppm");
+
+    final Map<String, Integer> specToIndex = specToIndex();
+    final Map<String, Spectrum> bySpectrum = new HashMap<>();
+    for (Path part : parts) {
+      try (BufferedReader br = Files.newBufferedReader(part, StandardCharsets.UTF_8)) {
+        br.readLine();
+        String line;
+        while ((line = br.readLine()) != null) {
+          final String[] row = line.split("\t", -1);
+          final String specId = row[specIdIdx];
+          final String spec = specId.substring(0, Math.max(0, specId.lastIndexOf('.')));
+          final Integer index = specToIndex.get(spec);
+          if (index == null) {
+            throw new IllegalStateException("Spectrum from pin file not found in pepXML files: " + specId);
+          }
+          bySpectrum.computeIfAbsent(spec, k -> new Spectrum(index)).hits.add(new Hit(row,
+              Double.parseDouble(row[hyperscoreIdx]),
+              absPpmIdx < 0 ? 0 : -Double.parseDouble(row[absPpmIdx])));
+        }
+      }
+    }
+
+    final List<Spectrum> spectra = new ArrayList<>(bySpectrum.values());
+    spectra.sort(Comparator.comparingInt(s -> s.index));
+    final Comparator<Hit> byScore = Comparator.<Hit>comparingDouble(h -> h.hyperscore)
+        .thenComparingDouble(h -> h.negAbsPpm)
+        .thenComparing((h1, h2) -> compareRows(h1.row, h2.row))
+        .reversed();
+    final double[][] expectFunctions = log10EvalueIdx < 0 ? null : ss.expectFunctions(infile);
+    final Map<String, Set<String>> pepAltProts = new HashMap<>();
+    for (Spectrum s : spectra) {
+      final List<Hit> hits = s.hits;
+      hits.sort(byScore);
+      if (deltaHyperscoreIdx >= 0) {
+        for (int i = 0; i + 1 < hits.size(); i++) {
+          hits.get(i).row[deltaHyperscoreIdx] = SplitSearch.pyFloat(hits.get(i).hyperscore - hits.get(i + 1).hyperscore);
+        }
+      }
+      for (int i = 0; i < hits.size(); i++) {
+        final Hit h = hits.get(i);
+        final String[] row = h.row;
+        final String rank = Integer.toString(i + 1);
+        if (expectFunctions != null) {
+          row[log10EvalueIdx] = SplitSearch.pyFloat(Math.log10(SplitSearch.expect(expectFunctions[s.index - 1], h.hyperscore)));
+        }
+        row[rankIdx] = rank;
+        final int us = row[0].lastIndexOf('_');
+        row[0] = (us < 0 ? row[0] : row[0].substring(0, us)) + "_" + rank;
+        final Set<String> prots = pepAltProts.computeIfAbsent(row[peptideIdx], k -> new HashSet<>());
+        for (int j = proteinsIdx; j < row.length; j++) {
+          if (!row[j].isEmpty()) {
+            prots.add(row[j]);
+          }
+        }
+      }
+    }
+
+    try (BufferedWriter w = Files.newBufferedWriter(SplitSearch.withSuffix(infile, ".pin"), StandardCharsets.UTF_8)) {
+      w.write(String.join("\t", header));
+      w.write('\n');
+      for (Spectrum s : spectra) {
+        for (int i = 0; i < s.hits.size(); i++) {
+          String[] row = s.hits.get(i).row;
+          final Set<String> altProts = pepAltProts.get(row[peptideIdx]);
+          final Set<String> prots = new HashSet<>(Arrays.asList(row).subList(proteinsIdx, row.length));
+          prots.remove("");
+          if (prots.size() != altProts.size()) {
+            final String[] replaced = Arrays.copyOf(row, proteinsIdx + altProts.size());
+            int j = proteinsIdx;
+            for (String prot : new TreeSet<>(altProts)) {
+              replaced[j++] = prot;
+            }
+            row = replaced;
+          }
+          if (i < ss.topN) {
+            w.write(String.join("\t", row));
+            w.write('\n');
+          }
+        }
+      }
+    }
+  }
+
+  /** Spectrum name without charge to spectrum index, from the pepXML files of all parts. */
+  private Map<String, Integer> specToIndex() throws IOException {
+    final Map<String, Integer> m = new HashMap<>();
+    for (List<Path> parts : ss.pepxmlParts(infile)) {
+      for (Path part : parts) {
+        try (BufferedReader br = Files.newBufferedReader(part, StandardCharsets.ISO_8859_1)) {
+          String line;
+          while ((line = br.readLine()) != null) {
+            if (!line.startsWith("<spectrum_query ")) {
+              continue;
+            }
+            final Matcher ms = RE_QUERY_SPECTRUM.matcher(line);
+            final Matcher mi = RE_QUERY_INDEX.matcher(line);
+            if (ms.find() && mi.find()) {
+              final String spec = ms.group(1);
+              m.put(spec.substring(0, Math.max(0, spec.lastIndexOf('.'))), Integer.parseInt(mi.group(1)));
+            }
+          }
+        }
+      }
+    }
+    return m;
+  }
+
+  private static int compareRows(String[] a, String[] b) {
+    for (int i = 0; i < Math.min(a.length, b.length); i++) {
+      final int c = a[i].compareTo(b[i]);
+      if (c != 0) {
+        return c;
+      }
+    }
+    return Integer.compare(a.length, b.length);
+  }
+
+  private static int indexOf(List<String> cols, String col) {
+    final int i = cols.indexOf(col);
+    if (i < 0) {
+      throw new IllegalStateException("No column " + col + " in pin file");
+    }
+    return i;
+  }
+}
@@ -0,0 +1,633 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.tools.dbsplit;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Database split search. The FASTA file is split into parts, MSFragger is run for each part with
+ * {@code --partial}, then the results of all parts are merged into the final pepXML and pin files
+ * next to the input files.
+ * <p>
+ * Takes the same arguments as a regular MSFragger command, preceded by the number of parts:
+ * {@code <num-parts> <java> [jvm options] <msfragger.jar> <fragger.params> <lcms files>}.
+ * Must be started in the working directory, temporary files go to {@value #TEMP_DIR_NAME} there.
+ * Only uses the JDK, so the FragPipe jar is the only thing needed on the classpath.
+ */
+public class SplitSearch {
+
+  public static final String TEMP_DIR_NAME = "split_peptide_index_tempdir";
+  private static final Pattern RE_DATABASE_NAME = Pattern.compile("^database_name\\s*=\\s*(.+?)(?:\\s*#.+)?$", Pattern.MULTILINE);
+  private static final Pattern RE_OUTPUT_EXT = Pattern.compile("^output_file_extension *= *(\\S+)", Pattern.MULTILINE);
+  private static final Pattern RE_TOP_N = Pattern.compile("^output_report_topN *= *(\\d+)", Pattern.MULTILINE);
+  private static final Pattern RE_MAX_EXPECT = Pattern.compile("^output_max_expect *= *(\\S+)", Pattern.MULTILINE);
+  private static final Pattern RE_CALIBRATE_MASS = Pattern.compile("^calibrate_mass *= *([012])\\b", Pattern.MULTILINE);
+
+  private static volatile Process current;
+
+  final int numParts;
+  final List<String> msfraggerCmd;
+  final Path paramsPath;
+  final List<Path> infiles;
+  final Path tempDir;
+  final List<Path> partDirs;
+  final String paramsTxt;
+  final String outputExt;
+  final int topN;
+  final double maxExpect;
+  final int calibrateMass;
+  final String fastaPathStr;
+  final Path fastaPath;
+
+  SplitSearch(int numParts, List<String> msfraggerCmd, Path paramsPath, List<Path> infiles,
+      Path tempDir) throws IOException {
+    this.numParts = numParts;
+    this.msfraggerCmd = msfraggerCmd;
+    this.paramsPath = paramsPath;
+    this.infiles = infiles;
+    this.tempDir = tempDir;
+    this.partDirs = new ArrayList<>();
+    for (int i = 0; i < numParts; i++) {
+      partDirs.add(tempDir.resolve(Integer.toString(i)));
+    }
+    paramsTxt = new String(Files.readAllBytes(paramsPath), StandardCharsets.UTF_8);
+    Matcher m = RE_OUTPUT_EXT.matcher(paramsTxt);
+    outputExt = m.find() ? m.group(1) : "pepXML";
+    m = RE_TOP_N.matcher(paramsTxt);
+    if (!m.find()) {
+      throw new IllegalArgumentException("output_report_topN is missing in " + paramsPath);
+    }
+    topN = Integer.parseInt(m.group(1));
+    m = RE_MAX_EXPECT.matcher(paramsTxt);
+    maxExpect = m.find() ? Double.parseDouble(m.group(1)) : 50.0;
+    m = RE_CALIBRATE_MASS.matcher(paramsTxt);
+    if (!m.find()) {
+      throw new IllegalArgumentException("calibrate_mass is missing in " + paramsPath);
+    }
+    calibrateMass = Integer.parseInt(m.group(1));
+    m = RE_DATABASE_NAME.matcher(paramsTxt);
+    if (!m.find()) {
+      throw new IllegalArgumentException("database_name is missing in " + paramsPath);
+    }
+    fastaPathStr = m.group(1);
+    fastaPath = Paths.get(fastaPathStr);
+  }
+
+  public static void main(String[] args) {
+    System.exit(run(args));
+  }
+
+  public static int run(String[] args) {
+    if (args.length == 0) {
+      System.out.println("Example usage:");
+      System.out.println("java -cp fragpipe.jar " + SplitSearch.class.getCanonicalName()
+          + " 3 java -Xmx10g -jar msfragger.jar fragger.params *.mzML");
+      return 0;
+    }
+    try {
+      final int numParts = Integer.parseInt(args[0]);
+      // the JVM command is the java binary followed by options, then comes the MSFragger jar
+      int i = 2;
+      while (i < args.length && args[i].startsWith("-")) {
+        i++;
+      }
+      if (args.length < i + 3) {
+        System.err.println("Expected at least the MSFragger jar, a params file and one input file");
+        return 1;
+      }
+      final List<String> cmd = new ArrayList<>(Arrays.asList(args).subList(1, i));
+      cmd.add(Paths.get(args[i]).toAbsolutePath().normalize().toString());
+      final List<Path> infiles = new ArrayList<>();
+      for (int j = i + 2; j < args.length; j++) {
+        infiles.add(Paths.get(args[j]));
+      }
+      Runtime.getRuntime().addShutdownHook(new Thread(SplitSearch::destroyCurrent));
+      new SplitSearch(numParts, cmd, Paths.get(args[i + 1]), infiles, Paths.get(TEMP_DIR_NAME)).search();
+      return 0;
+    } catch (Exception e) {
+      e.printStackTrace();
+      return 1;
+    }
+  }
+
+  void search() throws Exception {
+    setUpDirectories();
+    List<Path> lcmsFiles = new ArrayList<>();
+    for (Path f : infiles) {
+      lcmsFiles.add(f.toAbsolutePath());
+    }
+    String params = paramsTxt;
+    if (calibrateMass == 1 || calibrateMass == 2) {
+      params = calibrate(lcmsFiles);
+      lcmsFiles = moveCalibratedFiles(lcmsFiles);
+    }
+    writeParams(params);
+    runMsfragger(lcmsFiles);
+
+    writeCombinedScoresHistograms();
+    final List<String> cmdExpect = new ArrayList<>(msfraggerCmd);
+    cmdExpect.add("--generate_expect_functions");
+    for (Path f : infiles) {
+      cmdExpect.add(stem(f) + "_scores_histogram.tsv");
+    }
+    exec(cmdExpect, tempDir, null);
+
+    combineResults();
+
+    try {
+      deleteRecursively(tempDir);
+    } catch (IOException e) {
+      System.out.println(e);
+    }
+  }
+
+  private void setUpDirectories() throws IOException {
+    if (Files.exists(tempDir)) {
+      deleteRecursively(tempDir);
+      System.out.printf("deleted existing temporary directory “%s”\n", tempDir.toAbsolutePath().normalize());
+    }
+    Files.createDirectories(tempDir);
+    for (Path dir : partDirs) {
+      Files.createDirectories(dir);
+    }
+    writeFastaParts();
+  }
+
+  /**
+   * Splits the FASTA file into parts with the same number of proteins, the first parts getting one
+   * extra protein if it doesn't divide evenly. Memory use does not depend on the file size.
+   */
+  private void writeFastaParts() throws IOException {
+    final long[] cnt = {0};
+    forEachHeader(fastaPath, offset -> cnt[0]++);
+    final long base = cnt[0] / numParts;
+    final long extra = cnt[0] % numParts;
+    final long[] startIndex = new long[numParts];
+    for (int i = 1; i < numParts; i++) {
+      startIndex[i] = startIndex[i - 1] + base + (i - 1 < extra ? 1 : 0);
+    }
+    final long[] startOffset = new long[numParts + 1];
+    final long[] headerIndex = {0};
+    final int[] part = {0};
+    forEachHeader(fastaPath, offset -> {
+      while (part[0] < numParts && startIndex[part[0]] == headerIndex[0]) {
+        startOffset[part[0]++] = offset;
+      }
+      headerIndex[0]++;
+    });
+    try (FileChannel in = FileChannel.open(fastaPath, StandardOpenOption.READ)) {
+      startOffset[numParts] = in.size();
+      for (int i = part[0]; i < numParts; i++) {
+        startOffset[i] = in.size(); // fewer proteins than parts
+      }
+      for (int i = 0; i < numParts; i++) {
+        final Path out = partDirs.get(i).resolve(fastaPath.getFileName());
+        try (FileChannel fc = FileChannel.open(out, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+          long pos = startOffset[i];
+          while (pos < startOffset[i + 1]) {
+            pos += in.transferTo(pos, startOffset[i + 1] - pos, fc);
+          }
+        }
+      }
+    }
+  }
+
+  private interface OffsetConsumer {
+    void accept(long offset);
+  }
+
+  /** Start of the file and every '>' following a newline. */
+  private static void forEachHeader(Path p, OffsetConsumer consumer) throws IOException {
+    try (FileChannel fc = FileChannel.open(p, StandardOpenOption.READ)) {
+      final ByteBuffer buf = ByteBuffer.allocate(1 << 20);
+      final byte[] a = buf.array();
+      long pos = 0;
+      byte prev = '\n';
+      int read;
+      while ((read = fc.read(buf)) >= 0) {
+        for (int i = 0; i < read; i++) {
+          if (pos + i == 0 || (prev == '\n' && a[i] == '>')) {
+            consumer.accept(pos + i);
+          }
+          prev = a[i];
+        }
+        pos += read;
+        buf.clear();
+      }
+    }
+  }
+
+  private void writeParams(String params) throws IOException {
+    final String replacement = Matcher.quoteReplacement("database_name = " + fastaPath.getFileName());
+    for (Path dir : partDirs) {
+      Files.write(dir.resolve(paramsPath.getFileName()),
+          RE_DATABASE_NAME.matcher(params).replaceAll(replacement).getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  private void runMsfragger(List<Path> lcmsFiles) throws Exception {
+    for (int i = 0; i < numParts; i++) {
+      final List<String> cmd = new ArrayList<>(msfraggerCmd);
+      cmd.add(paramsPath.getFileName().toString());
+      for (Path f : lcmsFiles) {
+        cmd.add(f.toString());
+      }
+      cmd.add("--partial");
+      cmd.add(Integer.toString(i));
+      System.out.printf("STARTED: DB split %d of %d\n", i + 1, numParts);
+      exec(cmd, partDirs.get(i), null);
+      System.out.printf("DONE: DB split %d of %d\n", i + 1, numParts);
+    }
+  }
+
+  /**
+   * Runs MSFragger mass calibration on the whole database.
+   *
+   * @return Params file contents for the search with the calibrated parameters.
+   */
+  private String calibrate(List<Path> lcmsFiles) throws Exception {
+    // MSFragger may leave files next to the database, so it gets its own copy
+    final Path fastaCopy = tempDir.resolve(fastaPath.getFileName());
+    Files.copy(fastaPath, fastaCopy);
+    final Path paramsCalibrate = tempDir.resolve(paramsPath.getFileName());
+    Files.write(paramsCalibrate, RE_DATABASE_NAME.matcher(paramsTxt)
+        .replaceAll(Matcher.quoteReplacement("database_name = " + fastaCopy.getFileName()))
+        .getBytes(StandardCharsets.UTF_8));
+    final List<String> cmd = new ArrayList<>(msfraggerCmd);
+    cmd.add(paramsCalibrate.toAbsolutePath().toString());
+    cmd.add("--split1");
+    for (Path f : lcmsFiles) {
+      cmd.add(f.toString());
+    }
+    final List<String> newValues = new ArrayList<>();
+    exec(cmd, tempDir, line -> {
+      if (line.startsWith("New ")) {
+        newValues.add(line);
+      }
+    });
+
+    String p = paramsTxt;
+    if (calibrateMass == 2) {
+      final String precursorTrueTol = findSingle(newValues, "New precursor_true_tolerance = (.+) PPM");
+      final String fragmentTol = findSingle(newValues, "New fragment_mass_tolerance = (.+) PPM");
+      if (fragmentTol == null) {
+        throw new IllegalStateException("MSFragger calibration did not report the new fragment_mass_tolerance");
+      }
+      if (precursorTrueTol != null) {
+        p = replaceParam(p, "^precursor_true_tolerance\\s*=\\s*[0-9.]+", "precursor_true_tolerance = " + precursorTrueTol);
+        p = replaceParam(p, "^precursor_true_units\\s*=\\s*[01]", "precursor_true_units = 1");
+      }
+      p = replaceParam(p, "^fragment_mass_tolerance\\s*=\\s*[0-9.]+", "fragment_mass_tolerance = " + fragmentTol);
+      p = replaceParam(p, "^fragment_mass_units\\s*=\\s*[01]", "fragment_mass_units = 1");
+      final String[][] optional = {
+          {"New use_topN_peaks = (.+)", "^use_topN_peaks\\s*=\\s*[0-9]+", "use_topN_peaks = "},
+          {"New minimum_ratio = (.+)", "^minimum_ratio\\s*=\\s*[0-9.]+", "minimum_ratio = "},
+          {"New intensity_transform = (.+)", "^intensity_transform\\s*=\\s*[0-9]", "intensity_transform = "},
+          {"New remove_precursor_peaks = (.+)", "^remove_precursor_peak\\s*=\\s*[0-9]", "remove_precursor_peak = "},
+      };
+      for (String[] o : optional) {
+        final String v = findSingle(newValues, o[0]);
+        if (v != null) {
+          p = replaceParam(p, o[1], o[2] + v);
+        }
+      }
+    }
+
+    // disable check_spectral_files in split search
+    final Matcher m = Pattern.compile("^check_spectral_files\\s*=\\s*[0-9]", Pattern.MULTILINE).matcher(p);
+    if (m.find()) {
+      p = m.replaceAll("check_spectral_files = 0");
+    } else {
+      p += "\ncheck_spectral_files = 0";
+    }
+    return p;
+  }
+
+  private static String findSingle(List<String> lines, String regex) {
+    final Pattern re = Pattern.compile(regex);
+    String found = null;
+    int cnt = 0;
+    for (String line : lines) {
+      final Matcher m = re.matcher(line);
+      while (m.find()) {
+        found = m.group(1).trim();
+        cnt++;
+      }
+    }
+    return cnt == 1 ? found : null;
+  }
+
+  private static String replaceParam(String params, String regex, String replacement) {
+    return Pattern.compile(regex, Pattern.MULTILINE).matcher(params)
+        .replaceAll(Matcher.quoteReplacement(replacement));
+  }
+
+  /**
+   * Calibrated spectra written by MSFragger are moved to the temp directory, files that were not
+   * calibrated are copied there.
+   */
+  private List<Path> moveCalibratedFiles(List<Path> lcmsFiles) throws IOException {
+    final List<Path> dests = new ArrayList<>();
+    for (Path f : lcmsFiles) {
+      final Path calibrated = withSuffix(f, ".mzBIN_calibrated");
+      final Path dest;
+      if (Files.exists(calibrated)) {
+        dest = tempDir.resolve(calibrated.getFileName());
+        Files.move(calibrated, dest);
+      } else {
+        dest = tempDir.resolve(f.getFileName());
+        copyRecursively(f, dest);
+      }
+      dests.add(dest.toRealPath());
+    }
+    return dests;
+  }
+
+  private void writeCombinedScoresHistograms() throws IOException {
+    for (Path f : infiles) {
+      final String fn = stem(f) + "_scores_histogram.tsv";
+      final List<long[]> sum = new ArrayList<>();
+      for (Path dir : partDirs) {
+        try (BufferedReader br = Files.newBufferedReader(dir.resolve(fn), StandardCharsets.UTF_8)) {
+          String line;
+          for (int row = 0; (line = br.readLine()) != null; ) {
+            if (line.isEmpty()) {
+              continue;
+            }
+            final String[] cols = line.split("\t");
+            if (row == sum.size()) {
+              sum.add(new long[cols.length]);
+            }
+            final long[] acc = sum.get(row++);
+            if (acc.length != cols.length) {
+              throw new IllegalStateException("Scores histograms of DB split parts differ in shape: " + fn);
+            }
+            for (int i = 0; i < cols.length; i++) {
+              acc[i] += Long.parseUnsignedLong(cols[i].trim());
+            }
+          }
+        }
+      }
+      try (BufferedWriter w = Files.newBufferedWriter(tempDir.resolve(fn), StandardCharsets.UTF_8)) {
+        for (long[] row : sum) {
+          for (int i = 0; i < row.length; i++) {
+            if (i > 0) {
+              w.write('\t');
+            }
+            w.write(Long.toUnsignedString(row[i]));
+          }
+          w.write('\n');
+        }
+      }
+    }
+  }
+
+  private void combineResults() throws Exception {
+    final int threads = Math.max(1, Math.min(infiles.size(), Runtime.getRuntime().availableProcessors()));
+    final ExecutorService exec = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Future<?>> futures = new ArrayList<>();
+      for (Path f : infiles) {
+        futures.add(exec.submit(() -> {
+          new SplitPepxmlMerge(this, f).write();
+          return null;
+        }));
+        futures.add(exec.submit(() -> {
+          new SplitPinMerge(this, f).write();
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      exec.shutdownNow();
+    }
+  }
+
+  /**
+   * pepXML files of all parts for an input file. Outer list is by rank, for the DIA outputs that
+   * have a separate file for every rank. Otherwise there's just one element.
+   */
+  List<List<Path>> pepxmlParts(Path infile) {
+    final String stem = stem(infile);
+    final List<Path> noRank = new ArrayList<>();
+    for (Path dir : partDirs) {
+      noRank.add(dir.resolve(stem + "." + outputExt));
+    }
+    if (allExist(noRank)) {
+      return Collections.singletonList(noRank);
+    }
+    final List<List<Path>> ranks = new ArrayList<>();
+    for (int rank = 1; ; rank++) {
+      final List<Path> parts = new ArrayList<>();
+      for (Path dir : partDirs) {
+        parts.add(dir.resolve(stem + "_rank" + rank + "." + outputExt));
+      }
+      if (!allExist(parts)) {
+        return ranks;
+      }
+      ranks.add(parts);
+    }
+  }
+
+  boolean isRanked(Path infile) {
+    final List<Path> noRank = new ArrayList<>();
+    for (Path dir : partDirs) {
+      noRank.add(dir.resolve(stem(infile) + "." + outputExt));
+    }
+    return !allExist(noRank);
+  }
+
+  /**
+   * @return True if all exist, false if none do.
+   * @throws IllegalStateException If only some of the files exist.
+   */
+  private static boolean allExist(List<Path> files) {
+    int cnt = 0;
+    for (Path f : files) {
+      if (Files.exists(f)) {
+        cnt++;
+      }
+    }
+    if (cnt != 0 && cnt != files.size()) {
+      throw new IllegalStateException("Only some of the DB split parts have results: " + files);
+    }
+    return cnt != 0;
+  }
+
+  /** Rows of the expect score functions MSFragger generated for the file: a0, a1, limit. */
+  double[][] expectFunctions(Path infile) throws IOException {
+    final List<double[]> rows = new ArrayList<>();
+    try (BufferedReader br = Files.newBufferedReader(tempDir.resolve(stem(infile) + "_expectscore.tsv"), StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = br.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        final String[] cols = line.split("\\s+");
+        rows.add(new double[]{Double.parseDouble(cols[0]), Double.parseDouble(cols[1]), Double.parseDouble(cols[2])});
+      }
+    }
+    return rows.toArray(new double[0][]);
+  }
+
+  static double expect(double[] f, double hyperscore) {
+    return Math.max(Math.pow(10, f[0] + f[1] * hyperscore), f[2]);
+  }
+
+  static String stem(Path p) {
+    final String fn = p.getFileName().toString();
+    final int dot = fn.lastIndexOf('.');
+    return dot > 0 ? fn.substring(0, dot) : fn;
+  }
+
+  static Path withSuffix(Path p, String suffix) {
+    return p.resolveSibling(stem(p) + suffix);
+  }
+
+  /** Same text as Python's {@code str(float)}, which is what the pin files had before. */
+  static String pyFloat(double v) {
+    if (Double.isNaN(v)) {
+      return "nan";
+    }
+    if (Double.isInfinite(v)) {
+      return v > 0 ? "inf" : "-inf";
+    }
+    if (v == 0) {
+      return 1 / v < 0 ? "-0.0" : "0.0";
+    }
+    final double abs = Math.abs(v);
+    if (abs >= 1e-4 && abs < 1e16) {
+      final String s = new BigDecimal(Double.toString(v)).stripTrailingZeros().toPlainString();
+      return s.indexOf('.') < 0 ? s + ".0" : s;
+    }
+    final String s = Double.toString(v).toLowerCase(Locale.ROOT);
+    final int e = s.indexOf('e');
+    String mantissa = s.substring(0, e);
+    if (mantissa.endsWith(".0")) {
+      mantissa = mantissa.substring(0, mantissa.length() - 2);
+    }
+    final int exp = Integer.parseInt(s.substring(e + 1));
+    return String.format(Locale.ROOT, "%se%s%02d", mantissa, exp < 0 ? "-" : "+", Math.abs(exp));
+  }
+
+  /** Runs a command, its output is either passed through as is or given to the consumer line by line. */
+  private static void exec(List<String> cmd, Path dir, Consumer<String> lines) throws Exception {
+    System.out.println(String.join(" ", cmd));
+    final ProcessBuilder pb = new ProcessBuilder(cmd).directory(dir.toFile());
+    if (lines == null) {
+      pb.inheritIO();
+    } else {
+      pb.redirectErrorStream(true);
+    }
+    final Process p = pb.start();
+    current = p;
+    try {
+      if (lines != null) {
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+          String line;
+          while ((line = br.readLine()) != null) {
+            System.out.println(line);
+            lines.accept(line);
+          }
+        }
+      }
+      final int code = p.waitFor();
+      if (code != 0) {
+        throw new IllegalStateException("Command exited with code " + code + ": " + String.join(" ", cmd));
+      }
+    } finally {
+      current = null;
+    }
+  }
+
+  private static void destroyCurrent() {
+    final Process p = current;
+    if (p != null) {
+      p.descendants().forEach(ProcessHandle::destroy);
+      p.destroy();
+    }
+  }
+
+  private static void copyRecursively(Path from, Path to) throws IOException {
+    if (!Files.isDirectory(from)) {
+      Files.copy(from, to);
+      return;
+    }
+    Files.walkFileTree(from, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        Files.createDirectories(to.resolve(from.relativize(dir).toString()));
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.copy(file, to.resolve(from.relativize(file).toString()));
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  private static void deleteRecursively(Path p) throws IOException {
+    Files.walkFileTree(p, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        if (exc != null) {
+          throw exc;
+        }
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
@@ -17,6 +17,7 @@
 
 package com.dmtavt.fragpipe.tools.msbooster;
 
+import com.dmtavt.fragpipe.FragpipeLocations;
 import com.github.chhh.utils.SwingUtils;
 import com.github.chhh.utils.swing.JPanelBase;
 import com.github.chhh.utils.swing.MigUtils;
@@ -38,6 +39,7 @@ public class MSBoosterPanel extends JPanelBase {
   private UiCheck uiCheckPredictRT;
   private UiCheck uiCheckPredictSpectra;
   private UiCheck uiUseCorrelatedFeatures;
+  private UiCheck uiCheckReusePredictions;
 
   public MSBoosterPanel() {
     super();
@@ -78,15 +80,30 @@ public class MSBoosterPanel extends JPanelBase {
     uiUseCorrelatedFeatures = new UiCheck("Use correlated features", null, false);
     uiUseCorrelatedFeatures.setName("use-correlated-features");
 
+    uiCheckReusePredictions = new UiCheck("Reuse predictions", null, false);
+    uiCheckReusePredictions.setName("reuse-predictions");
+    uiCheckReusePredictions.setToolTipText("<html>Keep predictions in FragPipe's cache and reuse them when the same peptides<br>"
+        + "(e.g. the same search results) are rescored again.<br>"
+        + "The cache is kept in <i>" + predictionCacheDir() + "</i><br>"
+        + "and takes up to " + (PredictionCache.MAX_CACHE_BYTES >> 30) + " GB, least recently used predictions are removed first.<br>"
+        + "Delete that directory to clear the cache.");
+
     pContent = mu.newPanel(null, mu.lcFillXNoInsetsTopBottom());
     mu.add(pContent, uiCheckPredictRT).split();
     mu.add(pContent, uiCheckPredictSpectra);
     mu.add(pContent, uiUseCorrelatedFeatures);
+    mu.add(pContent, uiCheckReusePredictions);
 
     mu.add(this, pTop).growX().wrap();
     mu.add(this, pContent).growX().wrap();
   }
 
+  private static String predictionCacheDir() {
+    final FragpipeLocations locations = FragpipeLocations.get();
+    return locations == null ? "FragPipe's long-term storage directory, " + PredictionCache.DIR_CACHE
+        : locations.getPathLongTermStorage().resolve(PredictionCache.DIR_CACHE).toString();
+  }
+
   private JPanel createPanelTop() {
 
     JPanel p = mu.newPanel(null, mu.lcFillXNoInsetsTopBottom());
@@ -116,6 +133,10 @@ public class MSBoosterPanel extends JPanelBase {
     return uiUseCorrelatedFeatures.isSelected();
   }
 
+  public boolean reusePredictions() {
+    return uiCheckReusePredictions.isSelected();
+  }
+
   @Override
   public void initMore() {
     updateEnabledStatus(this, true);
@@ -0,0 +1,267 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.tools.msbooster;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the RT and spectra predictions MSBooster gets from DIA-NN, so that a run over the same
+ * peptides doesn't predict them again.
+ * <p>
+ * An entry is addressed by a hash of everything the predictions depend on: the set of peptides
+ * (with modifications) and charges in the pin files, the modification settings of the search,
+ * the prediction model (MSBooster version and the DIA-NN binary) and what is predicted. Re-running a
+ * workflow with different validation or quantification settings on the same search results
+ * finds its predictions in the cache. {@code lookup} runs before MSBooster, links (or copies) a
+ * cached prediction file into the working directory and points MSBooster to it, {@code store}
+ * runs after MSBooster and adds a new prediction file to the cache.
+ * <p>
+ * Usage: {@code PredictionCache lookup|store <cache dir> <msbooster params file> <model>}
+ */
+public class PredictionCache {
+  public static final String FN_PREDICTIONS = "spectraRT.predicted.bin";
+  static final String FN_KEY = "msbooster_prediction_cache.key";
+  static final String EXT_ENTRY = ".predicted.bin";
+  /** Cache directory name in FragPipe's long-term storage directory. */
+  public static final String DIR_CACHE = "msbooster-predictions";
+  /** Oldest entries are removed when the cache grows over this. */
+  public static final long MAX_CACHE_BYTES = 20L << 30;
+
+  public static void main(String[] args) throws IOException {
+    int exitCode = run(args);
+    if (exitCode != 0) {
+      System.exit(exitCode);
+    }
+  }
+
+  /**
+   * Same as {@link #main(String[])}, returns the exit code.
+   */
+  public static int run(String[] args) throws IOException {
+    if (args.length != 4) {
+      System.err.println("Usage: PredictionCache lookup|store <cache dir> <msbooster params file> <model>");
+      return 1;
+    }
+    final Path cacheDir = Paths.get(args[1]);
+    final Path params = Paths.get(args[2]);
+    final Path wd = params.toAbsolutePath().getParent();
+    switch (args[0]) {
+      case "lookup":
+        lookup(cacheDir, params, args[3]);
+        return 0;
+      case "store":
+        store(cacheDir, wd);
+        return 0;
+      default:
+        System.err.println("Unknown command: " + args[0]);
+        return 1;
+    }
+  }
+
+  static void lookup(Path cacheDir, Path params, String model) throws IOException {
+    final Path wd = params.toAbsolutePath().getParent();
+    final String key = key(params, model);
+    Files.write(wd.resolve(FN_KEY), key.getBytes(StandardCharsets.UTF_8));
+    final Path entry = cacheDir.resolve(key + EXT_ENTRY);
+    if (!Files.exists(entry)) {
+      System.out.println("No cached predictions for these peptides, MSBooster will predict them");
+      return;
+    }
+    final Path predictions = wd.resolve(FN_PREDICTIONS);
+    Files.deleteIfExists(predictions);
+    try {
+      // prediction files are several GB, a link saves copying them when the cache is on the same disk
+      Files.createLink(predictions, entry);
+    } catch (IOException | UnsupportedOperationException e) {
+      Files.copy(entry, predictions, StandardCopyOption.REPLACE_EXISTING);
+    }
+    Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+    final String line = "\nspectraRTPredFile = " + predictions.toAbsolutePath() + "\n";
+    Files.write(params, line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    System.out.println("Using cached predictions: " + entry);
+  }
+
+  static void store(Path cacheDir, Path wd) throws IOException {
+    final Path keyFile = wd.resolve(FN_KEY);
+    final Path predictions = wd.resolve(FN_PREDICTIONS);
+    if (!Files.exists(keyFile) || !Files.exists(predictions)) {
+      return;
+    }
+    final String key = new String(Files.readAllBytes(keyFile), StandardCharsets.UTF_8).trim();
+    Files.delete(keyFile);
+    final Path entry = cacheDir.resolve(key + EXT_ENTRY);
+    if (Files.exists(entry)) {
+      return;
+    }
+    Files.createDirectories(cacheDir);
+    // copy under a temporary name first, so that a concurrent lookup never sees half a file
+    final Path tmp = Files.createTempFile(cacheDir, key, ".tmp");
+    try {
+      Files.copy(predictions, tmp, StandardCopyOption.REPLACE_EXISTING);
+      Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+    System.out.println("Cached predictions: " + entry);
+    evict(cacheDir, MAX_CACHE_BYTES);
+  }
+
+  /** Removes the least recently used entries until the cache fits into maxBytes. */
+  static void evict(Path cacheDir, long maxBytes) throws IOException {
+    final List<Path> entries;
+    try (Stream<Path> s = Files.list(cacheDir)) {
+      entries = s.filter(p -> p.getFileName().toString().endsWith(EXT_ENTRY)).collect(Collectors.toList());
+    }
+    final Map<Path, Long> modified = new LinkedHashMap<>();
+    for (Path p : entries) {
+      modified.put(p, Files.getLastModifiedTime(p).toMillis());
+    }
+    entries.sort(Comparator.comparing((Path p) -> modified.get(p)).reversed());
+    long total = 0;
+    for (Path p : entries) {
+      total += Files.size(p);
+      if (total > maxBytes) {
+        System.out.println("Removing old cached predictions: " + p);
+        Files.deleteIfExists(p);
+      }
+    }
+  }
+
+  /**
+   * Hash of the model, the prediction settings and modification parameters in the MSBooster and
+   * MSFragger params, and the sorted peptides and charges of the pin files.
+   */
+  static String key(Path params, String model) throws IOException {
+    final Path wd = params.toAbsolutePath().getParent();
+    final Map<String, String> p = readParams(params);
+    final MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    update(md, "model=" + model);
+    update(md, "useRT=" + p.get("useRT"));
+    update(md, "useSpectra=" + p.get("useSpectra"));
+    final String fragger = p.get("fragger");
+    if (fragger != null && Files.exists(Paths.get(fragger))) {
+      for (Map.Entry<String, String> e : readParams(Paths.get(fragger)).entrySet()) {
+        if (e.getKey().startsWith("variable_mod") || e.getKey().startsWith("add_")) {
+          update(md, e.getKey() + "=" + e.getValue());
+        }
+      }
+    }
+
+    final Set<String> peptides = new HashSet<>();
+    final String pins = p.getOrDefault("pinPepXMLDirectory", "").trim();
+    for (String pin : pins.isEmpty() ? new String[0] : pins.split("\\s+")) {
+      readPeptides(wd.resolve(pin), peptides);
+    }
+    final List<String> sorted = new ArrayList<>(peptides);
+    sorted.sort(Comparator.naturalOrder());
+    for (String peptide : sorted) {
+      update(md, peptide);
+    }
+
+    final StringBuilder sb = new StringBuilder();
+    for (byte b : md.digest()) {
+      sb.append(String.format("%02x", b));
+    }
+    return sb.toString();
+  }
+
+  /** Adds "peptide/charge" of every row of a pin file. */
+  static void readPeptides(Path pin, Set<String> peptides) throws IOException {
+    try (BufferedReader br = Files.newBufferedReader(pin)) {
+      final String header = br.readLine();
+      if (header == null) {
+        return;
+      }
+      final String[] cols = header.split("\t");
+      int colPeptide = -1;
+      int colCharge = -1;
+      final List<Integer> chargeCols = new ArrayList<>();
+      final List<String> charges = new ArrayList<>();
+      for (int i = 0; i < cols.length; i++) {
+        if (cols[i].equalsIgnoreCase("Peptide")) {
+          colPeptide = i;
+        } else if (cols[i].equalsIgnoreCase("charge")) {
+          colCharge = i;
+        } else if (cols[i].toLowerCase().startsWith("charge_")) {
+          chargeCols.add(i);
+          charges.add(cols[i].substring("charge_".length()));
+        }
+      }
+      if (colPeptide < 0) {
+        throw new IllegalStateException("No Peptide column in " + pin);
+      }
+      String line;
+      while ((line = br.readLine()) != null) {
+        final String[] ls = line.split("\t");
+        if (ls.length <= colPeptide) {
+          continue;
+        }
+        String charge = colCharge >= 0 && colCharge < ls.length ? ls[colCharge] : "";
+        for (int k = 0; k < chargeCols.size() && charge.isEmpty(); k++) {
+          final int c = chargeCols.get(k);
+          if (c < ls.length && ls[c].equals("1")) {
+            charge = charges.get(k);
+          }
+        }
+        peptides.add(ls[colPeptide] + "/" + charge);
+      }
+    }
+  }
+
+  static Map<String, String> readParams(Path path) throws IOException {
+    final Map<String, String> map = new LinkedHashMap<>();
+    for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+      final int hash = line.indexOf('#');
+      final String s = hash >= 0 ? line.substring(0, hash) : line;
+      final int eq = s.indexOf('=');
+      if (eq > 0) {
+        map.put(s.substring(0, eq).trim(), s.substring(eq + 1).trim());
+      }
+    }
+    return map;
+  }
+
+  private static void update(MessageDigest md, String s) {
+    md.update(s.getBytes(StandardCharsets.UTF_8));
+    md.update((byte) '\n');
+  }
+}
@@ -18,18 +18,130 @@
 package com.dmtavt.fragpipe.tools.pepproph;
 
 import com.dmtavt.fragpipe.api.InputLcmsFile;
+import com.dmtavt.fragpipe.util.XmlTagPatcher;
+import com.dmtavt.fragpipe.util.XmlTagPatcher.Tag;
+import com.github.chhh.utils.StringUtils;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import org.apache.commons.lang3.NotImplementedException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Points interact pepXML files written by PeptideProphet to the LCMS files that were searched,
+ * instead of the temporary locations PeptideProphet saw. Only the opening tags are changed,
+ * in place when the new ones fit, see {@link XmlTagPatcher}.
+ */
 public class FixPepProphLcmsPath {
+  private static final Logger log = LoggerFactory.getLogger(FixPepProphLcmsPath.class);
+  private static final String TAG_PIPELINE_ANALYSIS = "<msms_pipeline_analysis";
+  private static final String TAG_RUN_SUMMARY = "<msms_run_summary";
+  private static final String CALIBRATED_COMMENT = "This pepXML was from calibrated spectra.";
+
+  public static void main(String[] args) throws IOException {
+    int exitCode = run(args);
+    if (exitCode != 0) {
+      System.exit(exitCode);
+    }
+  }
+
+  /**
+   * Same as {@link #main(String[])}, but returns the exit code instead of exiting the JVM.
+   * Arguments are the interact pepXML file and the LCMS file it was searched from.
+   */
+  public static int run(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Expected 2 arguments: path to pepxml file and path to LCMS file");
+      return 1;
+    }
+    final Path pepxml = Paths.get(args[0]);
+    if (Files.notExists(pepxml)) {
+      System.err.printf("File does not exist: %s\n", pepxml);
+      return 1;
+    }
+    System.out.printf("Fixing LCMS path in pepxml: %s\n", pepxml);
+    fixPathInplace(pepxml, Paths.get(args[1]));
+    return 0;
+  }
 
   /**
    * @param pepxmlPath Path to pepxml file after PeptideProphet.
    * @param lcmsFile The original LCMS file used for search.
    * @param workDir The 'output directory' specified in FragPipe Run tab.
    */
-  public static void fixPathInplace(Path pepxmlPath, InputLcmsFile lcmsFile, Path workDir) {
-    // TODO: Fengchao offered to implement
-    throw new NotImplementedException("Fengchao offered to implement");
+  public static void fixPathInplace(Path pepxmlPath, InputLcmsFile lcmsFile, Path workDir) throws IOException {
+    fixPathInplace(workDir.resolve(pepxmlPath), workDir.resolve(lcmsFile.getPath()));
+  }
+
+  static void fixPathInplace(Path pepxmlPath, Path lcmsPath) throws IOException {
+    final Path pepxml = pepxmlPath.toAbsolutePath().normalize();
+    final Path lcms = lcmsPath.toAbsolutePath().normalize();
+    final List<Tag> tags = XmlTagPatcher.find(pepxml, TAG_PIPELINE_ANALYSIS, TAG_RUN_SUMMARY);
+    for (Tag tag : tags) {
+      final String text = tag.text();
+      String fixed;
+      if (tag.prefix == 0) {
+        fixed = setAttribute(text, "summary_xml", pepxml.toString());
+      } else {
+        final String[] spectra = spectraFile(lcms, text.contains(CALIBRATED_COMMENT));
+        fixed = setAttribute(text, "base_name", spectra[0]);
+        final String rawData = attribute(text, "raw_data");
+        if (rawData != null) {
+          fixed = setAttribute(fixed, "raw_data", (rawData.startsWith(".") ? "." : "") + spectra[1]);
+        }
+      }
+      log.debug("Fixing LCMS path in {}:\n{}\n{}", pepxml, text, fixed);
+      tag.replaceWith(fixed);
+    }
+    XmlTagPatcher.patch(pepxml, tags);
+  }
+
+  /**
+   * The spectra downstream tools should read: the mzML files written by MSFragger next to the
+   * LCMS file if they exist, the LCMS file itself otherwise.
+   *
+   * @return Path without extension and the extension.
+   */
+  static String[] spectraFile(Path lcms, boolean calibrated) {
+    final String fn = lcms.getFileName().toString();
+    final String base = lcms.resolveSibling(StringUtils.upToLastDot(fn)).toString();
+    final String ext = StringUtils.afterLastDot(fn);
+    if (calibrated && Files.exists(lcms.resolveSibling(StringUtils.upToLastDot(fn) + "_calibrated.mzML"))) {
+      return new String[]{base + "_calibrated", "mzML"};
+    }
+    if (!ext.equalsIgnoreCase("mzML") && !ext.equalsIgnoreCase("mzXML")
+        && Files.exists(lcms.resolveSibling(StringUtils.upToLastDot(fn) + "_uncalibrated.mzML"))) {
+      return new String[]{base + "_uncalibrated", "mzML"};
+    }
+    return new String[]{base, ext};
+  }
+
+  private static Pattern attributePattern(String name) {
+    return Pattern.compile("(\\s" + name + "\\s*=\\s*)([\"'])(.*?)\\2", Pattern.DOTALL);
+  }
+
+  static String attribute(String tag, String name) {
+    final Matcher m = attributePattern(name).matcher(tag);
+    return m.find() ? m.group(3) : null;
+  }
+
+  /** Replaces the attribute value, or adds the attribute if the tag doesn't have it. */
+  static String setAttribute(String tag, String name, String value) {
+    final Matcher m = attributePattern(name).matcher(tag);
+    if (m.find()) {
+      final String quote = m.group(2);
+      return tag.substring(0, m.start(3)) + escape(value, quote.charAt(0)) + tag.substring(m.end(3));
+    }
+    final int end = tag.endsWith("/>") ? tag.length() - 2 : tag.length() - 1;
+    return tag.substring(0, end) + " " + name + "=\"" + escape(value, '"') + "\"" + tag.substring(end);
+  }
+
+  private static String escape(String value, char quote) {
+    String s = value.replace("&", "&amp;").replace("<", "&lt;");
+    return quote == '"' ? s.replace("\"", "&quot;") : s.replace("'", "&apos;");
   }
 }
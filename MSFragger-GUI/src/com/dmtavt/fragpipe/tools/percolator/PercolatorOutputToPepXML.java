@@ -18,6 +18,7 @@
 package com.dmtavt.fragpipe.tools.percolator;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -27,14 +28,23 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Converts Percolator's PSM tables back to PeptideProphet-like pepXML files.
+ * <p>
+ * The .pin file is read once into a {@link PsmTable}, the Percolator tables are merged into it, and
+ * then each pepXML file (one per rank for DIA, processed in parallel) is streamed to the output.
+ */
 public class PercolatorOutputToPepXML {
 
     private static final Pattern pattern = Pattern.compile("(.+spectrum=\".+\\.)([0-9]+)\\.([0-9]+)(\\.[0-9]+\".+)");
@@ -42,6 +52,8 @@ public class PercolatorOutputToPepXML {
     private static final Pattern pattern2 = Pattern.compile("raw_data_type=\"([^\"]+)\"");
     private static final Pattern pattern3 = Pattern.compile("raw_data=\"([^\"]+)\"");
 
+    private static final int BUFFER_SIZE = 1 << 16;
+
     public static void main(final String[] args) {
         Locale.setDefault(Locale.US);
         if (args.length == 0) {
@@ -53,13 +65,36 @@ public class PercolatorOutputToPepXML {
                 Paths.get("G:\\dev\\msfragger\\dev2\\interact-5ngHeLaosmoothCE20-52lowguessSRIG450easy4_30t_C2_01_3451_2"),
                 "DDA",
                 0);
-        } else if (Files.exists(Paths.get(args[0].replace(".pin", "_edited.pin")))){
-            percolatorToPepXML(Paths.get(args[0].replace(".pin", "_edited.pin")), args[1], Paths.get(args[2]), Paths.get(args[3]), Paths.get(args[4]), args[5], Double.parseDouble(args[6]));
         } else {
-            percolatorToPepXML(Paths.get(args[0]), args[1], Paths.get(args[2]), Paths.get(args[3]), Paths.get(args[4]), args[5], Double.parseDouble(args[6]));
+            int exitCode = run(args);
+            if (exitCode != 0) {
+                System.exit(exitCode);
+            }
         }
     }
 
+    /**
+     * Same as {@link #main(String[])} with arguments, but returns the exit code instead of exiting the JVM.
+     * The optional 8th argument is the number of threads used for DIA rank files.
+     */
+    public static int run(final String[] args) {
+        Path pin = Paths.get(args[0]);
+        if (args[0].endsWith(".pin")) {
+            final Path edited = Paths.get(args[0].substring(0, args[0].length() - ".pin".length()) + "_edited.pin");
+            if (Files.exists(edited)) {
+                pin = edited;
+            }
+        }
+        try {
+            final int nThreads = args.length > 7 ? Integer.parseInt(args[7]) : Runtime.getRuntime().availableProcessors();
+            percolatorToPepXML(pin, args[1], Paths.get(args[2]), Paths.get(args[3]), Paths.get(args[4]), args[5], Double.parseDouble(args[6]), nThreads);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return 1;
+        }
+        return 0;
+    }
+
     private static String getSpectrum(final String line) {
         String spectrum = null;
         for (final String e : line.split("\\s"))
@@ -67,6 +102,9 @@ public class PercolatorOutputToPepXML {
                 spectrum = e.substring("spectrum=\"".length(), e.length() - 1);
                 break;
             }
+        if (spectrum == null) {
+            throw new IllegalStateException("Cannot find the spectrum attribute in " + line);
+        }
         return spectrum.substring(0, spectrum.lastIndexOf("."));
     }
 
@@ -93,22 +131,6 @@ public class PercolatorOutputToPepXML {
         }
     }
 
-    private static class Spectrum_rank {
-        final String spectrum;
-        final int rank;
-
-        Spectrum_rank(String spectrum, int rank) {
-            this.spectrum = spectrum;
-            this.rank = rank;
-        }
-    }
-
-    private static Spectrum_rank get_spectrum_rank(final String s){
-        final String charge_rank = s.substring(s.lastIndexOf("."));
-        final int rank = Integer.parseInt(charge_rank.split("_")[1]);
-        return new Spectrum_rank(s.substring(0, s.lastIndexOf(".")), rank);
-    }
-
     private static int get_max_rank(final String basename, final boolean is_DIA) {
         final Path pathDIA = Paths.get(basename + "_rank1.pepXML");
         final Path pathDDA = Paths.get(basename + ".pepXML");
@@ -123,26 +145,161 @@ public class PercolatorOutputToPepXML {
                     return Integer.parseInt(matcher.group(1));
             }
         } catch (IOException e) {
-            System.err.println("Cannot find output_report_topN parameter from " + path.toAbsolutePath());
-            System.exit(1);
-            return -1;
+            throw new UncheckedIOException("Cannot find output_report_topN parameter from " + path.toAbsolutePath(), e);
         }
-        System.err.println("Cannot find output_report_topN parameter from " + path.toAbsolutePath());
-        System.exit(1);
-        return -1;
+        throw new IllegalStateException("Cannot find output_report_topN parameter from " + path.toAbsolutePath());
+    }
+
+    /**
+     * Start offsets of the first {@code bounds.length - 1} tab separated columns of the line, plus the
+     * offset one past the end of the last of them. Column {@code i} is {@code [bounds[i], bounds[i + 1] - 1)}.
+     */
+    private static void columnBounds(final String line, final int[] bounds) {
+        bounds[0] = 0;
+        int pos = 0;
+        for (int col = 1; col < bounds.length; ++col) {
+            final int tab = line.indexOf('\t', pos);
+            if (tab < 0) {
+                if (col < bounds.length - 1) {
+                    throw new IllegalStateException("Expected at least " + (bounds.length - 1) + " columns in line: " + line);
+                }
+                bounds[col] = line.length() + 1;
+                return;
+            }
+            bounds[col] = tab + 1;
+            pos = tab + 1;
+        }
+    }
+
+    private static String column(final String line, final int[] bounds, final int col) {
+        return line.substring(bounds[col], bounds[col + 1] - 1);
+    }
+
+    private static int intColumn(final String line, final int[] bounds, final int col) {
+        return Integer.parseInt(line, bounds[col], bounds[col + 1] - 1, 10);
     }
 
-    private static StringBuilder handle_search_hit(final List<String> searchHit, final NttNmc nttNmc, final PepScore pepScore, final int oldRank, final int newRank) {
-        if (nttNmc == null || pepScore == null) {
-            return new StringBuilder();
+    /** Reads the .pin file in a single pass. RT scores are turned to z-scores when written out. */
+    private static PsmTable readPin(final Path pin, final int maxRank) {
+        try (final BufferedReader br = new BufferedReader(new InputStreamReader(Files.newInputStream(pin), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            final String pin_header = br.readLine();
+            if (pin_header == null) {
+                throw new IllegalStateException("Empty pin file: " + pin);
+            }
+            final List<String> colnames = Arrays.asList(pin_header.split("\t"));
+            final int indexOf_SpecId = colnames.indexOf("SpecId");
+            final int indexOf_ntt = colnames.indexOf("ntt");
+            final int indexOf_nmc = colnames.indexOf("nmc");
+            if (indexOf_SpecId < 0 || indexOf_ntt < 0 || indexOf_nmc < 0) {
+                throw new IllegalStateException("Missing SpecId, ntt or nmc column in " + pin);
+            }
+            int indexOf_spectralSimilarity = -1;
+            int indexOf_RTscore = -1;
+            if (colnames.contains("bray_curtis")) {
+                indexOf_spectralSimilarity = colnames.indexOf("bray_curtis");
+            }
+            if (colnames.contains("unweighted_spectral_entropy")) {
+                indexOf_spectralSimilarity = colnames.indexOf("unweighted_spectral_entropy");
+            }
+            if (colnames.contains("delta_RT_loess")) {
+                indexOf_RTscore = colnames.indexOf("delta_RT_loess");
+            }
+
+            final PsmTable table = new PsmTable(maxRank, indexOf_RTscore != -1);
+            final int[] bounds = new int[Math.max(Math.max(indexOf_SpecId, indexOf_ntt),
+                Math.max(indexOf_nmc, Math.max(indexOf_spectralSimilarity, indexOf_RTscore))) + 2];
+            // running mean and variance of the RT scores (Welford)
+            long n = 0;
+            double mean = 0;
+            double m2 = 0;
+            String line;
+            while ((line = br.readLine()) != null) {
+                columnBounds(line, bounds);
+                final String raw_SpecId = column(line, bounds, indexOf_SpecId);
+                final int dot = raw_SpecId.lastIndexOf('.');
+                final int rank = parseRank(raw_SpecId, dot);
+                final int i = table.add(table.index.getOrAdd(raw_SpecId.substring(0, dot)), rank);
+                table.flags[i] |= PsmTable.HAS_PIN;
+                table.ntt[i] = intColumn(line, bounds, indexOf_ntt);
+                table.nmc[i] = intColumn(line, bounds, indexOf_nmc);
+                if (indexOf_spectralSimilarity != -1) {
+                    table.spectralSimilarity[i] = Float.parseFloat(column(line, bounds, indexOf_spectralSimilarity));
+                }
+                if (indexOf_RTscore != -1) {
+                    final double score = Double.parseDouble(column(line, bounds, indexOf_RTscore));
+                    table.rtScore[i] = score;
+                    final double delta = score - mean;
+                    mean += delta / ++n;
+                    m2 += delta * (score - mean);
+                }
+            }
+            table.ensureCapacity(table.index.size() * maxRank);
+            table.rtMean = mean;
+            table.rtStd = Math.sqrt(m2 / n);
+            return table;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Adds the PSMs from a Percolator output table that pass the probability threshold. */
+    private static void readPercolatorPsms(final PsmTable table, final Path tsv, final double minProb) {
+        try (final BufferedReader brtsv = new BufferedReader(new InputStreamReader(Files.newInputStream(tsv), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            final String percolator_header = brtsv.readLine();
+            if (percolator_header == null) {
+                throw new IllegalStateException("Empty Percolator output file: " + tsv);
+            }
+            final List<String> colnames = Arrays.asList(percolator_header.split("\t"));
+            final int indexOfPSMId = colnames.indexOf("PSMId");
+            final int indexOfPEP = colnames.indexOf("posterior_error_prob");
+            final int indexOfScore = colnames.indexOf("score");
+            if (indexOfPSMId < 0 || indexOfPEP < 0 || indexOfScore < 0) {
+                throw new IllegalStateException("Missing PSMId, posterior_error_prob or score column in " + tsv);
+            }
+            final int[] bounds = new int[Math.max(indexOfPSMId, Math.max(indexOfPEP, indexOfScore)) + 2];
+            String line;
+            while ((line = brtsv.readLine()) != null) {
+                columnBounds(line, bounds);
+                final double pep = Double.parseDouble(column(line, bounds, indexOfPEP));
+                if (1 - pep < minProb) {
+                    continue;
+                }
+                final String raw_psmid = column(line, bounds, indexOfPSMId);
+                final int dot = raw_psmid.lastIndexOf('.');
+                final int rank = parseRank(raw_psmid, dot);
+                final int slot = table.index.get(raw_psmid.substring(0, dot));
+                if (slot < 0) {
+                    continue; // not in the pin file, would never be written out
+                }
+                final int i = table.offset(slot, rank);
+                table.flags[i] |= PsmTable.HAS_PSM;
+                table.pep[i] = pep;
+                table.score[i] = Double.parseDouble(column(line, bounds, indexOfScore));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Rank from the {@code .<charge>_<rank>} suffix of a PSM ID. */
+    private static int parseRank(final String psmId, final int lastDot) {
+        final int underscore = psmId.indexOf('_', lastDot);
+        if (lastDot < 0 || underscore < 0) {
+            throw new IllegalStateException("Cannot parse rank from " + psmId);
+        }
+        final int end = psmId.indexOf('_', underscore + 1);
+        return Integer.parseInt(psmId, underscore + 1, end < 0 ? psmId.length() : end, 10);
+    }
+
+    private static void handle_search_hit(final List<String> sq, final int from, final PsmTable table, final int i, final int oldRank, final int newRank, final PepXmlWriter out) throws IOException {
+        if ((table.flags[i] & PsmTable.HAS_BOTH) != PsmTable.HAS_BOTH) {
+            return;
         }
 
-        final StringBuilder sb = new StringBuilder();
         double calc_neutral_pep_mass = Double.NaN;
         double massdiff = Double.NaN;
         int isomassd = 0;
-        final Iterator<String> iterator = searchHit.iterator();
-        final String search_hit_line = iterator.next();
+        final String search_hit_line = sq.get(from).trim();
         for (final String e : search_hit_line.split("\\s")) { // fixme: the code assumes that all attributes are in one line, which makes it not robust
             if (e.startsWith("massdiff="))
                 massdiff = Double.parseDouble(e.substring("massdiff=\"".length(), e.length() - 1));
@@ -159,360 +316,562 @@ public class PercolatorOutputToPepXML {
         if (gap > 0.1) { // It may be from an open search.
             isomassd = 0;
         }
-        sb.append(oldRank == newRank ? search_hit_line : search_hit_line.replace("hit_rank=\"" + oldRank + "\"", "hit_rank=\"" + newRank + "\"")).append("\n");
+        out.line(oldRank == newRank ? search_hit_line : search_hit_line.replace("hit_rank=\"" + oldRank + "\"", "hit_rank=\"" + newRank + "\""));
         String line;
-        while (!(line = iterator.next()).trim().contentEquals("</search_hit>")) {
-            sb.append(line).append("\n");
-        }
-
-        if (!Float.isNaN(nttNmc.spectralSimilarity)) {
-            sb.append(String.format("<search_score name=\"spectralsim\" value=\"%f\"/>\n", nttNmc.spectralSimilarity));
-        }
-        if (!Float.isNaN(nttNmc.RTscore)) {
-            sb.append(String.format("<search_score name=\"rtscore\" value=\"%f\"/>\n", nttNmc.RTscore));
-        }
-        sb.append(
-                String.format(
-                        "<analysis_result analysis=\"peptideprophet\">\n" +
-                                "<peptideprophet_result probability=\"%f\" all_ntt_prob=\"(%f,%f,%f)\">\n" +
-                                "<search_score_summary>\n" +
-                                "<parameter name=\"fval\" value=\"%f\"/>\n" +
-                                "<parameter name=\"ntt\" value=\"%d\"/>\n" +
-                                "<parameter name=\"nmc\" value=\"%d\"/>\n" +
-                                "<parameter name=\"massd\" value=\"%f\"/>\n" +
-                                "<parameter name=\"isomassd\" value=\"%d\"/>\n" +
-                                "</search_score_summary>\n" +
-                                "</peptideprophet_result>\n" +
-                                "</analysis_result>\n",
-                        1 - pepScore.pep, 1 - pepScore.pep, 1 - pepScore.pep, 1 - pepScore.pep,
-                        pepScore.score, nttNmc.ntt, nttNmc.nmc, (massdiff - isomassd * 1.0033548378) * 1e6 / calc_neutral_pep_mass, isomassd
-                ));
-        sb.append("</search_hit>\n");
-        return sb;
+        for (int k = from + 1; !(line = sq.get(k)).trim().contentEquals("</search_hit>"); ++k) {
+            out.line(line);
+        }
+
+        final float spectralSimilarity = table.spectralSimilarity[i];
+        if (!Float.isNaN(spectralSimilarity)) {
+            out.append("<search_score name=\"spectralsim\" value=\"").fixed6(spectralSimilarity).line("\"/>");
+        }
+        if (table.hasRtScore) {
+            final float rtScore = (float) ((table.rtScore[i] - table.rtMean) / table.rtStd);
+            if (!Float.isNaN(rtScore)) {
+                out.append("<search_score name=\"rtscore\" value=\"").fixed6(rtScore).line("\"/>");
+            }
+        }
+        final double prob = 1 - table.pep[i];
+        out.line("<analysis_result analysis=\"peptideprophet\">")
+            .append("<peptideprophet_result probability=\"").fixed6(prob)
+            .append("\" all_ntt_prob=\"(").fixed6(prob).append(',').fixed6(prob).append(',').fixed6(prob).line(")\">")
+            .line("<search_score_summary>")
+            .append("<parameter name=\"fval\" value=\"").fixed6(table.score[i]).line("\"/>")
+            .append("<parameter name=\"ntt\" value=\"").append(table.ntt[i]).line("\"/>")
+            .append("<parameter name=\"nmc\" value=\"").append(table.nmc[i]).line("\"/>")
+            .append("<parameter name=\"massd\" value=\"").fixed6((massdiff - isomassd * 1.0033548378) * 1e6 / calc_neutral_pep_mass).line("\"/>")
+            .append("<parameter name=\"isomassd\" value=\"").append(isomassd).line("\"/>")
+            .line("</search_score_summary>")
+            .line("</peptideprophet_result>")
+            .line("</analysis_result>")
+            .line("</search_hit>");
     }
 
-    private static String handle_spectrum_query(final List<String> sq, final Map<String, NttNmc[]> pinSpectrumRankNttNmc, final Map<String, PepScore[]> pinSpectrumRankPepScore, final boolean is_DIA, final int DIA_rank) {
-        final List<List<String>> search_hits = new ArrayList<>();
-        final StringBuilder sb = new StringBuilder();
-        String spectrum;
-        final Iterator<String> iterator = sq.iterator();
-        for (String line; iterator.hasNext(); ) {
-            line = iterator.next().trim();
-            spectrum = getSpectrum(line);
-
-            final PepScore[] pepScoreArray = pinSpectrumRankPepScore.get(spectrum);
-            if (pepScoreArray == null) {
-                return "";
-            }
-
-            final NttNmc[] nttNmcArray = pinSpectrumRankNttNmc.get(spectrum);
-            if (nttNmcArray == null) {
-                return "";
-            }
-
-            if (is_DIA && (nttNmcArray[DIA_rank - 1] == null || pepScoreArray[DIA_rank - 1] == null)) {
-                return "";
-            }
-
-            sb.append(paddingZeros(line)).append('\n');
-            while (iterator.hasNext()) { // fixme: the code assumes that there are always <search_hit, massdiff=, and calc_neutral_pep_mass=, which makes it not robust
-                line = iterator.next().trim();
-                if (line.startsWith("<search_result>"))
-                    sb.append(line).append('\n');
-                else if (line.trim().startsWith("<search_hit ")) {
-                    final ArrayList<String> search_hit = new ArrayList<>();
-                    search_hit.add(line);
-                    do {
-                        line = iterator.next();
-                        search_hit.add(line);
-                    } while (!line.contentEquals("</search_hit>"));
-                    search_hits.add(search_hit);
-                } else if (line.trim().startsWith("</search_result>")) {
-                    if (is_DIA) // FixMe: it does not reorder the hits according to ranks updated by Percolator.
-                        sb.append(handle_search_hit(search_hits.get(0), nttNmcArray[DIA_rank - 1], pepScoreArray[DIA_rank - 1], 1, 1));
-                    else {
-                        // write the search_hits ordered by Percolator
-                        final TreeMap<Double, Integer> scoreOldRankMinusOne = new TreeMap<>(Collections.reverseOrder());
-                        for (int oldRankMinusOne = 0; oldRankMinusOne < pepScoreArray.length; ++oldRankMinusOne) {
-                            final PepScore pepScore = pepScoreArray[oldRankMinusOne];
-                            if (pepScore == null) {
-                                continue;
-                            }
-                            scoreOldRankMinusOne.put(pepScore.score, oldRankMinusOne);
-                        }
-                        int newRank = 0;
-                        for (final Map.Entry<Double, Integer> entry : scoreOldRankMinusOne.entrySet()) {
-                            final int oldRankMinusOne = entry.getValue();
-                            sb.append(handle_search_hit(search_hits.get(oldRankMinusOne), nttNmcArray[oldRankMinusOne], pepScoreArray[oldRankMinusOne], oldRankMinusOne + 1, ++newRank));
+    private static void handle_spectrum_query(final List<String> sq, final PsmTable table, final boolean is_DIA, final int DIA_rank, final PepXmlWriter out) throws IOException {
+        final String first = sq.get(0).trim();
+        final int slot = table.index.get(getSpectrum(first));
+        if (slot < 0 || !table.hasPsm(slot)) {
+            return;
+        }
+        if (is_DIA && (table.flags[table.offset(slot, DIA_rank)] & PsmTable.HAS_BOTH) != PsmTable.HAS_BOTH) {
+            return;
+        }
+
+        final List<Integer> search_hits = new ArrayList<>(table.maxRank);
+        out.line(paddingZeros(first));
+        for (int k = 1; k < sq.size(); ) { // fixme: the code assumes that there are always <search_hit, massdiff=, and calc_neutral_pep_mass=, which makes it not robust
+            String line = sq.get(k++).trim();
+            if (line.startsWith("<search_result>"))
+                out.line(line);
+            else if (line.startsWith("<search_hit ")) {
+                search_hits.add(k - 1);
+                do {
+                    line = sq.get(k++);
+                } while (!line.contentEquals("</search_hit>"));
+            } else if (line.startsWith("</search_result>")) {
+                if (is_DIA) // FixMe: it does not reorder the hits according to ranks updated by Percolator.
+                    handle_search_hit(sq, search_hits.get(0), table, table.offset(slot, DIA_rank), 1, 1, out);
+                else {
+                    // write the search_hits ordered by Percolator
+                    final TreeMap<Double, Integer> scoreOldRankMinusOne = new TreeMap<>(Collections.reverseOrder());
+                    for (int oldRankMinusOne = 0; oldRankMinusOne < table.maxRank; ++oldRankMinusOne) {
+                        final int i = table.offset(slot, oldRankMinusOne + 1);
+                        if ((table.flags[i] & PsmTable.HAS_PSM) == 0) {
+                            continue;
                         }
+                        scoreOldRankMinusOne.put(table.score[i], oldRankMinusOne);
                     }
-                    sb.append(line).append('\n');
-                } else if (line.trim().startsWith("</spectrum_query>"))
-                    sb.append(line).append('\n');
-                else
-                    throw new IllegalStateException(line);
-            }
+                    int newRank = 0;
+                    for (final int oldRankMinusOne : scoreOldRankMinusOne.values()) {
+                        handle_search_hit(sq, search_hits.get(oldRankMinusOne), table, table.offset(slot, oldRankMinusOne + 1), oldRankMinusOne + 1, ++newRank, out);
+                    }
+                }
+                out.line(line);
+            } else if (line.startsWith("</spectrum_query>"))
+                out.line(line);
+            else
+                throw new IllegalStateException(line);
         }
-        return sb.toString();
     }
 
     public static void percolatorToPepXML(final Path pin, final String basename, final Path percolatorTargetPsms, final Path percolatorDecoyPsms, final Path outBasename, final String DIA_DDA, final double minProb) {
+        percolatorToPepXML(pin, basename, percolatorTargetPsms, percolatorDecoyPsms, outBasename, DIA_DDA, minProb, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param nThreads Max number of DIA rank files written concurrently.
+     */
+    public static void percolatorToPepXML(final Path pin, final String basename, final Path percolatorTargetPsms, final Path percolatorDecoyPsms, final Path outBasename, final String DIA_DDA, final double minProb, final int nThreads) {
         // get max rank from pin
         final boolean is_DIA = DIA_DDA.equals("DIA");
         final int max_rank = get_max_rank(basename, is_DIA);
         if (max_rank < 1) {
-            System.err.println("Cannot find output_report_topN parameter from " + basename + "'s pepXML file.");
-            System.exit(1);
+            throw new IllegalStateException("Cannot find output_report_topN parameter from " + basename + "'s pepXML file.");
         }
 
-        final Map<String, NttNmc[]> pinSpectrumRankNttNmc = new HashMap<>();
-        final Map<String, PepScore[]> pinSpectrumRankPepScore = new HashMap<>();
+        final PsmTable table = readPin(pin, max_rank);
+        readPercolatorPsms(table, percolatorTargetPsms, minProb);
+        readPercolatorPsms(table, percolatorDecoyPsms, minProb);
 
-        try {
-            BufferedReader brtsv = Files.newBufferedReader(pin);
-            final String pin_header = brtsv.readLine();
-            final List<String> colnames = Arrays.asList(pin_header.split("\t"));
-            final int indexOf_SpecId = colnames.indexOf("SpecId");
-            final int indexOf_ntt = colnames.indexOf("ntt");
-            final int indexOf_nmc = colnames.indexOf("nmc");
-            int indexOf_spectralSimilarity = -1;
-            int indexOf_RTscore = -1;
-            if (colnames.contains("bray_curtis")) {
-                indexOf_spectralSimilarity = colnames.indexOf("bray_curtis");
+        final int numRanks = is_DIA ? max_rank : 1;
+        final int threads = Math.max(1, Math.min(numRanks, nThreads));
+        if (threads == 1) {
+            for (int rank = 1; rank <= numRanks; ++rank) {
+                writeRank(table, basename, outBasename, is_DIA, rank, minProb);
             }
-            if (colnames.contains("unweighted_spectral_entropy")) {
-                indexOf_spectralSimilarity = colnames.indexOf("unweighted_spectral_entropy");
-            }
-            if (colnames.contains("delta_RT_loess")) {
-                indexOf_RTscore = colnames.indexOf("delta_RT_loess");
-            }
-            String line;
-
-            double scoreMean = 0;
-            double scoreStd = 0;
-            if (indexOf_RTscore != -1) {
-                //get all RTscores so we can calculate z scores
-                ArrayList<Double> RTscoresArrayList = new ArrayList<>();
-
-                while ((line = brtsv.readLine()) != null) {
-                    String[] split = line.split("\t");
-                    double score = Double.parseDouble(split[indexOf_RTscore]);
-                    RTscoresArrayList.add(score);
-                    scoreMean += score;
-                }
-                scoreMean /= RTscoresArrayList.size();
-                for (double d : RTscoresArrayList) {
-                    scoreStd += Math.pow(scoreMean - d, 2) / RTscoresArrayList.size();
-                }
-                scoreStd = Math.sqrt(scoreStd);
-                RTscoresArrayList.clear();
+            return;
+        }
 
-                //go to beginning of file
-                brtsv = Files.newBufferedReader(pin);
-                brtsv.readLine();
+        final ExecutorService exec = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int rank = 1; rank <= numRanks; ++rank) {
+                final int r = rank;
+                futures.add(exec.submit(() -> writeRank(table, basename, outBasename, is_DIA, r, minProb)));
             }
-
-            while ((line = brtsv.readLine()) != null) {
-                final String[] split = line.split("\t");
-                final String raw_SpecId = split[indexOf_SpecId];
-                final Spectrum_rank spectrum_rank = get_spectrum_rank(raw_SpecId);
-                final String specId = spectrum_rank.spectrum;
-                final int rank = spectrum_rank.rank;
-                final int ntt = Integer.parseInt(split[indexOf_ntt]);
-                final int nmc = Integer.parseInt(split[indexOf_nmc]);
-                float spectralSimilarity = Float.NaN;
-                if (indexOf_spectralSimilarity != -1) {
-                    spectralSimilarity = Float.parseFloat(split[indexOf_spectralSimilarity]);
-                }
-                float RTscore = Float.NaN;
-                if (indexOf_RTscore != -1) {
-                    RTscore = (float) ((Double.parseDouble(split[indexOf_RTscore]) - scoreMean) / scoreStd);
-                }
-                pinSpectrumRankNttNmc.computeIfAbsent(specId, e -> new NttNmc[max_rank])[rank - 1] = new NttNmc(ntt, nmc, spectralSimilarity, RTscore);
+            for (Future<?> f : futures) {
+                f.get();
             }
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while writing pepXML files for " + basename, e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            exec.shutdownNow();
         }
+    }
 
-        for (final Path tsv : new Path[]{percolatorTargetPsms, percolatorDecoyPsms}) {
-            try (final BufferedReader brtsv = Files.newBufferedReader(tsv)) {
-                final String percolator_header = brtsv.readLine();
-                final List<String> colnames = Arrays.asList(percolator_header.split("\t"));
-                final int indexOfPSMId = colnames.indexOf("PSMId");
-                final int indexOfPEP = colnames.indexOf("posterior_error_prob");
-                final int indexOfScore = colnames.indexOf("score");
-                String line;
-                while ((line = brtsv.readLine()) != null) {
-                    final String[] split = line.split("\t");
-                    final String raw_psmid = split[indexOfPSMId];
-                    final Spectrum_rank spectrum_rank = get_spectrum_rank(raw_psmid);
-                    final String specId = spectrum_rank.spectrum;
-                    final int rank = spectrum_rank.rank;
-                    final double pep = Double.parseDouble(split[indexOfPEP]);
-
-                    if (1 - pep < minProb) {
-                        continue;
-                    }
+    private static void writeRank(final PsmTable table, final String basename, final Path outBasename, final boolean is_DIA, final int rank, final double minProb) {
+        final Path output_rank = is_DIA ? Paths.get(outBasename + "_rank" + rank + ".pep.xml") :
+                Paths.get(outBasename + ".pep.xml");
+        final Path pepxml_rank = is_DIA ? Paths.get(basename + "_rank" + rank + ".pepXML") :
+                Paths.get(basename + ".pepXML");
 
-                    final double score = Double.parseDouble(split[indexOfScore]);
-                    pinSpectrumRankPepScore.computeIfAbsent(specId, e -> new PepScore[max_rank])[rank - 1] = new PepScore(pep, score);
+        // Find out if calibrated.mzML file will be generated
+        boolean hasCalibratedFile = false;
+        try (final BufferedReader reader = Files.newBufferedReader(pepxml_rank)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().contentEquals("<parameter name=\"write_calibrated_mzml\" value=\"1\"/>")) {
+                    hasCalibratedFile = true;
+                    break;
+                } else if (line.trim().contentEquals("<parameter name=\"write_calibrated_mzml\" value=\"0\"/>")) {
+                    hasCalibratedFile = false;
+                    break;
                 }
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
             }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
         }
 
-        for (int rank = 1; rank <= (is_DIA ? max_rank : 1); ++rank) {
-            final Path output_rank = is_DIA ? Paths.get(outBasename + "_rank" + rank + ".pep.xml") :
-                    Paths.get(outBasename + ".pep.xml");
-            final Path pepxml_rank = is_DIA ? Paths.get(basename + "_rank" + rank + ".pepXML") :
-                    Paths.get(basename + ".pepXML");
+        try (final BufferedReader brpepxml = new BufferedReader(new InputStreamReader(Files.newInputStream(pepxml_rank), StandardCharsets.UTF_8), BUFFER_SIZE);
+             final PepXmlWriter out = new PepXmlWriter(Files.newOutputStream(output_rank), BUFFER_SIZE)) {
+            String line;
+            while ((line = brpepxml.readLine()) != null) {
+                if (line.trim().startsWith("<msms_run_summary")) {
+                    if (hasCalibratedFile && line.contains("This pepXML was from calibrated spectra.")) {
+                        Matcher matcher1 = pattern1.matcher(line);
+                        if (matcher1.find()) {
+                            line = matcher1.replaceFirst(Matcher.quoteReplacement("base_name=\"" + matcher1.group(1) + "_calibrated" + "\""));
 
-            // Find out if calibrated.mzML file will be generated
-            boolean hasCalibratedFile = false;
-            try {
-                BufferedReader reader = Files.newBufferedReader(pepxml_rank);
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    if (line.trim().contentEquals("<parameter name=\"write_calibrated_mzml\" value=\"1\"/>")) {
-                        hasCalibratedFile = true;
-                        break;
-                    } else if (line.trim().contentEquals("<parameter name=\"write_calibrated_mzml\" value=\"0\"/>")) {
-                        hasCalibratedFile = false;
-                        break;
-                    }
-                }
-                reader.close();
-            } catch (IOException ex) {
-                throw new UncheckedIOException(ex);
-            }
+                            Matcher matcher2 = pattern2.matcher(line);
+                            if (matcher2.find()) {
+                                line = matcher2.replaceFirst("raw_data_type=\"mzML\"");
+                            }
 
-            try (final BufferedReader brpepxml = Files.newBufferedReader(pepxml_rank);
-                 final BufferedWriter out = Files.newBufferedWriter(output_rank)) {
-                String line;
-                while ((line = brpepxml.readLine()) != null) {
-                    if (line.trim().startsWith("<msms_run_summary")) {
-                        if (hasCalibratedFile && line.contains("This pepXML was from calibrated spectra.")) {
+                            Matcher matcher3 = pattern3.matcher(line);
+                            if (matcher3.find()) {
+                                line = matcher3.replaceFirst("raw_data=\"mzML\"");
+                            }
+                        } else {
+                            throw new IllegalStateException("Could not find the base_name from " + pepxml_rank);
+                        }
+                    } else {
+                        String extension = null;
+
+                        Matcher matcher2 = pattern2.matcher(line);
+                        Matcher matcher3 = pattern3.matcher(line);
+                        if (matcher2.find()) {
+                            extension = matcher2.group(1);
+                        } else if (matcher3.find()) {
+                            extension = matcher3.group(1);
+                        } else {
+                            throw new IllegalStateException("Could not get the raw data type from " + pepxml_rank);
+                        }
+
+                        if (!extension.equalsIgnoreCase("mzml")) {
                             Matcher matcher1 = pattern1.matcher(line);
                             if (matcher1.find()) {
-                                line = matcher1.replaceFirst(Matcher.quoteReplacement("base_name=\"" + matcher1.group(1) + "_calibrated" + "\""));
+                                line = matcher1.replaceFirst(Matcher.quoteReplacement("base_name=\"" + matcher1.group(1) + "_uncalibrated" + "\""));
 
-                                Matcher matcher2 = pattern2.matcher(line);
+                                matcher2 = pattern2.matcher(line);
                                 if (matcher2.find()) {
                                     line = matcher2.replaceFirst("raw_data_type=\"mzML\"");
                                 }
 
-                                Matcher matcher3 = pattern3.matcher(line);
+                                matcher3 = pattern3.matcher(line);
                                 if (matcher3.find()) {
                                     line = matcher3.replaceFirst("raw_data=\"mzML\"");
                                 }
-                            } else {
-                                System.err.printf("Could not find the base_name from " + pepxml_rank);
-                                System.exit(1);
-                            }
-                        } else {
-                            String extension = null;
-
-                            Matcher matcher2 = pattern2.matcher(line);
-                            Matcher matcher3 = pattern3.matcher(line);
-                            if (matcher2.find()) {
-                                extension = matcher2.group(1);
-                            } else if (matcher3.find()) {
-                                extension = matcher3.group(1);
-                            } else {
-                                System.err.printf("Could not get the raw data type from " + pepxml_rank);
-                                System.exit(1);
-                            }
-
-                            if (!extension.equalsIgnoreCase("mzml")) {
-                                Matcher matcher1 = pattern1.matcher(line);
-                                if (matcher1.find()) {
-                                    line = matcher1.replaceFirst(Matcher.quoteReplacement("base_name=\"" + matcher1.group(1) + "_uncalibrated" + "\""));
-
-                                    matcher2 = pattern2.matcher(line);
-                                    if (matcher2.find()) {
-                                        line = matcher2.replaceFirst("raw_data_type=\"mzML\"");
-                                    }
-
-                                    matcher3 = pattern3.matcher(line);
-                                    if (matcher3.find()) {
-                                        line = matcher3.replaceFirst("raw_data=\"mzML\"");
-                                    }
-                                }
                             }
                         }
                     }
+                }
 
-                    out.write(line + "\n");
-
-                    if (line.trim().startsWith("<msms_pipeline_analysis ")) {
-                        final String now = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss").format(LocalDateTime.now());
-                        final String tmp = String.format(
-                                "<analysis_summary analysis=\"Percolator\" time=\"%s\">\n" +
-                                "<peptideprophet_summary min_prob=\"%.2f\">\n" +
-                                "<inputfile name=\"%s\"/>\n" +
-                                "</peptideprophet_summary>\n" +
-                                "</analysis_summary>\n" +
-                                "<analysis_summary analysis=\"database_refresh\" time=\"%s\"/>\n" +
-                                "<analysis_summary analysis=\"interact\" time=\"%s\">\n" +
-                                "<interact_summary filename=\"%s\" directory=\"\">\n" +
-                                "<inputfile name=\"%s\"/>\n" +
-                                "</interact_summary>\n" +
-                                "</analysis_summary>\n" +
-                                "<dataset_derivation generation_no=\"0\"/>\n",
-                                now, minProb, pepxml_rank.toAbsolutePath(), now, now, output_rank.toAbsolutePath(), pepxml_rank.toAbsolutePath());
-                        out.write(tmp);
-                    }
-                    if (line.trim().equals("</search_summary>"))
-                        break;
+                out.line(line);
+
+                if (line.trim().startsWith("<msms_pipeline_analysis ")) {
+                    final String now = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss").format(LocalDateTime.now());
+                    final String tmp = String.format(Locale.ROOT,
+                            "<analysis_summary analysis=\"Percolator\" time=\"%s\">\n" +
+                            "<peptideprophet_summary min_prob=\"%.2f\">\n" +
+                            "<inputfile name=\"%s\"/>\n" +
+                            "</peptideprophet_summary>\n" +
+                            "</analysis_summary>\n" +
+                            "<analysis_summary analysis=\"database_refresh\" time=\"%s\"/>\n" +
+                            "<analysis_summary analysis=\"interact\" time=\"%s\">\n" +
+                            "<interact_summary filename=\"%s\" directory=\"\">\n" +
+                            "<inputfile name=\"%s\"/>\n" +
+                            "</interact_summary>\n" +
+                            "</analysis_summary>\n" +
+                            "<dataset_derivation generation_no=\"0\"/>\n",
+                            now, minProb, pepxml_rank.toAbsolutePath(), now, now, output_rank.toAbsolutePath(), pepxml_rank.toAbsolutePath());
+                    out.append(tmp);
                 }
+                if (line.trim().equals("</search_summary>"))
+                    break;
+            }
 
-                while ((line = brpepxml.readLine()) != null) {
-                    if (line.trim().startsWith("<spectrum_query")) {
-                        final List<String> sq = new ArrayList<>();
+            final List<String> sq = new ArrayList<>();
+            while ((line = brpepxml.readLine()) != null) {
+                if (line.trim().startsWith("<spectrum_query")) {
+                    sq.clear();
+                    sq.add(line);
+                    while ((line = brpepxml.readLine()) != null) {
                         sq.add(line);
-                        while ((line = brpepxml.readLine()) != null) {
-                            sq.add(line);
-                            if (line.trim().equals("</spectrum_query>")) {
-                                out.write(handle_spectrum_query(sq, pinSpectrumRankNttNmc, pinSpectrumRankPepScore, is_DIA, rank));
-                                break;
-                            }
+                        if (line.trim().equals("</spectrum_query>")) {
+                            handle_spectrum_query(sq, table, is_DIA, rank, out);
+                            break;
                         }
                     }
                 }
-                out.write("</msms_run_summary>\n" +
-                        "</msms_pipeline_analysis>");
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
             }
+            out.append("</msms_run_summary>\n" +
+                    "</msms_pipeline_analysis>");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
 
-    static class NttNmc {
+    /**
+     * Everything known about the PSMs of one run, as flat arrays indexed by
+     * {@code spectrumSlot * maxRank + rank - 1}.
+     */
+    static final class PsmTable {
+
+        static final byte HAS_PIN = 1;
+        static final byte HAS_PSM = 2;
+        static final byte HAS_BOTH = HAS_PIN | HAS_PSM;
+
+        final int maxRank;
+        final boolean hasRtScore;
+        final SpectrumIndex index = new SpectrumIndex();
+        byte[] flags = new byte[0];
+        int[] ntt = new int[0];
+        int[] nmc = new int[0];
+        float[] spectralSimilarity = new float[0];
+        double[] rtScore = new double[0];
+        double[] pep = new double[0];
+        double[] score = new double[0];
+        double rtMean = 0;
+        double rtStd = 0;
+
+        PsmTable(int maxRank, boolean hasRtScore) {
+            this.maxRank = maxRank;
+            this.hasRtScore = hasRtScore;
+        }
 
-        final int ntt;
-        final int nmc;
-        final float spectralSimilarity;
-        final float RTscore;
+        int offset(final int slot, final int rank) {
+            if (rank < 1 || rank > maxRank) {
+                throw new IllegalStateException("Rank " + rank + " is outside of the output_report_topN range 1.." + maxRank);
+            }
+            return slot * maxRank + rank - 1;
+        }
 
-        public NttNmc(int ntt, int nmc, float spectralSimilarity, float RTscore) {
-            this.ntt = ntt;
-            this.nmc = nmc;
-            this.spectralSimilarity = spectralSimilarity;
-            this.RTscore = RTscore;
+        /** Same as {@link #offset(int, int)}, but makes room for the entry. */
+        int add(final int slot, final int rank) {
+            final int i = offset(slot, rank);
+            if (i >= flags.length) {
+                ensureCapacity(Math.max(i + 1, flags.length + (flags.length >> 1) + 1024));
+            }
+            return i;
+        }
+
+        boolean hasPsm(final int slot) {
+            for (int i = slot * maxRank, end = i + maxRank; i < end; ++i) {
+                if ((flags[i] & HAS_PSM) != 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void ensureCapacity(final int capacity) {
+            final int from = flags.length;
+            if (capacity <= from) {
+                return;
+            }
+            flags = Arrays.copyOf(flags, capacity);
+            ntt = Arrays.copyOf(ntt, capacity);
+            nmc = Arrays.copyOf(nmc, capacity);
+            spectralSimilarity = Arrays.copyOf(spectralSimilarity, capacity);
+            Arrays.fill(spectralSimilarity, from, capacity, Float.NaN);
+            if (hasRtScore) {
+                rtScore = Arrays.copyOf(rtScore, capacity);
+            }
+            pep = Arrays.copyOf(pep, capacity);
+            score = Arrays.copyOf(score, capacity);
         }
     }
 
 
-    static class PepScore {
+    /**
+     * Maps spectrum names to consecutive slots. Names of the form {@code <base>.<scan>.<scan>} sharing
+     * the same base, which is all of them for MSFragger output, are kept as primitive keys in an open
+     * addressing table. Anything else goes to a regular map.
+     */
+    static final class SpectrumIndex {
+
+        private static final long EMPTY = -1;
+
+        private String base = null;
+        private long[] keys = newKeys(1 << 12);
+        private int[] slots = new int[1 << 12];
+        private int numKeys = 0;
+        private final Map<String, Integer> other = new HashMap<>();
+        private int size = 0;
+
+        int size() {
+            return size;
+        }
+
+        /** @return Slot of the spectrum or -1 if it's not in the index. */
+        int get(final String spectrum) {
+            final long key = key(spectrum, false);
+            if (key == EMPTY) {
+                final Integer slot = other.get(spectrum);
+                return slot == null ? -1 : slot;
+            }
+            final int pos = find(keys, key);
+            return keys[pos] == key ? slots[pos] : -1;
+        }
 
-        final double pep;
-        final double score;
+        int getOrAdd(final String spectrum) {
+            final long key = key(spectrum, true);
+            if (key == EMPTY) {
+                return other.computeIfAbsent(spectrum, k -> size++);
+            }
+            final int pos = find(keys, key);
+            if (keys[pos] == key) {
+                return slots[pos];
+            }
+            keys[pos] = key;
+            slots[pos] = size;
+            if (++numKeys * 2 > keys.length) {
+                rehash();
+            }
+            return size++;
+        }
 
-        public PepScore(double pep, double score) {
-            this.pep = pep;
-            this.score = score;
+        private long key(final String spectrum, final boolean isAdding) {
+            final int dot2 = spectrum.lastIndexOf('.');
+            final int dot1 = dot2 > 0 ? spectrum.lastIndexOf('.', dot2 - 1) : -1;
+            if (dot1 <= 0) {
+                return EMPTY;
+            }
+            final long scan1 = parseScan(spectrum, dot1 + 1, dot2);
+            final long scan2 = parseScan(spectrum, dot2 + 1, spectrum.length());
+            if (scan1 < 0 || scan2 < 0) {
+                return EMPTY;
+            }
+            if (base == null) {
+                if (!isAdding) {
+                    return EMPTY;
+                }
+                base = spectrum.substring(0, dot1);
+            } else if (base.length() != dot1 || !spectrum.startsWith(base)) {
+                return EMPTY;
+            }
+            return scan1 << 32 | scan2;
+        }
+
+        private static long parseScan(final String s, final int from, final int to) {
+            if (to - from < 1 || to - from > 9 || (s.charAt(from) == '0' && to - from > 1)) {
+                return -1;
+            }
+            long v = 0;
+            for (int i = from; i < to; ++i) {
+                final char c = s.charAt(i);
+                if (c < '0' || c > '9') {
+                    return -1;
+                }
+                v = v * 10 + (c - '0');
+            }
+            return v;
+        }
+
+        private static int find(final long[] keys, final long key) {
+            final int mask = keys.length - 1;
+            int pos = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+            while (keys[pos] != EMPTY && keys[pos] != key) {
+                pos = (pos + 1) & mask;
+            }
+            return pos;
+        }
+
+        private void rehash() {
+            final long[] newKeys = newKeys(keys.length * 2);
+            final int[] newSlots = new int[newKeys.length];
+            for (int i = 0; i < keys.length; ++i) {
+                if (keys[i] != EMPTY) {
+                    final int pos = find(newKeys, keys[i]);
+                    newKeys[pos] = keys[i];
+                    newSlots[pos] = slots[i];
+                }
+            }
+            keys = newKeys;
+            slots = newSlots;
+        }
+
+        private static long[] newKeys(final int size) {
+            final long[] a = new long[size];
+            Arrays.fill(a, EMPTY);
+            return a;
+        }
+    }
+
+
+    /**
+     * Buffered UTF-8 writer that appends numbers straight to its byte buffer. {@link #fixed6(double)}
+     * gives the same output as {@code String.format(Locale.ROOT, "%f", v)}.
+     */
+    static final class PepXmlWriter implements Closeable {
+
+        private final OutputStream os;
+        private final byte[] buf;
+        private int pos = 0;
+
+        PepXmlWriter(OutputStream os, int bufferSize) {
+            this.os = os;
+            this.buf = new byte[bufferSize];
+        }
+
+        PepXmlWriter append(final String s) throws IOException {
+            final int len = s.length();
+            for (int i = 0; i < len; ++i) {
+                final char c = s.charAt(i);
+                if (c >= 0x80) {
+                    write(s.substring(i).getBytes(StandardCharsets.UTF_8));
+                    return this;
+                }
+                if (pos == buf.length) {
+                    flushBuffer();
+                }
+                buf[pos++] = (byte) c;
+            }
+            return this;
+        }
+
+        PepXmlWriter append(final char c) throws IOException {
+            if (pos == buf.length) {
+                flushBuffer();
+            }
+            buf[pos++] = (byte) c;
+            return this;
+        }
+
+        PepXmlWriter append(final long v) throws IOException {
+            if (v < 0) {
+                if (v == Long.MIN_VALUE) {
+                    return append(Long.toString(v));
+                }
+                append('-');
+                return appendDigits(-v, 1);
+            }
+            return appendDigits(v, 1);
+        }
+
+        PepXmlWriter line(final String s) throws IOException {
+            return append(s).append('\n');
+        }
+
+        PepXmlWriter fixed6(final double v) throws IOException {
+            final double scaled = Math.abs(v) * 1e6;
+            final long units = (long) scaled;
+            final double fraction = scaled - units;
+            // String.format rounds the shortest decimal representation half-up, which only
+            // matters right at the half, and large or non-finite values are rare here
+            if (!(scaled < 1e12) || Math.abs(fraction - 0.5) < 1e-3) {
+                return append(String.format(Locale.ROOT, "%f", v));
+            }
+            final long rounded = fraction > 0.5 ? units + 1 : units;
+            if (v < 0 || (v == 0 && 1 / v < 0)) {
+                append('-');
+            }
+            appendDigits(rounded / 1_000_000, 1);
+            append('.');
+            return appendDigits(rounded % 1_000_000, 6);
+        }
+
+        private PepXmlWriter appendDigits(long v, final int minDigits) throws IOException {
+            final byte[] tmp = new byte[20];
+            int p = tmp.length;
+            do {
+                tmp[--p] = (byte) ('0' + v % 10);
+                v /= 10;
+            } while (v != 0);
+            while (tmp.length - p < minDigits) {
+                tmp[--p] = '0';
+            }
+            write(tmp, p, tmp.length - p);
+            return this;
+        }
+
+        private void write(final byte[] b) throws IOException {
+            write(b, 0, b.length);
+        }
+
+        private void write(final byte[] b, final int off, final int len) throws IOException {
+            if (len > buf.length - pos) {
+                flushBuffer();
+                if (len > buf.length) {
+                    os.write(b, off, len);
+                    return;
+                }
+            }
+            System.arraycopy(b, off, buf, pos, len);
+            pos += len;
+        }
+
+        private void flushBuffer() throws IOException {
+            os.write(buf, 0, pos);
+            pos = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flushBuffer();
+            } finally {
+                os.close();
+            }
         }
     }
 }
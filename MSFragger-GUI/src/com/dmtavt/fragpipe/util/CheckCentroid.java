@@ -19,118 +19,179 @@ package com.dmtavt.fragpipe.util;
 
 import static umich.ms.fileio.filetypes.mzbin.Utils.shortArray;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
-import umich.ms.datatypes.LCMSDataSubset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import umich.ms.datatypes.scan.IScan;
-import umich.ms.datatypes.scan.StorageStrategy;
-import umich.ms.datatypes.scancollection.impl.ScanCollectionDefault;
 import umich.ms.datatypes.spectrum.ISpectrum;
 import umich.ms.fileio.filetypes.AbstractLCMSDataSource;
 import umich.ms.fileio.filetypes.mzml.MZMLFile;
 import umich.ms.fileio.filetypes.mzxml.MZXMLFile;
 
+/**
+ * Checks that mzML and mzXML files contain centroided spectra. Only a sample of scans spread
+ * over each run is read through the file index, and the files are checked in parallel.
+ * <p>
+ * Usage: {@code CheckCentroid <threads> <file>...}
+ */
 public class CheckCentroid {
 
+  /** Number of scans read from each file. */
+  static final int SAMPLE_SIZE = 300;
+
   public static void main(String[] args) {
+    int exitCode = run(args);
+    if (exitCode != 0) {
+      System.exit(exitCode);
+    }
+  }
+
+  /**
+   * Same as {@link #main(String[])}, but returns the exit code instead of exiting the JVM.
+   */
+  public static int run(String[] args) {
     long time = System.nanoTime();
-    try {
-      if (!isCentroid(args[0].trim(), Integer.parseInt(args[1]))) {
-        System.err.println(args[0].trim() + " has non-centroid scans. Please re-convert it with peakPeaking (https://fragpipe.nesvilab.org/docs/tutorial_convert.html).");
-        System.exit(1);
+    final int nThreads = Integer.parseInt(args[0]);
+    final List<String> paths = new ArrayList<>();
+    for (int i = 1; i < args.length; i++) {
+      paths.add(args[i].trim());
+    }
+
+    final ExecutorService exec = Executors.newFixedThreadPool(Math.max(1, Math.min(paths.size(),
+        nThreads > 0 ? nThreads : Runtime.getRuntime().availableProcessors())));
+    final Map<String, Future<Boolean>> futures = new LinkedHashMap<>();
+    for (String path : paths) {
+      futures.put(path, exec.submit(() -> isCentroid(path)));
+    }
+    exec.shutdown();
+
+    final List<String> notCentroid = new ArrayList<>();
+    boolean failed = false;
+    for (Map.Entry<String, Future<Boolean>> e : futures.entrySet()) {
+      try {
+        if (e.getValue().get()) {
+          System.out.printf("%s: centroid%n", e.getKey());
+        } else {
+          System.out.printf("%s: NOT centroid%n", e.getKey());
+          notCentroid.add(e.getKey());
+        }
+      } catch (Exception ex) {
+        System.err.printf("%s: could not be checked%n", e.getKey());
+        ex.printStackTrace();
+        failed = true;
       }
-    } catch (Exception e) {
-      e.printStackTrace();
-      System.exit(1);
+    }
+
+    for (String path : notCentroid) {
+      System.err.println(path + " has non-centroid scans. Please re-convert it with peakPeaking (https://fragpipe.nesvilab.org/docs/tutorial_convert.html).");
+    }
+    if (failed || !notCentroid.isEmpty()) {
+      return 1;
     }
     System.out.printf("Done in %d ms.%n", Math.round((System.nanoTime() - time) * 1e-6));
+    return 0;
   }
 
-  static boolean isCentroid(String spectralPath, int nThreads) throws Exception {
+  static boolean isCentroid(String spectralPath) throws Exception {
     String ext = spectralPath.substring(spectralPath.lastIndexOf('.') + 1);
 
-    if (!ext.equalsIgnoreCase("mzml") && !ext.equalsIgnoreCase("mzxml")) {
-      return true;
-    }
-
-    ScanCollectionDefault scans = new ScanCollectionDefault();
-    scans.setDefaultStorageStrategy(StorageStrategy.STRONG);
-    scans.isAutoloadSpectra(true);
-    AbstractLCMSDataSource<?> source;
-
+    final AbstractLCMSDataSource<?> source;
+    final List<Integer> scanNums;
     switch (ext.toLowerCase()) {
-      case "mzml":
-        source = new MZMLFile(spectralPath);
+      case "mzml": {
+        MZMLFile f = new MZMLFile(spectralPath);
+        source = f;
+        scanNums = new ArrayList<>(f.fetchIndex().getMapByNum().keySet());
         break;
-      case "mzxml":
-        source = new MZXMLFile(spectralPath);
+      }
+      case "mzxml": {
+        MZXMLFile f = new MZXMLFile(spectralPath);
+        source = f;
+        scanNums = new ArrayList<>(f.fetchIndex().getMapByNum().keySet());
         break;
+      }
       default:
         return true;
     }
 
-    source.setExcludeEmptyScans(true);
-    source.setNumThreadsForParsing(nThreads > 0 ? nThreads : Runtime.getRuntime().availableProcessors());
-    scans.setDataSource(source);
-    scans.loadData(LCMSDataSubset.STRUCTURE_ONLY);
-
-    TreeMap<Integer, IScan> num2scan = scans.getMapNum2scan();
-    for (final Map.Entry<Integer, IScan> scanNum_iscan : num2scan.entrySet()) {
-      final IScan scan = scanNum_iscan.getValue();
-
-      if (scan.isCentroided() != null) {
-        if (!scan.isCentroided()) {
-          return false;
-        } else {
+    try {
+      source.setExcludeEmptyScans(true);
+      source.setNumThreadsForParsing(1);
+      for (int scanNum : sample(scanNums, SAMPLE_SIZE)) {
+        final IScan scan = source.parseScan(scanNum, true);
+        if (scan == null) {
           continue;
         }
-      }
 
-      ISpectrum spectrum = scan.fetchSpectrum();
-      int clen = (spectrum == null || spectrum.getMZs() == null) ? 0 : spectrum.getMZs().length;
+        if (scan.isCentroided() != null) {
+          if (!scan.isCentroided()) {
+            return false;
+          } else {
+            continue;
+          }
+        }
 
-      if (clen <= 0) {
-        continue;
-      }
+        ISpectrum spectrum = scan.getSpectrum();
+        int clen = (spectrum == null || spectrum.getMZs() == null) ? 0 : spectrum.getMZs().length;
 
-      // Delete zero intensity peaks.
-      int idx = 0;
-      float[] mzArray = new float[clen];
-      for (int i = 0; i < spectrum.getMZs().length; ++i) {
-        if (spectrum.getIntensities()[i] > 1e-4) {
-          mzArray[idx] = (float) spectrum.getMZs()[i];
-          ++idx;
+        if (clen <= 0) {
+          continue;
         }
-      }
 
-      if (idx <= 0) {
-        continue;
-      }
+        // Delete zero intensity peaks.
+        int idx = 0;
+        float[] mzArray = new float[clen];
+        for (int i = 0; i < spectrum.getMZs().length; ++i) {
+          if (spectrum.getIntensities()[i] > 1e-4) {
+            mzArray[idx] = (float) spectrum.getMZs()[i];
+            ++idx;
+          }
+        }
 
-      if (idx < clen) {
-        mzArray = shortArray(mzArray, idx);
-      }
+        if (idx <= 0) {
+          continue;
+        }
+
+        if (idx < clen) {
+          mzArray = shortArray(mzArray, idx);
+        }
 
-      if (!isCentroid(mzArray)) {
-        return false;
+        if (!isCentroid(mzArray)) {
+          return false;
+        }
       }
+    } finally {
+      source.close();
     }
-    scans.reset();
-    source.close();
 
     return true;
   }
 
+  /** Up to n elements evenly spread over the list, including the first and the last. */
+  static List<Integer> sample(List<Integer> nums, int n) {
+    if (nums.size() <= n) {
+      return nums;
+    }
+    final List<Integer> sampled = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      sampled.add(nums.get((int) ((long) i * (nums.size() - 1) / (n - 1))));
+    }
+    return sampled;
+  }
 
-  private static boolean isCentroid(float[] mzArray) {
+  static boolean isCentroid(float[] mzArray) {
     if (mzArray.length > 1) {
       float[] ppmArray = new float[mzArray.length - 1];
       int idx = 0;
       while (idx < mzArray.length - 1) {
         ppmArray[idx] = (mzArray[idx] - mzArray[++idx]) * -1e6f / mzArray[idx];
       }
-      Arrays.parallelSort(ppmArray);
+      Arrays.sort(ppmArray);
       return ppmArray[ppmArray.length / 2] > 100;
     } else {
       return true;
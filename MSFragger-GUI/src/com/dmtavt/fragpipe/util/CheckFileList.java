@@ -0,0 +1,80 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Checks that all files named in a file list (one path per line, as given to ProteinProphet)
+ * exist and are not empty, and prints their number and total size. Fails before a long running
+ * tool gets to a missing input.
+ * <p>
+ * Usage: {@code CheckFileList <file list>}
+ */
+public class CheckFileList {
+
+  public static void main(String[] args) throws IOException {
+    int exitCode = run(args);
+    if (exitCode != 0) {
+      System.exit(exitCode);
+    }
+  }
+
+  /**
+   * Same as {@link #main(String[])}, returns the exit code.
+   */
+  public static int run(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.err.println("Usage: CheckFileList <file list>");
+      return 1;
+    }
+    final Path filelist = Paths.get(args[0]);
+    final List<String> missing = new ArrayList<>();
+    long files = 0;
+    long bytes = 0;
+    for (String line : Files.readAllLines(filelist, StandardCharsets.UTF_8)) {
+      line = line.trim();
+      if (line.isEmpty()) {
+        continue;
+      }
+      final Path p = filelist.toAbsolutePath().getParent().resolve(line);
+      final long size = Files.isRegularFile(p) ? Files.size(p) : 0;
+      if (size == 0) {
+        missing.add(line);
+      }
+      files++;
+      bytes += size;
+    }
+    if (!missing.isEmpty()) {
+      System.err.printf("%d of %d files listed in %s are missing or empty:\n", missing.size(), files, filelist);
+      for (String m : missing) {
+        System.err.println("  " + m);
+      }
+      return 1;
+    }
+    System.out.printf(Locale.ROOT, "%d files, %.1f MB\n", files, bytes / (1024.0 * 1024.0));
+    return 0;
+  }
+}
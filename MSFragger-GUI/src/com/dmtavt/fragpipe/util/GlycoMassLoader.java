@@ -35,6 +35,7 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.*;
 import java.util.List;
+import java.util.function.DoubleConsumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
@@ -51,6 +52,7 @@ public class GlycoMassLoader {
     private static final Pattern pGlycoPattern = Pattern.compile("[AGFHNXP]");
     private static final HashMap<String, String> pGlycoTokenMap;    // map pGlyco tokens to our internal Glycan strings
     public static final String PROP_FILECHOOSER_LAST_PATH = "glycoloader.filechooser.path";
+    private static final double MASS_BOUND_TOLERANCE = 1e-6;
 
     static
     {
@@ -157,35 +159,120 @@ public class GlycoMassLoader {
      * Uses combinations with repetition since same glycan can occur multiple times on a peptide.
      * @return
      */
-    private static List<Double> generateMassCombos(List<Double> masses, int maxCombos, boolean massFilter, double maxMass, double minMass) {
-        Set<Long> existingMasses = new HashSet<>();
+    static List<Double> generateMassCombos(List<Double> masses, int maxCombos, boolean massFilter, double maxMass, double minMass) {
         List<Double> allMasses = new ArrayList<>();
+        double[] arr = masses.stream().mapToDouble(Double::doubleValue).toArray();
+        if (massFilter) {
+            forEachMassCombo(arr, maxCombos, minMass, maxMass, allMasses::add);
+        } else {
+            forEachMassCombo(arr, maxCombos, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, allMasses::add);
+        }
+        return allMasses;
+    }
+
+    /**
+     * Passes the summed mass of every combination (with repetition) of 1 to maxCombos masses that is strictly
+     * between minMass and maxMass to the consumer, skipping duplicates at 4 decimal places. Combinations are
+     * enumerated depth first in the same order as {@link #combinationsWithRepetition(int, int)}, without storing
+     * them, and branches that can't get back into the mass range are not explored.
+     */
+    static void forEachMassCombo(double[] masses, int maxCombos, double minMass, double maxMass, DoubleConsumer consumer) {
+        if (masses.length == 0) {
+            return;
+        }
+        // lightest and heaviest mass at or after each index, to bound what the rest of a combination can add
+        double[] suffixMin = new double[masses.length];
+        double[] suffixMax = new double[masses.length];
+        suffixMin[masses.length - 1] = suffixMax[masses.length - 1] = masses[masses.length - 1];
+        for (int i = masses.length - 2; i >= 0; i--) {
+            suffixMin[i] = Math.min(masses[i], suffixMin[i + 1]);
+            suffixMax[i] = Math.max(masses[i], suffixMax[i + 1]);
+        }
+        LongHashSet existingMasses = new LongHashSet(1024);
         for (int count = 1; count <= maxCombos; count++) {
-            // iterate combinations
-            List<int[]> combos = GlycoMassLoader.combinationsWithRepetition(masses.size(), count);
-            for (int[] combo : combos) {
-                // calculate mass as the sum of the glycans at selected indices
-                double comboMass = 0;
-                for (int i : combo) {
-                    comboMass += masses.get(i);
+            combosHelper(masses, suffixMin, suffixMax, count, 0, 0, minMass, maxMass, existingMasses, consumer);
+        }
+    }
+
+    private static void combosHelper(double[] masses, double[] suffixMin, double[] suffixMax, int remaining, int start,
+                                     double partialMass, double minMass, double maxMass, LongHashSet existingMasses, DoubleConsumer consumer) {
+        if (remaining == 0) {
+            // check for duplicates and add if unique
+            if (partialMass < maxMass && partialMass > minMass && existingMasses.add(Math.round(partialMass * 10000))) {
+                consumer.accept(partialMass);
+            }
+            return;
+        }
+        for (int i = start; i < masses.length; i++) {
+            // small tolerance, so that rounding in the bound doesn't drop a combination right at the limit
+            if (partialMass + remaining * suffixMin[i] - MASS_BOUND_TOLERANCE >= maxMass
+                    || partialMass + remaining * suffixMax[i] + MASS_BOUND_TOLERANCE <= minMass) {
+                break;
+            }
+            combosHelper(masses, suffixMin, suffixMax, remaining - 1, i, partialMass + masses[i], minMass, maxMass, existingMasses, consumer);
+        }
+    }
+
+    /** Open addressing set of primitive longs, avoids boxing every mass key. */
+    static class LongHashSet {
+        private static final long EMPTY = Long.MIN_VALUE;
+        private long[] keys;
+        private boolean hasEmptyKey = false;
+        private int size = 0;
+
+        LongHashSet(int expectedSize) {
+            int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2) - 1) << 1;
+            keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+        }
+
+        /** @return True if the key was not in the set. */
+        boolean add(long key) {
+            if (key == EMPTY) {
+                boolean added = !hasEmptyKey;
+                hasEmptyKey = true;
+                size += added ? 1 : 0;
+                return added;
+            }
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            while (keys[i] != EMPTY) {
+                if (keys[i] == key) {
+                    return false;
                 }
-                // check for duplicates and add if unique
-                long massKey = Math.round(comboMass * 10000);
-                if (!existingMasses.contains(massKey)) {
-                    if (!massFilter) {
-                        allMasses.add(comboMass);
-                        existingMasses.add(massKey);
-                    } else {
-                        // filtering requested
-                        if (comboMass < maxMass && comboMass > minMass) {
-                            allMasses.add(comboMass);
-                            existingMasses.add(massKey);
-                        }
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            if (++size * 2 > keys.length) {
+                rehash();
+            }
+            return true;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void rehash() {
+            long[] old = keys;
+            keys = new long[old.length * 2];
+            Arrays.fill(keys, EMPTY);
+            int mask = keys.length - 1;
+            for (long key : old) {
+                if (key != EMPTY) {
+                    int i = mix(key) & mask;
+                    while (keys[i] != EMPTY) {
+                        i = (i + 1) & mask;
                     }
+                    keys[i] = key;
                 }
             }
         }
-        return allMasses;
+
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
     }
 
     // read masses only from a text file. Can have , or \t delimiter, and one or multiple entries per line.
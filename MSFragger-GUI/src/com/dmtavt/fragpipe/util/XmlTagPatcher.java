@@ -0,0 +1,295 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Changes a few opening tags in a large XML file (e.g. msms_run_summary in pepXML) without
+ * parsing or copying the rest of it.
+ * <p>
+ * {@link #find(Path, String...)} reads the file once and returns the tags starting with the
+ * given prefixes. After setting replacements, {@link #patch(Path, List)} writes them: if no
+ * replacement is longer than the original, they are padded with spaces before the closing
+ * bracket and written over the originals in place, so there is no second copy of the file on
+ * disk. Otherwise a modified copy is written next to the file and moved over it atomically, so
+ * the file is never left half-written.
+ */
+public class XmlTagPatcher {
+
+  /** Longest opening tag we expect. */
+  private static final int MAX_TAG_LEN = 64 << 10;
+  private static final int CHUNK_SIZE = 8 << 20;
+  private static final long ONES = 0x0101010101010101L;
+  private static final long HIGHS = 0x8080808080808080L;
+
+  private XmlTagPatcher() {
+  }
+
+  public static class Tag {
+    /** Position of the opening '<' in the file. */
+    public final long offset;
+    /** Which of the prefixes given to {@link #find(Path, String...)} matched. */
+    public final int prefix;
+    final byte[] original;
+    byte[] replacement;
+
+    Tag(long offset, int prefix, byte[] original) {
+      this.offset = offset;
+      this.prefix = prefix;
+      this.original = original;
+    }
+
+    public String text() {
+      return new String(original, StandardCharsets.UTF_8);
+    }
+
+    /** Null leaves the tag as it is. */
+    public void replaceWith(String tag) {
+      replacement = tag == null ? null : tag.getBytes(StandardCharsets.UTF_8);
+    }
+
+    int growth() {
+      return replacement == null ? 0 : Math.max(0, replacement.length - original.length);
+    }
+
+    /** Replacement padded to the original length if shorter. */
+    byte[] bytes() {
+      if (replacement == null) {
+        return original;
+      }
+      if (replacement.length >= original.length) {
+        return replacement;
+      }
+      // spaces go before the closing "/>" or ">"
+      final int close = replacement.length > 1 && replacement[replacement.length - 2] == '/' ? 2 : 1;
+      final int pad = original.length - replacement.length;
+      final byte[] padded = new byte[original.length];
+      System.arraycopy(replacement, 0, padded, 0, replacement.length - close);
+      Arrays.fill(padded, replacement.length - close, replacement.length - close + pad, (byte) ' ');
+      System.arraycopy(replacement, replacement.length - close, padded, padded.length - close, close);
+      return padded;
+    }
+  }
+
+  /**
+   * Finds all tags starting with one of the prefixes (e.g. {@code "<msms_run_summary"}) in one
+   * pass over the file. Candidates are located 8 bytes at a time by looking for '<' only.
+   */
+  public static List<Tag> find(Path file, String... prefixes) throws IOException {
+    final byte[][] seqs = new byte[prefixes.length][];
+    for (int i = 0; i < prefixes.length; i++) {
+      seqs[i] = prefixes[i].getBytes(StandardCharsets.UTF_8);
+    }
+    final List<Tag> tags = new ArrayList<>();
+    final ByteBuffer buf = ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+      long bufOffset = 0;
+      boolean eof = false;
+      while (!eof) {
+        while (buf.hasRemaining()) {
+          if (fc.read(buf) < 0) {
+            eof = true;
+            break;
+          }
+        }
+        buf.flip();
+        final int limit = buf.limit();
+        // a tag starting close to the end of the chunk might continue in the next one
+        final int safe = eof ? limit : limit - MAX_TAG_LEN;
+        int i = 0;
+        while ((i = indexOf(buf, (byte) '<', i, safe)) >= 0) {
+          final int matched = matchPrefix(buf, i, limit, seqs);
+          if (matched >= 0) {
+            final int end = tagEnd(buf, i, Math.min(limit, i + MAX_TAG_LEN));
+            if (end < 0) {
+              throw new IllegalStateException("Didn't find closing tag bracket with the search limit");
+            }
+            final byte[] tag = new byte[end + 1 - i];
+            for (int j = 0; j < tag.length; j++) {
+              tag[j] = buf.get(i + j);
+            }
+            tags.add(new Tag(bufOffset + i, matched, tag));
+            i = end + 1;
+          } else {
+            i += 1;
+          }
+          if (i >= safe) {
+            break;
+          }
+        }
+        if (!eof) {
+          final int keep = Math.max(safe, i);
+          buf.position(keep);
+          buf.compact();
+          bufOffset += keep;
+        }
+      }
+    }
+    return tags;
+  }
+
+  /** True if no replacement is longer than the tag it replaces. */
+  public static boolean fitsInPlace(List<Tag> tags) {
+    return tags.stream().allMatch(t -> t.growth() == 0);
+  }
+
+  /**
+   * Writes the replacements into the file, in place if they all fit, otherwise through a copy
+   * that replaces the file with an atomic move.
+   */
+  public static void patch(Path file, List<Tag> tags) throws IOException {
+    if (fitsInPlace(tags)) {
+      patchInPlace(file, tags);
+      return;
+    }
+    final Path dir = file.toAbsolutePath().getParent();
+    final Path temp = Files.createTempFile(dir, file.getFileName().toString(), ".temp-rewrite");
+    try {
+      copy(file, temp, tags);
+      Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Writes the replacements over the original tags, only possible if {@link #fitsInPlace(List)}.
+   */
+  public static void patchInPlace(Path file, List<Tag> tags) throws IOException {
+    if (!fitsInPlace(tags)) {
+      throw new IllegalArgumentException("Some replacements are longer than the tags they replace");
+    }
+    try (FileChannel fc = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      for (Tag t : tags) {
+        if (t.replacement != null) {
+          writeFully(fc, ByteBuffer.wrap(t.bytes()), t.offset);
+        }
+      }
+    }
+  }
+
+  /** Writes a copy of the file with the replacements, in one sequential pass. */
+  public static void copy(Path from, Path to, List<Tag> tags) throws IOException {
+    try (FileChannel in = FileChannel.open(from, StandardOpenOption.READ);
+        FileChannel out = FileChannel.open(to, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      long pos = 0;
+      for (Tag tag : sorted(tags)) {
+        transfer(in, pos, tag.offset - pos, out);
+        final ByteBuffer bb = ByteBuffer.wrap(tag.replacement == null ? tag.original : tag.replacement);
+        while (bb.hasRemaining()) {
+          out.write(bb);
+        }
+        pos = tag.offset + tag.original.length;
+      }
+      transfer(in, pos, in.size() - pos, out);
+    }
+  }
+
+  private static List<Tag> sorted(List<Tag> tags) {
+    final List<Tag> sorted = new ArrayList<>(tags);
+    sorted.sort((a, b) -> Long.compare(a.offset, b.offset));
+    return sorted;
+  }
+
+  /**
+   * First position of a byte in [from, to), or -1. Compares 8 bytes per step, the buffer must
+   * be little-endian so that the lowest matching byte in a word is the first one in the file.
+   */
+  static int indexOf(ByteBuffer buf, byte b, int from, int to) {
+    final long pattern = (b & 0xFFL) * ONES;
+    int i = from;
+    for (; i + 8 <= to; i += 8) {
+      final long x = buf.getLong(i) ^ pattern;
+      final long found = (x - ONES) & ~x & HIGHS;
+      if (found != 0) {
+        return i + (Long.numberOfTrailingZeros(found) >>> 3);
+      }
+    }
+    for (; i < to; i++) {
+      if (buf.get(i) == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Position of the '>' closing the tag, '>' inside quoted attribute values doesn't count. */
+  private static int tagEnd(ByteBuffer buf, int from, int to) {
+    byte quote = 0;
+    for (int i = from; i < to; i++) {
+      final byte b = buf.get(i);
+      if (quote != 0) {
+        if (b == quote) {
+          quote = 0;
+        }
+      } else if (b == '"' || b == '\'') {
+        quote = b;
+      } else if (b == '>') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int matchPrefix(ByteBuffer buf, int pos, int limit, byte[][] seqs) {
+    outer:
+    for (int k = 0; k < seqs.length; k++) {
+      final byte[] seq = seqs[k];
+      if (pos + seq.length > limit) {
+        continue;
+      }
+      for (int j = 0; j < seq.length; j++) {
+        if (buf.get(pos + j) != seq[j]) {
+          continue outer;
+        }
+      }
+      return k;
+    }
+    return -1;
+  }
+
+  private static void writeFully(FileChannel fc, ByteBuffer bb, long position) throws IOException {
+    while (bb.hasRemaining()) {
+      position += fc.write(bb, position);
+    }
+  }
+
+  private static void transfer(FileChannel in, long from, long count, FileChannel out) throws IOException {
+    while (count > 0) {
+      final long n = in.transferTo(from, count, out);
+      if (n <= 0) {
+        throw new EOFException("Unexpected end of file while copying");
+      }
+      from += n;
+      count -= n;
+    }
+  }
+}
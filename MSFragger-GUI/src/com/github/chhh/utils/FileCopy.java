@@ -29,28 +29,39 @@ import java.nio.file.StandardCopyOption;
  */
 public class FileCopy {
     public static void main(String[] args) throws IOException {
+        int exitCode = run(args);
+        if (exitCode != 0) {
+            System.exit(exitCode);
+        }
+    }
+
+    /**
+     * Same as {@link #main(String[])}, but returns the exit code instead of exiting the JVM.
+     */
+    public static int run(String[] args) throws IOException {
         if (args.length != 2) {
             throw new IllegalArgumentException("Input must be exactly 2 arguments: origin and destination");
         }
 
-        Path origin = null;
-        Path destination = null;
+        Path origin;
+        Path destination;
         try {
             origin = Paths.get(args[0]);
             destination = Paths.get(args[1]);
         } catch (InvalidPathException e) {
             System.err.println("Given paths are not valid: " + e.getMessage());
-            System.exit(1);
+            return 1;
         }
         if (!Files.exists(origin)) {
             System.err.println("Origin file does not exist: " + origin.toString());
-            System.exit(1);
+            return 1;
         }
         if (!Files.exists(destination.getParent())) {
             System.err.println("Destination directory does not exist: " + destination.getParent());
-            System.exit(1);
+            return 1;
         }
 
         Files.copy(origin, destination, StandardCopyOption.REPLACE_EXISTING);
+        return 0;
     }
 }
@@ -17,12 +17,24 @@
 package com.github.chhh.utils;
 
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,12 +49,117 @@ public class FileDelete {
 //    private static final org.slf4j.Logger log = LoggerFactory.getLogger(FileDelete.class);
 
     public static void main(String[] args) throws IOException {
-        if (args.length != 1)
-            throw new IllegalArgumentException("Must provide exactly one argument - the file or directory to delete.");
-        Path path = Paths.get(args[0]);
-        if (!Files.exists(path))
-            return;
-        deleteFileOrFolder(path);
+        run(args);
+    }
+
+    /**
+     * Same as {@link #main(String[])}, returns the exit code.
+     */
+    public static int run(String[] args) throws IOException {
+        if (args.length < 1)
+            throw new IllegalArgumentException("Must provide at least one argument - the files or directories to delete.");
+        List<Path> paths = new ArrayList<>();
+        for (String arg : args) {
+            paths.add(Paths.get(arg));
+        }
+        Stats stats = deleteAll(paths, defaultThreads());
+        System.out.println(stats);
+        for (Path failed : stats.failed) {
+            System.err.println("Could not delete: " + failed);
+        }
+        return stats.failed.isEmpty() ? 0 : 1;
+    }
+
+    /** Deleting is mostly waiting for the file system, so more threads than cores are useful. */
+    public static int defaultThreads() {
+        return Math.min(16, Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+    }
+
+    /** What {@link #deleteAll(Collection, int)} did. */
+    public static class Stats {
+        public final LongAdder files = new LongAdder();
+        public final LongAdder dirs = new LongAdder();
+        public final LongAdder bytes = new LongAdder();
+        /** Paths that could not be deleted, e.g. because they are open in another process. */
+        public final Queue<Path> failed = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "Deleted %d files and %d directories, %.1f MB reclaimed",
+                files.sum(), dirs.sum(), bytes.sum() / (1024.0 * 1024.0));
+        }
+    }
+
+    /**
+     * Deletes files and directory trees in parallel. Directories are listed and their
+     * subdirectories and files deleted as separate tasks, so even a single directory with many
+     * small files is split between the threads. Paths that don't exist are skipped, failures are
+     * collected in {@link Stats#failed} instead of stopping the rest.
+     */
+    public static Stats deleteAll(Collection<Path> paths, int threads) {
+        final Stats stats = new Stats();
+        final ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            pool.invoke(new DeleteTask(new ArrayList<>(paths), stats));
+        } finally {
+            pool.shutdown();
+        }
+        return stats;
+    }
+
+    private static class DeleteTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        /** Files handled by one task, small enough to balance, big enough to not drown in tasks. */
+        private static final int CHUNK = 64;
+        private final List<Path> paths;
+        private final Stats stats;
+
+        DeleteTask(List<Path> paths, Stats stats) {
+            this.paths = paths;
+            this.stats = stats;
+        }
+
+        @Override
+        protected void compute() {
+            if (paths.size() > CHUNK) {
+                final List<DeleteTask> tasks = new ArrayList<>();
+                for (int i = 0; i < paths.size(); i += CHUNK) {
+                    tasks.add(new DeleteTask(paths.subList(i, Math.min(paths.size(), i + CHUNK)), stats));
+                }
+                invokeAll(tasks);
+                return;
+            }
+            for (Path path : paths) {
+                delete(path);
+            }
+        }
+
+        private void delete(Path path) {
+            try {
+                final BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (attrs.isDirectory()) {
+                    final List<Path> children = new ArrayList<>();
+                    try (DirectoryStream<Path> ds = Files.newDirectoryStream(path)) {
+                        for (Path child : ds) {
+                            children.add(child);
+                        }
+                    }
+                    if (!children.isEmpty()) {
+                        new DeleteTask(children, stats).invoke();
+                    }
+                    Files.delete(path);
+                    stats.dirs.increment();
+                } else {
+                    Files.delete(path);
+                    stats.files.increment();
+                    stats.bytes.add(attrs.size());
+                }
+            } catch (NoSuchFileException e) {
+                // already gone
+            } catch (IOException e) {
+                stats.failed.add(path);
+            }
+        }
     }
 
     public static void deleteFileOrFolder(final Path path) throws IOException {
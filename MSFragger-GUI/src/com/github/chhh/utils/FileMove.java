@@ -37,6 +37,16 @@ public class FileMove {
      * @throws IOException
      */
     public static void main(String[] args) throws IOException {
+        int exitCode = run(args);
+        if (exitCode != 0) {
+            System.exit(exitCode);
+        }
+    }
+
+    /**
+     * Same as {@link #main(String[])}, but returns the exit code instead of exiting the JVM.
+     */
+    public static int run(String[] args) throws IOException {
         if (args.length != 2 && args.length != 3) {
             throw new IllegalArgumentException("Input must be either 2 arguments: origin and destination "
                 + "or optionally prepended with --no-err ot suppress file existence checks.");
@@ -51,10 +61,10 @@ public class FileMove {
 
         if (!Files.exists(origin)) {
             if (noErrors) {
-                System.exit(0);
+                return 0;
             } else {
                 System.err.printf("File does not exist: %s", origin);
-                System.exit(1);
+                return 1;
             }
         }
 
@@ -65,8 +75,9 @@ public class FileMove {
                 Files.move(origin, destination, StandardCopyOption.REPLACE_EXISTING);
         } catch (Exception e) {
             e.printStackTrace();
-            System.exit(1);
+            return 1;
         }
+        return 0;
     }
 
 
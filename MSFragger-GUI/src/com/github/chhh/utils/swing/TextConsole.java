@@ -17,18 +17,33 @@
 package com.github.chhh.utils.swing;
 
 import java.awt.Color;
-import java.awt.Font;
+import java.awt.Container;
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.util.concurrent.locks.ReentrantLock;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import javax.swing.JTextPane;
+import javax.swing.Timer;
 import javax.swing.text.AttributeSet;
 import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultEditorKit;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
 import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
 import javax.swing.text.StyleContext;
-import javax.swing.text.StyledDocument;
 
 /**
+ * Console with ANSI color support. Appended text is queued and inserted into the document in
+ * batches, at most once per {@link #FLUSH_INTERVAL_MS}. Only the last {@link #MAX_LINES} lines
+ * are kept in the document, text removed from the top goes to a temp file, so that
+ * {@link #getFullText()} can still return everything.
  *
  * @author dmitriya
  */
@@ -54,21 +69,47 @@ public class TextConsole extends JTextPane implements Appendable {
     static final Color cReset = Color.getHSBColor(0.000f, 0.000f, 0.000f);
     static Color colorCurrent = cReset;
 
+    /** Pending text is inserted into the document at most this often. */
+    public static final int FLUSH_INTERVAL_MS = 50;
+    /** When the document gets longer than that, the oldest {@link #TRIM_LINES} lines are removed. */
+    public static final int MAX_LINES = 20000;
+    public static final int TRIM_LINES = 2000;
+
     private final Object lock = new Object();
-    private ReentrantLock reentrantLock = new ReentrantLock(true);
-    
+    /** Guards only the pending queue, so that appending never waits for the document. */
+    private final Object pendingLock = new Object();
+
     protected String remaining = "";
     private boolean forceWordWrapInsteadOfScroll;
-    
+
+    /** Text not yet in the document. Null color means the text may contain ANSI color codes. */
+    private List<Segment> pending = new ArrayList<>();
+    private final Timer flushTimer;
+    private final Map<Color, AttributeSet> attributes = new HashMap<>();
+    private Path trimmedFile = null;
+    private BufferedWriter trimmed = null;
+
     public TextConsole(boolean forceWordWrapInsteadOfScroll) {
 
         this.forceWordWrapInsteadOfScroll = forceWordWrapInsteadOfScroll;
+        flushTimer = new Timer(FLUSH_INTERVAL_MS, e -> flush());
+        flushTimer.setRepeats(false);
     }
 
     public TextConsole() {
         this(true);
     }
 
+    private static class Segment {
+        final Color color;
+        final String text;
+
+        Segment(Color color, String text) {
+            this.color = color;
+            this.text = text;
+        }
+    }
+
     /**
      * Returns true if a viewport should always force the width of this
      * <code>Scrollable</code> to match the width of the viewport.
@@ -89,6 +130,9 @@ public class TextConsole extends JTextPane implements Appendable {
      * this editor.  If an exception is thrown while attempting to retrieve the text,
      * <code>null</code> will be returned. This is implemented to call <code>JTextComponent.write</code>
      * with a <code>StringWriter</code>.
+     * <p>
+     * Pending text is flushed first. Lines trimmed from the top are not included, see
+     * {@link #getFullText()}.
      *
      * @return the text
      * @see #setText
@@ -96,147 +140,223 @@ public class TextConsole extends JTextPane implements Appendable {
     @Override
     public String getText() {
         synchronized (lock) {
+            flush();
             return super.getText();
         }
     }
 
+    /**
+     * Same as {@link #getText()}, but also includes the lines that were trimmed from the document.
+     */
+    public String getFullText() {
+        synchronized (lock) {
+            flush();
+            final String text = super.getText();
+            if (trimmed == null) {
+                return text;
+            }
+            try {
+                trimmed.flush();
+                final Object eol = getDocument().getProperty(DefaultEditorKit.EndOfLineStringProperty);
+                final String head = new String(Files.readAllBytes(trimmedFile), StandardCharsets.UTF_8);
+                return head.replace("\n", eol instanceof String ? (String) eol : System.lineSeparator()) + text;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
     @Override
     public void setText(String t) {
         synchronized (lock) {
+            synchronized (pendingLock) {
+                pending = new ArrayList<>();
+            }
+            remaining = "";
+            closeTrimmed();
             super.setText(t);
         }
     }
 
     @Override
     public Appendable append(CharSequence csq) {
-        //append(csq.toString()); // too simple
-        
-        // old non-colored implementation
-//        StyledDocument doc = getStyledDocument();
-//        try {
-//            doc.insertString(doc.getLength(), csq.toString(), null);
-//        } catch (BadLocationException e) {
-//            e.printStackTrace();
-//        }
-
-        synchronized (lock) {
-            appendANSI(csq.toString());
-        }
+        enqueue(null, csq.toString());
         return this;
     }
 
     @Override
     public Appendable append(CharSequence csq, int start, int end) {
-        //append(csq.subSequence(start, end).toString()); // too simple
-        
-        // old non-colored implementation
-//        StyledDocument doc = getStyledDocument();
-//        try {
-//            doc.insertString(doc.getLength(), csq.subSequence(start, end).toString(), null);
-//        } catch (BadLocationException e) {
-//            e.printStackTrace();
-//        }
-
-        synchronized (lock) {
-            appendANSI(csq.subSequence(start, end).toString());
-        }
+        enqueue(null, csq.subSequence(start, end).toString());
         return this;
     }
 
     @Override
     public Appendable append(char c) {
-        synchronized (lock) {
-            //append(Character.toString(c));
-            StyledDocument doc = getStyledDocument();
-            try {
-                doc.insertString(doc.getLength(), String.valueOf(c), null);
-            } catch (BadLocationException e) {
-                e.printStackTrace();
-            }
-        }
+        enqueue(null, String.valueOf(c));
         return this;
     }
     
     public void append(Color c, String s) {
-        synchronized (lock) {
-            if (c == null) {
-                appendANSI(s);
-                return;
+        enqueue(c, s);
+    }
+    
+    public void appendANSI(String s) { // color codes are converted when the text is flushed
+        enqueue(null, s);
+    }
+
+    private void enqueue(Color c, String s) {
+        if (s == null || s.isEmpty()) {
+            return;
+        }
+        synchronized (pendingLock) {
+            pending.add(new Segment(c, s));
+            if (pending.size() == 1) {
+                flushTimer.restart();
             }
-            StyleContext sc = StyleContext.getDefaultStyleContext();
-            AttributeSet aset = sc
-                .addAttribute(SimpleAttributeSet.EMPTY, StyleConstants.Foreground, c);
-            int len = getDocument().getLength(); // same value as getText().length();
-            setCaretPosition(len);  // place caret at the end (with no selection)
-            setCharacterAttributes(aset, false);
-            /**
-             In JTextPane, only "\n" is recognized as a newline, so replace "\r\n" with "\n"
-             see {@link javax.swing.text.DefaultEditorKit} for information on newlines
-             “But while the document is in memory, the "\n" character is used to define a newline, regardless of how the newline is defined when the document is on disk.”
-             JTextPane doesn't print "\r", so replace it with "\n"
-             */
-            replaceSelection(s.replace("\r\n", "\n")
-                .replace("\r", "\u200B\n")); // there is no selection, so inserts at caret
         }
     }
-    
-    public void appendANSI(String s) { // convert ANSI color codes first
-        synchronized (lock) {
-            int aPos = 0;   // current char position in addString
-            int aIndex = 0; // index of next Escape sequence
-            int mIndex = 0; // index of "m" terminating Escape sequence
-            String tmpString = "";
-            boolean stillSearching = true; // true until no more Escape sequences
-            String addString = remaining + s;
-            remaining = "";
 
-            if (addString.length() > 0) {
-                aIndex = addString.indexOf("\u001B"); // find first escape
-                if (aIndex
-                    == -1) { // no escape/color change in this string, so just send it with current color
-                    append(colorCurrent, addString);
+    /**
+     * Inserts all pending text into the document.
+     */
+    public void flush() {
+        synchronized (lock) {
+            final List<Segment> batch;
+            synchronized (pendingLock) {
+                flushTimer.stop();
+                if (pending.isEmpty()) {
                     return;
                 }
-                // otherwise There is an escape character in the string, so we must process it
+                batch = pending;
+                pending = new ArrayList<>();
+            }
 
-                if (aIndex > 0) { // Escape is not first char, so send text up to first escape
-                    tmpString = addString.substring(0, aIndex);
-                    append(colorCurrent, tmpString);
-                    aPos = aIndex;
+            // runs of text with the same color, ANSI codes of consecutive segments are parsed at once
+            final List<Segment> runs = new ArrayList<>();
+            final StringBuilder ansi = new StringBuilder();
+            for (Segment seg : batch) {
+                if (seg.color == null) {
+                    ansi.append(seg.text);
+                    continue;
+                }
+                if (ansi.length() > 0) {
+                    parseANSI(ansi.toString(), runs);
+                    ansi.setLength(0);
                 }
-                // aPos is now at the beginning of the first escape sequence
+                addRun(runs, seg.color, seg.text);
+            }
+            if (ansi.length() > 0) {
+                parseANSI(ansi.toString(), runs);
+            }
 
-                stillSearching = true;
-                while (stillSearching) {
-                    mIndex = addString.indexOf("m", aPos); // find the end of the escape sequence
-                    if (mIndex < 0) { // the buffer ends halfway through the ansi string!
-                        remaining = addString.substring(aPos, addString.length());
-                        stillSearching = false;
-                        continue;
-                    } else {
-                        tmpString = addString.substring(aPos, mIndex + 1);
-                        colorCurrent = getANSIColor(tmpString);
-                    }
-                    aPos = mIndex + 1;
-                    // now we have the color, send text that is in that color (up to next escape)
+            final Document doc = getDocument();
+            try {
+                for (Segment run : runs) {
+                    /*
+                     In JTextPane, only "\n" is recognized as a newline, so replace "\r\n" with "\n"
+                     see {@link javax.swing.text.DefaultEditorKit} for information on newlines
+                     “But while the document is in memory, the "\n" character is used to define a newline, regardless of how the newline is defined when the document is on disk.”
+                     JTextPane doesn't print "\r", so replace it with "\n"
+                     */
+                    final String text = run.text.replace("\r\n", "\n").replace("\r", "\u200B\n");
+                    doc.insertString(doc.getLength(), text, attributes.computeIfAbsent(run.color, TextConsole::foreground));
+                }
+                trim(doc);
+            } catch (BadLocationException | IOException e) {
+                e.printStackTrace();
+            }
+            setCaretPosition(doc.getLength());
 
-                    aIndex = addString.indexOf("\u001B", aPos);
+            final Container parent = getParent();
+            if (parent != null && parent.getParent() != null) {
+                parent.getParent().revalidate();
+            }
+        }
+    }
 
-                    if (aIndex
-                        == -1) { // if that was the last sequence of the input, send remaining text
-                        tmpString = addString.substring(aPos, addString.length());
-                        append(colorCurrent, tmpString);
-                        stillSearching = false;
-                        continue; // jump out of loop early, as the whole string has been sent now
-                    }
+    private static AttributeSet foreground(Color c) {
+        return StyleContext.getDefaultStyleContext()
+            .addAttribute(SimpleAttributeSet.EMPTY, StyleConstants.Foreground, c);
+    }
 
-                    // there is another escape sequence, so send part of the string and prepare for the next
-                    tmpString = addString.substring(aPos, aIndex);
-                    aPos = aIndex;
-                    append(colorCurrent, tmpString);
+    private static void addRun(List<Segment> runs, Color c, String s) {
+        if (s.isEmpty()) {
+            return;
+        }
+        final int last = runs.size() - 1;
+        if (last >= 0 && runs.get(last).color.equals(c)) {
+            runs.set(last, new Segment(c, runs.get(last).text + s));
+        } else {
+            runs.add(new Segment(c, s));
+        }
+    }
+
+    /**
+     * Removes the oldest lines once the document is longer than {@link #MAX_LINES}, saving them to
+     * a temp file.
+     */
+    private void trim(Document doc) throws BadLocationException, IOException {
+        final Element root = doc.getDefaultRootElement();
+        if (root.getElementCount() <= MAX_LINES) {
+            return;
+        }
+        final int end = root.getElement(root.getElementCount() - MAX_LINES + TRIM_LINES - 1).getEndOffset();
+        if (trimmed == null) {
+            trimmedFile = Files.createTempFile("fragpipe-console-", ".txt");
+            trimmedFile.toFile().deleteOnExit();
+            trimmed = Files.newBufferedWriter(trimmedFile, StandardCharsets.UTF_8);
+        }
+        trimmed.write(doc.getText(0, end));
+        doc.remove(0, end);
+    }
 
-                } // while there's text in the input buffer
+    private void closeTrimmed() {
+        if (trimmed == null) {
+            return;
+        }
+        try {
+            trimmed.close();
+            Files.deleteIfExists(trimmedFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        trimmed = null;
+        trimmedFile = null;
+    }
+
+    /**
+     * Splits text with ANSI color codes into runs of the same color.
+     */
+    private void parseANSI(String s, List<Segment> runs) {
+        String addString = remaining + s;
+        remaining = "";
+        int aPos = 0;
+        int aIndex = addString.indexOf("\u001B"); // find first escape
+        if (aIndex == -1) { // no escape/color change in this string, so just send it with current color
+            addRun(runs, colorCurrent, addString);
+            return;
+        }
+        if (aIndex > 0) { // Escape is not first char, so send text up to first escape
+            addRun(runs, colorCurrent, addString.substring(0, aIndex));
+            aPos = aIndex;
+        }
+        // aPos is now at the beginning of an escape sequence
+        while (true) {
+            final int mIndex = addString.indexOf("m", aPos); // find the end of the escape sequence
+            if (mIndex < 0) { // the buffer ends halfway through the ansi string!
+                remaining = addString.substring(aPos);
+                return;
+            }
+            colorCurrent = getANSIColor(addString.substring(aPos, mIndex + 1));
+            aPos = mIndex + 1;
+            // now we have the color, send text that is in that color (up to next escape)
+            aIndex = addString.indexOf("\u001B", aPos);
+            if (aIndex == -1) { // that was the last sequence of the input, send remaining text
+                addRun(runs, colorCurrent, addString.substring(aPos));
+                return;
             }
+            addRun(runs, colorCurrent, addString.substring(aPos, aIndex));
+            aPos = aIndex;
         }
     }
     
@@ -0,0 +1,132 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.api;
+
+import com.github.chhh.utils.FastaUtils;
+import com.github.chhh.utils.FastaUtils.FastaContent;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FastaIndexTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static String randomFasta(int n, String eol) {
+    final Random rnd = new Random(1);
+    final String[] prefixes = {"sp", "tr", "rev_sp", "rev_tr", " rev_sp", "contam_sp"};
+    final StringBuilder sb = new StringBuilder();
+    sb.append(">").append(eol).append(">A").append(eol).append(eol);
+    for (int i = 0; i < n; i++) {
+      final int kind = rnd.nextInt(10);
+      if (kind == 0) {
+        sb.append(">ENSP").append(100000 + i).append(" some description");
+      } else {
+        sb.append('>').append(prefixes[rnd.nextInt(prefixes.length)]).append('|')
+            .append("P").append(10000 + i).append("|PROT_HUMAN Protein ").append(i);
+      }
+      sb.append(eol);
+      final int lines = rnd.nextInt(4);
+      for (int j = 0; j < lines; j++) {
+        sb.append("MKLVAGTTRQPEELLKHAS").append(eol);
+      }
+    }
+    return sb.toString();
+  }
+
+  @Test
+  public void countsMatchReadFasta() throws IOException {
+    for (String eol : Arrays.asList("\n", "\r\n")) {
+      final Path fasta = tmp.newFile().toPath();
+      Files.write(fasta, randomFasta(5000, eol).getBytes(StandardCharsets.UTF_8));
+      final FastaContent content = FastaUtils.readFasta(fasta);
+      final List<String> firstCol = content.ordered.get(0);
+
+      for (Path dir : Arrays.asList(null, tmp.newFolder().toPath())) {
+        final FastaIndex index = FastaIndex.get(fasta, dir, Collections.singletonList("contam_"));
+        Assert.assertEquals(FastaUtils.getProtsTotal(firstCol), index.getNumProteins());
+        // built-in, requested while building and counted afterwards from offsets
+        for (String tag : Arrays.asList("rev_", "contam_", "rev_sp", "ENSP1000", "", "tr")) {
+          Assert.assertEquals(tag, FastaUtils.getDecoysCnt(firstCol, tag), index.getDecoysCnt(tag));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void sampleMatchesSortedHeaders() throws IOException {
+    final Path fasta = tmp.newFile().toPath();
+    Files.write(fasta, randomFasta(1000, "\r\n").getBytes(StandardCharsets.UTF_8));
+    final List<String> headers;
+    try (Stream<String> lines = Files.lines(fasta)) {
+      headers = lines.filter(e -> e.startsWith(">")).sorted().collect(Collectors.toList());
+    }
+    final List<String> expected = new ArrayList<>();
+    final int gap = headers.size() < 21 ? 1 : (headers.size() - 1) / 20;
+    for (int i = 0; i < headers.size(); i += gap) {
+      expected.add(headers.get(i).trim());
+    }
+    Assert.assertEquals(expected, FastaIndex.get(fasta, null, Collections.emptyList()).getSample());
+  }
+
+  @Test
+  public void reusedUntilFileChanges() throws IOException {
+    final Path dir = tmp.newFolder().toPath();
+    final Path fasta = tmp.newFile().toPath();
+    Files.write(fasta, randomFasta(2000, "\n").getBytes(StandardCharsets.UTF_8));
+
+    final FastaIndex index = FastaIndex.get(fasta, dir, Collections.emptyList());
+    final int cnt = index.getDecoysCnt("rev_tr");
+    Assert.assertSame(index, FastaIndex.get(fasta, dir, Collections.emptyList()));
+
+    // a different location of the cache forces the index to be loaded from disk
+    final Path dirCopy = tmp.newFolder().toPath();
+    try (Stream<Path> files = Files.list(dir)) {
+      for (Path f : files.collect(Collectors.toList())) {
+        Files.copy(f, dirCopy.resolve(f.getFileName()));
+      }
+    }
+    final FastaIndex loaded = FastaIndex.get(fasta, dirCopy, Collections.emptyList());
+    Assert.assertNotSame(index, loaded);
+    Assert.assertEquals(index.getNumProteins(), loaded.getNumProteins());
+    Assert.assertEquals(index.getSample(), loaded.getSample());
+    Assert.assertArrayEquals(index.getHeaderOffsets(), loaded.getHeaderOffsets());
+    Assert.assertEquals(cnt, loaded.getDecoysCnt("rev_tr"));
+
+    Files.write(fasta, ">rev_x|P1\nMK\n>sp|P2\nMK\n".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(fasta, FileTime.fromMillis(index.mtime + 10_000));
+    final FastaIndex changed = FastaIndex.get(fasta, dirCopy, Collections.emptyList());
+    Assert.assertEquals(2, changed.getNumProteins());
+    Assert.assertEquals(1, changed.getDecoysCnt("rev_"));
+    Assert.assertArrayEquals(new long[]{0, 13}, changed.getHeaderOffsets());
+  }
+}
@@ -0,0 +1,38 @@
+package com.dmtavt.fragpipe.cmd;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CmdMSBoosterTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testBinaryId() throws Exception {
+    final Path bin = tmp.newFile("diann-linux").toPath();
+    Files.write(bin, new byte[]{1, 2, 3});
+    Files.setLastModifiedTime(bin, FileTime.fromMillis(1000000));
+    final String id = CmdMSBooster.binaryId(bin);
+    assertEquals(id, CmdMSBooster.binaryId(bin));
+
+    // another build installed at the same location
+    Files.write(bin, new byte[]{1, 2, 3, 4});
+    Files.setLastModifiedTime(bin, FileTime.fromMillis(1000000));
+    assertNotEquals(id, CmdMSBooster.binaryId(bin));
+    Files.write(bin, new byte[]{1, 2, 3});
+    Files.setLastModifiedTime(bin, FileTime.fromMillis(2000000));
+    assertNotEquals(id, CmdMSBooster.binaryId(bin));
+
+    final Path other = tmp.newFolder("other").toPath().resolve("diann-linux");
+    Files.copy(bin, other);
+    Files.setLastModifiedTime(other, FileTime.fromMillis(2000000));
+    assertNotEquals(CmdMSBooster.binaryId(bin), CmdMSBooster.binaryId(other));
+  }
+}
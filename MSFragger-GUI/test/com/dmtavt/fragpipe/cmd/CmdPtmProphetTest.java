@@ -18,4 +18,12 @@ public class CmdPtmProphetTest {
     assertEquals("KEEPOLD STATIC EM=1 NIONS=b K:-114.04293,M:15.9949 MINPROB=0.5", CmdPtmProphet.translateCmds("--keepold --static --em 1 --nions b --mods K:-114.04293,M:15.9949 --minprob 0.5"));
   }
 
+  @Test
+  public void testThreadShares() {
+    assertArrayEquals(new int[]{4, 4, 3, 3}, CmdBase.threadShares(14, 4));
+    assertArrayEquals(new int[]{1, 1, 1}, CmdBase.threadShares(2, 3));
+    assertArrayEquals(new int[]{16}, CmdBase.threadShares(16, 1));
+    assertArrayEquals(new int[0], CmdBase.threadShares(8, 0));
+  }
+
 }
\ No newline at end of file
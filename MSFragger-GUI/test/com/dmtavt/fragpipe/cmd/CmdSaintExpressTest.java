@@ -0,0 +1,58 @@
+package com.dmtavt.fragpipe.cmd;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CmdSaintExpressTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static String read(Path path) throws IOException {
+    return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testReprintTsvToSaintInput() throws IOException {
+    final Path input = tmp.newFile("reprint.spc.tsv").toPath();
+    Files.write(input, ("PROTID\tGENEID\tPROTLEN\tctrl1_SPC\tip1_SPC\tip2_SPC\n"
+        + "na\tna\tna\tCONTROL\tBAIT\tBAIT\n"
+        + "P1\tG1\t100\t0\t3\t0.0\n"
+        + "P2\tG2\t250\t0.5\t0e3\t12\n"
+        + "P3\tG3\t80\t-0\t1E2\t000\n").getBytes(StandardCharsets.UTF_8));
+    final Path out = tmp.getRoot().toPath().resolve("saintexpress-spc");
+
+    CmdSaintExpress.reprintTsvToSaintInput(input, out);
+
+    assertEquals("ctrl1\tctrl1\tT\nip1\tBAIT\tT\nip2\tBAIT\tT\n", read(out.resolve("bait.dat")));
+    assertEquals("P1\t100\tG1\nP2\t250\tG2\nP3\t80\tG3\n", read(out.resolve("prey.dat")));
+    assertEquals("ip1\tBAIT\tP1\t3\n"
+        + "ctrl1\tctrl1\tP2\t0.5\n"
+        + "ip2\tBAIT\tP2\t12\n"
+        + "ip1\tBAIT\tP3\t1E2\n\n", read(out.resolve("inter.dat")));
+  }
+
+  @Test
+  public void testIsZero() {
+    assertTrue(CmdSaintExpress.isZero("a\t0\tb", 2, 3));
+    assertTrue(CmdSaintExpress.isZero("-0.000", 0, 6));
+    assertTrue(CmdSaintExpress.isZero("0.0e10", 0, 6));
+    assertFalse(CmdSaintExpress.isZero("0.01", 0, 4));
+    assertFalse(CmdSaintExpress.isZero("1e-3", 0, 4));
+    assertFalse(CmdSaintExpress.isZero("NaN", 0, 3));
+    for (String s : new String[]{"", ".", "-", "+", "-.", "0.0.0", "0-0"}) {
+      try {
+        CmdSaintExpress.isZero(s, 0, s.length());
+        fail("Not a number: '" + s + "'");
+      } catch (NumberFormatException ignored) {
+      }
+    }
+  }
+}
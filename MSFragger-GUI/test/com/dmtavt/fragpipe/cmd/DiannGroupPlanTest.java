@@ -0,0 +1,56 @@
+package com.dmtavt.fragpipe.cmd;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+public class DiannGroupPlanTest {
+
+  private static final long GB = 1L << 30;
+
+  @Test
+  public void testSingleGroupGetsAllThreads() {
+    final DiannGroupPlan plan = DiannGroupPlan.create(Collections.singletonList(10 * GB), 32);
+    assertEquals(1, plan.parallel);
+    assertArrayEquals(new int[]{32}, plan.threads);
+  }
+
+  @Test
+  public void testSplitBySize() {
+    // 16 threads allow 4 groups at a time, the largest four run first
+    final DiannGroupPlan plan = DiannGroupPlan.create(Arrays.asList(1 * GB, 6 * GB, 2 * GB, 4 * GB, 3 * GB, 1 * GB), 16);
+    assertEquals(4, plan.parallel);
+    assertArrayEquals(new int[]{1, 0, 0, 0, 0, 1}, plan.wave);
+    // 6:4:3:2 of 16 threads
+    assertEquals(6 + 1, plan.threads[1]);
+    assertEquals(4, plan.threads[3]);
+    assertEquals(3, plan.threads[4]);
+    assertEquals(2, plan.threads[2]);
+    assertEquals(8, plan.threads[0]);
+    assertEquals(8, plan.threads[5]);
+  }
+
+  @Test
+  public void testNeverMoreThreadsThanGiven() {
+    final DiannGroupPlan plan = DiannGroupPlan.create(Arrays.asList(100 * GB, 0L, 0L, 0L), 16);
+    assertEquals(4, plan.parallel);
+    assertEquals(16, Arrays.stream(plan.threads).sum());
+    assertArrayEquals(new int[]{13, 1, 1, 1}, plan.threads);
+  }
+
+  @Test
+  public void testRamBySize() {
+    final DiannGroupPlan plan = DiannGroupPlan.create(Arrays.asList(0L, 10 * GB, GB + 1), 16);
+    assertArrayEquals(new int[]{4, 9, 5}, plan.ramGb);
+  }
+
+  @Test
+  public void testFewThreads() {
+    final DiannGroupPlan plan = DiannGroupPlan.create(Arrays.asList(GB, GB, GB), 3);
+    assertEquals(1, plan.parallel);
+    assertArrayEquals(new int[]{0, 1, 2}, plan.wave);
+    assertArrayEquals(new int[]{3, 3, 3}, plan.threads);
+  }
+}
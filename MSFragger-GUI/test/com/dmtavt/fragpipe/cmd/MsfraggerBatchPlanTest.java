@@ -0,0 +1,77 @@
+package com.dmtavt.fragpipe.cmd;
+
+import static org.junit.Assert.*;
+
+import com.dmtavt.fragpipe.api.InputLcmsFile;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MsfraggerBatchPlanTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private InputLcmsFile file(String name, long sizeMb, String dataType) throws IOException {
+    final Path p = tmp.newFile(name).toPath();
+    try (RandomAccessFile raf = new RandomAccessFile(p.toFile(), "rw")) {
+      raf.setLength(sizeMb << 20);
+    }
+    return new InputLcmsFile(p, "exp", null, dataType);
+  }
+
+  @Test
+  public void testEstimate() throws IOException {
+    assertEquals(3.0, MsfraggerBatchPlan.estimateGb(file("a.mzML", 1024, "DDA"), 0), 1e-6);
+    assertEquals(6.0 * 2, MsfraggerBatchPlan.estimateGb(file("a.raw", 1024, "DDA"), 2), 1e-6);
+    assertEquals(3.0 * 1.5 * 1.5, MsfraggerBatchPlan.estimateGb(file("b.mzML", 1024, "DIA"), 1), 1e-6);
+  }
+
+  @Test
+  public void testPlan() throws IOException {
+    // 3 GB each in memory, 20 GB heap leaves 12 GB for the spectra of one file
+    final List<InputLcmsFile> files = new ArrayList<>();
+    for (int i = 0; i < 9; i++) {
+      files.add(file("f" + i + ".mzML", 1024, "DDA"));
+    }
+    MsfraggerBatchPlan plan = MsfraggerBatchPlan.create(files, 20, 1, 0, 100, 32000);
+    assertEquals(8, plan.reservedGb);
+    assertEquals(12.0, plan.budgetGb, 1e-6);
+    assertEquals(1, plan.batches.size());
+    assertEquals(files, plan.batches.get(0));
+
+    // a file larger than the budget does not split the batch
+    final InputLcmsFile big = file("big.raw", 3072, "DDA");
+    final InputLcmsFile small = file("s.mzML", 1024, "DDA");
+    plan = MsfraggerBatchPlan.create(Arrays.asList(small, big), 20, 1, 0, 100, 32000);
+    assertEquals(1, plan.batches.size());
+    assertEquals(Arrays.asList(small, big), plan.batches.get(0));
+
+    // command line length still applies, files keep their order
+    final int pathLen = files.get(0).getPath().toString().length() + 1;
+    plan = MsfraggerBatchPlan.create(files, 20, 1, 0, 100, 100 + 4 * pathLen);
+    assertEquals(3, plan.batches.size());
+    assertEquals(files.subList(0, 4), plan.batches.get(0));
+    assertEquals(files.subList(4, 8), plan.batches.get(1));
+    assertEquals(files.subList(8, 9), plan.batches.get(2));
+  }
+
+  @Test
+  public void testLargeCohort() throws IOException {
+    // 100 DIA files of 1 GB each with calibrate_mass=2, 9 GB estimated per file, 900 GB in total
+    final List<InputLcmsFile> files = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      files.add(file("sample_" + i + ".mzML", 1024, "DIA"));
+    }
+    final MsfraggerBatchPlan plan = MsfraggerBatchPlan.create(files, 64, 1, 2, 1000, 32000);
+    assertEquals(1, plan.batches.size());
+    assertEquals(files, plan.batches.get(0));
+    assertTrue(plan.reservedGb + 9.0 <= 64);
+  }
+}
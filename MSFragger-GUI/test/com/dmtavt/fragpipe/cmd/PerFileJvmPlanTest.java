@@ -0,0 +1,63 @@
+package com.dmtavt.fragpipe.cmd;
+
+import static org.junit.Assert.*;
+
+import com.dmtavt.fragpipe.api.InputLcmsFile;
+import com.dmtavt.fragpipe.cmd.PerFileJvmPlan.HeapModel;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PerFileJvmPlanTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private InputLcmsFile file(String name, long sizeMb, String dataType) throws IOException {
+    final Path p = tmp.newFile(name).toPath();
+    try (RandomAccessFile raf = new RandomAccessFile(p.toFile(), "rw")) {
+      raf.setLength(sizeMb << 20);
+    }
+    return new InputLcmsFile(p, "exp", null, dataType);
+  }
+
+  @Test
+  public void testEstimate() throws IOException {
+    assertEquals(2 + 5, PerFileJvmPlan.estimateHeapGb(HeapModel.UMPIRE_SE, file("a.mzML", 1024, "DIA")));
+    assertEquals(2 + 6, PerFileJvmPlan.estimateHeapGb(HeapModel.UMPIRE_SE, file("a.raw", 1024, "DDA")));
+    assertEquals(1 + 1, PerFileJvmPlan.estimateHeapGb(HeapModel.PAIR_SCANS, file("b.mzML", 1024, "DDA")));
+  }
+
+  @Test
+  public void testPlan() throws IOException {
+    final List<InputLcmsFile> files = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      files.add(file("f" + i + ".mzML", 1, "DIA"));
+    }
+    // small files: bounded by threads
+    PerFileJvmPlan plan = PerFileJvmPlan.create(HeapModel.UMPIRE_SE, files, 512, 64);
+    assertEquals(64, plan.parallel);
+    assertEquals(8, plan.heapGb);
+    assertEquals(1, plan.threadsPerJob);
+    // bounded by RAM
+    plan = PerFileJvmPlan.create(HeapModel.UMPIRE_SE, files, 24, 64);
+    assertEquals(8, plan.parallel);
+    assertEquals(3, plan.heapGb);
+    assertEquals(8, plan.threadsPerJob);
+    // a single file gets everything, same as running serially
+    plan = PerFileJvmPlan.create(HeapModel.UMPIRE_SE, Collections.singletonList(files.get(0)), 24, 16);
+    assertEquals(1, plan.parallel);
+    assertEquals(24, plan.heapGb);
+    assertEquals(16, plan.threadsPerJob);
+    // a file larger than the budget
+    plan = PerFileJvmPlan.create(HeapModel.UMPIRE_SE, Collections.singletonList(file("big.mzML", 4096, "DIA")), 8, 16);
+    assertEquals(1, plan.parallel);
+    assertEquals(8, plan.heapGb);
+  }
+}
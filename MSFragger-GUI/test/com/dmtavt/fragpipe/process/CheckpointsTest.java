@@ -0,0 +1,122 @@
+package com.dmtavt.fragpipe.process;
+
+import static org.junit.Assert.*;
+
+import com.dmtavt.fragpipe.cmd.CmdPhilosopherWorkspaceCleanInit;
+import com.dmtavt.fragpipe.cmd.ProcessBuilderInfo;
+import com.github.chhh.utils.UsageTrigger;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CheckpointsTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static List<ProcessBuilderInfo> pbis(Path wd, String... cmd) {
+    final ProcessBuilder pb = new ProcessBuilder(cmd);
+    pb.directory(wd.toFile());
+    return Collections.singletonList(new ProcessBuilderInfo(pb, "tool", null, null, null));
+  }
+
+  @Test
+  public void testRecordAndValidate() throws IOException {
+    final Path wd = tmp.newFolder("wd").toPath();
+    final Path input = tmp.newFile("input.mzML").toPath();
+    Files.write(input, "spectra".getBytes());
+    final Path params = wd.resolve("tool.params");
+    Files.write(params, "a = 1".getBytes());
+    final Checkpoints cp = new Checkpoints(wd, "1.0");
+
+    final List<ProcessBuilderInfo> first = pbis(wd, "tool", "-Xmx4G", input.toString(), "--params=tool.params");
+    cp.starter("00-first", first).run();
+    final Path out = wd.resolve("input.pepXML");
+    Files.write(out, "psms".getBytes());
+    cp.finish("00-first", first, true);
+    assertNull(cp.validate("00-first", first));
+    // heap size is not part of the command line hash
+    assertNull(cp.validate("00-first", pbis(wd, "tool", "-Xmx8G", input.toString(), "--params=tool.params")));
+    assertNotNull(cp.validate("00-first", pbis(wd, "tool", input.toString(), "--params=other.params")));
+    assertNotNull(cp.validate("01-second", first));
+    assertNotNull(new Checkpoints(wd, "2.0").validate("00-first", first));
+
+    // a later command rewriting the output takes it over
+    final List<ProcessBuilderInfo> second = pbis(wd, "rewrite", out.toString());
+    cp.starter("01-second", second).run();
+    Files.write(out, "rewritten psms".getBytes());
+    cp.finish("01-second", second, true);
+    assertNull(cp.validate("00-first", first));
+    assertNull(cp.validate("01-second", second));
+
+    Files.write(params, "a = 2".getBytes());
+    assertNotNull(cp.validate("00-first", first));
+    Files.write(params, "a = 1".getBytes());
+    assertNull(cp.validate("00-first", first));
+
+    Files.delete(out);
+    assertNull(cp.validate("00-first", first));
+    assertNotNull(cp.validate("01-second", second));
+
+    cp.clear();
+    assertNotNull(cp.validate("00-first", first));
+  }
+
+  @Test
+  public void testSameWorkflowConfiguredAgain() throws IOException {
+    final Path wd = tmp.newFolder("wd").toPath();
+    final Checkpoints cp = new Checkpoints(wd, "1.0");
+    final UsageTrigger phi = new UsageTrigger("philosopher", "Philosopher");
+
+    final CmdPhilosopherWorkspaceCleanInit first = new CmdPhilosopherWorkspaceCleanInit(true, wd);
+    assertTrue(first.configure(phi));
+    final List<ProcessBuilderInfo> pbis = first.getBuilderDescriptor().pbis;
+    cp.starter("00-init", pbis).run();
+    cp.finish("00-init", pbis, true);
+
+    final CmdPhilosopherWorkspaceCleanInit again = new CmdPhilosopherWorkspaceCleanInit(true, wd);
+    assertTrue(again.configure(phi));
+    assertNull(cp.validate("00-init", again.getBuilderDescriptor().pbis));
+  }
+
+  @Test
+  public void testConcurrentCommands() throws IOException {
+    final Path wd = tmp.newFolder("wd").toPath();
+    final Checkpoints cp = new Checkpoints(wd, "1.0");
+    final List<ProcessBuilderInfo> a = pbis(wd, "a");
+    final List<ProcessBuilderInfo> b = pbis(wd, "b");
+    final Path outA = wd.resolve("a.tsv");
+    final Path outB = wd.resolve("b.tsv");
+    final Path shared = wd.resolve("shared.tsv");
+
+    cp.starter("00-a", a).run();
+    cp.starter("01-b", b).run();
+    Files.write(outA, "a".getBytes());
+    Files.write(shared, "a".getBytes());
+    cp.finish("00-a", a, true);
+    Files.write(outB, "b".getBytes());
+    Files.write(shared, "a and b".getBytes());
+    cp.finish("01-b", b, true);
+    assertNull(cp.validate("00-a", a));
+    assertNull(cp.validate("01-b", b));
+
+    // files of one command don't belong to the other one running at the same time
+    Files.delete(outB);
+    assertNull(cp.validate("00-a", a));
+    assertNotNull(cp.validate("01-b", b));
+    Files.write(outB, "b".getBytes());
+    Files.delete(outA);
+    assertNotNull(cp.validate("00-a", a));
+    Files.write(outA, "a".getBytes());
+
+    // both wrote the shared file
+    Files.delete(shared);
+    assertNotNull(cp.validate("00-a", a));
+    assertNotNull(cp.validate("01-b", b));
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.process;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HeadTailBufferTest {
+
+  @Test
+  public void keepsEverythingWithinLimits() {
+    HeadTailBuffer b = new HeadTailBuffer(4, 6);
+    b.append("abc");
+    b.append("defghij");
+    Assert.assertEquals(0, b.dropped());
+    Assert.assertEquals("abcdefghij", b.toString());
+  }
+
+  @Test
+  public void dropsTheMiddle() {
+    HeadTailBuffer b = new HeadTailBuffer(4, 6);
+    for (char c = 'a'; c <= 'z'; c++) {
+      b.append(String.valueOf(c));
+    }
+    b.append("0123");
+    Assert.assertEquals(30, b.length());
+    Assert.assertEquals(20, b.dropped());
+    Assert.assertEquals("abcd\n[... 20 characters not kept in memory ...]\nyz0123", b.toString());
+    b.append("a long string longer than the tail");
+    Assert.assertTrue(b.toString().endsWith("e tail"));
+  }
+}
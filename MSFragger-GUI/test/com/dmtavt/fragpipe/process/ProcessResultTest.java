@@ -0,0 +1,84 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.process;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.dmtavt.fragpipe.cmd.PbiBuilder;
+import com.dmtavt.fragpipe.cmd.ProcessBuilderInfo;
+import com.github.chhh.utils.OsUtils;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class ProcessResultTest {
+
+  @Test
+  public void completeUtf8Length() {
+    byte[] bytes = "aé€😀".getBytes(UTF_8); // 1 + 2 + 3 + 4 bytes
+    Assert.assertEquals(10, ProcessResult.completeUtf8Length(bytes, 10));
+    Assert.assertEquals(6, ProcessResult.completeUtf8Length(bytes, 9));
+    Assert.assertEquals(6, ProcessResult.completeUtf8Length(bytes, 7));
+    Assert.assertEquals(6, ProcessResult.completeUtf8Length(bytes, 6));
+    Assert.assertEquals(3, ProcessResult.completeUtf8Length(bytes, 5));
+    Assert.assertEquals(1, ProcessResult.completeUtf8Length(bytes, 2));
+    Assert.assertEquals(0, ProcessResult.completeUtf8Length(new byte[]{(byte) 0xf0}, 1));
+  }
+
+  @Test
+  public void pumpsDeliverAllOutput() throws Exception {
+    Assume.assumeTrue(OsUtils.isUnix() || OsUtils.isMac());
+    ProcessResult pr = startProcess(Arrays.asList("sh", "-c", "for i in 1 2 3; do echo out$i; echo err$i 1>&2; done"));
+    StringBuffer out = new StringBuffer();
+    StringBuffer err = new StringBuffer();
+    pr.startPumps(bytes -> out.append(new String(bytes, UTF_8)), bytes -> err.append(new String(bytes, UTF_8)));
+    Assert.assertEquals(0, pr.getProcess().onExit().get().exitValue());
+    Assert.assertTrue(pr.joinPumps(5, TimeUnit.SECONDS));
+    Assert.assertEquals("out1\nout2\nout3\n", out.toString());
+    Assert.assertEquals("err1\nerr2\nerr3\n", err.toString());
+  }
+
+  @Test
+  public void pumpsKeepLargeOutputInOrder() throws Exception {
+    Assume.assumeTrue(OsUtils.isUnix() || OsUtils.isMac());
+    final int n = 20000;
+    ProcessResult pr = startProcess(Arrays.asList("sh", "-c", "i=0; while [ $i -lt " + n + " ]; do echo line$i; i=$((i+1)); done"));
+    StringBuffer out = new StringBuffer();
+    pr.startPumps(bytes -> out.append(pr.appendOut(bytes)), pr::appendErr);
+    Assert.assertEquals(0, pr.getProcess().onExit().get().exitValue());
+    Assert.assertTrue(pr.joinPumps(5, TimeUnit.SECONDS));
+
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < n; i++) {
+      expected.append("line").append(i).append('\n');
+    }
+    Assert.assertEquals(expected.toString(), out.toString());
+    Assert.assertEquals(expected.toString(), pr.getOutput());
+  }
+
+  private static ProcessResult startProcess(List<String> cmd) throws Exception {
+    ProcessBuilderInfo pbi = new PbiBuilder().setPb(new ProcessBuilder(cmd)).setName(String.join(" ", cmd))
+        .setFnStdOut(null).setFnStdErr(null).setParallelGroup(null).create();
+    ProcessResult pr = new ProcessResult(pbi);
+    pr.start();
+    return pr;
+  }
+}
@@ -0,0 +1,79 @@
+package com.dmtavt.fragpipe.process;
+
+import static org.junit.Assert.*;
+
+import com.dmtavt.fragpipe.cmd.ProcessBuilderInfo;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProcessTelemetryTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testReport() throws Exception {
+    Assume.assumeTrue(Files.isDirectory(Paths.get("/proc/self")));
+    final Path wd = tmp.newFolder("wd").toPath();
+    final ProcessBuilder pb = new ProcessBuilder("sh", "-c", "head -c 50000000 /dev/urandom > out.bin; sleep 1.5");
+    pb.directory(wd.toFile());
+    final ProcessBuilderInfo pbi = new ProcessBuilderInfo(pb, "writer", null, null, "group");
+
+    ProcessTelemetry.get().reset();
+    final Process p = pb.start();
+    final ProcessTelemetry.Sampler sampler = ProcessTelemetry.get().start(pbi, p);
+    final int exit = p.waitFor();
+    sampler.finish(exit);
+    sampler.finish(null);
+    ProcessTelemetry.get().writeReport(wd);
+
+    final String json = new String(Files.readAllBytes(wd.resolve(ProcessTelemetry.REPORT_FN)), StandardCharsets.UTF_8);
+    final JsonArray processes = JsonParser.parseString(json).getAsJsonObject().getAsJsonArray("processes");
+    assertEquals(1, processes.size());
+    final JsonObject rec = processes.get(0).getAsJsonObject();
+    assertEquals("writer", rec.get("name").getAsString());
+    assertEquals(0, rec.get("exitValue").getAsInt());
+    assertTrue(rec.get("wallMs").getAsLong() >= 1500);
+    assertTrue(rec.get("peakRssKb").getAsLong() > 0);
+    assertTrue(rec.get("cpuMs").getAsLong() >= 0);
+  }
+
+  @Test
+  public void testShortProcessWithChild() throws Exception {
+    Assume.assumeTrue(Files.isDirectory(Paths.get("/proc/self")));
+    final Path wd = tmp.newFolder("wd").toPath();
+    // all the work is done by a child of the started shell, finishing before a second sample
+    final ProcessBuilder pb = new ProcessBuilder("sh", "-c", "sh -c 'i=0; while [ $i -lt 500000 ]; do i=$((i+1)); done'");
+    final ProcessBuilderInfo pbi = new ProcessBuilderInfo(pb, "busy", null, null, "group");
+
+    ProcessTelemetry.get().reset();
+    final long cpuStart = childCpuMs();
+    final Process p = pb.start();
+    final ProcessTelemetry.Sampler sampler = ProcessTelemetry.get().start(pbi, p);
+    final int exit = p.waitFor();
+    sampler.finish(exit);
+    final long cpu = childCpuMs() - cpuStart;
+    ProcessTelemetry.get().writeReport(wd);
+
+    final String json = new String(Files.readAllBytes(wd.resolve(ProcessTelemetry.REPORT_FN)), StandardCharsets.UTF_8);
+    final JsonObject rec = JsonParser.parseString(json).getAsJsonObject().getAsJsonArray("processes").get(0).getAsJsonObject();
+    assertEquals(0, rec.get("exitValue").getAsInt());
+    assertTrue(cpu > 0);
+    assertTrue("cpuMs " + rec.get("cpuMs") + " for " + cpu + " ms used", rec.get("cpuMs").getAsLong() >= cpu / 2);
+  }
+
+  private static long childCpuMs() throws Exception {
+    final String stat = new String(Files.readAllBytes(Paths.get("/proc/self/stat")), StandardCharsets.US_ASCII);
+    final String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+    return (Long.parseLong(fields[13]) + Long.parseLong(fields[14])) * 10;
+  }
+}
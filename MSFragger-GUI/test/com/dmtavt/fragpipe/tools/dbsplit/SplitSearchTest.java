@@ -0,0 +1,131 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.tools.dbsplit;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SplitSearchTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static String hit(String peptide, String protein, double hyperscore, double nextscore, String massdiff) {
+    return "<search_hit peptide=\"" + peptide + "\" massdiff=\"" + massdiff + "\" calc_neutral_pep_mass=\"1000.0\" peptide_next_aa=\"A\" "
+        + "num_missed_cleavages=\"0\" num_tol_term=\"2\" protein_descr=\"d " + protein + "\" num_tot_proteins=\"1\" tot_num_ions=\"10\" "
+        + "hit_rank=\"1\" num_matched_ions=\"5\" protein=\"" + protein + "\" peptide_prev_aa=\"K\" is_rejected=\"0\">\n"
+        + "<search_score name=\"hyperscore\" value=\"" + hyperscore + "\"/>\n"
+        + "<search_score name=\"nextscore\" value=\"" + nextscore + "\"/>\n"
+        + "<search_score name=\"expect\" value=\"1.0e+00\"/>\n"
+        + "</search_hit>\n";
+  }
+
+  private static String query(int index, String... hits) {
+    return "<spectrum_query spectrum=\"run." + index + "." + index + ".2\" assumed_charge=\"2\" index=\"" + index + "\">\n"
+        + "<search_result>\n" + String.join("", hits) + "</search_result>\n</spectrum_query>\n";
+  }
+
+  private static String pepxml(String... queries) {
+    return "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n"
+        + "<msms_pipeline_analysis date=\"2020-01-01T00:00:00\" summary_xml=\"run.pepXML\">\n"
+        + "<msms_run_summary>\n<search_summary>\n<search_database local_path=\"db.fasta\"/>\n</search_summary>\n"
+        + String.join("", queries)
+        + "</msms_run_summary>\n</msms_pipeline_analysis>\n";
+  }
+
+  private static void write(Path p, String s) throws IOException {
+    Files.write(p, s.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void mergesPartsByScore() throws IOException {
+    final Path dir = tmp.newFolder().toPath();
+    final Path params = dir.resolve("fragger.params");
+    write(params, "database_name = db.fasta\noutput_report_topN = 2\noutput_max_expect = 50\ncalibrate_mass = 0\n");
+    final Path infile = dir.resolve("run.mzML");
+    final SplitSearch ss = new SplitSearch(2, Collections.singletonList("java"), params,
+        Collections.singletonList(infile), dir.resolve("temp"));
+    for (Path p : ss.partDirs) {
+      Files.createDirectories(p);
+    }
+    write(ss.partDirs.get(0).resolve("run.pepXML"), pepxml(
+        query(1, hit("PEPA", "sp|A", 20, 10, "0.01"), hit("PEPB", "sp|B", 10, 5, "0.01")),
+        query(3, hit("PEPC", "sp|C", 30, 3, "0.01"))));
+    write(ss.partDirs.get(1).resolve("run.pepXML"), pepxml(
+        query(1, hit("PEPD", "sp|D", 15, 8, "-0.02"), hit("PEPA", "sp|X", 12, 7, "0.01")),
+        query(2, hit("PEPE", "sp|E", 1, 0.5, "0.0"))));
+    // expect = 10^(2 - 0.1 * hyperscore), spectrum 2 gets no hits below the cutoff
+    write(ss.tempDir.resolve("run_expectscore.tsv"), "2 -0.1 0\n20 0 0\n2 -0.1 0\n");
+    final String pin = "SpecId\tLabel\tScanNr\trank\thyperscore\tdelta_hyperscore\tlog10_evalue\tPeptide\tProteins\n";
+    write(ss.partDirs.get(0).resolve("run.pin"), pin
+        + "run.1.1.2_1\t1\t1\t1\t20\t10\t0\tPEPA\tsp|A\t\n"
+        + "run.1.1.2_2\t1\t1\t2\t10\t0\t0\tPEPB\tsp|B\t\n");
+    write(ss.partDirs.get(1).resolve("run.pin"), pin
+        + "run.1.1.2_1\t1\t1\t1\t15\t3\t0\tPEPD\tsp|D\n"
+        + "run.1.1.2_2\t1\t1\t2\t12\t0\t0\tPEPA\tsp|X\n");
+
+    new SplitPepxmlMerge(ss, infile).write();
+    final String merged = new String(Files.readAllBytes(dir.resolve("run.pepXML")), StandardCharsets.ISO_8859_1);
+    Assert.assertTrue(merged.contains("summary_xml=\"" + dir.resolve("run.pepXML") + "\""));
+    Assert.assertFalse(merged.contains("2020-01-01T00:00:00"));
+    Assert.assertFalse(merged.contains("index=\"2\""));
+    Assert.assertTrue(merged.endsWith("</spectrum_query>\n</msms_run_summary>\n</msms_pipeline_analysis>\n"));
+    final String q1 = merged.substring(merged.indexOf("<spectrum_query"), merged.indexOf("</spectrum_query>"));
+    // top 2 of the 4 hits, proteins of PEPA from both parts
+    Assert.assertTrue(q1.indexOf("peptide=\"PEPA\"") < q1.indexOf("peptide=\"PEPD\""));
+    Assert.assertFalse(q1.contains("PEPB"));
+    Assert.assertTrue(q1.contains("hit_rank=\"2\" num_matched_ions=\"5\" protein=\"sp|D\""));
+    Assert.assertTrue(q1.contains("num_tot_proteins=\"2\""));
+    Assert.assertTrue(q1.contains("protein=\"sp|A\" peptide_prev_aa=\"K\" is_rejected=\"0\">\n"
+        + "<alternative_protein protein_descr=\"d sp|X\" protein=\"sp|X\" peptide_prev_aa=\"K\" peptide_next_aa=\"A\" num_tol_term=\"2\"/>\n"
+        + "<search_score name=\"hyperscore\" value=\"20.000\"/>\n"
+        + "<search_score name=\"nextscore\" value=\"15.000\"/>\n"
+        + "<search_score name=\"expect\" value=\"1.000e+00\"/>\n</search_hit>\n"));
+    Assert.assertTrue(q1.contains("<search_score name=\"nextscore\" value=\"8.000\"/>\n"
+        + "<search_score name=\"expect\" value=\"3.162e+00\"/>"));
+
+    new SplitPinMerge(ss, infile).write();
+    final List<String> lines = Files.readAllLines(dir.resolve("run.pin"));
+    Assert.assertEquals(Arrays.asList(
+        pin.trim(),
+        "run.1.1.2_1\t1\t1\t1\t20\t5.0\t0.0\tPEPA\tsp|A\tsp|X",
+        "run.1.1.2_2\t1\t1\t2\t15\t3.0\t0.5\tPEPD\tsp|D"), lines);
+  }
+
+  @Test
+  public void formatsLikePython() {
+    Assert.assertEquals("1.000e+00", SplitPepxmlMerge.format3e(1));
+    Assert.assertEquals("2.272e-05", SplitPepxmlMerge.format3e(2.27248e-5));
+    Assert.assertEquals("1.000e+01", SplitPepxmlMerge.format3e(9.9996));
+    Assert.assertEquals("12.346", SplitPepxmlMerge.format3f(12.3456));
+    Assert.assertEquals("0.1", SplitSearch.pyFloat(0.1));
+    Assert.assertEquals("100.0", SplitSearch.pyFloat(100));
+    Assert.assertEquals("1e-05", SplitSearch.pyFloat(1e-5));
+    Assert.assertEquals("1.5e+16", SplitSearch.pyFloat(1.5e16));
+    Assert.assertEquals("-0.3010299956639812", SplitSearch.pyFloat(Math.log10(0.5)));
+  }
+}
@@ -0,0 +1,77 @@
+package com.dmtavt.fragpipe.tools.msbooster;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PredictionCacheTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static final String PIN_HEADER = "SpecId\tLabel\tScanNr\thyperscore\tcharge_2\tcharge_3\tPeptide\tProteins\n";
+
+  private Path runDir(String name, String pinRows, boolean predictRt) throws IOException {
+    final Path wd = tmp.newFolder(name).toPath();
+    Files.write(wd.resolve("fragger.params"), "add_C_cysteine = 57.021464\nvariable_mod_01 = 15.9949 M 3 # ox\nthreads = 8\n".getBytes(StandardCharsets.UTF_8));
+    Files.write(wd.resolve("a.pin"), (PIN_HEADER + pinRows).getBytes(StandardCharsets.UTF_8));
+    Files.write(wd.resolve("msbooster_params.txt"), ("useRT = " + predictRt + "\nuseSpectra = true\n"
+        + "fragger = " + wd.resolve("fragger.params") + "\npinPepXMLDirectory = a.pin\n"
+        + "useMultipleCorrelatedFeatures = false").getBytes(StandardCharsets.UTF_8));
+    return wd;
+  }
+
+  @Test
+  public void testKey() throws IOException {
+    final String rows = "s.1.1.2_1\t1\t1\t20\t1\t0\tPEPTIDEK\tp1\ns.2.2.3_1\t1\t2\t30\t0\t1\tM[147.0354]PEPK\tp2\tp3\n";
+    final String reordered = "s.7.7.3_1\t1\t7\t10\t0\t1\tM[147.0354]PEPK\tp2\ns.1.1.2_1\t1\t1\t25\t1\t0\tPEPTIDEK\tp1\n";
+    final String key = PredictionCache.key(runDir("a", rows, true).resolve("msbooster_params.txt"), "m1");
+    assertEquals(key, PredictionCache.key(runDir("b", reordered, true).resolve("msbooster_params.txt"), "m1"));
+    assertNotEquals(key, PredictionCache.key(runDir("c", rows, false).resolve("msbooster_params.txt"), "m1"));
+    assertNotEquals(key, PredictionCache.key(runDir("d", rows, true).resolve("msbooster_params.txt"), "m2"));
+    final String otherCharge = rows.replace("\t1\t0\tPEPTIDEK", "\t0\t1\tPEPTIDEK");
+    assertNotEquals(key, PredictionCache.key(runDir("e", otherCharge, true).resolve("msbooster_params.txt"), "m1"));
+  }
+
+  @Test
+  public void testStoreAndLookup() throws IOException {
+    final Path cache = tmp.getRoot().toPath().resolve("cache");
+    final String rows = "s.1.1.2_1\t1\t1\t20\t1\t0\tPEPTIDEK\tp1\n";
+
+    final Path first = runDir("first", rows, true);
+    final Path params1 = first.resolve("msbooster_params.txt");
+    assertEquals(0, PredictionCache.run(new String[]{"lookup", cache.toString(), params1.toString(), "m"}));
+    assertFalse(new String(Files.readAllBytes(params1), StandardCharsets.UTF_8).contains("spectraRTPredFile"));
+    // MSBooster writes the predictions
+    Files.write(first.resolve(PredictionCache.FN_PREDICTIONS), new byte[]{1, 2, 3});
+    assertEquals(0, PredictionCache.run(new String[]{"store", cache.toString(), params1.toString(), "m"}));
+
+    final Path second = runDir("second", rows, true);
+    final Path params2 = second.resolve("msbooster_params.txt");
+    PredictionCache.run(new String[]{"lookup", cache.toString(), params2.toString(), "m"});
+    assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(second.resolve(PredictionCache.FN_PREDICTIONS)));
+    final String params = new String(Files.readAllBytes(params2), StandardCharsets.UTF_8);
+    assertTrue(params.endsWith("useMultipleCorrelatedFeatures = false\nspectraRTPredFile = " + second.resolve(PredictionCache.FN_PREDICTIONS).toAbsolutePath() + "\n"));
+  }
+
+  @Test
+  public void testEvict() throws IOException {
+    final Path cache = tmp.newFolder("cache").toPath();
+    for (int i = 0; i < 4; i++) {
+      final Path p = Files.write(cache.resolve(i + PredictionCache.EXT_ENTRY), new byte[100]);
+      Files.setLastModifiedTime(p, FileTime.fromMillis(1000000L * (i + 1)));
+    }
+    PredictionCache.evict(cache, 250);
+    assertFalse(Files.exists(cache.resolve(0 + PredictionCache.EXT_ENTRY)));
+    assertFalse(Files.exists(cache.resolve(1 + PredictionCache.EXT_ENTRY)));
+    assertTrue(Files.exists(cache.resolve(2 + PredictionCache.EXT_ENTRY)));
+    assertTrue(Files.exists(cache.resolve(3 + PredictionCache.EXT_ENTRY)));
+  }
+}
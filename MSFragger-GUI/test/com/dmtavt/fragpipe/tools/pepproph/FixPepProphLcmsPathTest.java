@@ -0,0 +1,147 @@
+package com.dmtavt.fragpipe.tools.pepproph;
+
+import static org.junit.Assert.*;
+
+import com.dmtavt.fragpipe.api.InputLcmsFile;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+public class FixPepProphLcmsPathTest {
+
+  private static final Pattern RE_FIXED_TAGS = Pattern.compile(
+      "<(msms_run_summary|msms_pipeline_analysis)(?:[^>\"']|\"[^\"]*\"|'[^']*')*>");
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static List<Path> corpus() throws Exception {
+    URI uri = Objects.requireNonNull(FixPepProphLcmsPathTest.class.getClassLoader().getResource("pepxml-lcms-path")).toURI();
+    try (Stream<Path> s = Files.list(Paths.get(uri))) {
+      return s.sorted().collect(Collectors.toList());
+    }
+  }
+
+  @Test
+  public void testCorpus() throws Exception {
+    final List<Path> files = corpus();
+    assertFalse(files.isEmpty());
+    for (Path orig : files) {
+      final String fn = orig.getFileName().toString();
+      final Path dir = tmp.newFolder(fn + "-data").toPath();
+      final Path wd = tmp.newFolder(fn + "-wd").toPath();
+      final Path lcms = Files.createFile(dir.resolve("sample.mzML"));
+      final boolean calibrated = fn.startsWith("calibrated");
+      if (calibrated) {
+        Files.createFile(dir.resolve("sample_calibrated.mzML"));
+      }
+      final Path pepxml = Files.copy(orig, wd.resolve(fn));
+
+      FixPepProphLcmsPath.fixPathInplace(pepxml.getFileName(), new InputLcmsFile(lcms, "exp", null, "DDA"), wd);
+
+      final String before = new String(Files.readAllBytes(orig), StandardCharsets.UTF_8);
+      final String after = new String(Files.readAllBytes(pepxml), StandardCharsets.UTF_8);
+      assertEquals(fn, strip(before), strip(after));
+
+      final Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(pepxml.toFile());
+      final Element root = doc.getDocumentElement();
+      assertEquals(fn, pepxml.toAbsolutePath().toString(), root.getAttribute("summary_xml"));
+      final NodeList runs = doc.getElementsByTagName("msms_run_summary");
+      final Document origDoc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(orig.toFile());
+      final NodeList origRuns = origDoc.getElementsByTagName("msms_run_summary");
+      assertEquals(fn, origRuns.getLength(), runs.getLength());
+      for (int i = 0; i < runs.getLength(); i++) {
+        final Element run = (Element) runs.item(i);
+        final Element origRun = (Element) origRuns.item(i);
+        assertEquals(fn, dir.resolve(calibrated ? "sample_calibrated" : "sample").toString(), run.getAttribute("base_name"));
+        if (origRun.hasAttribute("raw_data")) {
+          final String dot = origRun.getAttribute("raw_data").startsWith(".") ? "." : "";
+          assertEquals(fn, dot + "mzML", run.getAttribute("raw_data"));
+        } else {
+          assertFalse(fn, run.hasAttribute("raw_data"));
+        }
+        assertEquals(fn, origRun.getAttribute("raw_data_type"), run.getAttribute("raw_data_type"));
+      }
+    }
+  }
+
+  @Test
+  public void testLargeFileGrowingTags() throws IOException {
+    final Path wd = tmp.newFolder("wd").toPath();
+    final Path lcms = tmp.newFile("sample.mzML").toPath();
+    final StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<msms_pipeline_analysis summary_xml=\"x\">\n");
+    for (int run = 0; run < 3; run++) {
+      sb.append("<msms_run_summary base_name=\"s\" raw_data=\".mzML\">\n");
+      // runs far enough apart to be in different read chunks
+      for (int i = 0; i < 60000; i++) {
+        sb.append("<spectrum_query spectrum=\"s.").append(i).append(".").append(i).append(".2\" index=\"").append(i).append("\"/>\n");
+      }
+      sb.append("</msms_run_summary>\n");
+    }
+    sb.append("</msms_pipeline_analysis>\n");
+    final String content = sb.toString();
+    final Path pepxml = wd.resolve("interact-s.pep.xml");
+    Files.write(pepxml, content.getBytes(StandardCharsets.UTF_8));
+
+    FixPepProphLcmsPath.fixPathInplace(pepxml, new InputLcmsFile(lcms, "exp", null, "DDA"), wd);
+
+    final String base = lcms.resolveSibling("sample").toString();
+    final String expected = content
+        .replace("summary_xml=\"x\"", "summary_xml=\"" + pepxml.toAbsolutePath() + "\"")
+        .replace("base_name=\"s\"", "base_name=\"" + base + "\"");
+    assertEquals(expected, new String(Files.readAllBytes(pepxml), StandardCharsets.UTF_8));
+    // the longer tags were written through a copy that replaced the file
+    try (Stream<Path> s = Files.list(wd)) {
+      assertEquals(Collections.singletonList(pepxml), s.collect(Collectors.toList()));
+    }
+  }
+
+  @Test
+  public void testRun() throws IOException {
+    final Path lcms = tmp.newFile("sample.mzML").toPath().toAbsolutePath();
+    final Path pepxml = tmp.newFile("interact-sample.pep.xml").toPath().toAbsolutePath();
+    // long temporary paths, so that the new ones are shorter
+    final String longPath = String.join("/", Collections.nCopies(100, "tmp"));
+    Files.write(pepxml, ("<msms_pipeline_analysis summary_xml=\"" + longPath + "\">\n"
+        + "<msms_run_summary base_name=\"" + longPath + "\" raw_data=\".mzML\">\n"
+        + "</msms_run_summary>\n</msms_pipeline_analysis>\n").getBytes(StandardCharsets.UTF_8));
+    final long size = Files.size(pepxml);
+
+    assertEquals(1, FixPepProphLcmsPath.run(new String[]{pepxml.toString()}));
+    assertEquals(0, FixPepProphLcmsPath.run(new String[]{pepxml.toString(), lcms.toString()}));
+
+    // new tags fit and are written in place, padded with spaces
+    assertEquals(size, Files.size(pepxml));
+    final String after = new String(Files.readAllBytes(pepxml), StandardCharsets.UTF_8);
+    assertTrue(after.contains("base_name=\"" + lcms.resolveSibling("sample") + "\""));
+  }
+
+  @Test
+  public void testSetAttribute() {
+    assertEquals("<a b=\"x&amp;y\" c='1'>", FixPepProphLcmsPath.setAttribute("<a b=\"z\" c='1'>", "b", "x&y"));
+    assertEquals("<a c='it&apos;s'>", FixPepProphLcmsPath.setAttribute("<a c='1'>", "c", "it's"));
+    assertEquals("<a c='1' b=\"2\"/>", FixPepProphLcmsPath.setAttribute("<a c='1'/>", "b", "2"));
+    assertNull(FixPepProphLcmsPath.attribute("<a base_name2=\"1\">", "base_name"));
+  }
+
+  private static String strip(String pepxml) {
+    return RE_FIXED_TAGS.matcher(pepxml).replaceAll("");
+  }
+}
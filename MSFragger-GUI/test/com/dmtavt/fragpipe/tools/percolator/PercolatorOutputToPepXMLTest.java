@@ -0,0 +1,70 @@
+package com.dmtavt.fragpipe.tools.percolator;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Converts a small MSFragger search with Percolator results and compares the pepXML files with
+ * the expected ones in test/resources/percolator-to-pepxml/expected, where the run directory is
+ * written as DIR and timestamps as TIME. The search has three spectra: one whose hits are
+ * reordered by Percolator score, one below the probability threshold and one with a decoy hit
+ * and a second hit missing from Percolator output.
+ */
+public class PercolatorOutputToPepXMLTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path copyFixture() throws Exception {
+    URI uri = Objects.requireNonNull(PercolatorOutputToPepXMLTest.class.getClassLoader().getResource("percolator-to-pepxml")).toURI();
+    final Path dir = tmp.newFolder("run").toPath().toRealPath();
+    try (Stream<Path> s = Files.list(Paths.get(uri))) {
+      for (Path p : (Iterable<Path>) s::iterator) {
+        if (Files.isRegularFile(p)) {
+          Files.copy(p, dir.resolve(p.getFileName()));
+        }
+      }
+    }
+    return dir;
+  }
+
+  private static void assertConverted(Path dir, String fn) throws Exception {
+    URI uri = Objects.requireNonNull(PercolatorOutputToPepXMLTest.class.getClassLoader().getResource("percolator-to-pepxml/expected/" + fn)).toURI();
+    final String expected = new String(Files.readAllBytes(Paths.get(uri)), StandardCharsets.UTF_8);
+    final String actual = new String(Files.readAllBytes(dir.resolve(fn)), StandardCharsets.UTF_8)
+        .replace(dir.toString() + dir.getFileSystem().getSeparator(), "DIR/")
+        .replaceAll("time=\"[^\"]*\"", "time=\"TIME\"");
+    assertEquals(fn, expected, actual);
+  }
+
+  @Test
+  public void testDda() throws Exception {
+    final Path dir = copyFixture();
+    PercolatorOutputToPepXML.percolatorToPepXML(dir.resolve("sample.pin"), dir.resolve("sample").toString(),
+        dir.resolve("sample_percolator_target_psms.tsv"), dir.resolve("sample_percolator_decoy_psms.tsv"),
+        dir.resolve("interact-sample"), "DDA", 0.5);
+    assertConverted(dir, "interact-sample.pep.xml");
+  }
+
+  @Test
+  public void testDiaRanksInParallel() throws Exception {
+    final Path dir = copyFixture();
+    Files.copy(dir.resolve("sample.pepXML"), dir.resolve("dia_rank1.pepXML"));
+    Files.copy(dir.resolve("sample.pepXML"), dir.resolve("dia_rank2.pepXML"));
+    PercolatorOutputToPepXML.percolatorToPepXML(dir.resolve("sample.pin"), dir.resolve("dia").toString(),
+        dir.resolve("sample_percolator_target_psms.tsv"), dir.resolve("sample_percolator_decoy_psms.tsv"),
+        dir.resolve("interact-dia"), "DIA", 0.5, 2);
+    assertConverted(dir, "interact-dia_rank1.pep.xml");
+    assertConverted(dir, "interact-dia_rank2.pep.xml");
+  }
+}
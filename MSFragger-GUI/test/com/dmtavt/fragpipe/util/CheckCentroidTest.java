@@ -0,0 +1,36 @@
+package com.dmtavt.fragpipe.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class CheckCentroidTest {
+
+  @Test
+  public void testSample() {
+    final List<Integer> nums = new ArrayList<>();
+    for (int i = 1; i <= 10000; i++) {
+      nums.add(i);
+    }
+    final List<Integer> sampled = CheckCentroid.sample(nums, CheckCentroid.SAMPLE_SIZE);
+    assertEquals(CheckCentroid.SAMPLE_SIZE, sampled.size());
+    assertEquals(1, (int) sampled.get(0));
+    assertEquals(10000, (int) sampled.get(sampled.size() - 1));
+    assertEquals(sampled.size(), sampled.stream().distinct().count());
+    assertEquals(Arrays.asList(1, 2, 3), CheckCentroid.sample(Arrays.asList(1, 2, 3), 300));
+  }
+
+  @Test
+  public void testIsCentroid() {
+    assertTrue(CheckCentroid.isCentroid(new float[]{500f, 500.5f, 501f, 620f}));
+    // profile peaks are sampled a few ppm apart
+    final float[] profile = new float[50];
+    for (int i = 0; i < profile.length; i++) {
+      profile[i] = 500f + i * 0.002f;
+    }
+    assertFalse(CheckCentroid.isCentroid(profile));
+  }
+}
@@ -0,0 +1,31 @@
+package com.dmtavt.fragpipe.util;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CheckFileListTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testCheck() throws IOException {
+    final Path dir = tmp.getRoot().toPath();
+    final Path a = Files.write(dir.resolve("a.pep.xml"), new byte[]{1});
+    Files.write(dir.resolve("b.pep.xml"), new byte[]{1, 2});
+    final Path filelist = dir.resolve("filelist.txt");
+    Files.write(filelist, (a.toAbsolutePath() + "\nb.pep.xml\n\n").getBytes(StandardCharsets.UTF_8));
+    assertEquals(0, CheckFileList.run(new String[]{filelist.toString()}));
+
+    Files.write(dir.resolve("empty.pep.xml"), new byte[0]);
+    Files.write(filelist, "a.pep.xml\nempty.pep.xml\nmissing.pep.xml\n".getBytes(StandardCharsets.UTF_8));
+    assertEquals(1, CheckFileList.run(new String[]{filelist.toString()}));
+  }
+}
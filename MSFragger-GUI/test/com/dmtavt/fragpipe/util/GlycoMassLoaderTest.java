@@ -0,0 +1,60 @@
+package com.dmtavt.fragpipe.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+public class GlycoMassLoaderTest {
+
+  private static final List<Double> MASSES = Arrays.asList(
+      203.0794, 162.0528, 146.0579, 291.0954, 307.0903, 0.0, 365.1322, 79.9663);
+
+  /** What generateMassCombos did before, by building all the combinations first. */
+  private static List<Double> reference(List<Double> masses, int maxCombos, boolean massFilter, double maxMass, double minMass) {
+    final Set<Long> existing = new HashSet<>();
+    final List<Double> result = new ArrayList<>();
+    for (int count = 1; count <= maxCombos; count++) {
+      for (int[] combo : GlycoMassLoader.combinationsWithRepetition(masses.size(), count)) {
+        double mass = 0;
+        for (int i : combo) {
+          mass += masses.get(i);
+        }
+        if ((!massFilter || (mass < maxMass && mass > minMass)) && existing.add(Math.round(mass * 10000))) {
+          result.add(mass);
+        }
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void testSameAsAllCombinations() {
+    for (int maxCombos = 1; maxCombos <= 4; maxCombos++) {
+      assertEquals(reference(MASSES, maxCombos, false, 0, 0),
+          GlycoMassLoader.generateMassCombos(MASSES, maxCombos, false, 0, 0));
+      assertEquals(reference(MASSES, maxCombos, true, 800, 300),
+          GlycoMassLoader.generateMassCombos(MASSES, maxCombos, true, 800, 300));
+    }
+    // exactly at the limits is excluded
+    assertEquals(reference(MASSES, 3, true, 406.1588, 203.0794),
+        GlycoMassLoader.generateMassCombos(MASSES, 3, true, 406.1588, 203.0794));
+  }
+
+  @Test
+  public void testLongHashSet() {
+    final GlycoMassLoader.LongHashSet set = new GlycoMassLoader.LongHashSet(2);
+    for (long i = -500; i < 500; i++) {
+      assertTrue(set.add(i * 7919));
+    }
+    assertTrue(set.add(Long.MIN_VALUE));
+    assertFalse(set.add(Long.MIN_VALUE));
+    assertFalse(set.add(0));
+    assertFalse(set.add(-7919));
+    assertEquals(1001, set.size());
+  }
+}
@@ -17,14 +17,73 @@
 
 package com.dmtavt.fragpipe.util;
 
+import static org.junit.Assert.*;
+
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import org.junit.Ignore;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class RewritePepxmlTest {
 
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static String pepxml(String runSummary, String calibrated) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n<msms_pipeline_analysis>\n");
+    sb.append(runSummary).append("\n<search_summary>\n");
+    sb.append("<parameter name=\"write_calibrated_mzml\" value=\"").append(calibrated).append("\"/>\n");
+    sb.append("</search_summary>\n");
+    // make the file span several read chunks
+    for (int i = 0; i < 200000; i++) {
+      sb.append("<spectrum_query spectrum=\"a.").append(i).append(".").append(i).append(".2\" index=\"").append(i).append("\"></spectrum_query>\n");
+    }
+    sb.append("</msms_run_summary>\n</msms_pipeline_analysis>\n");
+    return sb.toString();
+  }
+
+  @Test
+  public void testRewriteInPlace() throws IOException {
+    Path lcms = tmp.newFile("sample_01.mzML").toPath();
+    String orig = "<msms_run_summary base_name=\"/some/very/long/path/that/does/not/exist/anymore/on/this/machine/at/all/x/y/z/sample_01\" raw_data_type=\"mzML\" raw_data=\"mzML\">";
+    String content = pepxml(orig, "0");
+    Path p = tmp.getRoot().toPath().resolve("sample_01.pepXML");
+    Files.write(p, content.getBytes(StandardCharsets.UTF_8));
+
+    assertEquals(p, RewritePepxml.rewriteRawPath(p, true, lcms.toString()));
+    String rewritten = new String(Files.readAllBytes(p), StandardCharsets.UTF_8);
+    assertEquals(content.length(), rewritten.length());
+    String tag = String.format("<msms_run_summary base_name=\"%s\" raw_data_type=\"mzML\" raw_data=\"mzML\"", lcms.toAbsolutePath().toString().replace(".mzML", ""));
+    int at = rewritten.indexOf("<msms_run_summary");
+    assertTrue(rewritten.startsWith(tag, at));
+    assertTrue(rewritten.substring(at + tag.length(), at + orig.length() - 1).trim().isEmpty());
+    assertEquals(content.substring(at + orig.length()), rewritten.substring(at + orig.length()));
+  }
+
+  @Test
+  public void testRewriteCopy() throws IOException {
+    Path lcms = tmp.newFile("sample_02.raw").toPath();
+    String orig = "<msms_run_summary base_name=\"sample_02\" raw_data_type=\"mzML\" comment=\"This pepXML was from calibrated spectra.\" raw_data=\"mzML\">";
+    String content = pepxml(orig, "1");
+    Path p = tmp.getRoot().toPath().resolve("sample_02.pepXML");
+    Files.write(p, content.getBytes(StandardCharsets.UTF_8));
+
+    Path copy = RewritePepxml.rewriteRawPath(p, false, lcms.toString());
+    assertNotEquals(p, copy);
+    assertEquals(content, new String(Files.readAllBytes(p), StandardCharsets.UTF_8));
+    String tag = String.format("<msms_run_summary base_name=\"%s_calibrated\" raw_data_type=\"mzML\" comment=\"This pepXML was from calibrated spectra.\" raw_data=\"mzML\">", lcms.toAbsolutePath().toString().replace(".raw", ""));
+    assertEquals(content.replace(orig, tag), new String(Files.readAllBytes(copy), StandardCharsets.UTF_8));
+
+    RewritePepxml.rewriteRawPath(p, true, lcms.toString());
+    assertEquals(content.replace(orig, tag), new String(Files.readAllBytes(p), StandardCharsets.UTF_8));
+  }
+
   @Test @Ignore
   public void testPepxmlRewrite() throws IOException {
     Path dir = Paths.get("G:\\dev\\msfragger\\dev1\\exp_1");
@@ -0,0 +1,47 @@
+package com.github.chhh.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileDeleteTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testDeleteAll() throws IOException {
+    final Path root = tmp.newFolder("wd").toPath();
+    final Path tree = Files.createDirectories(root.resolve("tree"));
+    // more files than one task takes, nested a few levels deep
+    for (int d = 0; d < 3; d++) {
+      final Path dir = Files.createDirectories(tree.resolve("d" + d).resolve("sub"));
+      for (int i = 0; i < 100; i++) {
+        Files.write(dir.resolve("f" + i + ".tmp"), new byte[10]);
+      }
+    }
+    final Path single = Files.write(root.resolve("single.tmp"), new byte[1000]);
+    final Path kept = Files.write(root.resolve("kept.txt"), new byte[1]);
+
+    final List<Path> paths = new ArrayList<>();
+    paths.add(tree);
+    paths.add(single);
+    paths.add(root.resolve("missing.tmp"));
+    final FileDelete.Stats stats = FileDelete.deleteAll(paths, 4);
+
+    assertTrue(stats.failed.isEmpty());
+    assertEquals(301, stats.files.sum());
+    assertEquals(7, stats.dirs.sum());
+    assertEquals(3 * 100 * 10 + 1000, stats.bytes.sum());
+    assertFalse(Files.exists(tree));
+    assertFalse(Files.exists(single));
+    assertTrue(Files.exists(kept));
+  }
+}